@@ -0,0 +1,171 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+import com.dncuong.ws.rate_limit.algorithm.timer.HashedWheelTimer;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * =====================================================================
+ * CHỜ PERMIT BẤT ĐỒNG BỘ: acquireAsync TRÊN MỌI RATE LIMITER
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * allowRequest trả lời ngay: được hay không. Với lời gọi ra ngoài (gọi API
+ * bên thứ ba có quota) caller muốn CHỜ tới khi có permit thay vì bỏ request,
+ * nhưng không muốn mỗi lời gọi đang chờ giữ một thread ngủ.
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * acquireAsync trả về CompletableFuture&lt;Boolean&gt;:
+ *   - thử tryAcquire ngay: được → future đã hoàn thành với true
+ *   - bị từ chối: limiter cho biết CHÍNH XÁC lúc nào lô có thể được cấp
+ *     ({@link RateLimitDecision#getRetryAfterMillis()}); hẹn thử lại đúng
+ *     lúc đó trên {@link HashedWheelTimer} dùng chung
+ *   - thời điểm đó vượt quá maxWait (hoặc lô không bao giờ được cấp)
+ *     → hoàn thành với false NGAY, không chờ vô ích
+ *
+ * Mỗi waiter chỉ tốn future của chính nó (đồng thời là tác vụ của timer)
+ * và một node trong timer: hàng chục nghìn waiter không tốn thêm thread nào.
+ *
+ * LƯU Ý:
+ * -------
+ * - Khi thức dậy waiter có thể thua thread khác giành permit vừa có; nó
+ *   chỉ hẹn lại theo retry-after mới. Không có thứ tự FIFO giữa các waiter.
+ * - Future hoàn thành trên thread worker của timer: callback nặng nên dùng
+ *   thenXxxAsync với executor riêng.
+ * - Huỷ future (cancel) huỷ luôn lần hẹn trên timer.
+ *
+ * @author dncuong
+ */
+public class AsyncRateLimiter {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final RateLimiter limiter;
+
+    private final HashedWheelTimer timer;
+
+    /**
+     * Chờ permit trên timer dùng chung {@link HashedWheelTimer#shared()}.
+     *
+     * @param limiter limiter cấp permit
+     * @throws IllegalArgumentException nếu limiter null
+     */
+    public AsyncRateLimiter(RateLimiter limiter) {
+        this(limiter, HashedWheelTimer.shared());
+    }
+
+    /**
+     * @param limiter limiter cấp permit
+     * @param timer   timer hẹn giờ thử lại
+     * @throws IllegalArgumentException nếu tham số null
+     */
+    public AsyncRateLimiter(RateLimiter limiter, HashedWheelTimer timer) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("limiter không được null");
+        }
+        if (timer == null) {
+            throw new IllegalArgumentException("timer không được null");
+        }
+        this.limiter = limiter;
+        this.timer = timer;
+    }
+
+    /**
+     * Chờ 1 permit cho key, tối đa maxWait.
+     *
+     * @param key     định danh của nguồn request
+     * @param maxWait thời gian chờ tối đa, không âm
+     * @return future hoàn thành với true khi có permit, false nếu không thể có trong maxWait
+     * @throws IllegalArgumentException nếu maxWait null hoặc âm
+     */
+    public CompletableFuture<Boolean> acquireAsync(String key, Duration maxWait) {
+        return acquireAsync(RateLimitKey.of(key), 1, maxWait);
+    }
+
+    /**
+     * Chờ permits đơn vị cho key (cấp cả lô một lần), tối đa maxWait.
+     *
+     * @param key     định danh của nguồn request
+     * @param permits số đơn vị cần, lớn hơn 0
+     * @param maxWait thời gian chờ tối đa, không âm
+     * @return future hoàn thành với true khi cả lô được cấp, false nếu không thể có trong maxWait
+     * @throws IllegalArgumentException nếu permits <= 0, maxWait null hoặc âm
+     */
+    public CompletableFuture<Boolean> acquireAsync(RateLimitKey key, long permits, Duration maxWait) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException(
+                    "maxWait phải không âm, nhận được: " + maxWait);
+        }
+        // Duration rất lớn (ví dụ ChronoUnit.FOREVER) coi như ~100 năm
+        long maxWaitNanos = maxWait.compareTo(Duration.ofDays(36_500)) > 0
+                ? TimeUnit.DAYS.toNanos(36_500) : maxWait.toNanos();
+        Waiter waiter = new Waiter(key, permits, System.nanoTime() + maxWaitNanos);
+        waiter.run();
+        return waiter;
+    }
+
+    /**
+     * Một caller đang chờ: vừa là future trả cho caller, vừa là tác vụ của timer.
+     * Chỉ một thread chạy run() tại một thời điểm (caller lần đầu, sau đó
+     * worker của timer), nên decision và timeout không cần đồng bộ thêm.
+     */
+    private final class Waiter extends CompletableFuture<Boolean> implements Runnable {
+        private final RateLimitKey key;
+        private final long permits;
+        private final long deadlineNanos;
+        private final RateLimitDecision decision = new RateLimitDecision();
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        Waiter(RateLimitKey key, long permits, long deadlineNanos) {
+            this.key = key;
+            this.permits = permits;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                if (limiter.tryAcquire(key, permits, decision)) {
+                    if (!complete(Boolean.TRUE)) {
+                        // Caller đã huỷ trong lúc đang xin: trả lại phần vừa cấp
+                        limiter.refund(key, permits, limiter.currentTimeMillis());
+                    }
+                    return;
+                }
+                long retryAfter = decision.getRetryAfterMillis();
+                if (retryAfter == RateLimitDecision.NEVER
+                        || retryAfter > (deadlineNanos - System.nanoTime()) / NANOS_PER_MILLI) {
+                    complete(Boolean.FALSE);
+                    return;
+                }
+                timeout = timer.newTimeout(this, retryAfter, TimeUnit.MILLISECONDS);
+                if (isCancelled()) {
+                    timeout.cancel();
+                }
+            } catch (RuntimeException e) {
+                completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            HashedWheelTimer.Timeout scheduled = timeout;
+            if (cancelled && scheduled != null) {
+                scheduled.cancel();
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+/**
+ * =====================================================================
+ * QUYẾT ĐỊNH NHIỀU KEY TRONG MỘT LẦN GỌI
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Gateway thường kiểm tra nhiều giới hạn cho MỘT request: theo IP, theo user,
+ * theo API key, theo route. Gọi allowRequest 3-5 lần riêng lẻ thì:
+ *   - mỗi lần đọc đồng hồ một lần
+ *   - request bị limiter cuối từ chối VẪN đã trừ quota ở các limiter trước
+ *     → client bị chặn ở route vẫn tiêu hết quota theo IP của chính nó
+ *
+ * GIẢI PHÁP:
+ * -----------
+ *   - {@link #allowRequests(RateLimiter, RateLimitKey[])}:   nhiều key, một limiter
+ *   - {@link #allowRequests(RateLimiter[], RateLimitKey[])}: cặp (limiter, key),
+ *     mỗi cặp quyết định độc lập
+ *   - {@link #allowAll(RateLimiter[], RateLimitKey[])}:      cặp (limiter, key),
+ *     TẤT CẢ hoặc KHÔNG: cặp nào bị từ chối thì phần đã cấp ở các cặp trước
+ *     được trả lại ({@link RateLimiter#refund})
+ *
+ * Mỗi limiter chỉ đọc đồng hồ MỘT lần cho cả lượt; mọi key của cùng limiter
+ * được quyết định tại cùng thời điểm now.
+ *
+ * TẠI SAO KHÔNG CẦN SẮP XẾP THỨ TỰ LOCK?
+ * ----------------------------------------
+ * Deadlock chỉ xảy ra khi một thread GIỮ lock này trong lúc chờ lock khác.
+ * Ở đây mỗi tryAcquire/refund lấy rồi nhả lock (hoặc CAS) của đúng một state
+ * trước khi sang cặp tiếp theo → không bao giờ giữ hai lock cùng lúc, nên
+ * không có thứ tự lock nào gây deadlock, kể cả khi hai lượt đi qua cùng các
+ * key theo thứ tự ngược nhau.
+ *
+ * Cái giá: allowAll không nguyên tử với các thread khác. Trong khoảnh khắc
+ * giữa lúc cấp và lúc trả, quota đã cấp vẫn được tính → một request khác
+ * có thể bị từ chối oan, nhưng KHÔNG BAO GIỜ có request nào vượt giới hạn.
+ *
+ * Các cặp được xử lý theo đúng thứ tự caller truyền vào: key lặp lại trong
+ * cùng một lượt thấy quota mà các cặp trước đã dùng. Nên đặt limiter hay từ
+ * chối nhất lên đầu để allowAll ít phải trả lại.
+ *
+ * @author dncuong
+ */
+public final class RateLimitBatch {
+
+    private RateLimitBatch() {
+    }
+
+    /**
+     * Quyết định cho nhiều key trên cùng một limiter, đồng hồ đọc một lần.
+     *
+     * @param limiter limiter dùng cho mọi key
+     * @param keys    các key, có thể lặp lại
+     * @return decisions[i] = true nếu request của keys[i] được cho phép
+     * @throws IllegalArgumentException nếu limiter hoặc keys null
+     */
+    public static boolean[] allowRequests(RateLimiter limiter, RateLimitKey[] keys) {
+        if (limiter == null || keys == null) {
+            throw new IllegalArgumentException("limiter và keys không được null");
+        }
+        long now = limiter.currentTimeMillis();
+        boolean[] decisions = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            decisions[i] = limiter.tryAcquire(keys[i], 1, now);
+        }
+        return decisions;
+    }
+
+    /**
+     * Quyết định độc lập cho từng cặp (limiters[i], keys[i]): cặp bị từ chối
+     * không ảnh hưởng cặp khác.
+     *
+     * @param limiters limiter của từng cặp, cùng một limiter có thể xuất hiện nhiều lần
+     * @param keys     key của từng cặp
+     * @return decisions[i] = true nếu cặp i được cho phép
+     * @throws IllegalArgumentException nếu mảng null hoặc khác độ dài
+     */
+    public static boolean[] allowRequests(RateLimiter[] limiters, RateLimitKey[] keys) {
+        long[] now = readClocks(limiters, keys);
+        boolean[] decisions = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            decisions[i] = limiters[i].tryAcquire(keys[i], 1, now[i]);
+        }
+        return decisions;
+    }
+
+    /**
+     * Cho phép khi và chỉ khi MỌI cặp (limiters[i], keys[i]) đều được cho phép.
+     * Bị từ chối ở cặp i → trả lại quota đã cấp ở các cặp 0..i-1 (ngược thứ
+     * tự), các cặp sau i không bị đụng tới.
+     *
+     * @param limiters limiter của từng cặp, cùng một limiter có thể xuất hiện nhiều lần
+     * @param keys     key của từng cặp
+     * @return true nếu mọi cặp được cho phép, false nếu không cặp nào bị trừ quota
+     * @throws IllegalArgumentException nếu mảng null hoặc khác độ dài
+     */
+    public static boolean allowAll(RateLimiter[] limiters, RateLimitKey[] keys) {
+        long[] now = readClocks(limiters, keys);
+        int granted = 0;
+        try {
+            while (granted < keys.length) {
+                if (!limiters[granted].tryAcquire(keys[granted], 1, now[granted])) {
+                    break;
+                }
+                granted++;
+            }
+        } finally {
+            // Bị từ chối hoặc limiter ném exception giữa chừng → trả lại phần đã cấp
+            if (granted < keys.length) {
+                for (int i = granted - 1; i >= 0; i--) {
+                    limiters[i].refund(keys[i], 1, now[i]);
+                }
+            }
+        }
+        return granted == keys.length;
+    }
+
+    /**
+     * Đọc đồng hồ một lần cho mỗi limiter khác nhau (so sánh bằng ==).
+     * Tìm tuyến tính: lượt của gateway chỉ có vài cặp, rẻ hơn dựng một map.
+     */
+    private static long[] readClocks(RateLimiter[] limiters, RateLimitKey[] keys) {
+        if (limiters == null || keys == null) {
+            throw new IllegalArgumentException("limiters và keys không được null");
+        }
+        if (limiters.length != keys.length) {
+            throw new IllegalArgumentException(
+                    "limiters và keys phải cùng độ dài, nhận được: " + limiters.length + " và " + keys.length);
+        }
+        long[] now = new long[limiters.length];
+        for (int i = 0; i < limiters.length; i++) {
+            if (limiters[i] == null) {
+                throw new IllegalArgumentException("limiters[" + i + "] không được null");
+            }
+            int first = 0;
+            while (limiters[first] != limiters[i]) {
+                first++;
+            }
+            now[i] = first == i ? limiters[i].currentTimeMillis() : now[first];
+        }
+        return now;
+    }
+}
@@ -0,0 +1,103 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+/**
+ * =====================================================================
+ * KẾT QUẢ CHI TIẾT CỦA MỘT LẦN XIN QUOTA
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Chỉ một boolean thì không đủ để trả header chuẩn cho client:
+ *   X-RateLimit-Limit, X-RateLimit-Remaining, X-RateLimit-Reset, Retry-After
+ * Tính lại các giá trị này SAU khi limiter đã nhả lock thì sai: thread khác
+ * có thể đã trừ quota ở giữa (client thấy Remaining = 3 nhưng bị chặn ngay).
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Limiter điền các giá trị vào holder NGAY TRONG critical section đã quyết
+ * định cho phép/từ chối (cùng synchronized block hoặc cùng snapshot CAS).
+ *
+ * Holder do caller cấp và có thể dùng lại (ví dụ một holder cho mỗi thread
+ * phục vụ request) → không cấp phát object kết quả nào cho mỗi request.
+ * Holder KHÔNG thread-safe: mỗi lúc chỉ một thread được dùng.
+ *
+ * @author dncuong
+ */
+public final class RateLimitDecision {
+
+    /** Giá trị của retryAfterMillis khi lô không bao giờ được cấp (lớn hơn giới hạn). */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private boolean allowed;
+    private long limit;
+    private long remaining;
+    private long retryAfterMillis;
+    private long resetAfterMillis;
+
+    /**
+     * Ghi kết quả. Gọi bởi limiter trong critical section của nó.
+     *
+     * @param allowed          lô có được cấp không
+     * @param limit            giới hạn của limiter (maxRequests hoặc sức chứa xô)
+     * @param remaining        số permit còn xin được ngay sau quyết định này
+     * @param retryAfterMillis 0 nếu được cấp; ngược lại thời gian tối thiểu trước
+     *                         khi lô cùng kích thước có thể được cấp, hoặc {@link #NEVER}
+     * @param resetAfterMillis thời gian tới khi quota của key trở về đầy đủ
+     */
+    public void set(boolean allowed, long limit, long remaining, long retryAfterMillis, long resetAfterMillis) {
+        this.allowed = allowed;
+        this.limit = limit;
+        this.remaining = remaining;
+        this.retryAfterMillis = retryAfterMillis;
+        this.resetAfterMillis = resetAfterMillis;
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public long getResetAfterMillis() {
+        return resetAfterMillis;
+    }
+
+    /**
+     * Retry-After tính bằng giây, làm tròn LÊN (header Retry-After chỉ nhận
+     * giây nguyên; làm tròn xuống thì client thử lại sớm và bị chặn tiếp).
+     *
+     * @return số giây chờ, {@link #NEVER} nếu lô không bao giờ được cấp
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterMillis == NEVER ? NEVER : ceilSeconds(retryAfterMillis);
+    }
+
+    /**
+     * Thời gian tới khi quota trở về đầy đủ, tính bằng giây làm tròn lên.
+     *
+     * @return số giây tới khi reset
+     */
+    public long getResetAfterSeconds() {
+        return ceilSeconds(resetAfterMillis);
+    }
+
+    private static long ceilSeconds(long millis) {
+        return millis / 1000 + (millis % 1000 == 0 ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitDecision{allowed=" + allowed + ", limit=" + limit + ", remaining=" + remaining
+                + ", retryAfterMillis=" + retryAfterMillis + ", resetAfterMillis=" + resetAfterMillis + "}";
+    }
+}
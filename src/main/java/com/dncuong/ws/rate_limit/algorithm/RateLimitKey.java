@@ -0,0 +1,275 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * =====================================================================
+ * KEY CỦA RATE LIMITER, HASH ĐƯỢC TÍNH SẴN
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * allowRequest(String) buộc caller phải tạo một String (ví dụ format địa chỉ
+ * IPv4 "10.0.0.1" từ int có sẵn), rồi mỗi lần tra map lại băm và so sánh
+ * chuỗi đó. Với caller đã có sẵn định danh dạng số (IPv4 32 bit, hash của
+ * API key) đó là chi phí thừa trên MỌI request.
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * RateLimitKey là key bất biến, hash được tính MỘT LẦN khi tạo:
+ *   - {@link #of(long)}:              định danh số (IPv4, userId, hash có sẵn)
+ *   - {@link #of(byte[], int, int)}:  định danh nhị phân (IPv6, API key dạng byte)
+ *   - {@link #of(String)}:            tương thích với allowRequest(String)
+ *
+ * Caller sống lâu (connection, session) tạo handle một lần và dùng lại:
+ * không cấp phát String, không băm lại, và khi tra map thì so sánh
+ * {@code ==} thành công ngay (ConcurrentHashMap kiểm tra cùng object trước
+ * khi gọi equals).
+ *
+ * Key khác loại KHÔNG BAO GIỜ bằng nhau: of(5L), of("5") và of(new byte[]{5})
+ * là ba key khác nhau, được giới hạn độc lập.
+ *
+ * hash64 (64 bit) dùng cho {@code OffHeapStateTable}, hashCode (32 bit) cho
+ * các map trên heap.
+ *
+ * {@link #writeTo(DataOutput)} / {@link #readFrom(DataInput)}: dạng nhị phân
+ * gọn (loại + nội dung) để gửi key sang node khác mà giữ nguyên loại. Nội
+ * dung tối đa {@link #MAX_SERIALIZED_LENGTH} byte: bên đọc không cấp phát
+ * theo độ dài tùy ý đọc từ mạng (4 byte rác có thể đòi 2 GB).
+ *
+ * @author dncuong
+ */
+public final class RateLimitKey {
+
+    /** Độ dài tối đa (byte) của nội dung key dạng nhị phân/chuỗi khi ghi/đọc. */
+    public static final int MAX_SERIALIZED_LENGTH = 64 * 1024;
+
+    private static final byte KIND_LONG = 0;
+    private static final byte KIND_BYTES = 1;
+    private static final byte KIND_STRING = 2;
+
+    private final byte kind;
+
+    /** Giá trị của key dạng số (chỉ dùng khi kind = KIND_LONG). */
+    private final long value;
+
+    /** Bản sao của key dạng nhị phân (chỉ dùng khi kind = KIND_BYTES). */
+    private final byte[] bytes;
+
+    /** Key dạng chuỗi (chỉ dùng khi kind = KIND_STRING). */
+    private final String string;
+
+    private final int hashCode;
+
+    /**
+     * Hash 64 bit. Key dạng chuỗi tính lười ở lần đầu cần (chỉ bảng off-heap
+     * dùng tới); ghi đua giữa các thread là vô hại vì luôn ra cùng giá trị,
+     * giống cách String cache hashCode. 0 = chưa tính.
+     */
+    private long hash64;
+
+    private RateLimitKey(byte kind, long value, byte[] bytes, String string, int hashCode, long hash64) {
+        this.kind = kind;
+        this.value = value;
+        this.bytes = bytes;
+        this.string = string;
+        this.hashCode = hashCode;
+        this.hash64 = hash64;
+    }
+
+    /**
+     * Key dạng số, ví dụ địa chỉ IPv4 dạng int hoặc một hash 64 bit có sẵn.
+     *
+     * @param key định danh dạng số
+     * @return key tương ứng
+     */
+    public static RateLimitKey of(long key) {
+        long hash = mix(key ^ KIND_LONG);
+        return new RateLimitKey(KIND_LONG, key, null, null, (int) (hash ^ (hash >>> 32)), hash);
+    }
+
+    /**
+     * Key dạng nhị phân. Đoạn byte được SAO CHÉP: caller được phép dùng lại buffer.
+     *
+     * @param key    buffer chứa key
+     * @param offset vị trí bắt đầu của key trong buffer
+     * @param length độ dài key
+     * @return key tương ứng
+     * @throws IllegalArgumentException nếu key null hoặc đoạn [offset, offset + length) nằm ngoài buffer
+     */
+    public static RateLimitKey of(byte[] key, int offset, int length) {
+        if (key == null) {
+            throw new IllegalArgumentException("key không được null");
+        }
+        if (offset < 0 || length < 0 || offset > key.length - length) {
+            throw new IllegalArgumentException(
+                    "Đoạn [" + offset + ", " + offset + " + " + length + ") nằm ngoài buffer độ dài " + key.length);
+        }
+        byte[] copy = Arrays.copyOfRange(key, offset, offset + length);
+        long h = 0xcbf29ce484222325L;
+        for (byte b : copy) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        long hash = mix(h ^ KIND_BYTES);
+        return new RateLimitKey(KIND_BYTES, 0, copy, null, (int) (hash ^ (hash >>> 32)), hash);
+    }
+
+    /**
+     * Key dạng chuỗi (IP dạng text, userId, ...).
+     *
+     * @param key định danh dạng chuỗi
+     * @return key tương ứng
+     * @throws IllegalArgumentException nếu key null
+     */
+    public static RateLimitKey of(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key không được null");
+        }
+        // String đã cache hashCode → không băm lại chuỗi
+        return new RateLimitKey(KIND_STRING, 0, null, key, key.hashCode(), 0);
+    }
+
+    /**
+     * Hash 64 bit của key, dùng cho bảng trạng thái off-heap (String.hashCode
+     * chỉ có 32 bit → với hàng chục triệu key sẽ trùng liên tục).
+     *
+     * @return hash 64 bit
+     */
+    public long hash64() {
+        long hash = hash64;
+        // Key số / nhị phân có hash sẵn (có thể đúng bằng 0, ví dụ of(0))
+        if (hash == 0 && kind == KIND_STRING) {
+            // FNV-1a trên từng ký tự, rồi trộn bit
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < string.length(); i++) {
+                h = (h ^ string.charAt(i)) * 0x100000001b3L;
+            }
+            hash = mix(h ^ KIND_STRING);
+            hash64 = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RateLimitKey other) || kind != other.kind || hashCode != other.hashCode) {
+            return false;
+        }
+        return switch (kind) {
+            case KIND_LONG -> value == other.value;
+            case KIND_BYTES -> Arrays.equals(bytes, other.bytes);
+            default -> string.equals(other.string);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case KIND_LONG -> Long.toString(value);
+            case KIND_BYTES -> "0x" + HexFormat.of().formatHex(bytes);
+            default -> string;
+        };
+    }
+
+    /**
+     * Dạng chuỗi GIỮ LOẠI của key: "n:" + số, "b:" + hex, "s:" + chuỗi. Khác
+     * {@link #toString()}, hai key có dạng này bằng nhau khi và chỉ khi chúng
+     * bằng nhau (of(5L) → "n:5", of("5") → "s:5"), nên dùng được làm tên key
+     * trên store bên ngoài.
+     *
+     * @return dạng chuỗi có tiền tố loại
+     */
+    public String toTypedString() {
+        return switch (kind) {
+            case KIND_LONG -> "n:" + value;
+            case KIND_BYTES -> "b:" + HexFormat.of().formatHex(bytes);
+            default -> "s:".concat(string);
+        };
+    }
+
+    /**
+     * @return true nếu key ghi được bằng {@link #writeTo(DataOutput)} (nội dung
+     * không quá {@link #MAX_SERIALIZED_LENGTH} byte)
+     */
+    public boolean isSerializable() {
+        return switch (kind) {
+            case KIND_LONG -> true;
+            case KIND_BYTES -> bytes.length <= MAX_SERIALIZED_LENGTH;
+            // Mỗi ký tự UTF-16 tối đa 3 byte UTF-8: chuỗi ngắn không cần mã hóa để biết
+            default -> string.length() <= MAX_SERIALIZED_LENGTH / 3
+                    || string.getBytes(StandardCharsets.UTF_8).length <= MAX_SERIALIZED_LENGTH;
+        };
+    }
+
+    /**
+     * Ghi key ở dạng nhị phân: [loại byte] rồi [long] hoặc [độ dài int][byte]
+     * (chuỗi ghi dạng UTF-8).
+     *
+     * @param out nơi ghi
+     * @throws IOException nếu ghi lỗi hoặc nội dung dài hơn {@link #MAX_SERIALIZED_LENGTH} byte
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        byte[] content = switch (kind) {
+            case KIND_LONG -> null;
+            case KIND_BYTES -> bytes;
+            default -> string.getBytes(StandardCharsets.UTF_8);
+        };
+        if (content != null && content.length > MAX_SERIALIZED_LENGTH) {
+            throw new IOException("Key dài " + content.length + " byte, tối đa: " + MAX_SERIALIZED_LENGTH);
+        }
+        out.writeByte(kind);
+        if (content == null) {
+            out.writeLong(value);
+        } else {
+            out.writeInt(content.length);
+            out.write(content);
+        }
+    }
+
+    /**
+     * Đọc key đã ghi bằng {@link #writeTo(DataOutput)}.
+     *
+     * @param in nơi đọc
+     * @return key bằng (equals) key đã ghi
+     * @throws IOException nếu đọc lỗi hoặc dữ liệu không phải một key hợp lệ
+     */
+    public static RateLimitKey readFrom(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        if (kind == KIND_LONG) {
+            return of(in.readLong());
+        }
+        if (kind != KIND_BYTES && kind != KIND_STRING) {
+            throw new IOException("Loại key không hợp lệ: " + kind);
+        }
+        int length = in.readInt();
+        if (length < 0 || length > MAX_SERIALIZED_LENGTH) {
+            throw new IOException("Độ dài key không hợp lệ: " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return kind == KIND_BYTES ? of(data, 0, length) : of(new String(data, StandardCharsets.UTF_8));
+    }
+
+    /** Trộn bit kiểu MurmurHash3 (fmix64): mọi bit đầu vào ảnh hưởng mọi bit đầu ra. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -12,14 +12,163 @@ package com.dncuong.ws.rate_limit.algorithm;
 public interface RateLimiter {
 
     /**
-     * Kiểm tra xem một request từ "key" có được phép đi qua hay không.
+     * Xin permits đơn vị quota cho key trong MỘT thao tác nguyên tử: hoặc cả
+     * permits đơn vị được cấp, hoặc không đơn vị nào bị trừ (không bao giờ
+     * trừ một phần). Dùng cho endpoint xử lý hàng loạt, thay vì gọi
+     * allowRequest N lần (N lần lock, có thể dừng giữa chừng khi đã trừ quota).
+     *
+     * Kết quả giống hệt permits lần allowRequest liên tiếp đều thành công.
+     * permits lớn hơn giới hạn của limiter thì luôn bị từ chối.
+     *
+     * @param key     định danh của nguồn gửi request
+     * @param permits số đơn vị quota cần, lớn hơn 0
+     * @return {@code true} nếu cả permits đơn vị được cấp, {@code false} nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    default boolean tryAcquire(RateLimitKey key, long permits) {
+        return tryAcquire(key, permits, currentTimeMillis());
+    }
+
+    /**
+     * Như {@link #tryAcquire(RateLimitKey, long)} tại thời điểm now cho trước.
+     * Dùng khi xử lý nhiều key một lượt ({@link RateLimitBatch}): đọc đồng hồ
+     * MỘT lần cho cả lượt thay vì mỗi key một lần.
+     *
+     * now phải lấy từ {@link #currentTimeMillis()} của chính limiter này
+     * (test có thể thay đồng hồ của limiter).
+     *
+     * @param key     định danh của nguồn gửi request
+     * @param permits số đơn vị quota cần, lớn hơn 0
+     * @param now     thời điểm hiện tại (milliseconds) theo đồng hồ của limiter
+     * @return {@code true} nếu cả permits đơn vị được cấp, {@code false} nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    default boolean tryAcquire(RateLimitKey key, long permits, long now) {
+        return tryAcquire(key, permits, now, null);
+    }
+
+    /**
+     * Như {@link #tryAcquire(RateLimitKey, long)} và điền kết quả chi tiết
+     * (limit, remaining, retry-after, reset) vào decision, tính trong CÙNG
+     * critical section với quyết định cho phép/từ chối.
+     *
+     * @param key      định danh của nguồn gửi request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param decision holder do caller cấp, được ghi đè
+     * @return {@code true} nếu cả permits đơn vị được cấp, {@code false} nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    default boolean tryAcquire(RateLimitKey key, long permits, RateLimitDecision decision) {
+        return tryAcquire(key, permits, currentTimeMillis(), decision);
+    }
+
+    /**
+     * Hàm lõi mà mọi limiter cài đặt: xin permits tại thời điểm now, điền
+     * kết quả chi tiết vào decision nếu decision khác null (null = caller chỉ
+     * cần boolean, limiter bỏ qua phần tính toán thêm).
+     *
+     * @param key      định danh của nguồn gửi request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại (milliseconds) theo đồng hồ của limiter
+     * @param decision holder nhận kết quả chi tiết, có thể null
+     * @return {@code true} nếu cả permits đơn vị được cấp, {@code false} nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision);
+
+    /**
+     * Trả lại permits đơn vị vừa được cấp bởi tryAcquire(key, permits, now)
+     * với CÙNG now. Dùng để huỷ phần đã cấp khi một lô nhiều limiter bị từ
+     * chối ở limiter sau ({@link RateLimitBatch#allowAll}).
+     *
+     * Không bao giờ trả nhiều hơn phần đang được tính: nếu quota của lô đã tự
+     * hết hạn (sang cửa sổ mới, key đã bị dọn) thì không trả gì. Nhờ vậy
+     * refund không bao giờ làm limiter cho phép vượt giới hạn.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    void refund(RateLimitKey key, long permits, long now);
+
+    /**
+     * Đồng hồ của limiter (milliseconds), dùng cho tryAcquire(key, permits, now).
+     *
+     * @return thời điểm hiện tại theo limiter
+     */
+    long currentTimeMillis();
+
+    /**
+     * Như {@link #tryAcquire(RateLimitKey, long)} với key dạng chuỗi.
+     * Mỗi lần gọi tạo một {@link RateLimitKey} mới (xem {@link #allowRequest(String)}).
+     *
+     * @param key     định danh của nguồn gửi request
+     * @param permits số đơn vị quota cần, lớn hơn 0
+     * @return {@code true} nếu cả permits đơn vị được cấp, {@code false} nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    default boolean tryAcquire(String key, long permits) {
+        return tryAcquire(RateLimitKey.of(key), permits);
+    }
+
+    /**
+     * Kiểm tra xem một request từ "key" có được phép đi qua hay không
+     * (tương đương tryAcquire(key, 1)).
      *
      * "key" thường là: địa chỉ IP của client, user ID, API key, hoặc
      * bất kỳ định danh nào dùng để phân biệt các nguồn request.
      *
-     * @param key định danh của nguồn gửi request (ví dụ: IP address, user ID)
+     * Đây là dạng không cấp phát: caller tạo {@link RateLimitKey} một lần và
+     * dùng lại cho mọi lần gọi với cùng nguồn (connection, session, mọi điểm
+     * rate limit của cùng một HTTP request): hash đã được tính sẵn, tra map
+     * không cần so sánh chuỗi.
+     *
+     * @param key định danh của nguồn gửi request
      * @return {@code true} nếu request được cho phép (chưa vượt giới hạn),
      *         {@code false} nếu request bị từ chối (đã vượt giới hạn)
      */
-    boolean allowRequest(String key);
+    default boolean allowRequest(RateLimitKey key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * Như {@link #allowRequest(RateLimitKey)} với key dạng chuỗi.
+     *
+     * Tiện cho code không nằm trên đường nóng, nhưng MỖI lần gọi tạo một
+     * {@link RateLimitKey} mới và băm lại chuỗi. Caller gọi nhiều lần cho cùng
+     * key nên giữ RateLimitKey và gọi {@link #allowRequest(RateLimitKey)}.
+     *
+     * @param key định danh của nguồn gửi request (ví dụ: IP address, user ID)
+     * @return {@code true} nếu request được cho phép, {@code false} nếu bị từ chối
+     */
+    default boolean allowRequest(String key) {
+        return allowRequest(RateLimitKey.of(key));
+    }
+
+    /**
+     * Như {@link #allowRequest(RateLimitKey)} với key dạng số, không cần tạo String
+     * (ví dụ: địa chỉ IPv4 dạng int, user ID, hash có sẵn của API key).
+     * Vẫn tạo một {@link RateLimitKey} mỗi lần gọi, như {@link #allowRequest(String)}.
+     *
+     * @param key định danh dạng số
+     * @return {@code true} nếu request được cho phép, {@code false} nếu bị từ chối
+     */
+    default boolean allowRequest(long key) {
+        return allowRequest(RateLimitKey.of(key));
+    }
+
+    /**
+     * Như {@link #allowRequest(RateLimitKey)} với key dạng nhị phân nằm trong một
+     * buffer (ví dụ: địa chỉ IPv6, API key đọc từ header dạng byte).
+     * Mỗi lần gọi tạo một {@link RateLimitKey} và chép key ra khỏi buffer.
+     *
+     * @param key    buffer chứa key
+     * @param offset vị trí bắt đầu của key trong buffer
+     * @param length độ dài key
+     * @return {@code true} nếu request được cho phép, {@code false} nếu bị từ chối
+     */
+    default boolean allowRequest(byte[] key, int offset, int length) {
+        return allowRequest(RateLimitKey.of(key, offset, length));
+    }
 }
@@ -0,0 +1,463 @@
+package com.dncuong.ws.rate_limit.algorithm.bucketedslidingwindow;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.Arrays;
+
+/**
+ * =====================================================================
+ * THUẬT TOÁN: BUCKETED SLIDING WINDOW (Cửa sổ trượt chia ô)
+ * =====================================================================
+ *
+ * NGUYÊN LÝ HOẠT ĐỘNG:
+ * ---------------------
+ * Nằm GIỮA Sliding Window Log (chính xác, O(maxRequests) bộ nhớ/key) và
+ * Sliding Window Counter (xấp xỉ, O(1) bộ nhớ/key):
+ *
+ * 1. Chia cửa sổ windowSize thành N ô con (bucket) bằng nhau,
+ *    mỗi ô dài slotSize = windowSize / N.
+ *    Ví dụ: windowSize = 60s, N = 6 → mỗi ô 10s.
+ *
+ * 2. Mỗi ô chỉ lưu MỘT counter: số request được chấp nhận trong ô đó.
+ *    Các counter nằm trong một vòng đệm long[] (N + 1 phần tử).
+ *
+ * 3. Khi request đến tại thời điểm now:
+ *    a. Xác định ô hiện tại: slotId = now / slotSize
+ *    b. Các ô đã trôi ra khỏi cửa sổ → reset counter về 0 (tái sử dụng ô)
+ *    c. Ước lượng số request trong cửa sổ trượt [now - windowSize, now]:
+ *         estimated = (tổng N ô gần nhất, kể cả ô hiện tại)
+ *                   + counter ô CŨ NHẤT × phần của ô đó còn nằm trong cửa sổ
+ *    d. estimated < maxRequests → CHO PHÉP, tăng counter ô hiện tại
+ *
+ * VÍ DỤ MINH HỌA:
+ * ----------------
+ *   windowSize = 60s, N = 6 (ô 10s), maxRequests = 100
+ *   Thời điểm now = 125s → ô hiện tại [120s-130s), đã đi được 5s (50%)
+ *
+ *   Ô:        [60-70) [70-80) [80-90) [90-100) [100-110) [110-120) [120-130)
+ *   Counter:    12      20      15      18        10         5         7
+ *               ↑ ô cũ nhất: cửa sổ trượt [65s, 125s] chỉ còn chồng lấp 50%
+ *
+ *   estimated = (20 + 15 + 18 + 10 + 5 + 7) + 12 × 0.5 = 75 + 6 = 81 → CHO PHÉP
+ *
+ * Sliding Window Counter chính là trường hợp N = 1. Tăng N thì phần phải
+ * "ước lượng" (ô cũ nhất) càng nhỏ → sai số càng giảm, đổi lại tốn thêm
+ * 8 bytes bộ nhớ cho mỗi ô.
+ *
+ * SO SÁNH:
+ * ---------
+ * | Thuật toán              | Bộ nhớ/key          | Chính xác              |
+ * |-------------------------|---------------------|------------------------|
+ * | Sliding Window Log      | 8 × maxRequests     | Tuyệt đối              |
+ * | Bucketed Sliding Window | 8 × (N + 1) + 16    | Sai số ~ 1/N ô cửa sổ  |
+ * | Sliding Window Counter  | 24                  | Xấp xỉ (N = 1)         |
+ *
+ * Phần vượt giới hạn tối đa = số request trong ô cũ nhất (giả định phân bố
+ * đều trong ô có thể sai). Traffic đều → mỗi ô ~ maxRequests / N → sai số ~ 1/N.
+ * Burst ngắn hơn một ô thì vẫn có thể dồn trọn vào một ô, tăng N không giúp được.
+ *
+ * Ví dụ: giới hạn 100,000 request/giờ, N = 60 (ô 1 phút):
+ *   Log:      800 KB / key
+ *   Bucketed: ~500 bytes / key, KHÔNG phụ thuộc maxRequests
+ *
+ * THREAD-SAFETY:
+ * ---------------
+ * - ConcurrentHashMap cho key → state mapping (trong KeyStateStore:
+ *   key mà mọi ô còn hiệu lực đều bằng 0 được dọn dần)
+ * - synchronized block trên từng BucketRing
+ *
+ * @author dncuong
+ */
+public class BucketedSlidingWindowRateLimiter implements RateLimiter {
+
+    /**
+     * Số request tối đa được phép trong một cửa sổ trượt.
+     */
+    private final long maxRequests;
+
+    /**
+     * Kích thước cửa sổ trượt, tính bằng milliseconds.
+     */
+    private final long windowSizeInMillis;
+
+    /**
+     * Số ô con (N) chia nhỏ cửa sổ. Quyết định đánh đổi độ chính xác / bộ nhớ.
+     */
+    private final int bucketCount;
+
+    /**
+     * Độ dài một ô con = windowSizeInMillis / bucketCount.
+     */
+    private final long slotSizeInMillis;
+
+    /**
+     * Bảng lưu vòng đệm counter cho mỗi key.
+     */
+    private final KeyStateStore<RateLimitKey, BucketRing> bucketRingMap;
+
+    /**
+     * Nguồn thời gian ({@link SystemClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Bucketed Sliding Window Rate Limiter.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ trượt
+     * @param windowSizeInMillis kích thước cửa sổ trượt tính bằng milliseconds
+     * @param bucketCount        số ô con N (windowSizeInMillis phải chia hết cho N)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public BucketedSlidingWindowRateLimiter(long maxRequests, long windowSizeInMillis, int bucketCount) {
+        this(maxRequests, windowSizeInMillis, bucketCount, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Bucketed Sliding Window Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ trượt
+     * @param windowSizeInMillis kích thước cửa sổ trượt tính bằng milliseconds
+     * @param bucketCount        số ô con N (windowSizeInMillis phải chia hết cho N)
+     * @param maxTrackedKeys     số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                           nhất bị loại và bắt đầu lại từ state mới
+     *                           ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public BucketedSlidingWindowRateLimiter(long maxRequests, long windowSizeInMillis, int bucketCount,
+                                            int maxTrackedKeys) {
+        this(maxRequests, windowSizeInMillis, bucketCount, maxTrackedKeys, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Bucketed Sliding Window Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param bucketCount        số ô con N (windowSizeInMillis phải chia hết cho N)
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public BucketedSlidingWindowRateLimiter(long maxRequests, long windowSizeInMillis, int bucketCount,
+                                            RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, bucketCount, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Bucketed Sliding Window Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param bucketCount        số ô con N (windowSizeInMillis phải chia hết cho N)
+     * @param maxTrackedKeys     số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public BucketedSlidingWindowRateLimiter(long maxRequests, long windowSizeInMillis, int bucketCount,
+                                            int maxTrackedKeys, RateLimitClock clock) {
+        // === Validate tham số đầu vào ===
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException(
+                    "maxRequests phải lớn hơn 0, nhận được: " + maxRequests);
+        }
+        if (windowSizeInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
+        }
+        if (bucketCount <= 0 || bucketCount == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "bucketCount phải nằm trong [1, " + (Integer.MAX_VALUE - 1) + "], nhận được: " + bucketCount);
+        }
+        if (windowSizeInMillis % bucketCount != 0) {
+            throw new IllegalArgumentException(
+                    "windowSizeInMillis (" + windowSizeInMillis + ") phải chia hết cho bucketCount ("
+                            + bucketCount + ")");
+        }
+        long slotSize = windowSizeInMillis / bucketCount;
+        if (maxRequests > Long.MAX_VALUE / slotSize) {
+            // Phép so sánh estimated × slotSize < maxRequests × slotSize không được tràn số
+            throw new IllegalArgumentException(
+                    "maxRequests × slotSize vượt quá phạm vi long, nhận được maxRequests: " + maxRequests);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.maxRequests = maxRequests;
+        this.windowSizeInMillis = windowSizeInMillis;
+        this.bucketCount = bucketCount;
+        this.slotSizeInMillis = slotSize;
+        this.bucketRingMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
+     *
+     * LUỒNG XỬ LÝ CHI TIẾT:
+     * 1. Tính ô hiện tại (slotId) và vị trí trong ô (elapsedInSlot)
+     * 2. Trong synchronized block:
+     *    a. Trượt vòng đệm tới slotId: reset các ô vừa rơi khỏi cửa sổ
+     *    b. Tính estimated (nhân với slotSize để giữ số nguyên):
+     *         estimated × slotSize = tổng N ô gần nhất × slotSize
+     *                              + ô cũ nhất × (slotSize - elapsedInSlot)
+     *    c. estimated < maxRequests → tăng counter ô hiện tại, cho phép
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        // === BƯỚC 1: Xác định ô hiện tại ===
+        long slotId = now / slotSizeInMillis;
+        long elapsedInSlot = now - slotId * slotSizeInMillis;
+
+        while (true) {
+            // === BƯỚC 2: Lấy hoặc tạo vòng đệm cho key ===
+            // N + 1 ô: N ô nằm trọn/hiện tại trong cửa sổ + 1 ô cũ nhất chồng lấp một phần
+            BucketRing ring = bucketRingMap.getOrCreate(key, now,
+                    k -> new BucketRing(bucketCount + 1, slotId));
+
+            synchronized (ring) {
+                if (ring.retired) {
+                    // Thread dọn dẹp vừa loại vòng đệm này → lấy (hoặc tạo) vòng đệm mới
+                    bucketRingMap.removeRetired(key, ring);
+                    continue;
+                }
+
+                // --- Bước 2a: Trượt vòng đệm ---
+                ring.advanceTo(slotId);
+
+                // Thread khác với now muộn hơn đã trượt vòng đệm qua ô của request này
+                // → coi request như đến ở ĐẦU ô mới nhất (ô cũ nhất tính đủ trọng số)
+                long effectiveSlotId = Math.max(slotId, ring.currentSlotId);
+                long effectiveElapsed = effectiveSlotId == slotId ? elapsedInSlot : 0;
+
+                // --- Bước 2b: Ước lượng số request trong cửa sổ trượt ---
+                // recentTotal = tổng N ô gần nhất (ô hiện tại và N - 1 ô trước nó)
+                long oldest = ring.counters[ring.indexOf(effectiveSlotId - bucketCount)];
+                long recentTotal = ring.total - oldest;
+                long weightedEstimate = recentTotal * slotSizeInMillis
+                        + oldest * (slotSizeInMillis - effectiveElapsed);
+
+                // --- Bước 2c: Quyết định ---
+                // Như permits lần gọi liên tiếp: lần cuối thấy ước lượng + (permits - 1) < maxRequests
+                // (chuyển vế để không tràn số khi maxRequests × slotSize gần Long.MAX_VALUE)
+                boolean allowed = permits <= maxRequests
+                        && (permits - 1) * slotSizeInMillis < maxRequests * slotSizeInMillis - weightedEstimate;
+                if (allowed) {
+                    ring.counters[ring.indexOf(effectiveSlotId)] += permits;
+                    ring.total += permits;
+                }
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, ring, effectiveSlotId, effectiveElapsed, now);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Lô được cộng vào ô của now, hoặc ô mới hơn nếu thread khác đã trượt
+     * vòng đệm qua ô đó. Trả từ ô của now: ô này hết hạn sớm nhất nên nếu
+     * trả nhầm ô thì limiter chỉ chặt hơn, không bao giờ lỏng hơn.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        BucketRing ring = bucketRingMap.get(key);
+        if (ring == null) {
+            return;
+        }
+        long slotId = now / slotSizeInMillis;
+        synchronized (ring) {
+            // Ô của now đã rời vòng đệm → lô đã tự hết hạn
+            if (ring.retired || slotId > ring.currentSlotId || slotId < ring.currentSlotId - bucketCount) {
+                return;
+            }
+            int index = ring.indexOf(slotId);
+            long refunded = Math.min(permits, ring.counters[index]);
+            ring.counters[index] -= refunded;
+            ring.total -= refunded;
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết khi vẫn đang giữ lock của vòng đệm
+     * (vòng đệm đã chứa quyết định).
+     *
+     * Ô s còn được tính tới hết ô s + N (lúc đó nó là ô cũ nhất, trọng số
+     * giảm dần về 0) → quota trở về đầy đủ khi ô khác 0 mới nhất hết hạn.
+     *
+     * Retry-after: đi tiếp từng ô tương lai (không có request mới), tìm thời
+     * điểm sớm nhất ước lượng + (permits - 1) < maxRequests. Sau N + 1 ô mọi ô
+     * hiện có đã hết hạn nên vòng lặp luôn tìm được nghiệm.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits, BucketRing ring,
+                              long effectiveSlotId, long effectiveElapsed, long now) {
+        long oldest = ring.counters[ring.indexOf(effectiveSlotId - bucketCount)];
+        long recentTotal = ring.total - oldest;
+        long headroom = maxRequests * slotSizeInMillis
+                - (recentTotal * slotSizeInMillis + oldest * (slotSizeInMillis - effectiveElapsed));
+        long remaining = headroom <= 0 ? 0 : (headroom + slotSizeInMillis - 1) / slotSizeInMillis;
+
+        long resetAfter = 0;
+        for (long s = ring.currentSlotId; s >= ring.currentSlotId - bucketCount; s--) {
+            if (ring.counters[ring.indexOf(s)] > 0) {
+                resetAfter = Math.max(0, (s + bucketCount + 1) * slotSizeInMillis - now);
+                break;
+            }
+        }
+
+        long retryAfter;
+        if (allowed) {
+            retryAfter = 0;
+        } else if (permits > maxRequests) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            retryAfter = resetAfter;
+            // Cần: recent × slotSize + oldest × (slotSize - e) < target
+            long target = (maxRequests - (permits - 1)) * slotSizeInMillis;
+            long recent = recentTotal;
+            long old = oldest;
+            for (long k = 0; k <= bucketCount + 1; k++) {
+                long f = effectiveSlotId + k;
+                if (k > 0) {
+                    // Sang ô f: ô f - N trở thành ô cũ nhất, không còn nằm trọn trong cửa sổ
+                    old = f - bucketCount <= ring.currentSlotId ? ring.counters[ring.indexOf(f - bucketCount)] : 0;
+                    recent -= old;
+                }
+                long start = k == 0 ? effectiveElapsed : 0;
+                long room = target - recent * slotSizeInMillis;
+                if (room <= 0) {
+                    continue;
+                }
+                // e nhỏ nhất trong ô thỏa old × (slotSize - e) <= room - 1
+                long e = old == 0 ? start : Math.max(start, slotSizeInMillis - (room - 1) / old);
+                if (e < slotSizeInMillis) {
+                    retryAfter = Math.max(1, f * slotSizeInMillis + e - now);
+                    break;
+                }
+            }
+        }
+        decision.set(allowed, maxRequests, remaining, retryAfter, resetAfter);
+    }
+
+    /**
+     * Đánh dấu vòng đệm retired nếu tại thời điểm now mọi ô còn nằm trong
+     * cửa sổ đều bằng 0 - giống hệt vòng đệm mới.
+     * Chỉ đọc, không trượt vòng đệm theo now của thread dọn dẹp.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(BucketRing ring, long now) {
+        synchronized (ring) {
+            long slotId = now / slotSizeInMillis;
+            // Các ô còn ảnh hưởng tới quyết định tại slotId: [slotId - N, slotId]
+            long stillCounted = 0;
+            for (long s = Math.max(slotId, ring.currentSlotId) - bucketCount; s <= ring.currentSlotId; s++) {
+                stillCounted += ring.counters[ring.indexOf(s)];
+            }
+            if (stillCounted == 0) {
+                ring.retired = true;
+            }
+            return ring.retired;
+        }
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(BucketRing ring) {
+        synchronized (ring) {
+            ring.retired = true;
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return bucketRingMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Vòng đệm counter của một key.
+     *
+     * Ô có slotId s nằm ở vị trí s % length. Khi thời gian trôi sang ô mới,
+     * ô đó đang giữ counter của (s - length) - đã quá cũ - nên được reset
+     * về 0 và dùng lại. Không có cấp phát nào sau khi tạo.
+     */
+    static class BucketRing {
+        /** Counter của từng ô, độ dài = bucketCount + 1 */
+        final long[] counters;
+
+        /** slotId mới nhất mà vòng đệm đã trượt tới */
+        long currentSlotId;
+
+        /** Tổng tất cả counter trong vòng đệm (tránh phải cộng lại N ô mỗi request) */
+        long total;
+
+        /** true khi vòng đệm đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
+
+        BucketRing(int length, long slotId) {
+            this.counters = new long[length];
+            this.currentSlotId = slotId;
+            this.total = 0;
+        }
+
+        int indexOf(long slotId) {
+            return (int) Math.floorMod(slotId, (long) counters.length);
+        }
+
+        /**
+         * Trượt vòng đệm tới slotId, reset các ô đã rơi khỏi cửa sổ.
+         * Tối đa length bước dù thời gian nhảy xa bao nhiêu.
+         */
+        void advanceTo(long slotId) {
+            if (slotId <= currentSlotId) {
+                return;
+            }
+            if (slotId - currentSlotId >= counters.length) {
+                // Nhảy xa hơn cả vòng đệm → mọi ô đều đã hết hạn
+                Arrays.fill(counters, 0);
+                total = 0;
+            } else {
+                for (long s = currentSlotId + 1; s <= slotId; s++) {
+                    int index = indexOf(s);
+                    total -= counters[index];
+                    counters[index] = 0;
+                }
+            }
+            currentSlotId = slotId;
+        }
+    }
+}
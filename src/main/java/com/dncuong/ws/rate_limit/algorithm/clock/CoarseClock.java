@@ -0,0 +1,105 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * =====================================================================
+ * ĐỒNG HỒ THÔ (COARSE CLOCK): ĐỌC THỜI GIAN BẰNG MỘT VOLATILE READ
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Ở hàng triệu request/giây, mỗi request gọi System.currentTimeMillis()
+ * (hoặc nanoTime) một lần. Trên nhiều nền tảng (máy ảo không có vDSO
+ * clocksource nhanh, container bị giới hạn) lời gọi này tốn vài chục tới
+ * vài trăm ns, ngang với toàn bộ phần còn lại của allowRequest.
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Một thread nền đọc đồng hồ nguồn mỗi granularityMillis và ghi kết quả vào
+ * một biến volatile. Limiter đọc biến đó: không syscall, không tranh chấp
+ * (chỉ thread nền ghi, mọi thread khác chỉ đọc cache line ở trạng thái shared).
+ *
+ * Cái giá: thời gian trễ tối đa ~granularityMillis (cộng độ trễ lập lịch
+ * của thread nền). Với cửa sổ cỡ giây/phút, sai số vài ms là không đáng kể;
+ * không nên dùng khi cửa sổ chỉ vài ms.
+ *
+ * Giá trị công bố không bao giờ giảm: nguồn nhảy lùi thì đồng hồ thô đứng
+ * yên cho tới khi nguồn đuổi kịp.
+ *
+ * VÒNG ĐỜI:
+ * ----------
+ * Thread nền là daemon (không giữ JVM sống); gọi {@link #close()} khi không
+ * dùng nữa để dừng nó. Đọc sau khi close trả về giá trị cuối cùng đã công bố.
+ *
+ * @author dncuong
+ */
+public final class CoarseClock implements RateLimitClock, AutoCloseable {
+
+    private final RateLimitClock source;
+    private final long granularityNanos;
+    private final Thread ticker;
+
+    /** Thời gian đã công bố; chỉ thread nền ghi. */
+    private volatile long now;
+
+    private volatile boolean closed;
+
+    /**
+     * Đồng hồ thô trên đồng hồ hệ thống.
+     *
+     * @param granularityMillis chu kỳ cập nhật, tính bằng milliseconds
+     * @throws IllegalArgumentException nếu granularityMillis không dương
+     */
+    public CoarseClock(long granularityMillis) {
+        this(SystemClock.INSTANCE, granularityMillis);
+    }
+
+    /**
+     * Đồng hồ thô trên một đồng hồ nguồn bất kỳ (ví dụ {@link MonotonicClock}).
+     *
+     * @param source            đồng hồ nguồn mà thread nền đọc
+     * @param granularityMillis chu kỳ cập nhật, tính bằng milliseconds
+     * @throws IllegalArgumentException nếu source null hoặc granularityMillis không dương
+     */
+    public CoarseClock(RateLimitClock source, long granularityMillis) {
+        if (source == null) {
+            throw new IllegalArgumentException("source không được null");
+        }
+        if (granularityMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "granularityMillis phải lớn hơn 0, nhận được: " + granularityMillis);
+        }
+        this.source = source;
+        this.granularityNanos = TimeUnit.MILLISECONDS.toNanos(granularityMillis);
+        this.now = source.currentTimeMillis();
+        this.ticker = new Thread(this::tick, "rate-limit-coarse-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Dừng thread nền. Gọi lặp lại là vô hại.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ticker.interrupt();
+    }
+
+    private void tick() {
+        while (!closed) {
+            LockSupport.parkNanos(granularityNanos);
+            long time = source.currentTimeMillis();
+            if (time > now) {
+                now = time;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+/**
+ * Đồng hồ do caller điều khiển: thời gian chỉ thay đổi khi gọi
+ * {@link #set(long)}, {@link #advance(long)} hoặc {@link #advanceNanos(long)}.
+ *
+ * Dùng trong test (giả lập 1 phút trôi qua mà không cần Thread.sleep(),
+ * test chạy nhanh và ổn định) và khi mô phỏng lại một chuỗi request đã ghi.
+ * An toàn khi đọc/ghi từ nhiều thread.
+ *
+ * Thời gian lưu thành (milliseconds, phần nanosecond lẻ trong millisecond
+ * đó) thay vì một số nanosecond duy nhất: test được phép tua tới những mốc
+ * millisecond rất xa mà nhân lên nanosecond sẽ tràn long.
+ *
+ * @author dncuong
+ */
+public final class ManualClock implements RateLimitClock {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private long millis;
+
+    /** Phần lẻ trong millisecond hiện tại, luôn nằm trong [0, 1_000_000). */
+    private long nanosOfMilli;
+
+    /**
+     * @param startTimeMillis thời điểm ban đầu
+     */
+    public ManualClock(long startTimeMillis) {
+        this.millis = startTimeMillis;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return millis;
+    }
+
+    @Override
+    public synchronized long currentTimeNanos() {
+        return millis * NANOS_PER_MILLI + nanosOfMilli;
+    }
+
+    /**
+     * Đặt thời gian hiện tại (được phép lùi, để test limiter khi đồng hồ nhảy).
+     *
+     * @param timeMillis thời điểm mới, phần nanosecond lẻ về 0
+     */
+    public synchronized void set(long timeMillis) {
+        millis = timeMillis;
+        nanosOfMilli = 0;
+    }
+
+    /**
+     * Cho thời gian trôi qua.
+     *
+     * @param millis số milliseconds trôi qua
+     * @return thời điểm mới, tính bằng milliseconds
+     */
+    public synchronized long advance(long millis) {
+        this.millis += millis;
+        return this.millis;
+    }
+
+    /**
+     * Cho thời gian trôi qua với độ phân giải nanosecond.
+     *
+     * @param nanos số nanoseconds trôi qua
+     * @return thời điểm mới, tính bằng nanoseconds
+     */
+    public synchronized long advanceNanos(long nanos) {
+        long total = nanosOfMilli + nanos;
+        millis += Math.floorDiv(total, NANOS_PER_MILLI);
+        nanosOfMilli = Math.floorMod(total, NANOS_PER_MILLI);
+        return currentTimeNanos();
+    }
+}
@@ -0,0 +1,55 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+/**
+ * =====================================================================
+ * ĐỒNG HỒ ĐƠN ĐIỆU (MONOTONIC)
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Token Bucket nạp token theo elapsed = now - lastRefillTimestamp. Với
+ * System.currentTimeMillis(), NTP chỉnh giờ:
+ *   - lùi 2 giây → elapsed âm, xô ngừng nạp cho tới khi giờ đuổi kịp
+ *   - tới 1 giờ  → mọi xô đầy ngay lập tức, burst vượt giới hạn
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Ghi lại (wall-clock, nanoTime) MỘT lần khi tạo đồng hồ, sau đó:
+ *
+ *   now = originMillis + (System.nanoTime() - originNanos) / 1_000_000
+ *
+ * System.nanoTime() không bị NTP hay việc đổi giờ tác động, nên now không
+ * bao giờ nhảy; giá trị vẫn cùng gốc với Unix epoch (lệch khỏi giờ hệ thống
+ * đúng bằng lượng giờ hệ thống đã bị chỉnh kể từ lúc tạo đồng hồ).
+ *
+ * @author dncuong
+ */
+public final class MonotonicClock implements RateLimitClock {
+
+    /** Đồng hồ dùng chung, gốc tại lúc nạp class. */
+    public static final MonotonicClock INSTANCE = new MonotonicClock();
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final long originMillis;
+    private final long originNanos;
+
+    /**
+     * Tạo đồng hồ với gốc là thời điểm hiện tại.
+     */
+    public MonotonicClock() {
+        this.originMillis = System.currentTimeMillis();
+        this.originNanos = System.nanoTime();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        // Trừ trước rồi mới chia: hiệu hai lần nanoTime đúng cả khi giá trị tràn số
+        return originMillis + (System.nanoTime() - originNanos) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long currentTimeNanos() {
+        return originMillis * NANOS_PER_MILLI + (System.nanoTime() - originNanos);
+    }
+}
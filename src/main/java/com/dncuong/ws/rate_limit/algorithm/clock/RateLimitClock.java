@@ -0,0 +1,58 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+/**
+ * =====================================================================
+ * NGUỒN THỜI GIAN CHO LIMITER
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Limiter đọc đồng hồ ở MỌI request. Gọi thẳng System.currentTimeMillis()
+ * thì:
+ *   - test phải kế thừa limiter và override một method protected chỉ để
+ *     điều khiển thời gian
+ *   - không thay được nguồn thời gian rẻ hơn (đồng hồ "thô" đọc từ một biến
+ *     volatile) khi lượng request rất lớn
+ *   - đồng hồ hệ thống có thể NHẢY (NTP chỉnh giờ, người vận hành đổi giờ):
+ *     nhảy lùi làm Token Bucket tính elapsed âm, nhảy tới làm xô đầy ngay
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Limiter nhận một RateLimitClock qua constructor:
+ *   - {@link SystemClock}:    System.currentTimeMillis(), mặc định cho các limiter cửa sổ
+ *   - {@link MonotonicClock}: dựa trên System.nanoTime(), không bao giờ nhảy lùi,
+ *                             mặc định cho Token Bucket
+ *   - {@link CoarseClock}:    thread nền cập nhật thời gian vào biến volatile theo
+ *                             độ mịn cấu hình được, mỗi lần đọc chỉ là một volatile read
+ *   - {@link ManualClock}:    thời gian do caller đặt, dùng trong test
+ *
+ * Giá trị trả về tính bằng milliseconds và cùng gốc với Unix epoch (cả
+ * MonotonicClock), vì limiter cửa sổ cố định căn cửa sổ theo epoch và các
+ * header Reset/Retry-After được tính từ đó.
+ *
+ * @author dncuong
+ */
+@FunctionalInterface
+public interface RateLimitClock {
+
+    /**
+     * Thời điểm hiện tại. Phải an toàn khi gọi đồng thời từ nhiều thread.
+     *
+     * @return thời gian hiện tại tính bằng milliseconds kể từ Unix epoch
+     */
+    long currentTimeMillis();
+
+    /**
+     * Thời điểm hiện tại với độ phân giải nanosecond, cùng gốc với
+     * {@link #currentTimeMillis()}. Dùng bởi limiter cần chia nhỏ hơn 1 ms
+     * (Token Bucket với tốc độ nạp hàng trăm nghìn token/giây).
+     *
+     * Mặc định chỉ nhân giá trị millisecond lên (độ phân giải vẫn là 1 ms);
+     * {@link MonotonicClock} và {@link ManualClock} trả về nanosecond thật.
+     *
+     * @return thời gian hiện tại tính bằng nanoseconds kể từ Unix epoch
+     */
+    default long currentTimeNanos() {
+        return currentTimeMillis() * 1_000_000L;
+    }
+}
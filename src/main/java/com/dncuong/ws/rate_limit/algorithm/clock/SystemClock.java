@@ -0,0 +1,23 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+/**
+ * Đồng hồ hệ thống: {@link System#currentTimeMillis()}.
+ *
+ * Chính xác tới millisecond nhưng có thể nhảy khi giờ hệ thống bị chỉnh.
+ * Các limiter cửa sổ chịu được điều đó (request chỉ rơi vào cửa sổ khác),
+ * nên đây là đồng hồ mặc định của chúng.
+ *
+ * @author dncuong
+ */
+public final class SystemClock implements RateLimitClock {
+
+    public static final SystemClock INSTANCE = new SystemClock();
+
+    private SystemClock() {
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
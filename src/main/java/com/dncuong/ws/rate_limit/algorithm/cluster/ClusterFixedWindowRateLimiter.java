@@ -0,0 +1,69 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+/**
+ * Fixed Window Counter toàn cụm trên counter gossip (quy tắc giống
+ * {@link com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter}).
+ *
+ * Mỗi (key, cửa sổ) là một {@link PNCounter}: cấp khi giá trị đã hợp nhất
+ * cộng permits không vượt maxRequests.
+ *
+ * @author dncuong
+ */
+public class ClusterFixedWindowRateLimiter extends ClusterRateLimiter {
+
+    /**
+     * @param node               node gossip dùng chung của process
+     * @param keyPrefix          prefix của counter, riêng cho limiter này và giống nhau trên mọi node
+     * @param maxRequests        số request tối đa trong một cửa sổ, toàn cụm
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @param maxOverAdmission   số permit cả cụm được phép cấp vượt maxRequests trong một cửa sổ;
+     *                           nhỏ hơn số peer (kể cả 0) thì mỗi node chỉ cấp một permit cho mỗi
+     *                           key giữa hai round gossip, tức cấp thiếu để không cấp vượt
+     *                           (xem {@link ClusterRateLimiter})
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public ClusterFixedWindowRateLimiter(GossipNode node, String keyPrefix, long maxRequests,
+                                         long windowSizeInMillis, long maxOverAdmission) {
+        this(node, keyPrefix, maxRequests, windowSizeInMillis, maxOverAdmission, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param node               node gossip dùng chung của process
+     * @param keyPrefix          prefix của counter, riêng cho limiter này và giống nhau trên mọi node
+     * @param maxRequests        số request tối đa trong một cửa sổ, toàn cụm
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @param maxOverAdmission   số permit cả cụm được phép cấp vượt maxRequests trong một cửa sổ;
+     *                           nhỏ hơn số peer (kể cả 0) thì mỗi node chỉ cấp một permit cho mỗi
+     *                           key giữa hai round gossip, tức cấp thiếu để không cấp vượt
+     *                           (xem {@link ClusterRateLimiter})
+     * @param clock              đồng hồ tường, đồng bộ giữa các node
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public ClusterFixedWindowRateLimiter(GossipNode node, String keyPrefix, long maxRequests,
+                                         long windowSizeInMillis, long maxOverAdmission, RateLimitClock clock) {
+        super(node, keyPrefix, maxRequests, windowSizeInMillis, maxOverAdmission, clock);
+    }
+
+    @Override
+    PNCounter.Admission decide(RateLimitKey key, long windowId, long permits, long now, RateLimitDecision decision) {
+        PNCounter counter = counter(key, windowId);
+        PNCounter.Admission admission = permits > maxRequests ? PNCounter.Admission.OVER_LIMIT
+                : counter.tryIncrement(permits, maxRequests, unsyncedBudget());
+        if (decision != null) {
+            long resetAfter = windowSizeInMillis - now % windowSizeInMillis;
+            long retryAfter = switch (admission) {
+                case ADMITTED -> 0;
+                case OVER_BUDGET -> SYNC_RETRY_MILLIS;
+                case OVER_LIMIT -> permits > maxRequests ? RateLimitDecision.NEVER : resetAfter;
+            };
+            decision.set(admission == PNCounter.Admission.ADMITTED, maxRequests,
+                    Math.max(0, maxRequests - counter.value()), retryAfter, resetAfter);
+        }
+        return admission;
+    }
+}
@@ -0,0 +1,186 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+
+/**
+ * =====================================================================
+ * RATE LIMITER TOÀN CỤM TRÊN COUNTER GOSSIP
+ * =====================================================================
+ *
+ * Mỗi node quyết định HOÀN TOÀN ở local trên counter CRDT đã hợp nhất của
+ * {@link GossipNode}: không round trip, không store chung. Mỗi (key, cửa
+ * sổ) là một {@link PNCounter}; refund là cộng vào N của counter thuộc cửa
+ * sổ đã cấp.
+ *
+ * SAI SỐ CẤP VƯỢT (maxOverAdmission):
+ * ------------------------------------
+ * Permit node A cấp mà peer chưa nhận được gossip thì peer không thấy, nên
+ * cả cụm có thể cấp vượt giới hạn. Để chặn sai số này, mỗi node chỉ được
+ * cấp tối đa maxOverAdmission / (số peer) permit CHƯA GỬI cho mỗi counter
+ * (tối thiểu 1). Khi node đã cấp hết phần đó, nó từ chối request và hẹn
+ * một round gossip sớm; gửi xong thì lại được cấp tiếp. Request xin nhiều
+ * permit hơn phần đó vẫn được cấp khi node đã gửi hết (phần chưa gửi bằng
+ * 0), nên sai số của mỗi node là max(phần đó, permits của một request).
+ *
+ * Node bất kỳ chỉ không thấy phần chưa gửi của các node kia cộng phần đang
+ * trên đường (gói đã gửi chưa tới), nên tổng permit cả cụm cấp trong một
+ * cửa sổ không vượt maxRequests + maxOverAdmission (với request không xin
+ * nhiều hơn maxOverAdmission / số peer permit), cộng phần đang trên
+ * đường (nhỏ khi độ trễ mạng ngắn hơn nhiều so với chu kỳ gossip). Gói bị
+ * mất thì sai số có thể lớn hơn cho tới round đồng bộ toàn bộ kế tiếp.
+ *
+ *   - maxOverAdmission nhỏ: chính xác, nhưng node nóng phải chờ gossip thường hơn
+ *   - maxOverAdmission lớn: node nóng cấp thoải mái, cụm có thể vượt nhiều hơn
+ *
+ * CẤP THIẾU CÓ CHỦ Ý:
+ * --------------------
+ * Phần chưa gửi tối thiểu là 1, nên với maxOverAdmission nhỏ hơn số peer
+ * (kể cả 0) mỗi node chỉ cấp MỘT permit cho mỗi key giữa hai round gossip,
+ * dù quota toàn cụm còn nhiều. Request kế tiếp bị từ chối (retry-after
+ * {@link #SYNC_RETRY_MILLIS}, remaining vẫn > 0) và hẹn round sớm: tốc độ
+ * cấp của một key trên một node bị chặn bởi tốc độ gossip (một datagram tới
+ * mọi peer mỗi permit), không bởi maxRequests. Đây là đánh đổi có chủ ý:
+ * limiter cấp THIẾU thay vì cấp vượt quá sai số đã hứa. Cấp ở local rồi
+ * chặn sai số lúc hợp nhất thì không làm được, vì permit đã cấp không thu
+ * lại được. Cần throughput cao trên một key thì đặt maxOverAdmission ít
+ * nhất bằng (số peer) × (số permit một node cần cấp giữa hai round).
+ *
+ * Node không có peer thì không có sai số: limiter chạy như limiter trong
+ * bộ nhớ tương ứng.
+ *
+ * KẾT QUẢ CHI TIẾT:
+ * ------------------
+ * Tính trên giá trị đã hợp nhất, cùng quy tắc với limiter trong bộ nhớ
+ * tương ứng. Bị từ chối vì hết phần chưa gửi: retry-after =
+ * {@link #SYNC_RETRY_MILLIS} (round gossip sớm đã được hẹn).
+ *
+ * @author dncuong
+ */
+public abstract class ClusterRateLimiter implements RateLimiter {
+
+    /** retry-after khi bị từ chối vì hết phần chưa gửi: round gossip sớm xong gần như ngay. */
+    static final long SYNC_RETRY_MILLIS = 1;
+
+    private final GossipNode node;
+
+    private final String keyPrefix;
+
+    final long maxRequests;
+
+    final long windowSizeInMillis;
+
+    private final long maxOverAdmission;
+
+    private final RateLimitClock clock;
+
+    ClusterRateLimiter(GossipNode node, String keyPrefix, long maxRequests, long windowSizeInMillis,
+                       long maxOverAdmission, RateLimitClock clock) {
+        if (node == null) {
+            throw new IllegalArgumentException("node không được null");
+        }
+        if (keyPrefix == null) {
+            throw new IllegalArgumentException("keyPrefix không được null");
+        }
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException(
+                    "maxRequests phải lớn hơn 0, nhận được: " + maxRequests);
+        }
+        if (windowSizeInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
+        }
+        if (maxOverAdmission < 0) {
+            throw new IllegalArgumentException(
+                    "maxOverAdmission không được âm, nhận được: " + maxOverAdmission);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+        this.node = node;
+        this.keyPrefix = keyPrefix;
+        this.maxRequests = maxRequests;
+        this.windowSizeInMillis = windowSizeInMillis;
+        this.maxOverAdmission = maxOverAdmission;
+        this.clock = clock;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key, quyết định ở local trên counter đã
+     * hợp nhất: cấp cả lô hoặc không cộng gì.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        long windowId = now / windowSizeInMillis;
+        PNCounter.Admission admission = decide(key, windowId, permits, now, decision);
+        if (admission == PNCounter.Admission.OVER_BUDGET) {
+            node.requestSync();
+        }
+        return admission == PNCounter.Admission.ADMITTED;
+    }
+
+    /**
+     * Quyết định và điền kết quả chi tiết cho counter của key ở cửa sổ windowId.
+     */
+    abstract PNCounter.Admission decide(RateLimitKey key, long windowId, long permits, long now,
+                                        RateLimitDecision decision);
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now: cộng vào N của counter thuộc
+     * cửa sổ của now (peer thấy sau round gossip kế tiếp).
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        PNCounter counter = node.existingCounter(keyPrefix, key, now / windowSizeInMillis);
+        if (counter != null) {
+            counter.decrement(permits);
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Counter của key ở cửa sổ windowId, giữ tới hết cửa sổ kế tiếp (lúc
+     * đó nó không còn là cửa sổ hiện tại hay cửa sổ trước nữa).
+     */
+    PNCounter counter(RateLimitKey key, long windowId) {
+        return node.counter(keyPrefix, key, windowId, (windowId + 2) * windowSizeInMillis);
+    }
+
+    PNCounter existingCounter(RateLimitKey key, long windowId) {
+        return node.existingCounter(keyPrefix, key, windowId);
+    }
+
+    /**
+     * Số permit node được cấp mà peer chưa biết, cho mỗi counter.
+     */
+    long unsyncedBudget() {
+        int peers = node.peerCount();
+        return peers == 0 ? Long.MAX_VALUE : Math.max(1, maxOverAdmission / peers);
+    }
+}
@@ -0,0 +1,120 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+/**
+ * Sliding Window Counter toàn cụm trên counter gossip (quy tắc giống
+ * {@link com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter}).
+ *
+ * Counter của cửa sổ hiện tại và cửa sổ trước là hai {@link PNCounter}
+ * riêng (windowId khác nhau), nên "trượt cửa sổ" không phải sửa state nào:
+ * counter của cửa sổ trước vẫn nhận gossip muộn của peer như thường.
+ *
+ * @author dncuong
+ */
+public class ClusterSlidingWindowCounterRateLimiter extends ClusterRateLimiter {
+
+    /**
+     * @param node               node gossip dùng chung của process
+     * @param keyPrefix          prefix của counter, riêng cho limiter này và giống nhau trên mọi node
+     * @param maxRequests        số request tối đa trong một cửa sổ trượt, toàn cụm
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @param maxOverAdmission   số permit cả cụm được phép cấp vượt maxRequests trong một cửa sổ;
+     *                           nhỏ hơn số peer (kể cả 0) thì mỗi node chỉ cấp một permit cho mỗi
+     *                           key giữa hai round gossip, tức cấp thiếu để không cấp vượt
+     *                           (xem {@link ClusterRateLimiter})
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public ClusterSlidingWindowCounterRateLimiter(GossipNode node, String keyPrefix, long maxRequests,
+                                                  long windowSizeInMillis, long maxOverAdmission) {
+        this(node, keyPrefix, maxRequests, windowSizeInMillis, maxOverAdmission, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param node               node gossip dùng chung của process
+     * @param keyPrefix          prefix của counter, riêng cho limiter này và giống nhau trên mọi node
+     * @param maxRequests        số request tối đa trong một cửa sổ trượt, toàn cụm
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @param maxOverAdmission   số permit cả cụm được phép cấp vượt maxRequests trong một cửa sổ;
+     *                           nhỏ hơn số peer (kể cả 0) thì mỗi node chỉ cấp một permit cho mỗi
+     *                           key giữa hai round gossip, tức cấp thiếu để không cấp vượt
+     *                           (xem {@link ClusterRateLimiter})
+     * @param clock              đồng hồ tường, đồng bộ giữa các node
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public ClusterSlidingWindowCounterRateLimiter(GossipNode node, String keyPrefix, long maxRequests,
+                                                  long windowSizeInMillis, long maxOverAdmission,
+                                                  RateLimitClock clock) {
+        super(node, keyPrefix, maxRequests, windowSizeInMillis, maxOverAdmission, clock);
+    }
+
+    /**
+     * estimated = previous × overlap + current; lô được cấp khi
+     * estimated + (permits - 1) < maxRequests, tức current + permits không
+     * vượt ceil(maxRequests - previous × overlap).
+     */
+    @Override
+    PNCounter.Admission decide(RateLimitKey key, long windowId, long permits, long now, RateLimitDecision decision) {
+        PNCounter current = counter(key, windowId);
+        PNCounter previous = existingCounter(key, windowId - 1);
+        long previousCounter = previous == null ? 0 : previous.value();
+        long elapsed = now % windowSizeInMillis;
+        double overlapRatio = 1.0 - (double) elapsed / windowSizeInMillis;
+
+        PNCounter.Admission admission;
+        if (permits > maxRequests) {
+            admission = PNCounter.Admission.OVER_LIMIT;
+        } else {
+            long maxValue = (long) Math.ceil(maxRequests - previousCounter * overlapRatio);
+            admission = current.tryIncrement(permits, maxValue, unsyncedBudget());
+        }
+        if (decision != null) {
+            fillDecision(decision, admission, permits, previousCounter, current.value(), elapsed);
+        }
+        return admission;
+    }
+
+    /**
+     * Cùng công thức với SlidingWindowCounterRateLimiter: retry-after là lúc
+     * sớm nhất ước lượng giảm đủ cho lô, ở cửa sổ hiện tại hoặc cửa sổ kế tiếp.
+     */
+    private void fillDecision(RateLimitDecision decision, PNCounter.Admission admission, long permits,
+                              long previousCounter, long currentCounter, long elapsed) {
+        double estimatedCount = previousCounter * (1.0 - (double) elapsed / windowSizeInMillis) + currentCounter;
+        long remaining = Math.max(0, (long) Math.ceil(maxRequests - estimatedCount));
+
+        long resetAfter = currentCounter > 0 ? 2 * windowSizeInMillis - elapsed
+                : previousCounter > 0 ? windowSizeInMillis - elapsed
+                : 0;
+
+        long retryAfter;
+        if (admission == PNCounter.Admission.ADMITTED) {
+            retryAfter = 0;
+        } else if (admission == PNCounter.Admission.OVER_BUDGET) {
+            retryAfter = SYNC_RETRY_MILLIS;
+        } else if (permits > maxRequests) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            long target = maxRequests - (permits - 1);
+            long phaseOne = -1;
+            if (previousCounter > 0 && currentCounter < target) {
+                double boundary = windowSizeInMillis * (1.0 - (double) (target - currentCounter) / previousCounter);
+                long at = (long) Math.floor(boundary) + 1;
+                if (at < windowSizeInMillis) {
+                    phaseOne = Math.max(1, at - elapsed);
+                }
+            }
+            if (phaseOne >= 0) {
+                retryAfter = phaseOne;
+            } else {
+                long at = currentCounter < target ? 0
+                        : (long) Math.floor(windowSizeInMillis * (1.0 - (double) target / currentCounter)) + 1;
+                retryAfter = windowSizeInMillis - elapsed + at;
+            }
+        }
+        decision.set(admission == PNCounter.Admission.ADMITTED, maxRequests, remaining, retryAfter, resetAfter);
+    }
+}
@@ -0,0 +1,415 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * =====================================================================
+ * NODE GOSSIP: COUNTER CRDT DÙNG CHUNG GIỮA CÁC NODE, KHÔNG CẦN STORE
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Giới hạn toàn cụm qua store chung (Redis, coordinator) thì store là một
+ * điểm phụ thuộc: store chậm hay chết thì mọi node chậm hay chết theo.
+ *
+ * GIẢI PHÁP: MỖI NODE GIỮ BẢN SAO, GOSSIP PHẦN THAY ĐỔI
+ * -------------------------------------------------------
+ * Mỗi node giữ {@link PNCounter} cho mọi (prefix, key, cửa sổ) và quyết định HOÀN
+ * TOÀN ở local trên giá trị đã hợp nhất. Cứ mỗi syncIntervalMillis, thread
+ * gossip gửi tới mọi peer P/N của CHÍNH node này ở các counter đã đổi kể
+ * từ lần gửi trước (delta), qua UDP. Thread nhận hợp nhất gói của peer
+ * bằng max, nên gói trễ, lặp hay sai thứ tự đều vô hại.
+ *
+ * Mỗi node gửi thẳng cho mọi peer (full mesh): phù hợp cụm vài chục node,
+ * mỗi round là (số counter đã đổi) × (số peer) entry.
+ *
+ * Constructor chỉ mở socket; hai thread gossip và nhận chỉ chạy sau khi gọi
+ * {@link #start()} (thường sau khi đã {@link #addPeer thêm peer}).
+ *
+ * MẤT GÓI:
+ * ---------
+ * UDP không đảm bảo gói tới nơi. Cứ {@link #FULL_SYNC_ROUNDS} round một
+ * lần node gửi lại TOÀN BỘ counter còn hiệu lực của nó (không chỉ delta):
+ * peer bỏ lỡ một gói, hoặc vừa khởi động lại, sẽ bắt kịp sau tối đa ngần
+ * ấy round.
+ *
+ * GÓI TIN:
+ * ---------
+ *   [magic int][nodeId int][số entry short]
+ *   entry: [độ dài prefix short][prefix UTF-8][key theo RateLimitKey#writeTo]
+ *          [windowId long][expiresAt long][P long][N long]
+ * Key mang theo loại của nó: of(5L) và of("5") là hai counter khác nhau trên
+ * mọi node. Mỗi gói tối đa {@link #MAX_DATAGRAM_BYTES} byte (vừa một frame Ethernet,
+ * không bị phân mảnh IP); nhiều entry thì chia nhiều gói.
+ *
+ * THỜI GIAN:
+ * -----------
+ * Cửa sổ được đánh số theo đồng hồ TƯỜNG (mặc định {@link SystemClock}):
+ * các node phải đồng bộ NTP để cùng windowId chỉ cùng một khoảng thời gian.
+ * Counter hết hạn (expiresAt) bị xoá ở round gossip kế tiếp, và không được
+ * tạo lại từ gói của peer.
+ *
+ * @author dncuong
+ */
+public class GossipNode implements AutoCloseable {
+
+    /** Mặc định: gossip mỗi 50ms. */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 50;
+
+    /** Cứ chừng này round thì gửi toàn bộ counter thay vì chỉ delta. */
+    static final int FULL_SYNC_ROUNDS = 10;
+
+    /** Kích thước tối đa một gói gossip. */
+    static final int MAX_DATAGRAM_BYTES = 1_400;
+
+    private static final int MAGIC = 0x524C4732;
+
+    private static final int HEADER_BYTES = 4 + 4 + 2;
+
+    /** Entry không tính prefix và key: độ dài prefix + windowId + expiresAt + P + N. */
+    private static final int ENTRY_FIXED_BYTES = 2 + 8 * 4;
+
+    private final int nodeId;
+
+    private final DatagramChannel channel;
+
+    private final List<SocketAddress> peers = new CopyOnWriteArrayList<>();
+
+    private final long syncIntervalMillis;
+
+    private final Map<CounterId, PNCounter> counters = new ConcurrentHashMap<>();
+
+    private final RateLimitClock clock;
+
+    private final Thread gossipThread;
+
+    private final Thread receiverThread;
+
+    /** true sau lần gọi {@link #start()} đầu tiên. */
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /** true khi đã có một round sớm được hẹn mà thread gossip chưa chạy. */
+    private final AtomicBoolean syncRequested = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    /** Số round đã chạy. Chỉ đọc/ghi trong gossipRound. */
+    private long rounds;
+
+    /** Key đã mã hóa của entry đang ghi. Chỉ dùng trong gossipRound. */
+    private final ByteArrayOutputStream keyBytes = new ByteArrayOutputStream(64);
+
+    private final DataOutputStream keyOut = new DataOutputStream(keyBytes);
+
+    /**
+     * Khởi tạo node với chu kỳ gossip mặc định. Node chưa gửi/nhận gossip
+     * cho tới khi gọi {@link #start()}.
+     *
+     * @param nodeId      định danh của node, duy nhất trong cụm
+     * @param bindAddress địa chỉ UDP node nhận gossip (port 0 = chọn port trống)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     * @throws IOException              nếu không mở được socket
+     */
+    public GossipNode(int nodeId, InetSocketAddress bindAddress) throws IOException {
+        this(nodeId, bindAddress, DEFAULT_SYNC_INTERVAL_MILLIS, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo node. Node chưa gửi/nhận gossip cho tới khi gọi {@link #start()}.
+     *
+     * @param nodeId             định danh của node, duy nhất trong cụm
+     * @param bindAddress        địa chỉ UDP node nhận gossip (port 0 = chọn port trống)
+     * @param syncIntervalMillis chu kỳ gossip
+     * @param clock              đồng hồ tường, đồng bộ giữa các node
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     * @throws IOException              nếu không mở được socket
+     */
+    public GossipNode(int nodeId, InetSocketAddress bindAddress, long syncIntervalMillis,
+                      RateLimitClock clock) throws IOException {
+        if (bindAddress == null) {
+            throw new IllegalArgumentException("bindAddress không được null");
+        }
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "syncIntervalMillis phải lớn hơn 0, nhận được: " + syncIntervalMillis);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+        this.nodeId = nodeId;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.clock = clock;
+        this.channel = DatagramChannel.open().bind(bindAddress);
+
+        int port = localAddress().getPort();
+        this.receiverThread = new Thread(this::receiveLoop, "rate-limit-gossip-receiver-" + port);
+        this.receiverThread.setDaemon(true);
+        this.gossipThread = new Thread(this::gossipLoop, "rate-limit-gossip-" + port);
+        this.gossipThread.setDaemon(true);
+    }
+
+    /**
+     * Chạy thread nhận và thread gossip. Gọi lại lần nữa không có tác dụng.
+     *
+     * @throws IllegalStateException nếu node đã đóng
+     */
+    public void start() {
+        if (closed) {
+            throw new IllegalStateException("Node đã đóng");
+        }
+        if (started.compareAndSet(false, true)) {
+            receiverThread.start();
+            gossipThread.start();
+        }
+    }
+
+    /**
+     * Thêm một peer nhận gossip của node này.
+     *
+     * @param address địa chỉ UDP của peer
+     * @throws IllegalArgumentException nếu address null
+     */
+    public void addPeer(InetSocketAddress address) {
+        if (address == null) {
+            throw new IllegalArgumentException("address không được null");
+        }
+        peers.add(address);
+    }
+
+    /**
+     * @return số peer đã thêm
+     */
+    public int peerCount() {
+        return peers.size();
+    }
+
+    /**
+     * @return địa chỉ UDP node đang nhận gossip
+     */
+    public InetSocketAddress localAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("Node đã đóng", e);
+        }
+    }
+
+    /**
+     * Lấy (hoặc tạo) counter của key (thuộc limiter có prefix) trong cửa sổ windowId.
+     */
+    PNCounter counter(String prefix, RateLimitKey key, long windowId, long expiresAt) {
+        CounterId id = new CounterId(prefix, key, windowId);
+        PNCounter counter = counters.get(id);
+        return counter != null ? counter : counters.computeIfAbsent(id, ignored -> new PNCounter(expiresAt));
+    }
+
+    /**
+     * Counter đã có của key (thuộc limiter có prefix) trong cửa sổ windowId, null nếu chưa có.
+     */
+    PNCounter existingCounter(String prefix, RateLimitKey key, long windowId) {
+        return counters.get(new CounterId(prefix, key, windowId));
+    }
+
+    /**
+     * Hẹn một round gossip ngay (không chờ hết chu kỳ). Gọi từ đường nóng
+     * khi node đã cấp hết phần permit được phép mà peer chưa biết.
+     */
+    void requestSync() {
+        if (syncRequested.compareAndSet(false, true)) {
+            LockSupport.unpark(gossipThread);
+        }
+    }
+
+    private void gossipLoop() {
+        long nextRound = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        while (!closed) {
+            long wait = nextRound - System.nanoTime();
+            if (wait > 0 && !syncRequested.get()) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            syncRequested.set(false);
+            gossipRound();
+            nextRound = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        }
+    }
+
+    /**
+     * Một round gossip: xoá counter hết hạn, gửi P/N của node này ở các
+     * counter đã đổi (hoặc mọi counter, ở round đồng bộ toàn bộ) tới mọi peer.
+     * Thread gossip gọi theo chu kỳ; test gọi trực tiếp để chạy từng round.
+     */
+    synchronized void gossipRound() {
+        long now = clock.currentTimeMillis();
+        boolean full = ++rounds % FULL_SYNC_ROUNDS == 0;
+        ByteBuffer datagram = newDatagram();
+        int entries = 0;
+
+        for (Map.Entry<CounterId, PNCounter> entry : counters.entrySet()) {
+            PNCounter counter = entry.getValue();
+            if (counter.expiresAt <= now) {
+                counters.remove(entry.getKey(), counter);
+                continue;
+            }
+            long increments = counter.localIncrements();
+            long decrements = counter.localDecrements();
+            boolean changed = increments != counter.sentIncrements || decrements != counter.sentDecrements;
+            if (increments == 0 || !(changed || full)) {
+                continue;
+            }
+            CounterId id = entry.getKey();
+            byte[] prefix = id.prefix().getBytes(StandardCharsets.UTF_8);
+            byte[] key = encode(id.key());
+            if (key == null || HEADER_BYTES + ENTRY_FIXED_BYTES + prefix.length + key.length > MAX_DATAGRAM_BYTES) {
+                // Prefix + key quá dài cho một gói: counter này chỉ có hiệu lực ở local
+                continue;
+            }
+            if (datagram.remaining() < ENTRY_FIXED_BYTES + prefix.length + key.length) {
+                send(datagram, entries);
+                datagram = newDatagram();
+                entries = 0;
+            }
+            datagram.putShort((short) prefix.length).put(prefix).put(key)
+                    .putLong(id.windowId()).putLong(counter.expiresAt)
+                    .putLong(increments).putLong(decrements);
+            entries++;
+            // Peer chưa chắc đã nhận, nhưng gói mất sẽ được bù ở round đồng bộ toàn bộ
+            counter.sentIncrements = increments;
+            counter.sentDecrements = decrements;
+        }
+        if (entries > 0) {
+            send(datagram, entries);
+        }
+    }
+
+    /** Key theo RateLimitKey#writeTo, null nếu key không ghi được (quá dài). */
+    private byte[] encode(RateLimitKey key) {
+        if (!key.isSerializable()) {
+            return null;
+        }
+        keyBytes.reset();
+        try {
+            key.writeTo(keyOut);
+        } catch (IOException e) {
+            // ByteArrayOutputStream không ném IOException, key ghi được không quá giới hạn
+            return null;
+        }
+        return keyBytes.toByteArray();
+    }
+
+    private ByteBuffer newDatagram() {
+        ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        datagram.putInt(MAGIC).putInt(nodeId).putShort((short) 0);
+        return datagram;
+    }
+
+    private void send(ByteBuffer datagram, int entries) {
+        datagram.putShort(8, (short) entries).flip();
+        for (SocketAddress peer : peers) {
+            try {
+                channel.send(datagram.duplicate(), peer);
+            } catch (IOException e) {
+                // UDP best-effort: peer bỏ lỡ gói này, bắt kịp ở round đồng bộ toàn bộ
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        ByteBuffer datagram = ByteBuffer.allocate(65_536);
+        while (!closed) {
+            try {
+                datagram.clear();
+                channel.receive(datagram);
+                datagram.flip();
+                merge(datagram);
+            } catch (IOException e) {
+                // Socket đã đóng (close()) hoặc lỗi tạm thời
+                if (!channel.isOpen()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hợp nhất một gói gossip. Gói không hợp lệ (sai magic, cụt) bị bỏ qua.
+     */
+    void merge(ByteBuffer datagram) {
+        long now = clock.currentTimeMillis();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                datagram.array(), datagram.arrayOffset() + datagram.position(), datagram.remaining()));
+        try {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int sender = in.readInt();
+            if (sender == nodeId) {
+                return;
+            }
+            int entries = in.readShort();
+            for (int i = 0; i < entries; i++) {
+                byte[] prefix = new byte[in.readShort()];
+                in.readFully(prefix);
+                RateLimitKey key = RateLimitKey.readFrom(in);
+                long windowId = in.readLong();
+                long expiresAt = in.readLong();
+                long increments = in.readLong();
+                long decrements = in.readLong();
+                if (expiresAt > now) {
+                    counter(new String(prefix, StandardCharsets.UTF_8), key, windowId, expiresAt)
+                            .merge(sender, increments, decrements);
+                }
+            }
+        } catch (IOException | NegativeArraySizeException e) {
+            // Gói cụt hoặc hỏng
+        }
+    }
+
+    /**
+     * Số counter đang giữ (dùng trong test).
+     */
+    int counterCount() {
+        return counters.size();
+    }
+
+    /**
+     * Dừng gossip và đóng socket. Counter đã có vẫn dùng được (chỉ ở local).
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(gossipThread);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Đang đóng, bỏ qua
+        }
+    }
+
+    /** Định danh của một counter: prefix của limiter, key và cửa sổ. */
+    private record CounterId(String prefix, RateLimitKey key, long windowId) {
+    }
+}
@@ -0,0 +1,146 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * PN-COUNTER: BỘ ĐẾM CRDT CỦA MỘT KEY TRONG MỘT CỬA SỔ
+ * =====================================================================
+ *
+ * Mỗi node giữ hai số của RIÊNG nó: increments (P, số permit đã cấp) và
+ * decrements (N, số permit đã refund). Hai số này chỉ tăng, nên bản của
+ * node X mà node khác nhận được càng mới thì càng lớn:
+ *
+ *   merge(X, p, n): P[X] = max(P[X], p), N[X] = max(N[X], n)
+ *   value         = Σ P[X] - Σ N[X]
+ *
+ * merge giao hoán, kết hợp và luỹ đẳng: gói gossip đến trễ, đến hai lần
+ * hay sai thứ tự đều cho cùng kết quả, các node hội tụ về cùng value mà
+ * không cần khoá chung. Không có refund thì N luôn bằng 0 và đây chính là
+ * G-counter.
+ *
+ * ĐƯỜNG NÓNG:
+ * ------------
+ * Chỉ P/N của node này được sửa trên đường nóng (CAS, không lock); phần
+ * của các peer chỉ do thread nhận gossip ghi (dưới lock), tổng của chúng
+ * được cache trong {@link #peerValue}.
+ *
+ * @author dncuong
+ */
+final class PNCounter {
+
+    /** Kết quả của {@link #tryIncrement}. */
+    enum Admission {
+        /** Đã cộng permits vào P của node này. */
+        ADMITTED,
+        /** Vượt giới hạn theo góc nhìn đã hợp nhất của node. */
+        OVER_LIMIT,
+        /**
+         * Node đã cấp quá nhiều permit mà peer chưa biết: chờ round gossip tới.
+         * Không phải vượt giới hạn: với unsyncedBudget = 1 node chỉ cấp một
+         * permit giữa hai round, dù value còn xa maxValue (cấp thiếu có chủ ý).
+         */
+        OVER_BUDGET
+    }
+
+    /** Thời điểm (đồng hồ tường) counter hết ảnh hưởng tới mọi quyết định. */
+    final long expiresAt;
+
+    private final AtomicLong increments = new AtomicLong();
+
+    private final AtomicLong decrements = new AtomicLong();
+
+    /** P/N của node này lúc gửi gossip gần nhất. Chỉ thread gossip ghi. */
+    volatile long sentIncrements;
+
+    volatile long sentDecrements;
+
+    /** nodeId → {P, N} đã nhận của peer. Chỉ đọc/ghi khi giữ lock của counter. */
+    private final Map<Integer, long[]> peers = new HashMap<>();
+
+    /** Σ (P - N) của các peer. */
+    private volatile long peerValue;
+
+    PNCounter(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Giá trị đã hợp nhất: phần của node này cộng phần mới nhất đã nhận từ peer.
+     */
+    long value() {
+        return peerValue + increments.get() - decrements.get();
+    }
+
+    /**
+     * Cộng permits vào P của node này nếu value sau khi cộng không vượt
+     * maxValue và số permit chưa gửi cho peer không vượt unsyncedBudget.
+     *
+     * Lô lớn hơn unsyncedBudget vẫn được cấp khi node không còn permit nào
+     * chưa gửi: nếu không, request đó bị OVER_BUDGET mãi dù gossip đã xong.
+     * Sai số của node khi đó là một lô, không phải unsyncedBudget.
+     *
+     * @param permits        số permit, lớn hơn 0
+     * @param maxValue       value tối đa sau khi cộng
+     * @param unsyncedBudget số permit tối đa node được cấp mà peer chưa biết
+     */
+    Admission tryIncrement(long permits, long maxValue, long unsyncedBudget) {
+        while (true) {
+            long p = increments.get();
+            if (peerValue + p - decrements.get() > maxValue - permits) {
+                return Admission.OVER_LIMIT;
+            }
+            long unsynced = p - sentIncrements;
+            if (unsynced > 0 && unsynced > unsyncedBudget - permits) {
+                return Admission.OVER_BUDGET;
+            }
+            if (increments.compareAndSet(p, p + permits)) {
+                return Admission.ADMITTED;
+            }
+        }
+    }
+
+    /**
+     * Refund permits đã cấp ở node này (N không vượt P: không refund quá
+     * số đã cấp).
+     */
+    void decrement(long permits) {
+        while (true) {
+            long n = decrements.get();
+            long next = Math.min(n + permits, increments.get());
+            if (next <= n || decrements.compareAndSet(n, next)) {
+                return;
+            }
+        }
+    }
+
+    long localIncrements() {
+        return increments.get();
+    }
+
+    long localDecrements() {
+        return decrements.get();
+    }
+
+    /**
+     * Hợp nhất P/N của một peer (giữ giá trị lớn hơn của từng số).
+     */
+    synchronized void merge(int nodeId, long increments, long decrements) {
+        long[] known = peers.computeIfAbsent(nodeId, id -> new long[2]);
+        if (increments <= known[0] && decrements <= known[1]) {
+            return;
+        }
+        long delta = 0;
+        if (increments > known[0]) {
+            delta += increments - known[0];
+            known[0] = increments;
+        }
+        if (decrements > known[1]) {
+            delta -= decrements - known[1];
+            known[1] = decrements;
+        }
+        peerValue += delta;
+    }
+}
@@ -0,0 +1,96 @@
+package com.dncuong.ws.rate_limit.algorithm.composite;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+
+/**
+ * Một giới hạn ("băng") trong {@link CompositeRateLimiter}, ví dụ 20/giây
+ * hoặc 1.000/giờ.
+ *
+ * Băng KHÔNG giữ state: state của mọi băng của một key nằm chung trong một
+ * mảng long của CompositeRateLimiter, mỗi băng dùng {@link #WORDS} phần tử
+ * bắt đầu từ base. Băng chỉ biết đọc/ghi phần của mình theo đúng quy tắc
+ * của limiter đơn tương ứng, nên một composite một băng quyết định giống
+ * hệt limiter đơn đó.
+ *
+ * Tạo băng bằng các factory:
+ *   - {@link #fixedWindow(long, long)}
+ *   - {@link #slidingWindowCounter(long, long)}
+ *   - {@link #tokenBucket(long, double)}
+ *
+ * Các method trừu tượng chỉ được gọi khi CompositeRateLimiter đang giữ
+ * lock của state.
+ *
+ * @author dncuong
+ */
+public abstract class Band {
+
+    /** Số phần tử long mỗi băng được dùng trong mảng state. */
+    static final int WORDS = 3;
+
+    Band() {
+    }
+
+    /**
+     * Băng Fixed Window Counter: tối đa maxRequests trong mỗi cửa sổ cố định
+     * (giống {@link com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter}).
+     *
+     * @param maxRequests        số request tối đa trong một cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @throws IllegalArgumentException nếu tham số không dương
+     */
+    public static Band fixedWindow(long maxRequests, long windowSizeInMillis) {
+        return new FixedWindowBand(maxRequests, windowSizeInMillis);
+    }
+
+    /**
+     * Băng Sliding Window Counter: ước lượng số request trong cửa sổ trượt
+     * (giống {@link com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter}).
+     *
+     * @param maxRequests        số request tối đa trong cửa sổ trượt
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @throws IllegalArgumentException nếu tham số không dương
+     */
+    public static Band slidingWindowCounter(long maxRequests, long windowSizeInMillis) {
+        return new SlidingWindowCounterBand(maxRequests, windowSizeInMillis);
+    }
+
+    /**
+     * Băng Token Bucket: burst bucketCapacity, tốc độ trung bình refillRate
+     * (giống {@link com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter}).
+     *
+     * @param bucketCapacity sức chứa tối đa của xô
+     * @param refillRate     số token nạp mỗi giây
+     * @throws IllegalArgumentException nếu tham số không dương
+     */
+    public static Band tokenBucket(long bucketCapacity, double refillRate) {
+        return new TokenBucketBand(bucketCapacity, refillRate);
+    }
+
+    /** Giới hạn của băng (maxRequests hoặc sức chứa xô). */
+    abstract long limit();
+
+    /** Ghi state ban đầu (key mới xuất hiện tại now). */
+    abstract void init(long[] state, int base, long now);
+
+    /**
+     * Đưa state tới thời điểm now (trượt cửa sổ, nạp token). Không đổi quyết
+     * định nào: chỉ là bước chuẩn bị dùng chung cho admits/commit/decision.
+     */
+    abstract void advance(long[] state, int base, long now);
+
+    /** Băng có cấp được cả lô permits tại now không (state đã advance). */
+    abstract boolean admits(long[] state, int base, long permits, long now);
+
+    /** Trừ lô permits đã được mọi băng chấp nhận. */
+    abstract void commit(long[] state, int base, long permits);
+
+    /** Trả lại lô permits đã cấp tại now. */
+    abstract void refund(long[] state, int base, long permits, long now);
+
+    /** State tương đương state mới tạo tại now (có thể bỏ khỏi map). */
+    abstract boolean isFresh(long[] state, int base, long now);
+
+    /** Điền kết quả chi tiết của riêng băng này (state đã advance). */
+    abstract void fillDecision(RateLimitDecision decision, long[] state, int base,
+                               boolean allowed, long permits, long now);
+}
@@ -0,0 +1,285 @@
+package com.dncuong.ws.rate_limit.algorithm.composite;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+/**
+ * =====================================================================
+ * NHIỀU GIỚI HẠN TRÊN MỘT KEY TRONG MỘT LƯỢT KIỂM TRA
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Một API thường có nhiều giới hạn cùng lúc cho cùng một key, ví dụ
+ * 20/giây VÀ 1.000/giờ VÀ 50.000/ngày. Dùng 3 limiter riêng thì:
+ *   - 3 lần tra map, 3 lock, 3 object state cho mỗi key
+ *   - limiter sau từ chối thì quota ở limiter trước đã bị trừ (rò quota);
+ *     {@link com.dncuong.ws.rate_limit.algorithm.RateLimitBatch#allowAll}
+ *     trả lại được nhưng trong khoảnh khắc đó request khác bị chặn oan
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Mọi băng ({@link Band}) của một key nằm chung trong MỘT mảng long:
+ *
+ *   key → [ băng 0: 3 long | băng 1: 3 long | băng 2: 3 long ]
+ *
+ * Một lần tra map, một lock. Trong lock:
+ *   1. Đưa mọi băng tới now (trượt cửa sổ, nạp token)
+ *   2. Kiểm tra MỌI băng có cấp được cả lô không
+ *   3. Tất cả đồng ý → trừ ở mọi băng; một băng từ chối → không trừ gì
+ * Kiểm tra và trừ nằm trong cùng critical section nên không có khoảnh
+ * khắc nào quota bị trừ tạm: không rò, không chặn oan.
+ *
+ * Băng được trộn tự do: Fixed Window, Sliding Window Counter, Token Bucket.
+ * Composite một băng quyết định giống hệt limiter đơn tương ứng.
+ *
+ * KẾT QUẢ CHI TIẾT:
+ * ------------------
+ *   - limit, remaining: của băng chặt nhất (remaining nhỏ nhất)
+ *   - retry-after: LỚN NHẤT trong các băng (phải chờ băng chậm nhất)
+ *   - reset: lớn nhất trong các băng
+ *
+ * Nên khai báo băng hay từ chối nhất (cửa sổ ngắn) lên đầu: kiểm tra dừng
+ * ở băng đầu tiên từ chối.
+ *
+ * @author dncuong
+ */
+public class CompositeRateLimiter implements RateLimiter {
+
+    private final Band[] bands;
+
+    /**
+     * Bảng lưu state chung của mọi băng cho mỗi key.
+     */
+    private final KeyStateStore<RateLimitKey, State> stateMap;
+
+    /**
+     * Nguồn thời gian ({@link SystemClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Composite Rate Limiter.
+     *
+     * @param bands các giới hạn áp dụng đồng thời, ít nhất một
+     * @throws IllegalArgumentException nếu không có băng nào hoặc có băng null
+     */
+    public CompositeRateLimiter(Band... bands) {
+        this(KeyStateStore.UNBOUNDED, bands);
+    }
+
+    /**
+     * Khởi tạo Composite Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param bands          các giới hạn áp dụng đồng thời, ít nhất một
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public CompositeRateLimiter(int maxTrackedKeys, Band... bands) {
+        this(maxTrackedKeys, SystemClock.INSTANCE, bands);
+    }
+
+    /**
+     * Khởi tạo Composite Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param clock nguồn thời gian
+     * @param bands các giới hạn áp dụng đồng thời, ít nhất một
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public CompositeRateLimiter(RateLimitClock clock, Band... bands) {
+        this(KeyStateStore.UNBOUNDED, clock, bands);
+    }
+
+    /**
+     * Khởi tạo Composite Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock          nguồn thời gian
+     * @param bands          các giới hạn áp dụng đồng thời, ít nhất một
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public CompositeRateLimiter(int maxTrackedKeys, RateLimitClock clock, Band... bands) {
+        if (bands == null || bands.length == 0) {
+            throw new IllegalArgumentException("bands phải có ít nhất một băng");
+        }
+        for (Band band : bands) {
+            if (band == null) {
+                throw new IllegalArgumentException("bands không được chứa null");
+            }
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.bands = bands.clone();
+        this.stateMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key: cấp ở MỌI băng hoặc không trừ gì.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp ở mọi băng, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        while (true) {
+            State state = stateMap.getOrCreate(key, now, k -> newState(now));
+            synchronized (state) {
+                if (state.retired) {
+                    // Thread dọn dẹp vừa loại state này → lấy (hoặc tạo) state mới
+                    stateMap.removeRetired(key, state);
+                    continue;
+                }
+
+                long[] words = state.words;
+                boolean allowed = true;
+                for (int i = 0; i < bands.length; i++) {
+                    int base = i * Band.WORDS;
+                    bands[i].advance(words, base, now);
+                    if (allowed && !bands[i].admits(words, base, permits, now)) {
+                        // Vẫn advance các băng còn lại để kết quả chi tiết tính đúng thời điểm
+                        allowed = false;
+                        if (decision == null) {
+                            return false;
+                        }
+                    }
+                }
+                if (allowed) {
+                    for (int i = 0; i < bands.length; i++) {
+                        bands[i].commit(words, i * Band.WORDS, permits);
+                    }
+                }
+                if (decision != null) {
+                    fillDecision(decision, words, allowed, permits, now);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now ở mọi băng (mỗi băng theo quy
+     * tắc refund của limiter đơn tương ứng).
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        State state = stateMap.get(key);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.retired) {
+                return;
+            }
+            for (int i = 0; i < bands.length; i++) {
+                bands[i].refund(state.words, i * Band.WORDS, permits, now);
+            }
+        }
+    }
+
+    /**
+     * Gộp kết quả của từng băng: remaining của băng chặt nhất, chờ theo băng
+     * chậm nhất.
+     */
+    private void fillDecision(RateLimitDecision decision, long[] words, boolean allowed, long permits, long now) {
+        long limit = 0;
+        long remaining = Long.MAX_VALUE;
+        long retryAfter = 0;
+        long resetAfter = 0;
+        for (int i = 0; i < bands.length; i++) {
+            bands[i].fillDecision(decision, words, i * Band.WORDS, allowed, permits, now);
+            if (decision.getRemaining() < remaining) {
+                remaining = decision.getRemaining();
+                limit = decision.getLimit();
+            }
+            retryAfter = Math.max(retryAfter, decision.getRetryAfterMillis());
+            resetAfter = Math.max(resetAfter, decision.getResetAfterMillis());
+        }
+        decision.set(allowed, limit, remaining, allowed ? 0 : retryAfter, resetAfter);
+    }
+
+    private State newState(long now) {
+        State state = new State(bands.length * Band.WORDS);
+        for (int i = 0; i < bands.length; i++) {
+            bands[i].init(state.words, i * Band.WORDS, now);
+        }
+        return state;
+    }
+
+    /**
+     * Đánh dấu state retired nếu MỌI băng đều tương đương state mới tạo.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(State state, long now) {
+        synchronized (state) {
+            if (!state.retired) {
+                boolean fresh = true;
+                for (int i = 0; i < bands.length && fresh; i++) {
+                    fresh = bands[i].isFresh(state.words, i * Band.WORDS, now);
+                }
+                state.retired = fresh;
+            }
+            return state.retired;
+        }
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(State state) {
+        synchronized (state) {
+            state.retired = true;
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    long trackedKeyCount() {
+        return stateMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * State chung của mọi băng cho một key: băng i dùng
+     * words[i × {@link Band#WORDS} .. (i + 1) × {@link Band#WORDS}).
+     */
+    static final class State {
+        final long[] words;
+
+        /** true khi state đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
+
+        State(int size) {
+            this.words = new long[size];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.dncuong.ws.rate_limit.algorithm.composite;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+
+/**
+ * Băng Fixed Window Counter. State: [windowId, counter].
+ *
+ * @author dncuong
+ */
+final class FixedWindowBand extends Band {
+
+    private static final int WINDOW_ID = 0;
+    private static final int COUNTER = 1;
+
+    private final long maxRequests;
+    private final long windowSizeInMillis;
+
+    FixedWindowBand(long maxRequests, long windowSizeInMillis) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException(
+                    "maxRequests phải lớn hơn 0, nhận được: " + maxRequests);
+        }
+        if (windowSizeInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
+        }
+        this.maxRequests = maxRequests;
+        this.windowSizeInMillis = windowSizeInMillis;
+    }
+
+    @Override
+    long limit() {
+        return maxRequests;
+    }
+
+    @Override
+    void init(long[] state, int base, long now) {
+        state[base + WINDOW_ID] = now / windowSizeInMillis;
+        state[base + COUNTER] = 0;
+    }
+
+    @Override
+    void advance(long[] state, int base, long now) {
+        long currentWindowId = now / windowSizeInMillis;
+        if (state[base + WINDOW_ID] != currentWindowId) {
+            state[base + WINDOW_ID] = currentWindowId;
+            state[base + COUNTER] = 0;
+        }
+    }
+
+    @Override
+    boolean admits(long[] state, int base, long permits, long now) {
+        // Viết dạng phép trừ để permits rất lớn không làm tràn số
+        return permits <= maxRequests - state[base + COUNTER];
+    }
+
+    @Override
+    void commit(long[] state, int base, long permits) {
+        state[base + COUNTER] += permits;
+    }
+
+    @Override
+    void refund(long[] state, int base, long permits, long now) {
+        // Cửa sổ của now đã qua → counter đã reset, không còn gì để trả
+        if (state[base + WINDOW_ID] == now / windowSizeInMillis) {
+            state[base + COUNTER] -= Math.min(permits, state[base + COUNTER]);
+        }
+    }
+
+    @Override
+    boolean isFresh(long[] state, int base, long now) {
+        return state[base + WINDOW_ID] < now / windowSizeInMillis || state[base + COUNTER] == 0;
+    }
+
+    @Override
+    void fillDecision(RateLimitDecision decision, long[] state, int base,
+                      boolean allowed, long permits, long now) {
+        long resetAfter = windowSizeInMillis - now % windowSizeInMillis;
+        long retryAfter = admits(state, base, permits, now) ? 0
+                : permits > maxRequests ? RateLimitDecision.NEVER : resetAfter;
+        decision.set(allowed, maxRequests, maxRequests - state[base + COUNTER], retryAfter, resetAfter);
+    }
+}
@@ -0,0 +1,130 @@
+package com.dncuong.ws.rate_limit.algorithm.composite;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+
+/**
+ * Băng Sliding Window Counter. State: [windowId, currentCounter, previousCounter].
+ *
+ * @author dncuong
+ */
+final class SlidingWindowCounterBand extends Band {
+
+    private static final int WINDOW_ID = 0;
+    private static final int CURRENT = 1;
+    private static final int PREVIOUS = 2;
+
+    private final long maxRequests;
+    private final long windowSizeInMillis;
+
+    SlidingWindowCounterBand(long maxRequests, long windowSizeInMillis) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException(
+                    "maxRequests phải lớn hơn 0, nhận được: " + maxRequests);
+        }
+        if (windowSizeInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
+        }
+        this.maxRequests = maxRequests;
+        this.windowSizeInMillis = windowSizeInMillis;
+    }
+
+    @Override
+    long limit() {
+        return maxRequests;
+    }
+
+    @Override
+    void init(long[] state, int base, long now) {
+        state[base + WINDOW_ID] = now / windowSizeInMillis;
+        state[base + CURRENT] = 0;
+        state[base + PREVIOUS] = 0;
+    }
+
+    @Override
+    void advance(long[] state, int base, long now) {
+        long currentWindowId = now / windowSizeInMillis;
+        long storedWindowId = state[base + WINDOW_ID];
+        if (storedWindowId != currentWindowId) {
+            // Cửa sổ kề ngay sau → counter cũ thành previous; nhảy xa hơn → bỏ
+            state[base + PREVIOUS] = currentWindowId == storedWindowId + 1 ? state[base + CURRENT] : 0;
+            state[base + CURRENT] = 0;
+            state[base + WINDOW_ID] = currentWindowId;
+        }
+    }
+
+    private double estimatedCount(long[] state, int base, long now) {
+        double overlapRatio = 1.0 - (double) (now % windowSizeInMillis) / windowSizeInMillis;
+        return state[base + PREVIOUS] * overlapRatio + state[base + CURRENT];
+    }
+
+    @Override
+    boolean admits(long[] state, int base, long permits, long now) {
+        return permits <= maxRequests && estimatedCount(state, base, now) + (permits - 1) < maxRequests;
+    }
+
+    @Override
+    void commit(long[] state, int base, long permits) {
+        state[base + CURRENT] += permits;
+    }
+
+    @Override
+    void refund(long[] state, int base, long permits, long now) {
+        long windowId = now / windowSizeInMillis;
+        if (state[base + WINDOW_ID] == windowId) {
+            state[base + CURRENT] -= Math.min(permits, state[base + CURRENT]);
+        } else if (state[base + WINDOW_ID] == windowId + 1) {
+            state[base + PREVIOUS] -= Math.min(permits, state[base + PREVIOUS]);
+        }
+    }
+
+    @Override
+    boolean isFresh(long[] state, int base, long now) {
+        long windowsAhead = now / windowSizeInMillis - state[base + WINDOW_ID];
+        boolean currentExpired = windowsAhead >= 2 || state[base + CURRENT] == 0;
+        boolean previousExpired = windowsAhead >= 1 || state[base + PREVIOUS] == 0;
+        return currentExpired && previousExpired;
+    }
+
+    /**
+     * Cùng công thức với SlidingWindowCounterRateLimiter: retry-after là lúc
+     * sớm nhất ước lượng giảm đủ cho lô, ở cửa sổ hiện tại hoặc cửa sổ kế tiếp.
+     */
+    @Override
+    void fillDecision(RateLimitDecision decision, long[] state, int base,
+                      boolean allowed, long permits, long now) {
+        long previousCounter = state[base + PREVIOUS];
+        long currentCounter = state[base + CURRENT];
+        long elapsed = now % windowSizeInMillis;
+        long remaining = Math.max(0, (long) Math.ceil(maxRequests - estimatedCount(state, base, now)));
+
+        long resetAfter = currentCounter > 0 ? 2 * windowSizeInMillis - elapsed
+                : previousCounter > 0 ? windowSizeInMillis - elapsed
+                : 0;
+
+        long retryAfter;
+        if (admits(state, base, permits, now)) {
+            retryAfter = 0;
+        } else if (permits > maxRequests) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            long target = maxRequests - (permits - 1);
+            long phaseOne = -1;
+            if (previousCounter > 0 && currentCounter < target) {
+                double boundary = windowSizeInMillis * (1.0 - (double) (target - currentCounter) / previousCounter);
+                long at = (long) Math.floor(boundary) + 1;
+                if (at < windowSizeInMillis) {
+                    phaseOne = Math.max(1, at - elapsed);
+                }
+            }
+            if (phaseOne >= 0) {
+                retryAfter = phaseOne;
+            } else {
+                long at = currentCounter < target ? 0
+                        : (long) Math.floor(windowSizeInMillis * (1.0 - (double) target / currentCounter)) + 1;
+                retryAfter = windowSizeInMillis - elapsed + at;
+            }
+        }
+        decision.set(allowed, maxRequests, remaining, retryAfter, resetAfter);
+    }
+}
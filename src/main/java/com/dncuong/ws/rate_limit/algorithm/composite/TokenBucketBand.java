@@ -0,0 +1,90 @@
+package com.dncuong.ws.rate_limit.algorithm.composite;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+
+/**
+ * Băng Token Bucket. State: [tokens (bit của double), lastRefillTimestamp].
+ *
+ * @author dncuong
+ */
+final class TokenBucketBand extends Band {
+
+    private static final int TOKENS = 0;
+    private static final int LAST_REFILL = 1;
+
+    private final long bucketCapacity;
+    private final double refillRate;
+
+    TokenBucketBand(long bucketCapacity, double refillRate) {
+        if (bucketCapacity <= 0) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity phải lớn hơn 0, nhận được: " + bucketCapacity);
+        }
+        if (!(refillRate > 0)) {
+            throw new IllegalArgumentException(
+                    "refillRate phải lớn hơn 0, nhận được: " + refillRate);
+        }
+        this.bucketCapacity = bucketCapacity;
+        this.refillRate = refillRate;
+    }
+
+    private static double tokens(long[] state, int base) {
+        return Double.longBitsToDouble(state[base + TOKENS]);
+    }
+
+    private static void setTokens(long[] state, int base, double tokens) {
+        state[base + TOKENS] = Double.doubleToRawLongBits(tokens);
+    }
+
+    @Override
+    long limit() {
+        return bucketCapacity;
+    }
+
+    @Override
+    void init(long[] state, int base, long now) {
+        setTokens(state, base, bucketCapacity);
+        state[base + LAST_REFILL] = now;
+    }
+
+    @Override
+    void advance(long[] state, int base, long now) {
+        double tokensToAdd = ((now - state[base + LAST_REFILL]) / 1000.0) * refillRate;
+        if (tokensToAdd > 0) {
+            setTokens(state, base, Math.min(bucketCapacity, tokens(state, base) + tokensToAdd));
+            state[base + LAST_REFILL] = now;
+        }
+    }
+
+    @Override
+    boolean admits(long[] state, int base, long permits, long now) {
+        return tokens(state, base) >= permits;
+    }
+
+    @Override
+    void commit(long[] state, int base, long permits) {
+        setTokens(state, base, tokens(state, base) - permits);
+    }
+
+    @Override
+    void refund(long[] state, int base, long permits, long now) {
+        setTokens(state, base, Math.min(bucketCapacity, tokens(state, base) + permits));
+    }
+
+    @Override
+    boolean isFresh(long[] state, int base, long now) {
+        double tokensToAdd = ((now - state[base + LAST_REFILL]) / 1000.0) * refillRate;
+        return tokens(state, base) + tokensToAdd >= bucketCapacity;
+    }
+
+    @Override
+    void fillDecision(RateLimitDecision decision, long[] state, int base,
+                      boolean allowed, long permits, long now) {
+        double tokens = tokens(state, base);
+        long resetAfter = (long) Math.ceil((bucketCapacity - tokens) * 1000 / refillRate);
+        long retryAfter = tokens >= permits ? 0
+                : permits > bucketCapacity ? RateLimitDecision.NEVER
+                : Math.max(1, (long) Math.ceil((permits - tokens) * 1000 / refillRate));
+        decision.set(allowed, bucketCapacity, (long) tokens, retryAfter, Math.max(0, resetAfter));
+    }
+}
@@ -1,9 +1,17 @@
 package com.dncuong.ws.rate_limit.algorithm.fixedwindow;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
 import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+import com.dncuong.ws.rate_limit.algorithm.snapshot.SnapshotSupport;
+import com.dncuong.ws.rate_limit.algorithm.snapshot.StateSnapshot;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * =====================================================================
@@ -49,6 +57,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * - ConcurrentHashMap<String, WindowState>: lưu trạng thái cho mỗi key
  *   + key: định danh client (IP, userId, apiKey, ...)
  *   + value: WindowState chứa windowId hiện tại và counter
+ *   (map nằm trong {@link KeyStateStore}: key có cửa sổ đã hết hạn được dọn dần)
  *
  * THREAD-SAFETY:
  * ---------------
@@ -56,9 +65,16 @@ import java.util.concurrent.atomic.AtomicLong;
  * - Sử dụng synchronized block trên từng WindowState để đảm bảo
  *   việc kiểm tra + cập nhật counter là nguyên tử (atomic)
  *
+ * SNAPSHOT KHI KHỞI ĐỘNG LẠI:
+ * ----------------------------
+ * State trên heap được chụp ở nền bằng
+ * {@link com.dncuong.ws.rate_limit.algorithm.snapshot.SnapshotWriter} và khôi
+ * phục lười bằng {@link #restoreFrom}: counter của cửa sổ đang chạy không
+ * về 0 sau mỗi lần deploy.
+ *
  * @author dncuong
  */
-public class FixedWindowCounterRateLimiter implements RateLimiter {
+public class FixedWindowCounterRateLimiter implements RateLimiter, SnapshotSupport {
 
     /**
      * Số request tối đa được phép trong một cửa sổ thời gian.
@@ -81,7 +97,33 @@ public class FixedWindowCounterRateLimiter implements RateLimiter {
      *   ConcurrentHashMap cho phép đọc/ghi an toàn từ nhiều thread
      *   mà không cần lock toàn bộ map.
      */
-    private final ConcurrentHashMap<String, WindowState> windowStateMap;
+    private final KeyStateStore<RateLimitKey, WindowState> windowStateMap;
+
+    /**
+     * Bảng off-heap thay cho windowStateMap khi cần theo dõi hàng chục triệu key;
+     * null nếu lưu state trên heap.
+     *
+     * Bản ghi: field 0 = windowId, field 1 = counter.
+     * Bản ghi toàn 0 (windowId = 0) bị reset ngay ở request đầu như một state mới.
+     */
+    private final OffHeapStateTable offHeapTable;
+
+    /**
+     * Snapshot đang khôi phục lười: key tạo state lần đầu lấy state đã lưu
+     * từ đây; null nếu không khôi phục.
+     */
+    private volatile StateSnapshot restoredSnapshot;
+
+    /**
+     * Nguồn thời gian.
+     *
+     * Tại sao nhận qua constructor mà không gọi trực tiếp System.currentTimeMillis()?
+     * → Để có thể THAY THẾ trong test! Khi test, ta cần kiểm soát thời gian
+     *   (ví dụ: giả lập việc thời gian trôi qua 1 phút) mà không cần
+     *   Thread.sleep() thật, giúp test chạy nhanh và ổn định.
+     * → Ở production có thể dùng đồng hồ thô (CoarseClock) rẻ hơn khi tải lớn.
+     */
+    private final RateLimitClock clock;
 
     /**
      * Khởi tạo Fixed Window Counter Rate Limiter.
@@ -91,6 +133,77 @@ public class FixedWindowCounterRateLimiter implements RateLimiter {
      * @throws IllegalArgumentException nếu tham số không hợp lệ
      */
     public FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Fixed Window Counter Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                           nhất bị loại và bắt đầu lại từ state mới
+     *                           ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys) {
+        this(maxRequests, windowSizeInMillis, maxTrackedKeys, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Fixed Window Counter Rate Limiter lưu state trong bảng off-heap.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param offHeapTable       bảng off-heap dành riêng cho limiter này
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, OffHeapStateTable offHeapTable) {
+        this(maxRequests, windowSizeInMillis, offHeapTable, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Fixed Window Counter Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Fixed Window Counter Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys,
+                                         RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, maxTrackedKeys, null, clock);
+    }
+
+    /**
+     * Khởi tạo Fixed Window Counter Rate Limiter lưu state off-heap, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param offHeapTable       bảng off-heap dành riêng cho limiter này
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, OffHeapStateTable offHeapTable,
+                                         RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED, requireTable(offHeapTable), clock);
+    }
+
+    private FixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys,
+                                          OffHeapStateTable offHeapTable, RateLimitClock clock) {
         // === BƯỚC 1: Validate tham số đầu vào ===
         // Đảm bảo các giá trị phải dương, tránh lỗi logic khó debug
         if (maxRequests <= 0) {
@@ -101,14 +214,27 @@ public class FixedWindowCounterRateLimiter implements RateLimiter {
             throw new IllegalArgumentException(
                     "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
         }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
 
         this.maxRequests = maxRequests;
         this.windowSizeInMillis = windowSizeInMillis;
-        this.windowStateMap = new ConcurrentHashMap<>();
+        this.windowStateMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.offHeapTable = offHeapTable;
+        this.clock = clock;
+    }
+
+    private static OffHeapStateTable requireTable(OffHeapStateTable offHeapTable) {
+        if (offHeapTable == null) {
+            throw new IllegalArgumentException("offHeapTable không được null");
+        }
+        return offHeapTable;
     }
 
     /**
-     * Kiểm tra và quyết định xem request từ key có được phép hay không.
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
      *
      * LUỒNG XỬ LÝ CHI TIẾT:
      * 1. Tính windowId hiện tại = currentTimeMillis / windowSizeInMillis
@@ -121,15 +247,25 @@ public class FixedWindowCounterRateLimiter implements RateLimiter {
      * 2. Lấy hoặc tạo WindowState cho key này
      *
      * 3. Trong synchronized block (đảm bảo thread-safety):
+     *    (nếu state vừa bị dọn dẹp đánh dấu retired → quay lại bước 2)
      *    a. Nếu windowId thay đổi → reset counter về 0 (cửa sổ mới)
-     *    b. Tăng counter lên 1
-     *    c. So sánh counter với maxRequests để quyết định
+     *    b. counter + permits <= maxRequests → cộng permits vào counter, cho phép
+     *    c. Ngược lại → từ chối, KHÔNG cộng gì (lô bị từ chối không chiếm quota)
      *
-     * @param key định danh của nguồn request
-     * @return true nếu request được phép, false nếu bị từ chối
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
      */
     @Override
-    public boolean allowRequest(String key) {
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
         // === BƯỚC 1: Tính ID của cửa sổ hiện tại ===
         // Chia thời gian hiện tại cho kích thước cửa sổ để xác định
         // request này thuộc cửa sổ nào.
@@ -141,58 +277,268 @@ public class FixedWindowCounterRateLimiter implements RateLimiter {
         //   - Thời điểm 1500ms → windowId = 1500/1000 = 1
         //   - Thời điểm 1999ms → windowId = 1999/1000 = 1 (cùng cửa sổ)
         //   - Thời điểm 2000ms → windowId = 2000/1000 = 2 (cửa sổ mới!)
-        long currentWindowId = getCurrentTimeMillis() / windowSizeInMillis;
-
-        // === BƯỚC 2: Lấy hoặc tạo mới trạng thái cho key ===
-        // computeIfAbsent: nếu key chưa tồn tại → tạo WindowState mới
-        //                   nếu key đã tồn tại → trả về WindowState hiện có
-        // Đây là phép toán atomic của ConcurrentHashMap, thread-safe
-        WindowState state = windowStateMap.computeIfAbsent(key,
-                k -> new WindowState(currentWindowId));
-
-        // === BƯỚC 3: Kiểm tra và cập nhật counter (thread-safe) ===
-        // Phải dùng synchronized vì cần đảm bảo 3 thao tác sau là NGUYÊN TỬ:
-        //   1. Kiểm tra windowId có thay đổi không
-        //   2. Tăng counter
-        //   3. So sánh counter với maxRequests
-        //
-        // Nếu không synchronized, race condition có thể xảy ra:
-        //   Thread A đọc counter = 9, chưa kịp tăng
-        //   Thread B đọc counter = 9, tăng lên 10
-        //   Thread A tăng lên 10 → cả 2 đều được phép, nhưng thực tế đã 11 request!
+        long currentWindowId = now / windowSizeInMillis;
+
+        if (offHeapTable != null) {
+            return tryAcquireOffHeap(key, permits, now, currentWindowId, decision);
+        }
+
+        while (true) {
+            // === BƯỚC 2: Lấy hoặc tạo mới trạng thái cho key ===
+            // getOrCreate: nếu key chưa tồn tại → tạo WindowState mới
+            //              nếu key đã tồn tại → trả về WindowState hiện có
+            // (bên dưới là computeIfAbsent của ConcurrentHashMap, thread-safe)
+            WindowState state = windowStateMap.getOrCreate(key, now,
+                    k -> newState(k, currentWindowId));
+
+            // === BƯỚC 3: Kiểm tra và cập nhật counter (thread-safe) ===
+            // Phải dùng synchronized vì cần đảm bảo 3 thao tác sau là NGUYÊN TỬ:
+            //   1. Kiểm tra windowId có thay đổi không
+            //   2. So sánh counter + permits với maxRequests
+            //   3. Tăng counter
+            //
+            // Nếu không synchronized, race condition có thể xảy ra:
+            //   Thread A đọc counter = 9, chưa kịp tăng
+            //   Thread B đọc counter = 9, tăng lên 10
+            //   Thread A tăng lên 10 → cả 2 đều được phép, nhưng thực tế đã 11 request!
+            synchronized (state) {
+                if (state.retired) {
+                    // Thread dọn dẹp vừa loại state này → lấy (hoặc tạo) state mới
+                    windowStateMap.removeRetired(key, state);
+                    continue;
+                }
+
+                // Nếu windowId hiện tại khác với windowId đã lưu
+                // → chúng ta đã bước sang một cửa sổ thời gian mới
+                // → reset counter về 0 và cập nhật windowId
+                if (state.windowId != currentWindowId) {
+                    state.windowId = currentWindowId;
+                    state.counter = 0;
+                }
+
+                // Cả lô vừa quota còn lại → cộng một lần và cho phép
+                // Không vừa → từ chối cả lô, counter giữ nguyên
+                // (viết dạng phép trừ để permits rất lớn không làm tràn số)
+                boolean allowed = permits <= maxRequests - state.counter;
+                if (allowed) {
+                    state.counter += permits;
+                }
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, state.counter, now);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Cửa sổ của now đã qua → counter đã reset, không còn gì để trả.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        long windowId = now / windowSizeInMillis;
+
+        if (offHeapTable != null) {
+            long slot = offHeapTable.acquireExisting(key.hash64());
+            if (slot == OffHeapStateTable.NO_SLOT) {
+                return;
+            }
+            try {
+                if (offHeapTable.get(slot, 0) == windowId) {
+                    long counter = offHeapTable.get(slot, 1);
+                    offHeapTable.set(slot, 1, counter - Math.min(permits, counter));
+                }
+            } finally {
+                offHeapTable.release(slot);
+            }
+            return;
+        }
+
+        WindowState state = windowStateMap.get(key);
+        if (state == null) {
+            return;
+        }
         synchronized (state) {
-            // Nếu windowId hiện tại khác với windowId đã lưu
-            // → chúng ta đã bước sang một cửa sổ thời gian mới
-            // → reset counter về 0 và cập nhật windowId
-            if (state.windowId != currentWindowId) {
-                state.windowId = currentWindowId;
-                state.counter = 0;
+            // retired → key đã (hoặc sẽ) bắt đầu lại từ state mới, lô cũ không còn được tính
+            if (!state.retired && state.windowId == windowId) {
+                state.counter -= Math.min(permits, state.counter);
             }
+        }
+    }
 
-            // Tăng counter lên 1 cho request hiện tại
-            state.counter++;
+    /**
+     * Giống BƯỚC 2-3 ở trên, nhưng state là bản ghi off-heap:
+     * acquire/release thay cho synchronized, không có retired
+     * (bảng tự tái sử dụng bản ghi fresh). release trả false (bảng dùng
+     * chung, lock đã bị giành) thì bỏ quyết định và tính lại.
+     */
+    private boolean tryAcquireOffHeap(RateLimitKey key, long permits, long now, long currentWindowId,
+                                      RateLimitDecision decision) {
+        while (true) {
+            long slot = offHeapTable.acquire(key.hash64(), now, this::isFreshRecord);
+            boolean allowed;
+            boolean kept;
+            try {
+                long counter = offHeapTable.get(slot, 1);
+                if (offHeapTable.get(slot, 0) != currentWindowId) {
+                    offHeapTable.set(slot, 0, currentWindowId);
+                    counter = 0;
+                }
+                allowed = permits <= maxRequests - counter;
+                if (allowed) {
+                    counter += permits;
+                }
+                offHeapTable.set(slot, 1, counter);
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, counter, now);
+                }
+            } finally {
+                kept = offHeapTable.release(slot);
+            }
+            if (kept) {
+                return allowed;
+            }
+            // Lock bị tiến trình khác giành giữa chừng: bản ghi có thể đã bị ghi đè, tính lại từ đầu
+        }
+    }
 
-            // Nếu counter <= maxRequests → request được phép đi qua
-            // Nếu counter > maxRequests → request bị từ chối
-            return state.counter <= maxRequests;
+    /**
+     * Điền kết quả chi tiết khi vẫn đang giữ lock của state.
+     * Counter reset ở ranh giới cửa sổ kế tiếp → lô bị từ chối chỉ qua được
+     * từ đó (hoặc không bao giờ nếu lớn hơn maxRequests).
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits, long counter, long now) {
+        long resetAfter = windowSizeInMillis - now % windowSizeInMillis;
+        long retryAfter = allowed ? 0 : permits > maxRequests ? RateLimitDecision.NEVER : resetAfter;
+        decision.set(allowed, maxRequests, maxRequests - counter, retryAfter, resetAfter);
+    }
+
+    /**
+     * Bản ghi off-heap fresh khi cửa sổ đã hết hạn (hoặc chưa đếm request nào).
+     */
+    private boolean isFreshRecord(long slot, long now) {
+        return offHeapTable.get(slot, 0) < now / windowSizeInMillis || offHeapTable.get(slot, 1) == 0;
+    }
+
+    /**
+     * Đánh dấu state retired nếu cửa sổ của nó đã hết hạn: key quay lại sẽ
+     * reset counter về 0, giống hệt một WindowState mới.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(WindowState state, long now) {
+        synchronized (state) {
+            if (state.windowId < now / windowSizeInMillis) {
+                state.retired = true;
+            }
+            return state.retired;
         }
     }
 
     /**
-     * Lấy thời gian hiện tại (milliseconds).
-     *
-     * Tại sao tách thành method riêng mà không gọi trực tiếp System.currentTimeMillis()?
-     * → Để có thể OVERRIDE trong test! Khi test, ta cần kiểm soát thời gian
-     *   (ví dụ: giả lập việc thời gian trôi qua 1 phút) mà không cần
-     *   Thread.sleep() thật, giúp test chạy nhanh và ổn định.
-     *
-     * Đây là kỹ thuật phổ biến gọi là "Seam" trong testing -
-     * tạo một điểm mà ta có thể can thiệp vào hành vi của class.
-     *
-     * @return thời gian hiện tại tính bằng milliseconds kể từ Unix epoch
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
      */
-    protected long getCurrentTimeMillis() {
-        return System.currentTimeMillis();
+    private void retire(WindowState state) {
+        synchronized (state) {
+            state.retired = true;
+        }
+    }
+
+    /**
+     * State cho key lần đầu xuất hiện: state đã lưu trong snapshot nếu có,
+     * ngược lại cửa sổ trống.
+     */
+    private WindowState newState(RateLimitKey key, long currentWindowId) {
+        StateSnapshot snapshot = restoredSnapshot;
+        long[] fields = snapshot == null ? null : snapshot.take(key);
+        if (fields == null) {
+            return new WindowState(currentWindowId);
+        }
+        WindowState state = new WindowState(fields[0]);
+        state.counter = fields[1];
+        return state;
+    }
+
+    /**
+     * Cùng cách mã hóa với bản ghi off-heap: field 0 = windowId, field 1 = counter.
+     */
+    @Override
+    public void forEachState(long now, StateVisitor visitor) throws IOException {
+        requireOnHeap();
+        long[] fields = new long[2];
+        for (Map.Entry<RateLimitKey, WindowState> entry : windowStateMap.entries()) {
+            WindowState state = entry.getValue();
+            synchronized (state) {
+                if (state.retired) {
+                    continue;
+                }
+                fields[0] = state.windowId;
+                fields[1] = state.counter;
+            }
+            if (!isFreshState(fields, now)) {
+                visitor.visit(entry.getKey(), fields);
+            }
+        }
+    }
+
+    @Override
+    public boolean isFreshState(long[] fields, long now) {
+        return fields[0] < now / windowSizeInMillis || fields[1] == 0;
+    }
+
+    @Override
+    public String snapshotFormat() {
+        return "fixed-window-counter/1";
+    }
+
+    @Override
+    public int snapshotStateWidth() {
+        return 2;
+    }
+
+    @Override
+    public void restoreFrom(StateSnapshot snapshot) {
+        requireOnHeap();
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot không được null");
+        }
+        snapshot.requireFormat(snapshotFormat(), snapshotStateWidth());
+        if (windowStateMap.size() > 0) {
+            throw new IllegalStateException("restoreFrom phải được gọi trước request đầu tiên");
+        }
+        restoredSnapshot = snapshot;
+    }
+
+    @Override
+    public StateSnapshot restoredSnapshot() {
+        return restoredSnapshot;
+    }
+
+    private void requireOnHeap() {
+        if (offHeapTable != null) {
+            throw new IllegalStateException("Snapshot chỉ hỗ trợ limiter lưu state trên heap");
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    long trackedKeyCount() {
+        return offHeapTable != null ? offHeapTable.size() : windowStateMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
     }
 
     /**
@@ -215,6 +561,9 @@ public class FixedWindowCounterRateLimiter implements RateLimiter {
         /** Số request đã đếm được trong cửa sổ hiện tại */
         long counter;
 
+        /** true khi state đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
+
         WindowState(long windowId) {
             this.windowId = windowId;
             this.counter = 0;
@@ -0,0 +1,335 @@
+package com.dncuong.ws.rate_limit.algorithm.fixedwindow;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * THUẬT TOÁN: FIXED WINDOW COUNTER - BIẾN THỂ LOCK-FREE
+ * =====================================================================
+ *
+ * Cùng ngữ nghĩa với {@link FixedWindowCounterRateLimiter} (cửa sổ cố định,
+ * reset counter khi sang cửa sổ mới, không bao giờ cho phép quá maxRequests),
+ * nhưng KHÔNG dùng synchronized.
+ *
+ * VẤN ĐỀ CỦA BẢN synchronized:
+ * ------------------------------
+ * Mỗi request phải vào monitor của WindowState. Với một vài "hot key"
+ * (nhiều user đi chung 1 IP NAT, một tenant rất lớn), tất cả thread phục vụ
+ * request bị xếp hàng ở cùng một monitor → thêm CPU cũng không tăng throughput.
+ *
+ * Ý TƯỞNG: GÓI (PACK) windowId + counter VÀO MỘT SỐ 64-BIT
+ * ---------------------------------------------------------
+ * Lý do bản synchronized không dùng được AtomicLong: cần cập nhật NGUYÊN TỬ
+ * CẢ HAI giá trị windowId và counter. Nếu gói cả hai vào cùng một long
+ * thì chỉ cần MỘT phép CAS (compare-and-set) là đủ:
+ *
+ *   63                    32 31                     0
+ *   ┌───────────────────────┬───────────────────────┐
+ *   │  windowId (32 bit)    │   counter (32 bit)    │
+ *   └───────────────────────┴───────────────────────┘
+ *
+ * LUỒNG CAS:
+ *   1. Đọc word hiện tại, tách ra windowId và counter
+ *   2. Nếu windowId khác cửa sổ hiện tại → word mới = (currentWindow, 1)  [reset]
+ *   3. Nếu cùng cửa sổ và counter >= maxRequests → TỪ CHỐI (không cần ghi gì)
+ *   4. Ngược lại → word mới = (currentWindow, counter + 1)
+ *   5. CAS(word cũ, word mới): thành công → CHO PHÉP; thất bại → thread khác
+ *      vừa đổi word, quay lại bước 1 với giá trị mới nhất
+ *
+ * Vì mọi thay đổi đều đi qua CAS trên cùng một word, không thể có 2 thread
+ * cùng "nhìn thấy" counter = maxRequests - 1 và cùng được phép → không bao giờ
+ * cho phép vượt giới hạn.
+ *
+ * Request bị TỪ CHỐI không ghi gì vào word, chỉ là một phép ĐỌC → key đang
+ * bị chặn không gây tranh chấp cache line.
+ *
+ * GIỚI HẠN CỦA VIỆC ĐÓNG GÓI:
+ * ----------------------------
+ * - counter 32 bit → maxRequests tối đa 2^32 - 2 (validate trong constructor).
+ *   Giá trị 2^32 - 1 không bao giờ đạt tới, nhờ đó word toàn bit 1 được dành
+ *   riêng làm dấu {@link #RETIRED}.
+ * - windowId chỉ giữ 32 bit thấp. Hai windowId chỉ bị nhầm là "cùng cửa sổ"
+ *   khi key nhàn rỗi đúng bội số của 2^32 cửa sổ (với cửa sổ 1 giây là ~136 năm),
+ *   nên trong thực tế ngữ nghĩa reset vẫn chính xác.
+ *
+ * @author dncuong
+ */
+public class LockFreeFixedWindowCounterRateLimiter implements RateLimiter {
+
+    /** Số bit dành cho counter (nửa thấp của word). */
+    private static final int COUNTER_BITS = 32;
+
+    /** Mask để lấy counter từ word. */
+    private static final long COUNTER_MASK = 0xFFFF_FFFFL;
+
+    /** maxRequests lớn nhất còn biểu diễn được trong 32 bit counter. */
+    static final long MAX_SUPPORTED_REQUESTS = COUNTER_MASK - 1;
+
+    /**
+     * Word đặc biệt đánh dấu state đã bị thread dọn dẹp loại khỏi map.
+     * Counter của word này (2^32 - 1) lớn hơn mọi maxRequests hợp lệ nên
+     * không bao giờ trùng với một word thật.
+     */
+    static final long RETIRED = -1L;
+
+    /**
+     * Số request tối đa được phép trong một cửa sổ thời gian.
+     */
+    private final long maxRequests;
+
+    /**
+     * Kích thước cửa sổ thời gian, tính bằng milliseconds.
+     */
+    private final long windowSizeInMillis;
+
+    /**
+     * Bảng lưu word (windowId + counter) cho mỗi key.
+     * Mỗi key chỉ tốn một AtomicLong thay vì một object có 2 field + monitor.
+     * Key có cửa sổ đã hết hạn được {@link KeyStateStore} dọn dần.
+     */
+    private final KeyStateStore<RateLimitKey, AtomicLong> windowStateMap;
+
+    /**
+     * Nguồn thời gian ({@link SystemClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Lock-free Fixed Window Counter Rate Limiter.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ (tối đa 2^32 - 2)
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeFixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Lock-free Fixed Window Counter Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ (tối đa 2^32 - 2)
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                           nhất bị loại và bắt đầu lại từ state mới
+     *                           ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeFixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys) {
+        this(maxRequests, windowSizeInMillis, maxTrackedKeys, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Lock-free Fixed Window Counter Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeFixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Lock-free Fixed Window Counter Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeFixedWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis,
+                                                 int maxTrackedKeys, RateLimitClock clock) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException(
+                    "maxRequests phải lớn hơn 0, nhận được: " + maxRequests);
+        }
+        if (maxRequests > MAX_SUPPORTED_REQUESTS) {
+            throw new IllegalArgumentException(
+                    "maxRequests không được vượt quá " + MAX_SUPPORTED_REQUESTS
+                            + " (counter 32 bit), nhận được: " + maxRequests);
+        }
+        if (windowSizeInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.maxRequests = maxRequests;
+        this.windowSizeInMillis = windowSizeInMillis;
+        this.windowStateMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
+     *
+     * Toàn bộ quyết định nằm trong một vòng lặp CAS trên word của key,
+     * không có lock nào được lấy.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        // === BƯỚC 1: Tính ID của cửa sổ hiện tại (chỉ giữ 32 bit thấp) ===
+        long currentWindowId = (now / windowSizeInMillis) & COUNTER_MASK;
+
+        // === BƯỚC 2: Lấy hoặc tạo word cho key ===
+        // Word mới = (currentWindowId, 0): cửa sổ hiện tại, chưa có request nào
+        AtomicLong state = windowStateMap.getOrCreate(key, now,
+                k -> new AtomicLong(pack(currentWindowId, 0)));
+
+        // === BƯỚC 3: Vòng lặp CAS ===
+        while (true) {
+            long word = state.get();
+            long next;
+
+            if (word == RETIRED) {
+                // Thread dọn dẹp vừa loại word này → lấy (hoặc tạo) word mới
+                windowStateMap.removeRetired(key, state);
+                state = windowStateMap.getOrCreate(key, now,
+                        k -> new AtomicLong(pack(currentWindowId, 0)));
+                continue;
+            }
+
+            // Sang cửa sổ mới → counter bắt đầu lại từ 0
+            long counter = windowIdOf(word) == currentWindowId ? counterOf(word) : 0;
+            if (permits > maxRequests - counter) {
+                // Không đủ quota cho cả lô → từ chối, không cần ghi
+                // (kết quả chi tiết lấy từ chính word vừa đọc để quyết định)
+                if (decision != null) {
+                    fillDecision(decision, false, permits, counter, now);
+                }
+                return false;
+            }
+            // permits <= maxRequests - counter → counter mới vẫn vừa 32 bit
+            next = pack(currentWindowId, counter + permits);
+
+            // CAS thành công → không thread nào chen ngang giữa lúc đọc và ghi
+            // CAS thất bại → word đã bị thread khác thay đổi, đọc lại và thử lại
+            if (state.compareAndSet(word, next)) {
+                if (decision != null) {
+                    fillDecision(decision, true, permits, counter + permits, now);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Cửa sổ của now đã qua → counter đã reset, không còn gì để trả.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        AtomicLong state = windowStateMap.get(key);
+        if (state == null) {
+            return;
+        }
+        long windowId = (now / windowSizeInMillis) & COUNTER_MASK;
+        while (true) {
+            long word = state.get();
+            if (word == RETIRED || windowIdOf(word) != windowId) {
+                return;
+            }
+            long counter = counterOf(word);
+            if (state.compareAndSet(word, pack(windowId, counter - Math.min(permits, counter)))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết từ word đã dùng để quyết định: counter reset ở
+     * ranh giới cửa sổ kế tiếp.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits, long counter, long now) {
+        long resetAfter = windowSizeInMillis - now % windowSizeInMillis;
+        long retryAfter = allowed ? 0 : permits > maxRequests ? RateLimitDecision.NEVER : resetAfter;
+        decision.set(allowed, maxRequests, maxRequests - counter, retryAfter, resetAfter);
+    }
+
+    /**
+     * CAS word sang {@link #RETIRED} nếu cửa sổ của nó đã hết hạn.
+     * Vì tryAcquire cũng chỉ sửa word qua CAS, một request hoặc cập nhật
+     * word trước (CAS này thất bại) hoặc thấy RETIRED sau đó.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(AtomicLong state, long now) {
+        long currentWindowId = (now / windowSizeInMillis) & COUNTER_MASK;
+        long word = state.get();
+        if (word == RETIRED) {
+            return true;
+        }
+        // Khoảng cách (không dấu, modulo 2^32) từ cửa sổ của word tới cửa sổ hiện tại.
+        // Word "đi trước" now của thread dọn dẹp cho khoảng cách rất lớn → không đụng tới.
+        long windowsBehind = (currentWindowId - windowIdOf(word)) & COUNTER_MASK;
+        return windowsBehind > 0 && windowsBehind <= Integer.MAX_VALUE
+                && state.compareAndSet(word, RETIRED);
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(AtomicLong state) {
+        state.set(RETIRED);
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return windowStateMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /** Gói windowId (32 bit cao) và counter (32 bit thấp) vào một long. */
+    static long pack(long windowId, long counter) {
+        return (windowId << COUNTER_BITS) | (counter & COUNTER_MASK);
+    }
+
+    /** Tách windowId (32 bit, không dấu) từ word. */
+    static long windowIdOf(long word) {
+        return word >>> COUNTER_BITS;
+    }
+
+    /** Tách counter (32 bit, không dấu) từ word. */
+    static long counterOf(long word) {
+        return word & COUNTER_MASK;
+    }
+}
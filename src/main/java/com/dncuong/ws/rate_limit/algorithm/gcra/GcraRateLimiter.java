@@ -0,0 +1,340 @@
+package com.dncuong.ws.rate_limit.algorithm.gcra;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * THUẬT TOÁN: GCRA (Generic Cell Rate Algorithm)
+ * =====================================================================
+ *
+ * NGUỒN GỐC:
+ * -----------
+ * GCRA được định nghĩa cho mạng ATM để kiểm soát tốc độ cell. Về hành vi
+ * nó TƯƠNG ĐƯƠNG Token Bucket (burst = bucketCapacity, tốc độ trung bình =
+ * refillRate), nhưng thay vì lưu (số token, thời điểm nạp lần cuối) nó chỉ
+ * lưu MỘT số: TAT - "theoretical arrival time".
+ *
+ * NGUYÊN LÝ HOẠT ĐỘNG:
+ * ---------------------
+ * - emissionInterval T = 1 / refillRate: khoảng thời gian "trả" cho 1 token
+ * - tolerance τ = bucketCapacity × T: độ sớm tối đa so với lịch đều đặn
+ * - TAT: thời điểm mà nếu mọi request đã cấp được phát đều đặn với tốc độ
+ *   refillRate thì request cuối cùng mới "đến hạn"
+ *
+ * Request xin n permit tại now:
+ *   newTat = max(TAT, now) + n × T
+ *   newTat - now <= τ  → CHO PHÉP, TAT = newTat
+ *   ngược lại          → TỪ CHỐI, TAT giữ nguyên
+ *
+ * Quan hệ với Token Bucket: số token còn lại = (τ - (TAT - now)) / T.
+ *   - TAT <= now         ↔ xô đầy (bucketCapacity token)
+ *   - TAT = now + τ      ↔ xô rỗng
+ *
+ * VÍ DỤ: bucketCapacity = 3, refillRate = 1 token/s → T = 1s, τ = 3s
+ *   t=0: 3 request → TAT = 1s, 2s, 3s (newTat - now = 3s <= τ → vẫn cho phép)
+ *   t=0: request 4 → newTat = 4s, 4s - 0 > 3s → TỪ CHỐI
+ *   t=1: request   → newTat = 4s, 4s - 1s = 3s <= τ → CHO PHÉP
+ *
+ * TẠI SAO GCRA?
+ * --------------
+ * - State mỗi key là MỘT long → cập nhật bằng một phép CAS duy nhất, không
+ *   cần object bất biến như {@link com.dncuong.ws.rate_limit.algorithm.tokenbucket.LockFreeTokenBucketRateLimiter}
+ * - Hot path chỉ có phép cộng/so sánh số nguyên, không có số thực
+ * - Một long là dạng tự nhiên cho bảng off-heap hay bộ nhớ chia sẻ
+ * - Retry-after chính xác: (newTat - τ) - now, không cần ước lượng
+ *
+ * ĐƠN VỊ THỜI GIAN:
+ * ------------------
+ * Nanosecond từ {@link RateLimitClock#currentTimeNanos()}. T được làm tròn
+ * tới nanosecond gần nhất MỘT lần trong constructor: sai số tốc độ tương đối
+ * tối đa 0.5 / T (ví dụ 10^6 token/s → T = 1000 ns → sai số ≤ 0.05%).
+ * Lệnh gọi truyền now theo millisecond (ví dụ từ RateLimitBatch) được đổi
+ * sang nanosecond bằng now × 10^6.
+ *
+ * Request bị TỪ CHỐI chỉ ĐỌC state, không ghi → key đang bị chặn không gây
+ * tranh chấp cache line.
+ *
+ * @author dncuong
+ */
+public class GcraRateLimiter implements RateLimiter {
+
+    /**
+     * TAT đặc biệt đánh dấu state đã bị thread dọn dẹp loại khỏi map.
+     * Không bao giờ trùng TAT thật (TAT thật nằm quanh thời điểm hiện tại).
+     */
+    static final long RETIRED = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /** Burst tối đa, tính bằng permit. */
+    private final long bucketCapacity;
+
+    /** T: thời gian nạp 1 permit, tính bằng nanoseconds. */
+    private final long emissionIntervalNanos;
+
+    /** τ = bucketCapacity × T, tính bằng nanoseconds. */
+    private final long toleranceNanos;
+
+    /**
+     * Bảng lưu TAT cho mỗi key. TAT đã lùi về quá khứ (xô đầy) được
+     * {@link KeyStateStore} dọn dần.
+     */
+    private final KeyStateStore<RateLimitKey, AtomicLong> tatMap;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo GCRA Rate Limiter.
+     *
+     * @param bucketCapacity burst tối đa (giống sức chứa xô của Token Bucket)
+     * @param refillRate     tốc độ trung bình (số permit mỗi giây)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public GcraRateLimiter(long bucketCapacity, double refillRate) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo GCRA Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param bucketCapacity burst tối đa (giống sức chứa xô của Token Bucket)
+     * @param refillRate     tốc độ trung bình (số permit mỗi giây)
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public GcraRateLimiter(long bucketCapacity, double refillRate, int maxTrackedKeys) {
+        this(bucketCapacity, refillRate, maxTrackedKeys, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo GCRA Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity burst tối đa (giống sức chứa xô của Token Bucket)
+     * @param refillRate     tốc độ trung bình (số permit mỗi giây)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public GcraRateLimiter(long bucketCapacity, double refillRate, RateLimitClock clock) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo GCRA Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity burst tối đa (giống sức chứa xô của Token Bucket)
+     * @param refillRate     tốc độ trung bình (số permit mỗi giây)
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public GcraRateLimiter(long bucketCapacity, double refillRate, int maxTrackedKeys, RateLimitClock clock) {
+        if (bucketCapacity <= 0) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity phải lớn hơn 0, nhận được: " + bucketCapacity);
+        }
+        if (!(refillRate > 0) || refillRate > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException(
+                    "refillRate phải nằm trong (0, " + NANOS_PER_SECOND + "], nhận được: " + refillRate);
+        }
+        long emissionInterval = Math.round(NANOS_PER_SECOND / refillRate);
+        // τ và TAT (≈ thời điểm hiện tại tính bằng ns) cộng lại không được tràn long
+        if (bucketCapacity > Long.MAX_VALUE / 4 / emissionInterval) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity / refillRate quá lớn (burst kéo dài hàng chục năm), nhận được: "
+                            + bucketCapacity + " / " + refillRate);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.bucketCapacity = bucketCapacity;
+        this.emissionIntervalNanos = emissionInterval;
+        this.toleranceNanos = bucketCapacity * emissionInterval;
+        this.tatMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits) {
+        return tryAcquireNanos(key, permits, clock.currentTimeNanos(), null);
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, RateLimitDecision decision) {
+        return tryAcquireNanos(key, permits, clock.currentTimeNanos(), decision);
+    }
+
+    /**
+     * Xin permits đơn vị quota tại thời điểm now tính bằng millisecond.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        return tryAcquireNanos(key, permits, now * NANOS_PER_MILLI, decision);
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key tại nowNanos: cấp cả lô hoặc không trừ gì.
+     *
+     * LUỒNG XỬ LÝ (vòng lặp CAS trên TAT của key):
+     * 1. Đọc TAT; TAT ở quá khứ coi như now (xô đầy, phần dư không tích lũy)
+     * 2. newTat = max(TAT, now) + permits × T
+     * 3. newTat - now > τ → từ chối, không ghi gì
+     * 4. CAS(TAT, newTat): thành công → cho phép; thất bại → đọc lại, thử lại
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param nowNanos thời điểm hiện tại, lấy từ {@link RateLimitClock#currentTimeNanos()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    public boolean tryAcquireNanos(RateLimitKey key, long permits, long nowNanos, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        if (permits > bucketCapacity) {
+            // Lô lớn hơn burst không bao giờ được cấp (và permits × T có thể tràn số)
+            if (decision != null) {
+                AtomicLong state = tatMap.get(key);
+                long tat = state == null ? nowNanos : state.get();
+                fillDecision(decision, false, permits, tat == RETIRED ? nowNanos : tat, nowNanos);
+            }
+            return false;
+        }
+        long nowMillis = Math.floorDiv(nowNanos, NANOS_PER_MILLI);
+        long increment = permits * emissionIntervalNanos;
+
+        // Key mới: TAT = now (xô đầy)
+        AtomicLong state = tatMap.getOrCreate(key, nowMillis, k -> new AtomicLong(nowNanos));
+        while (true) {
+            long tat = state.get();
+            if (tat == RETIRED) {
+                // Thread dọn dẹp vừa loại state này → lấy (hoặc tạo) state mới
+                tatMap.removeRetired(key, state);
+                state = tatMap.getOrCreate(key, nowMillis, k -> new AtomicLong(nowNanos));
+                continue;
+            }
+
+            long newTat = Math.max(tat, nowNanos) + increment;
+            if (newTat - nowNanos > toleranceNanos) {
+                if (decision != null) {
+                    fillDecision(decision, false, permits, tat, nowNanos);
+                }
+                return false;
+            }
+            if (state.compareAndSet(tat, newTat)) {
+                if (decision != null) {
+                    fillDecision(decision, true, permits, newTat, nowNanos);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô):
+     * lùi TAT lại permits × T, nhưng không lùi quá now (xô đầy thì không
+     * đầy thêm được).
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        AtomicLong state = tatMap.get(key);
+        if (state == null) {
+            return;
+        }
+        long nowNanos = now * NANOS_PER_MILLI;
+        long decrement = Math.min(permits, bucketCapacity) * emissionIntervalNanos;
+        while (true) {
+            long tat = state.get();
+            if (tat == RETIRED || tat <= nowNanos) {
+                return;
+            }
+            long next = Math.max(nowNanos, tat - decrement);
+            if (state.compareAndSet(tat, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết từ TAT đã dùng để quyết định (TAT mới nếu được
+     * cấp, TAT vừa đọc nếu bị từ chối). Mọi giá trị suy ra trực tiếp từ TAT,
+     * làm tròn lên millisecond.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits, long tat, long nowNanos) {
+        long debt = Math.max(0, tat - nowNanos);
+        long remaining = (toleranceNanos - debt) / emissionIntervalNanos;
+        long retryAfter;
+        if (allowed) {
+            retryAfter = 0;
+        } else if (permits > bucketCapacity) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            // Thời điểm sớm nhất newTat - now' <= τ: now' = max(TAT, now) + permits × T - τ
+            long waitNanos = debt + permits * emissionIntervalNanos - toleranceNanos;
+            retryAfter = Math.max(1, Math.ceilDiv(waitNanos, NANOS_PER_MILLI));
+        }
+        decision.set(allowed, bucketCapacity, remaining, retryAfter, Math.ceilDiv(debt, NANOS_PER_MILLI));
+    }
+
+    /**
+     * CAS state sang {@link #RETIRED} nếu TAT đã lùi về quá khứ (xô đầy -
+     * giống hệt state mới tạo cho key lần đầu xuất hiện).
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp (now tính bằng millisecond).
+     */
+    private boolean retireIfFresh(AtomicLong state, long now) {
+        long tat = state.get();
+        if (tat == RETIRED) {
+            return true;
+        }
+        return tat <= now * NANOS_PER_MILLI && state.compareAndSet(tat, RETIRED);
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(AtomicLong state) {
+        state.set(RETIRED);
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return tatMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+}
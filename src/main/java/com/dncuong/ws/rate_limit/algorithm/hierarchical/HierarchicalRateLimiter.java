@@ -0,0 +1,386 @@
+package com.dncuong.ws.rate_limit.algorithm.hierarchical;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * QUOTA PHÂN CẤP: TENANT → USER → API KEY, MỘT QUYẾT ĐỊNH NGUYÊN TỬ
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Một request tiêu quota ở nhiều tầng của cây: tổ chức (tenant), user của
+ * tổ chức đó, credential của user đó. Dùng một TokenBucketRateLimiter cho
+ * mỗi tầng thì tầng sau từ chối sau khi tầng trước đã trừ → quota bị rò.
+ * Khoá tất cả các node theo thứ tự thì node gốc của một tenant lớn trở
+ * thành lock nóng nhất hệ thống: mọi request của tenant xếp hàng ở đó.
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Mỗi node lưu MỘT long: TAT của GCRA (xem
+ * {@link com.dncuong.ws.rate_limit.algorithm.gcra.GcraRateLimiter}).
+ * Request đi từ LÁ lên GỐC:
+ *
+ *   credential (lock) → user (lock) → tenant (CAS, không lock)
+ *
+ *   1. Khoá node của tầng sâu nhất, kiểm tra tầng đó có cấp được lô không;
+ *      không → từ chối ngay, chưa ghi gì
+ *   2. Giữ lock, đi lên tầng cha và làm tương tự
+ *   3. Tầng gốc: một vòng CAS (kiểm tra + ghi TAT) - đây là điểm quyết định
+ *   4. Gốc đồng ý → ghi TAT mới ở các tầng dưới (vẫn đang giữ lock) rồi nhả
+ *      Gốc từ chối → nhả lock, các tầng dưới chưa từng bị ghi
+ *
+ * Kết quả:
+ *   - Từ chối ở bất kỳ tầng nào: không trừ gì, không phải trả lại gì
+ *   - Node gốc KHÔNG BAO GIỜ bị khoá: request của mọi user trong tenant chỉ
+ *     tranh chấp nhau ở một phép CAS
+ *   - Lock của tầng dưới chỉ tranh chấp giữa các request cùng user / cùng
+ *     credential - vốn là những request đằng nào cũng phải xếp hàng ở đó
+ *
+ * TẠI SAO KHÔNG DEADLOCK?
+ * ------------------------
+ * Mọi thread khoá theo cùng một thứ tự: tầng sâu trước, tầng nông sau.
+ * Thread đang giữ lock ở tầng d chỉ có thể chờ lock ở tầng nông hơn d,
+ * nên không thể có vòng chờ.
+ *
+ * KEY CỦA CÁC TẦNG:
+ * ------------------
+ * Mỗi tầng có bảng state riêng: key phải duy nhất TRONG TẦNG (ví dụ user ID
+ * toàn cục, không phải tên user chỉ duy nhất trong một tenant). Cây không
+ * cần khai báo trước: path của mỗi request chính là nhánh của nó.
+ *
+ * @author dncuong
+ */
+public class HierarchicalRateLimiter {
+
+    /**
+     * TAT đặc biệt đánh dấu state đã bị thread dọn dẹp loại khỏi map.
+     */
+    static final long RETIRED = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /** Quota của từng tầng, tầng 0 là gốc. */
+    private final QuotaLevel[] levels;
+
+    /** Bảng TAT của từng tầng. */
+    private final List<KeyStateStore<RateLimitKey, AtomicLong>> stores;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Hierarchical Rate Limiter.
+     *
+     * @param levels quota của từng tầng, từ gốc (tenant) tới lá (credential)
+     * @throws IllegalArgumentException nếu không có tầng nào hoặc có tầng null
+     */
+    public HierarchicalRateLimiter(QuotaLevel... levels) {
+        this(KeyStateStore.UNBOUNDED, levels);
+    }
+
+    /**
+     * Khởi tạo Hierarchical Rate Limiter, giới hạn số key được theo dõi ở MỖI tầng.
+     *
+     * @param maxTrackedKeys số key tối đa mỗi tầng ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param levels         quota của từng tầng, từ gốc tới lá
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public HierarchicalRateLimiter(int maxTrackedKeys, QuotaLevel... levels) {
+        this(maxTrackedKeys, MonotonicClock.INSTANCE, levels);
+    }
+
+    /**
+     * Khởi tạo Hierarchical Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param clock  nguồn thời gian
+     * @param levels quota của từng tầng, từ gốc tới lá
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public HierarchicalRateLimiter(RateLimitClock clock, QuotaLevel... levels) {
+        this(KeyStateStore.UNBOUNDED, clock, levels);
+    }
+
+    /**
+     * Khởi tạo Hierarchical Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxTrackedKeys số key tối đa mỗi tầng ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock          nguồn thời gian
+     * @param levels         quota của từng tầng, từ gốc tới lá
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    @SuppressWarnings("unchecked")
+    public HierarchicalRateLimiter(int maxTrackedKeys, RateLimitClock clock, QuotaLevel... levels) {
+        if (levels == null || levels.length == 0) {
+            throw new IllegalArgumentException("levels phải có ít nhất một tầng");
+        }
+        for (QuotaLevel level : levels) {
+            if (level == null) {
+                throw new IllegalArgumentException("levels không được chứa null");
+            }
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.levels = levels.clone();
+        List<KeyStateStore<RateLimitKey, AtomicLong>> perLevel = new ArrayList<>(levels.length);
+        for (int i = 0; i < levels.length; i++) {
+            boolean root = i == 0;
+            perLevel.add(new KeyStateStore<>(
+                    (state, now) -> retireIfFresh(state, now, root), this::retire, maxTrackedKeys));
+        }
+        this.stores = List.copyOf(perLevel);
+        this.clock = clock;
+    }
+
+    /**
+     * Như {@link #tryAcquire(RateLimitKey[], long)} với 1 permit và key dạng chuỗi.
+     *
+     * @param path key của từng tầng, từ gốc tới lá
+     * @return true nếu request được cấp ở mọi tầng
+     * @throws IllegalArgumentException nếu path không khớp số tầng
+     */
+    public boolean allowRequest(String... path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path không được null");
+        }
+        RateLimitKey[] keys = new RateLimitKey[path.length];
+        for (int i = 0; i < path.length; i++) {
+            keys[i] = RateLimitKey.of(path[i]);
+        }
+        return tryAcquire(keys, 1);
+    }
+
+    /**
+     * Xin permits đơn vị ở mọi tầng của path: cấp ở tất cả hoặc không trừ gì.
+     *
+     * @param path    key của từng tầng, từ gốc tới lá
+     * @param permits số đơn vị cần, lớn hơn 0
+     * @return true nếu cả lô được cấp ở mọi tầng
+     * @throws IllegalArgumentException nếu path không khớp số tầng hoặc permits <= 0
+     */
+    public boolean tryAcquire(RateLimitKey[] path, long permits) {
+        return tryAcquireNanos(path, permits, clock.currentTimeNanos(), null);
+    }
+
+    /**
+     * Như {@link #tryAcquire(RateLimitKey[], long)}, đồng thời điền kết quả chi tiết:
+     * limit/remaining của tầng chặt nhất, retry-after của tầng phải chờ lâu nhất.
+     *
+     * @param path     key của từng tầng, từ gốc tới lá
+     * @param permits  số đơn vị cần, lớn hơn 0
+     * @param decision holder nhận kết quả chi tiết
+     * @return true nếu cả lô được cấp ở mọi tầng
+     * @throws IllegalArgumentException nếu path không khớp số tầng hoặc permits <= 0
+     */
+    public boolean tryAcquire(RateLimitKey[] path, long permits, RateLimitDecision decision) {
+        return tryAcquireNanos(path, permits, clock.currentTimeNanos(), decision);
+    }
+
+    /**
+     * Xin permits đơn vị ở mọi tầng của path tại nowNanos.
+     *
+     * @param path     key của từng tầng, từ gốc tới lá
+     * @param permits  số đơn vị cần, lớn hơn 0
+     * @param nowNanos thời điểm hiện tại, lấy từ {@link RateLimitClock#currentTimeNanos()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả lô được cấp ở mọi tầng
+     * @throws IllegalArgumentException nếu path không khớp số tầng hoặc permits <= 0
+     */
+    public boolean tryAcquireNanos(RateLimitKey[] path, long permits, long nowNanos, RateLimitDecision decision) {
+        if (path == null || path.length != levels.length) {
+            throw new IllegalArgumentException(
+                    "path phải có đúng " + levels.length + " key (gốc → lá)");
+        }
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        if (decision != null) {
+            // Giá trị trung tính cho phép gộp: min remaining, max retry-after/reset
+            decision.set(true, 0, Long.MAX_VALUE, 0, 0);
+        }
+        boolean allowed = acquire(levels.length - 1, path, permits, nowNanos, decision);
+        if (decision != null && allowed) {
+            decision.set(true, decision.getLimit(), decision.getRemaining(), 0, decision.getResetAfterMillis());
+        }
+        return allowed;
+    }
+
+    /**
+     * Xin ở tầng level (đang giữ lock của mọi tầng sâu hơn), rồi đệ quy lên cha.
+     * Tầng level chỉ ghi TAT mới khi cả nhánh phía trên đã đồng ý.
+     */
+    private boolean acquire(int level, RateLimitKey[] path, long permits, long nowNanos, RateLimitDecision decision) {
+        QuotaLevel quota = levels[level];
+        if (permits > quota.getBucketCapacity()) {
+            // Lô lớn hơn burst không bao giờ được cấp (và permits × T có thể tràn số)
+            if (decision != null) {
+                merge(decision, false, quota, peek(level, path[level], nowNanos), permits, nowNanos);
+                peekAncestors(level, path, permits, nowNanos, decision);
+            }
+            return false;
+        }
+        long increment = permits * quota.emissionIntervalNanos();
+        long nowMillis = Math.floorDiv(nowNanos, NANOS_PER_MILLI);
+        KeyStateStore<RateLimitKey, AtomicLong> store = stores.get(level);
+        RateLimitKey key = path[level];
+
+        while (true) {
+            AtomicLong state = store.getOrCreate(key, nowMillis, k -> new AtomicLong(nowNanos));
+            if (level == 0) {
+                // Gốc: CAS, không lock
+                long tat = state.get();
+                if (tat == RETIRED) {
+                    store.removeRetired(key, state);
+                    continue;
+                }
+                long newTat = Math.max(tat, nowNanos) + increment;
+                if (newTat - nowNanos > quota.toleranceNanos()) {
+                    if (decision != null) {
+                        merge(decision, false, quota, tat, permits, nowNanos);
+                    }
+                    return false;
+                }
+                if (!state.compareAndSet(tat, newTat)) {
+                    continue;
+                }
+                if (decision != null) {
+                    merge(decision, true, quota, newTat, permits, nowNanos);
+                }
+                return true;
+            }
+
+            synchronized (state) {
+                long tat = state.get();
+                if (tat == RETIRED) {
+                    // Thread dọn dẹp vừa loại state này → lấy (hoặc tạo) state mới
+                    store.removeRetired(key, state);
+                    continue;
+                }
+                long newTat = Math.max(tat, nowNanos) + increment;
+                if (newTat - nowNanos > quota.toleranceNanos()) {
+                    if (decision != null) {
+                        merge(decision, false, quota, tat, permits, nowNanos);
+                        peekAncestors(level, path, permits, nowNanos, decision);
+                    }
+                    return false;
+                }
+                if (!acquire(level - 1, path, permits, nowNanos, decision)) {
+                    if (decision != null) {
+                        merge(decision, false, quota, tat, permits, nowNanos);
+                    }
+                    return false;
+                }
+                // Mọi tầng phía trên đã đồng ý: tầng này ghi lúc vẫn giữ lock
+                state.set(newTat);
+                if (decision != null) {
+                    merge(decision, true, quota, newTat, permits, nowNanos);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Đọc (không ghi, không tạo) TAT của key ở tầng level; key chưa có state = now.
+     */
+    private long peek(int level, RateLimitKey key, long nowNanos) {
+        AtomicLong state = stores.get(level).get(key);
+        long tat = state == null ? nowNanos : state.get();
+        return tat == RETIRED ? nowNanos : tat;
+    }
+
+    /**
+     * Tầng level từ chối nên các tầng cha không được hỏi: chỉ đọc TAT của
+     * chúng để retry-after phản ánh tầng phải chờ lâu nhất.
+     */
+    private void peekAncestors(int level, RateLimitKey[] path, long permits, long nowNanos,
+                               RateLimitDecision decision) {
+        for (int i = level - 1; i >= 0; i--) {
+            merge(decision, false, levels[i], peek(i, path[i], nowNanos), permits, nowNanos);
+        }
+    }
+
+    /**
+     * Gộp kết quả của một tầng (từ TAT đã dùng để quyết định) vào decision.
+     */
+    private static void merge(RateLimitDecision decision, boolean allowedHere, QuotaLevel quota,
+                              long tat, long permits, long nowNanos) {
+        long interval = quota.emissionIntervalNanos();
+        long tolerance = quota.toleranceNanos();
+        long debt = Math.max(0, tat - nowNanos);
+        long remaining = (tolerance - debt) / interval;
+
+        long retryAfter;
+        if (allowedHere) {
+            retryAfter = 0;
+        } else if (permits > quota.getBucketCapacity()) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            long waitNanos = debt + permits * interval - tolerance;
+            retryAfter = waitNanos <= 0 ? 0 : Math.max(1, Math.ceilDiv(waitNanos, NANOS_PER_MILLI));
+        }
+
+        boolean tighter = remaining < decision.getRemaining();
+        decision.set(decision.isAllowed() && allowedHere,
+                tighter ? quota.getBucketCapacity() : decision.getLimit(),
+                tighter ? remaining : decision.getRemaining(),
+                Math.max(decision.getRetryAfterMillis(), retryAfter),
+                Math.max(decision.getResetAfterMillis(), Math.ceilDiv(debt, NANOS_PER_MILLI)));
+    }
+
+    /**
+     * Đánh dấu state retired nếu TAT đã lùi về quá khứ (xô đầy).
+     * Tầng dưới chỉ được ghi khi giữ lock → retire cũng phải giữ lock;
+     * tầng gốc dùng CAS như mọi lần ghi khác.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp (now tính bằng millisecond).
+     */
+    private static boolean retireIfFresh(AtomicLong state, long now, boolean root) {
+        if (root) {
+            long tat = state.get();
+            return tat == RETIRED || (tat <= now * NANOS_PER_MILLI && state.compareAndSet(tat, RETIRED));
+        }
+        synchronized (state) {
+            long tat = state.get();
+            if (tat != RETIRED && tat <= now * NANOS_PER_MILLI) {
+                state.set(RETIRED);
+            }
+            return state.get() == RETIRED;
+        }
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(AtomicLong state) {
+        synchronized (state) {
+            state.set(RETIRED);
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi ở tầng level (dùng trong test).
+     */
+    int trackedKeyCount(int level) {
+        return stores.get(level).size();
+    }
+
+    /**
+     * Thời điểm hiện tại theo đồng hồ của limiter, tính bằng milliseconds.
+     */
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+}
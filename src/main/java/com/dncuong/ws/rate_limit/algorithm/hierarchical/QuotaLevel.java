@@ -0,0 +1,59 @@
+package com.dncuong.ws.rate_limit.algorithm.hierarchical;
+
+/**
+ * Quota của một tầng trong {@link HierarchicalRateLimiter} (ví dụ tầng
+ * tenant, tầng user, tầng API key): burst và tốc độ trung bình giống
+ * Token Bucket, áp dụng riêng cho từng key của tầng.
+ *
+ * Tham số được đổi một lần sang dạng GCRA (emission interval và tolerance
+ * tính bằng nanosecond) để hot path chỉ có phép tính số nguyên.
+ *
+ * @author dncuong
+ */
+public final class QuotaLevel {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long bucketCapacity;
+    private final long emissionIntervalNanos;
+    private final long toleranceNanos;
+
+    /**
+     * @param bucketCapacity burst tối đa của mỗi key ở tầng này
+     * @param refillRate     tốc độ trung bình (số permit mỗi giây) của mỗi key ở tầng này
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public QuotaLevel(long bucketCapacity, double refillRate) {
+        if (bucketCapacity <= 0) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity phải lớn hơn 0, nhận được: " + bucketCapacity);
+        }
+        if (!(refillRate > 0) || refillRate > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException(
+                    "refillRate phải nằm trong (0, " + NANOS_PER_SECOND + "], nhận được: " + refillRate);
+        }
+        long emissionInterval = Math.round(NANOS_PER_SECOND / refillRate);
+        if (bucketCapacity > Long.MAX_VALUE / 4 / emissionInterval) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity / refillRate quá lớn (burst kéo dài hàng chục năm), nhận được: "
+                            + bucketCapacity + " / " + refillRate);
+        }
+        this.bucketCapacity = bucketCapacity;
+        this.emissionIntervalNanos = emissionInterval;
+        this.toleranceNanos = bucketCapacity * emissionInterval;
+    }
+
+    public long getBucketCapacity() {
+        return bucketCapacity;
+    }
+
+    /** T: thời gian nạp 1 permit, tính bằng nanoseconds. */
+    long emissionIntervalNanos() {
+        return emissionIntervalNanos;
+    }
+
+    /** τ = bucketCapacity × T, tính bằng nanoseconds. */
+    long toleranceNanos() {
+        return toleranceNanos;
+    }
+}
@@ -0,0 +1,314 @@
+package com.dncuong.ws.rate_limit.algorithm.leakybucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * THUẬT TOÁN: LEAKY BUCKET (DẠNG HÀNG ĐỢI) - ĐIỀU HÒA LƯU LƯỢNG
+ * =====================================================================
+ *
+ * KHÁC VỚI CÁC RATE LIMITER KHÁC:
+ * --------------------------------
+ * Các thuật toán trong package algorithm TỪ CHỐI request vượt giới hạn
+ * (HTTP 429) và để client tự thử lại. Shaper thì HOÃN request: mỗi request
+ * được xếp một "chỗ" trong hàng đợi rò ra đều đặn với tốc độ drainRate, và
+ * được trả về thời gian phải chờ trước khi xử lý. Chỉ khi thời gian chờ vượt
+ * maxDelay (hàng đợi đã quá dài) thì request mới bị từ chối.
+ *
+ * Phù hợp với client xử lý theo lô (batch ingestion): thay vì nhận 429 rồi
+ * retry liên tục (tốn CPU cả hai phía), client chỉ thấy response chậm hơn.
+ *
+ * NGUYÊN LÝ HOẠT ĐỘNG:
+ * ---------------------
+ * - emissionInterval T = 1 / drainRate: thời gian một permit "rò" ra khỏi xô
+ * - Mỗi key lưu MỘT số: nextFree - thời điểm hàng đợi của key trống
+ *
+ * Request xin n permit tại now:
+ *   start = max(nextFree, now)      ← request được xử lý tại start
+ *   delay = start - now
+ *   delay > maxDelay → TỪ CHỐI, không ghi gì
+ *   ngược lại        → nextFree = start + n × T, trả về delay
+ *
+ * VÍ DỤ: drainRate = 1 request/s, maxDelay = 2s
+ *   t=0: request 1 → delay 0s (hàng đợi trống)
+ *   t=0: request 2 → delay 1s
+ *   t=0: request 3 → delay 2s
+ *   t=0: request 4 → delay sẽ là 3s > 2s → TỪ CHỐI
+ *   t=1: request   → delay 2s (request 2 vừa rò ra)
+ *
+ * Về toán học đây là GCRA ({@link com.dncuong.ws.rate_limit.algorithm.gcra.GcraRateLimiter})
+ * với burst = 0 và thời gian chờ được "cho mượn" thay vì từ chối: state là
+ * một long cập nhật bằng CAS, hot path chỉ có phép tính số nguyên.
+ *
+ * ĐƠN VỊ THỜI GIAN:
+ * ------------------
+ * Nanosecond từ {@link RateLimitClock#currentTimeNanos()}; delay trả về cũng
+ * tính bằng nanosecond để caller lên lịch chính xác (ScheduledExecutorService
+ * nhận TimeUnit.NANOSECONDS).
+ *
+ * Shaper KHÔNG tự chờ: caller quyết định cách chờ. Trong servlet container
+ * nên dùng async để không giữ thread trong lúc chờ
+ * (xem {@link com.dncuong.ws.rate_limit.filter.ShapingFilter}).
+ *
+ * @author dncuong
+ */
+public class LeakyBucketShaper {
+
+    /**
+     * Giá trị trả về khi request bị từ chối (thời gian chờ vượt maxDelay).
+     */
+    public static final long REJECTED = -1;
+
+    /**
+     * nextFree đặc biệt đánh dấu state đã bị thread dọn dẹp loại khỏi map.
+     */
+    static final long RETIRED = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /** T: thời gian rò 1 permit, tính bằng nanoseconds. */
+    private final long emissionIntervalNanos;
+
+    /** Thời gian chờ tối đa một request được phép xếp hàng, tính bằng nanoseconds. */
+    private final long maxDelayNanos;
+
+    /**
+     * Lô lớn nhất có thể xếp hàng mà n × T không tràn long.
+     */
+    private final long maxPermits;
+
+    /**
+     * Bảng lưu nextFree cho mỗi key. Hàng đợi đã trống (nextFree ở quá khứ)
+     * được {@link KeyStateStore} dọn dần.
+     */
+    private final KeyStateStore<RateLimitKey, AtomicLong> queueMap;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Leaky Bucket Shaper.
+     *
+     * @param drainRate      tốc độ xử lý (số permit mỗi giây)
+     * @param maxDelayMillis thời gian chờ tối đa (milliseconds), 0 = không hoãn, chỉ cho qua hoặc từ chối
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LeakyBucketShaper(double drainRate, long maxDelayMillis) {
+        this(drainRate, maxDelayMillis, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Leaky Bucket Shaper, giới hạn số key được theo dõi.
+     *
+     * @param drainRate      tốc độ xử lý (số permit mỗi giây)
+     * @param maxDelayMillis thời gian chờ tối đa (milliseconds)
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LeakyBucketShaper(double drainRate, long maxDelayMillis, int maxTrackedKeys) {
+        this(drainRate, maxDelayMillis, maxTrackedKeys, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Leaky Bucket Shaper với nguồn thời gian cho trước.
+     *
+     * @param drainRate      tốc độ xử lý (số permit mỗi giây)
+     * @param maxDelayMillis thời gian chờ tối đa (milliseconds)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LeakyBucketShaper(double drainRate, long maxDelayMillis, RateLimitClock clock) {
+        this(drainRate, maxDelayMillis, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Leaky Bucket Shaper giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param drainRate      tốc độ xử lý (số permit mỗi giây)
+     * @param maxDelayMillis thời gian chờ tối đa (milliseconds)
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LeakyBucketShaper(double drainRate, long maxDelayMillis, int maxTrackedKeys, RateLimitClock clock) {
+        if (!(drainRate > 0) || drainRate > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException(
+                    "drainRate phải nằm trong (0, " + NANOS_PER_SECOND + "], nhận được: " + drainRate);
+        }
+        // Giới hạn 1 năm: nextFree (≈ thời điểm hiện tại tính bằng ns) + maxDelay không tràn long
+        if (maxDelayMillis < 0 || maxDelayMillis > 365L * 24 * 3600 * 1000) {
+            throw new IllegalArgumentException(
+                    "maxDelayMillis phải nằm trong [0, 1 năm], nhận được: " + maxDelayMillis);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.emissionIntervalNanos = Math.round(NANOS_PER_SECOND / drainRate);
+        this.maxDelayNanos = maxDelayMillis * NANOS_PER_MILLI;
+        this.maxPermits = Long.MAX_VALUE / 4 / emissionIntervalNanos;
+        this.queueMap = new KeyStateStore<>(this::retireIfIdle, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    /**
+     * Xếp 1 permit vào hàng đợi của key.
+     *
+     * @param key định danh của nguồn request
+     * @return thời gian phải chờ (nanoseconds, 0 = xử lý ngay) hoặc {@link #REJECTED}
+     */
+    public long reserve(String key) {
+        return reserve(RateLimitKey.of(key), 1);
+    }
+
+    /**
+     * Xếp permits đơn vị vào hàng đợi của key tại thời điểm hiện tại.
+     *
+     * @param key     định danh của nguồn request
+     * @param permits số đơn vị cần, lớn hơn 0
+     * @return thời gian phải chờ (nanoseconds, 0 = xử lý ngay) hoặc {@link #REJECTED}
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    public long reserve(RateLimitKey key, long permits) {
+        return reserve(key, permits, clock.currentTimeNanos());
+    }
+
+    /**
+     * Xếp permits đơn vị vào hàng đợi của key tại nowNanos.
+     *
+     * LUỒNG XỬ LÝ (vòng lặp CAS trên nextFree của key):
+     * 1. Đọc nextFree; nextFree ở quá khứ coi như now (hàng đợi trống,
+     *    thời gian nhàn rỗi không được tích lũy thành burst)
+     * 2. delay = max(nextFree, now) - now; delay > maxDelay → từ chối, không ghi gì
+     * 3. CAS(nextFree, max(nextFree, now) + permits × T): thất bại → thử lại
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị cần, lớn hơn 0
+     * @param nowNanos thời điểm hiện tại, lấy từ {@link RateLimitClock#currentTimeNanos()}
+     * @return thời gian phải chờ (nanoseconds, 0 = xử lý ngay) hoặc {@link #REJECTED}
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    public long reserve(RateLimitKey key, long permits, long nowNanos) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        if (permits > maxPermits) {
+            return REJECTED;
+        }
+        long nowMillis = Math.floorDiv(nowNanos, NANOS_PER_MILLI);
+        long occupancy = permits * emissionIntervalNanos;
+
+        AtomicLong state = queueMap.getOrCreate(key, nowMillis, k -> new AtomicLong(nowNanos));
+        while (true) {
+            long nextFree = state.get();
+            if (nextFree == RETIRED) {
+                // Thread dọn dẹp vừa loại state này → lấy (hoặc tạo) state mới
+                queueMap.removeRetired(key, state);
+                state = queueMap.getOrCreate(key, nowMillis, k -> new AtomicLong(nowNanos));
+                continue;
+            }
+
+            long start = Math.max(nextFree, nowNanos);
+            long delay = start - nowNanos;
+            if (delay > maxDelayNanos) {
+                return REJECTED;
+            }
+            if (state.compareAndSet(nextFree, start + occupancy)) {
+                return delay;
+            }
+        }
+    }
+
+    /**
+     * Huỷ chỗ đã xếp bằng {@link #reserve(RateLimitKey, long, long)} (ví dụ
+     * client ngắt kết nối trong lúc chờ).
+     *
+     * CHỈ HUỶ ĐƯỢC CHỖ CUỐI HÀNG:
+     * Chỗ [start, start + permits × T) chỉ được trả khi nó vẫn là chỗ cuối
+     * của hàng đợi (nextFree == start + permits × T): nextFree lùi về
+     * max(start, now). Nếu đã có request xếp sau, chúng giữ nguyên lịch và
+     * chỗ bị huỷ thành khoảng trống: lùi nextFree lúc đó sẽ xếp request mới
+     * chồng lên request đã hẹn, vượt drainRate. Vì vậy cancel là best-effort:
+     * không trả được chỗ thì hàng đợi chỉ dài hơn cần thiết, không bao giờ
+     * rò nhanh hơn drainRate.
+     *
+     * Caller chỉ nên huỷ request CHƯA bắt đầu xử lý.
+     *
+     * @param key             định danh đã dùng khi xếp hàng
+     * @param permits         số đơn vị đã xếp, lớn hơn 0
+     * @param reservedAtNanos nowNanos đã truyền cho reserve
+     * @param delayNanos      thời gian chờ reserve đã trả về
+     * @return true nếu chỗ đã được trả lại cho hàng đợi
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    public boolean cancel(RateLimitKey key, long permits, long reservedAtNanos, long delayNanos) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        if (permits > maxPermits || delayNanos == REJECTED) {
+            return false;
+        }
+        AtomicLong state = queueMap.get(key);
+        if (state == null) {
+            return false;
+        }
+        long start = reservedAtNanos + delayNanos;
+        long end = start + permits * emissionIntervalNanos;
+        long restored = Math.max(start, clock.currentTimeNanos());
+        // nextFree chỉ tăng trong lúc chỗ này còn là chỗ cuối: một lần CAS là đủ
+        return restored < end && state.compareAndSet(end, restored);
+    }
+
+    /**
+     * Thời điểm hiện tại theo nguồn thời gian của shaper (nanoseconds), để
+     * caller truyền cùng một mốc cho reserve và cancel.
+     */
+    public long currentTimeNanos() {
+        return clock.currentTimeNanos();
+    }
+
+    /**
+     * CAS state sang {@link #RETIRED} nếu hàng đợi của key đã trống
+     * (giống hệt state mới tạo). Gọi bởi {@link KeyStateStore} khi dọn dẹp
+     * (now tính bằng millisecond).
+     */
+    private boolean retireIfIdle(AtomicLong state, long now) {
+        long nextFree = state.get();
+        if (nextFree == RETIRED) {
+            return true;
+        }
+        return nextFree <= now * NANOS_PER_MILLI && state.compareAndSet(nextFree, RETIRED);
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(AtomicLong state) {
+        state.set(RETIRED);
+    }
+
+    /**
+     * Thời gian chờ tối đa, tính bằng milliseconds.
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return queueMap.size();
+    }
+}
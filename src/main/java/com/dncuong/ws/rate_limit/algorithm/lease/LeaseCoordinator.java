@@ -0,0 +1,45 @@
+package com.dncuong.ws.rate_limit.algorithm.lease;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+
+/**
+ * Nơi giữ quota TOÀN CỤC của mỗi key, cấp permit theo lô (lease) cho các
+ * node {@link LeasingRateLimiter}.
+ *
+ * Coordinator là nguồn sự thật duy nhất: tổng số permit mọi node tiêu không
+ * bao giờ vượt số permit coordinator đã cấp. Triển khai có thể nằm trong
+ * cùng JVM ({@link LocalLeaseCoordinator}) hoặc là một service từ xa; các
+ * method được gọi trên thread renew của node hoặc khi node hết sạch lease,
+ * KHÔNG phải trên mọi request.
+ *
+ * @author dncuong
+ */
+public interface LeaseCoordinator {
+
+    /**
+     * Xin từ min tới max permit cho key: cấp được bao nhiêu trong khoảng đó
+     * cấp bấy nhiêu; còn ít hơn min thì không cấp gì.
+     *
+     * min là số permit node thật sự cần ngay (phần còn thiếu của request),
+     * max thêm vào đó một lease để các request sau không phải hỏi lại.
+     *
+     * @param key      định danh của nguồn request
+     * @param min      số permit tối thiểu, lớn hơn 0
+     * @param max      số permit tối đa, không nhỏ hơn min
+     * @param decision holder nhận kết quả chi tiết của quota toàn cục (khi cấp 0:
+     *                 retry-after là thời gian chờ tới khi có đủ min), null nếu caller không cần
+     * @return số permit được cấp: 0, hoặc trong [min, max]
+     * @throws IllegalArgumentException nếu min <= 0 hoặc max < min
+     */
+    long acquire(RateLimitKey key, long min, long max, RateLimitDecision decision);
+
+    /**
+     * Trả lại permit đã được cấp nhưng node không dùng tới.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số permit trả lại, lớn hơn 0
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    void release(RateLimitKey key, long permits);
+}
@@ -0,0 +1,446 @@
+package com.dncuong.ws.rate_limit.algorithm.lease;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * LEASE PERMIT: GIỚI HẠN TOÀN CỤC, QUYẾT ĐỊNH CỤC BỘ
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Giới hạn toàn cục cần một nơi đếm chung (store, coordinator). Hỏi nơi đó
+ * trên MỌI request thì mỗi request tốn thêm một round trip (~1ms) và
+ * throughput của cả cụm bị chặn bởi throughput của nơi đếm.
+ *
+ * GIẢI PHÁP: THUÊ PERMIT THEO LÔ
+ * -------------------------------
+ * Mỗi node xin coordinator ({@link LeaseCoordinator}) một lô permit (lease)
+ * cho key, rồi tự tiêu dần ở local:
+ *
+ *   request → CAS giảm available của lease (không lock, không round trip)
+ *           → còn dưới ngưỡng renew → hẹn thread nền xin lô mới (bất đồng bộ)
+ *           → hết sạch mà lô mới chưa về → xin ĐỒNG BỘ (chỉ lúc này mới chờ)
+ *
+ * Tổng permit mọi node tiêu không bao giờ vượt số coordinator đã cấp, nên
+ * giới hạn toàn cục luôn đúng. Cái giá: permit đã cấp cho node A mà A chưa
+ * dùng thì node B không dùng được (tối đa maxLeaseSize mỗi node mỗi key).
+ *
+ * KÍCH THƯỚC LEASE THÍCH NGHI:
+ * -----------------------------
+ * Mỗi lần xin lô mới, node đo tốc độ tiêu của key (EWMA) và đặt kích thước
+ * lease ≈ lượng tiêu trong {@link #TARGET_LEASE_MILLIS}, kẹp trong
+ * [1, maxLeaseSize]:
+ *   - key nóng: lô lớn, ít round trip
+ *   - key lạnh: lô 1-2 permit, gần như không giữ quota của node khác
+ * Hết sạch lease trước khi kịp renew → lô đang quá nhỏ → nhân đôi ngay.
+ * Node xin lô mới khi available còn dưới nửa lease.
+ *
+ * TRẢ LẠI KHI NHÀN RỖI:
+ * ----------------------
+ * Key không có request trong idleMillis: phần còn lại của lease được trả
+ * về coordinator và state của key bị xoá (cùng giao thức retire của
+ * {@link KeyStateStore}: available = RETIRED bằng CAS nên không request nào
+ * tiêu vào lease đã trả). Node còn traffic ở key khác thì các lượt quét nhỏ
+ * đi kèm request tự làm việc này; node im lặng hoàn toàn thì caller gọi
+ * {@link #returnIdleLeases()} định kỳ.
+ *
+ * KẾT QUẢ CHI TIẾT:
+ * ------------------
+ *   - limit: giới hạn toàn cục (theo lần xin gần nhất)
+ *   - remaining: permit còn trong lease của NODE NÀY
+ *   - retry-after: của coordinator khi nó không cấp đủ
+ *   - reset: node không biết (0) khi quyết định ở local
+ *
+ * @author dncuong
+ */
+public class LeasingRateLimiter implements RateLimiter {
+
+    /** Mỗi lease phủ khoảng chừng này thời gian traffic của key. */
+    static final long TARGET_LEASE_MILLIS = 100;
+
+    /** Khoảng thời gian tối thiểu giữa hai lần đo tốc độ tiêu. */
+    static final long MIN_SAMPLE_MILLIS = 10;
+
+    /** Mặc định: key nhàn rỗi 1 giây thì trả lease. */
+    public static final long DEFAULT_IDLE_MILLIS = 1_000;
+
+    /** available đặc biệt đánh dấu lease đã trả về coordinator và bị loại khỏi map. */
+    static final long RETIRED = Long.MIN_VALUE;
+
+    private final LeaseCoordinator coordinator;
+
+    private final long maxLeaseSize;
+
+    private final long idleMillis;
+
+    /** Thread xin lô mới bất đồng bộ. */
+    private final Executor renewalExecutor;
+
+    private final KeyStateStore<RateLimitKey, Lease> leases;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định): chỉ dùng ở
+     * local để đo tốc độ và thời gian nhàn rỗi.
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Leasing Rate Limiter với thời gian nhàn rỗi mặc định và thread
+     * renew dùng chung.
+     *
+     * @param coordinator  nơi giữ quota toàn cục
+     * @param maxLeaseSize số permit tối đa node giữ cho một key
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LeasingRateLimiter(LeaseCoordinator coordinator, long maxLeaseSize) {
+        this(coordinator, maxLeaseSize, DEFAULT_IDLE_MILLIS, SharedRenewalExecutor.INSTANCE, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Leasing Rate Limiter.
+     *
+     * @param coordinator     nơi giữ quota toàn cục
+     * @param maxLeaseSize    số permit tối đa node giữ cho một key
+     * @param idleMillis      key không có request trong khoảng này thì trả lease
+     * @param renewalExecutor thread xin lô mới bất đồng bộ (được phép chặn khi gọi coordinator)
+     * @param clock           nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LeasingRateLimiter(LeaseCoordinator coordinator, long maxLeaseSize, long idleMillis,
+                              Executor renewalExecutor, RateLimitClock clock) {
+        if (coordinator == null) {
+            throw new IllegalArgumentException("coordinator không được null");
+        }
+        if (maxLeaseSize <= 0) {
+            throw new IllegalArgumentException(
+                    "maxLeaseSize phải lớn hơn 0, nhận được: " + maxLeaseSize);
+        }
+        if (idleMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "idleMillis phải lớn hơn 0, nhận được: " + idleMillis);
+        }
+        if (renewalExecutor == null) {
+            throw new IllegalArgumentException("renewalExecutor không được null");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+        this.coordinator = coordinator;
+        this.maxLeaseSize = maxLeaseSize;
+        this.idleMillis = idleMillis;
+        this.renewalExecutor = renewalExecutor;
+        this.leases = new KeyStateStore<>(this::retireIfIdle, this::retire, KeyStateStore.UNBOUNDED);
+        this.clock = clock;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key. Thường chỉ là một CAS trên lease ở
+     * local; chỉ chờ coordinator khi lease đã hết sạch.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        while (true) {
+            Lease lease = leases.getOrCreate(key, now, k -> new Lease(k, now));
+            if (lease.lastAccess != now) {
+                lease.lastAccess = now;
+            }
+
+            // === Đường nhanh: tiêu từ lease, không lock ===
+            long available = lease.available.get();
+            while (available >= permits) {
+                if (lease.available.compareAndSet(available, available - permits)) {
+                    long remaining = available - permits;
+                    if (remaining < lease.renewBelow) {
+                        scheduleRenewal(lease, now);
+                    }
+                    if (decision != null) {
+                        decision.set(true, lease.limit, remaining, 0, 0);
+                    }
+                    return true;
+                }
+                available = lease.available.get();
+            }
+
+            // === Đường chậm: lease không đủ, xin coordinator ngay ===
+            if (available != RETIRED) {
+                Boolean allowed = acquireFromCoordinator(lease, permits, now, decision);
+                if (allowed != null) {
+                    return allowed;
+                }
+            }
+            // Lease vừa được trả về coordinator → lấy (hoặc tạo) lease mới
+            leases.removeRetired(key, lease);
+        }
+    }
+
+    /**
+     * Xin coordinator phần còn thiếu cộng một lease mới, rồi tiêu. Giữ lock
+     * của lease: các request khác của cùng key chờ chung một lần xin thay vì
+     * mỗi request một round trip.
+     *
+     * @return kết quả, hoặc null nếu lease đã bị trả về coordinator
+     */
+    private Boolean acquireFromCoordinator(Lease lease, long permits, long now, RateLimitDecision decision) {
+        synchronized (lease) {
+            boolean ranDry = true;
+            while (true) {
+                long available = lease.available.get();
+                if (available == RETIRED) {
+                    return null;
+                }
+                if (available >= permits) {
+                    if (lease.available.compareAndSet(available, available - permits)) {
+                        if (decision != null) {
+                            decision.set(true, lease.limit, available - permits, 0, 0);
+                        }
+                        return true;
+                    }
+                    continue;
+                }
+
+                // Cần ít nhất phần còn thiếu; xin thêm một lease để request sau
+                // lại đi đường nhanh
+                long shortfall = permits - available;
+                RateLimitDecision global = decision != null ? decision : new RateLimitDecision();
+                long granted = coordinator.acquire(lease.key, shortfall, shortfall + lease.leaseSize, global);
+                lease.limit = global.getLimit();
+                if (granted == 0) {
+                    if (decision != null) {
+                        decision.set(false, lease.limit, available,
+                                global.getRetryAfterMillis(), global.getResetAfterMillis());
+                    }
+                    return false;
+                }
+                // Request khác của key có thể tiêu mất phần vừa cấp trước khi
+                // ta kịp lấy → vòng lặp thử lại (mỗi vòng đều có permit được tiêu)
+                lease.available.addAndGet(granted);
+                lease.leased += granted;
+                adaptLeaseSize(lease, now, ranDry);
+                ranDry = false;
+            }
+        }
+    }
+
+    /**
+     * Hẹn thread nền xin lô mới (mỗi lease tối đa một lần hẹn đang chờ).
+     */
+    private void scheduleRenewal(Lease lease, long now) {
+        if (!lease.renewing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            renewalExecutor.execute(() -> renew(lease, now));
+        } catch (RejectedExecutionException e) {
+            // Executor đã tắt: request sau sẽ xin đồng bộ khi hết lease
+            lease.renewing.set(false);
+        }
+    }
+
+    private void renew(Lease lease, long now) {
+        try {
+            synchronized (lease) {
+                long available = lease.available.get();
+                // Lease đã trả, hoặc đường chậm vừa xin đủ trong lúc chờ
+                if (available == RETIRED || available >= lease.renewBelow) {
+                    return;
+                }
+                long granted = coordinator.acquire(lease.key, 1, lease.leaseSize - available, null);
+                if (granted > 0) {
+                    lease.available.addAndGet(granted);
+                    lease.leased += granted;
+                }
+                adaptLeaseSize(lease, now, false);
+            }
+        } finally {
+            lease.renewing.set(false);
+        }
+    }
+
+    /**
+     * Cập nhật tốc độ tiêu (EWMA) và kích thước lease. Gọi khi giữ lock của lease.
+     *
+     * @param ranDry true nếu lease vừa hết sạch trước khi kịp renew
+     */
+    private void adaptLeaseSize(Lease lease, long now, boolean ranDry) {
+        long elapsed = now - lease.sampleTime;
+        if (elapsed >= MIN_SAMPLE_MILLIS) {
+            long consumed = lease.leased - lease.available.get();
+            double sample = (consumed - lease.sampleConsumed) * 1000.0 / elapsed;
+            lease.rate = (lease.rate + sample) / 2;
+            lease.sampleTime = now;
+            lease.sampleConsumed = consumed;
+            lease.leaseSize = clampLeaseSize((long) Math.ceil(lease.rate * TARGET_LEASE_MILLIS / 1000.0));
+        }
+        if (ranDry) {
+            lease.leaseSize = Math.max(lease.leaseSize, clampLeaseSize(lease.leaseSize * 2));
+        }
+        lease.renewBelow = (lease.leaseSize + 1) / 2;
+    }
+
+    private long clampLeaseSize(long size) {
+        return Math.max(1, Math.min(maxLeaseSize, size));
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now vào lease của node (được trả về
+     * coordinator cùng phần còn lại khi key nhàn rỗi).
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        Lease lease = leases.get(key);
+        if (lease != null) {
+            long available = lease.available.get();
+            while (available != RETIRED) {
+                if (lease.available.compareAndSet(available, available + permits)) {
+                    return;
+                }
+                available = lease.available.get();
+            }
+        }
+        // Lease đã trả: đưa thẳng về coordinator
+        coordinator.release(key, permits);
+    }
+
+    /**
+     * Trả về coordinator lease của mọi key đã nhàn rỗi quá idleMillis. Gọi
+     * định kỳ khi node có thể im lặng hoàn toàn (không request nào kéo theo
+     * các lượt quét nhỏ).
+     */
+    public void returnIdleLeases() {
+        leases.sweepAll(clock.currentTimeMillis());
+    }
+
+    /**
+     * Trả lease nếu key đã nhàn rỗi. Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfIdle(Lease lease, long now) {
+        if (now - lease.lastAccess >= idleMillis) {
+            retire(lease);
+            return true;
+        }
+        return lease.available.get() == RETIRED;
+    }
+
+    /**
+     * Đánh dấu retired và trả phần còn lại của lease về coordinator.
+     */
+    private void retire(Lease lease) {
+        long available;
+        synchronized (lease) {
+            // Sau CAS này không request nào tiêu được vào lease nữa
+            available = lease.available.getAndSet(RETIRED);
+        }
+        if (available > 0) {
+            coordinator.release(lease.key, available);
+        }
+    }
+
+    /**
+     * Số key đang giữ lease (dùng trong test).
+     */
+    long trackedKeyCount() {
+        return leases.size();
+    }
+
+    /**
+     * Kích thước lease hiện tại của key, 0 nếu key không có lease (dùng trong test).
+     */
+    long leaseSize(RateLimitKey key) {
+        Lease lease = leases.get(key);
+        return lease == null ? 0 : lease.leaseSize;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Lease của một key trên node này.
+     */
+    static final class Lease {
+        final RateLimitKey key;
+
+        /** Permit còn lại, hoặc {@link #RETIRED}. Đường nhanh chỉ CAS trên field này. */
+        final AtomicLong available = new AtomicLong();
+
+        /** true khi đã có một lần renew đang chờ chạy. */
+        final AtomicBoolean renewing = new AtomicBoolean();
+
+        volatile long lastAccess;
+
+        /** Ngưỡng hẹn renew: một nửa lease. */
+        volatile long renewBelow;
+
+        /** Giới hạn toàn cục, theo kết quả chi tiết của lần xin gần nhất. */
+        volatile long limit;
+
+        /** Kích thước lease hiện tại. Chỉ ghi khi giữ lock của lease. */
+        volatile long leaseSize = 1;
+
+        // Các field dưới chỉ đọc/ghi khi giữ lock của lease
+
+        /** Tổng permit coordinator đã cấp cho lease này. */
+        long leased;
+
+        /** Tốc độ tiêu ước lượng (permit/giây). */
+        double rate;
+
+        long sampleTime;
+
+        long sampleConsumed;
+
+        Lease(RateLimitKey key, long now) {
+            this.key = key;
+            this.lastAccess = now;
+            this.sampleTime = now;
+            this.renewBelow = 1;
+        }
+    }
+
+    /**
+     * Thread pool renew dùng chung cho mọi limiter không chỉ định executor:
+     * thread daemon, tạo khi cần, tự kết thúc khi rảnh.
+     */
+    private static final class SharedRenewalExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "rate-limit-lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
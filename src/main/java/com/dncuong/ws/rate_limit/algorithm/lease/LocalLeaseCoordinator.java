@@ -0,0 +1,70 @@
+package com.dncuong.ws.rate_limit.algorithm.lease;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+
+/**
+ * Coordinator trong cùng JVM: quota toàn cục là một rate limiter, thường là
+ * {@link com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter}
+ * (sức chứa xô = burst toàn cục, tốc độ nạp = giới hạn trung bình toàn cục).
+ *
+ * Cấp một phần: xin max permit, xô chỉ còn ít hơn thì cấp đúng số còn lại
+ * (theo remaining của kết quả chi tiết) nếu vẫn không dưới min. Mỗi lần
+ * thử là một tryAcquire nguyên tử của limiter; lần sau luôn xin ít hơn lần
+ * trước nên vòng lặp luôn dừng.
+ *
+ * Dùng trực tiếp khi các node là nhiều limiter trong cùng process (test,
+ * nhiều worker), hoặc làm phần lõi của một coordinator từ xa.
+ *
+ * @author dncuong
+ */
+public class LocalLeaseCoordinator implements LeaseCoordinator {
+
+    private final RateLimiter limiter;
+
+    /**
+     * @param limiter limiter giữ quota toàn cục của mỗi key
+     * @throws IllegalArgumentException nếu limiter null
+     */
+    public LocalLeaseCoordinator(RateLimiter limiter) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("limiter không được null");
+        }
+        this.limiter = limiter;
+    }
+
+    @Override
+    public long acquire(RateLimitKey key, long min, long max, RateLimitDecision decision) {
+        if (min <= 0) {
+            throw new IllegalArgumentException(
+                    "min phải lớn hơn 0, nhận được: " + min);
+        }
+        if (max < min) {
+            throw new IllegalArgumentException(
+                    "max phải không nhỏ hơn min (" + min + "), nhận được: " + max);
+        }
+        RateLimitDecision result = decision != null ? decision : new RateLimitDecision();
+        long now = limiter.currentTimeMillis();
+        long wanted = max;
+        while (!limiter.tryAcquire(key, wanted, now, result)) {
+            long left = result.getRemaining();
+            if (left < min) {
+                // Không đủ min: thử đúng min một lần để retry-after tính cho đúng lô min
+                return wanted != min && limiter.tryAcquire(key, min, now, result) ? min : 0;
+            }
+            // Xin lại đúng số còn lại (luôn < wanted vì lô wanted vừa bị từ chối)
+            wanted = Math.min(left, wanted - 1);
+        }
+        return wanted;
+    }
+
+    @Override
+    public void release(RateLimitKey key, long permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        limiter.refund(key, permits, limiter.currentTimeMillis());
+    }
+}
@@ -0,0 +1,82 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+/**
+ * Fixed Window Counter với state trên store Redis, dùng chung giữa các
+ * replica (quy tắc giống
+ * {@link com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter}).
+ *
+ * State của mỗi key: hash {w = windowId, c = counter}, TTL tới hết cửa sổ.
+ *
+ * @author dncuong
+ */
+public class RedisFixedWindowRateLimiter extends RedisRateLimiter {
+
+    /**
+     * KEYS[1] = key; ARGV = now, permits, refund, maxRequests, windowSizeInMillis.
+     * Trả về {allowed, limit, remaining, retryAfter, resetAfter} (retryAfter -1 = không bao giờ).
+     */
+    static final RedisScript SCRIPT = new RedisScript("""
+            local now = tonumber(ARGV[1])
+            local permits = tonumber(ARGV[2])
+            local maxRequests = tonumber(ARGV[4])
+            local windowSize = tonumber(ARGV[5])
+            local windowId = math.floor(now / windowSize)
+            local resetAfter = windowSize - now % windowSize
+
+            local state = redis.call('HMGET', KEYS[1], 'w', 'c')
+            local counter = 0
+            if tonumber(state[1]) == windowId then
+                counter = tonumber(state[2])
+            end
+
+            if ARGV[3] == '1' then
+                if counter > 0 then
+                    redis.call('HSET', KEYS[1], 'c', counter - math.min(permits, counter))
+                end
+                return 0
+            end
+
+            local allowed = permits <= maxRequests - counter
+            local retryAfter = 0
+            if allowed then
+                counter = counter + permits
+                redis.call('HSET', KEYS[1], 'w', windowId, 'c', counter)
+                redis.call('PEXPIRE', KEYS[1], resetAfter)
+            elseif permits > maxRequests then
+                retryAfter = -1
+            else
+                retryAfter = resetAfter
+            end
+            return {allowed and 1 or 0, maxRequests, maxRequests - counter, retryAfter, resetAfter}
+            """);
+
+    /**
+     * @param connection         kết nối tới store
+     * @param keyPrefix          prefix của key trên store, riêng cho limiter này
+     * @param maxRequests        số request tối đa trong một cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RedisFixedWindowRateLimiter(RespConnection connection, String keyPrefix,
+                                       long maxRequests, long windowSizeInMillis) {
+        this(connection, keyPrefix, maxRequests, windowSizeInMillis, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param connection         kết nối tới store
+     * @param keyPrefix          prefix của key trên store, riêng cho limiter này
+     * @param maxRequests        số request tối đa trong một cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @param clock              đồng hồ tường, đồng bộ giữa các replica
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RedisFixedWindowRateLimiter(RespConnection connection, String keyPrefix,
+                                       long maxRequests, long windowSizeInMillis, RateLimitClock clock) {
+        super(connection, keyPrefix, clock, SCRIPT,
+                Long.toString(checkScriptNumber("maxRequests", maxRequests)),
+                Long.toString(checkScriptNumber("windowSizeInMillis", windowSizeInMillis)));
+    }
+}
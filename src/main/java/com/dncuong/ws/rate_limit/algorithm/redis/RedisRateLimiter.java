@@ -0,0 +1,177 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+
+import java.util.List;
+
+/**
+ * =====================================================================
+ * RATE LIMITER DÙNG CHUNG GIỮA NHIỀU REPLICA: STATE TRÊN STORE REDIS
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Các limiter khác giữ state trong bộ nhớ của JVM. Chạy 12 replica gateway
+ * sau load balancer thì mỗi replica đếm riêng: client thực tế được 12 lần
+ * giới hạn.
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * State của mỗi key nằm trên một store dùng giao thức Redis, mọi replica
+ * dùng chung. Mỗi quyết định là MỘT round trip: một Lua script (xem
+ * {@link RedisScript}) đọc state, quyết định, ghi state và trả về kết quả
+ * chi tiết. Redis chạy script nguyên tử nên hai replica không thể cùng
+ * đọc một counter cũ rồi cùng ghi đè.
+ *
+ * Các replica gọi qua {@link RespConnection}: nhiều thread dùng chung một
+ * kết nối, lệnh được pipeline.
+ *
+ * Quy tắc quyết định (cấp lô, refund, retry-after, reset) giống hệt limiter
+ * trong bộ nhớ tương ứng; chỉ khác chỗ lưu state.
+ *
+ * THỜI GIAN:
+ * -----------
+ * now do replica gửi lên (lấy từ clock, mặc định {@link
+ * com.dncuong.ws.rate_limit.algorithm.clock.SystemClock}). Các replica phải
+ * dùng đồng hồ TƯỜNG đã đồng bộ (NTP): đồng hồ đơn điệu của mỗi JVM có mốc
+ * riêng, không so sánh được giữa các máy. Lệch vài ms giữa các replica chỉ
+ * làm ranh giới cửa sổ xê dịch vài ms.
+ *
+ * KEY TRÊN STORE:
+ * ----------------
+ * keyPrefix + {@link RateLimitKey#toTypedString()}, ví dụ
+ * "rl:login:s:10.0.0.1". Mỗi limiter nên có prefix riêng. Tên key mang loại
+ * của key: of(5L) ("n:5") và of("5") ("s:5") là hai key khác nhau trên store,
+ * được giới hạn độc lập như trong limiter bộ nhớ. Mỗi key có TTL bằng thời
+ * gian tới khi state trở lại như mới, nên key nhàn rỗi tự biến mất.
+ *
+ * LỖI:
+ * -----
+ * Store không trả lời → {@link RespException}. Caller chọn fail-open hay
+ * fail-closed.
+ *
+ * @author dncuong
+ */
+public abstract class RedisRateLimiter implements RateLimiter {
+
+    /** retry-after = "không bao giờ" trong trả lời của script (Lua không biểu diễn được Long.MAX_VALUE). */
+    static final long SCRIPT_NEVER = -1;
+
+    /** Số nguyên lớn nhất Lua (số double) biểu diễn chính xác: 2^53. */
+    static final long MAX_SCRIPT_NUMBER = 1L << 53;
+
+    private final RespConnection connection;
+
+    private final String keyPrefix;
+
+    private final RedisScript script;
+
+    /** Tham số cấu hình gửi kèm mỗi lần gọi script (giới hạn, cửa sổ, ...). */
+    private final String[] config;
+
+    private final RateLimitClock clock;
+
+    RedisRateLimiter(RespConnection connection, String keyPrefix, RateLimitClock clock,
+                     RedisScript script, String... config) {
+        if (connection == null) {
+            throw new IllegalArgumentException("connection không được null");
+        }
+        if (keyPrefix == null) {
+            throw new IllegalArgumentException("keyPrefix không được null");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+        this.connection = connection;
+        this.keyPrefix = keyPrefix;
+        this.clock = clock;
+        this.script = script;
+        this.config = config;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key trong một round trip tới store: cấp cả
+     * lô hoặc không trừ gì.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     * @throws RespException            nếu store lỗi hoặc không trả lời
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        Object reply = run(key, permits, now, false);
+        if (!(reply instanceof List<?> fields) || fields.size() != 5) {
+            throw new RespException("Script trả về kết quả không hợp lệ: " + reply);
+        }
+        boolean allowed = field(fields, 0) == 1;
+        if (decision != null) {
+            long retryAfter = field(fields, 3);
+            decision.set(allowed, field(fields, 1), field(fields, 2),
+                    retryAfter == SCRIPT_NEVER ? RateLimitDecision.NEVER : retryAfter, field(fields, 4));
+        }
+        return allowed;
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (cùng quy tắc với limiter trong
+     * bộ nhớ tương ứng).
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     * @throws RespException            nếu store lỗi hoặc không trả lời
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        run(key, permits, now, true);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /** ARGV của script: now, permits, refund (0/1), rồi các tham số cấu hình. */
+    private Object run(RateLimitKey key, long permits, long now, boolean refund) {
+        String[] args = new String[3 + config.length];
+        args[0] = Long.toString(now);
+        args[1] = Long.toString(permits);
+        args[2] = refund ? "1" : "0";
+        System.arraycopy(config, 0, args, 3, config.length);
+        return script.eval(connection, keyPrefix.concat(key.toTypedString()), args);
+    }
+
+    /**
+     * Kiểm tra tham số cấu hình dương và không vượt {@link #MAX_SCRIPT_NUMBER}.
+     */
+    static long checkScriptNumber(String name, long value) {
+        if (value <= 0 || value > MAX_SCRIPT_NUMBER) {
+            throw new IllegalArgumentException(
+                    name + " phải nằm trong (0, 2^53], nhận được: " + value);
+        }
+        return value;
+    }
+
+    private static long field(List<?> fields, int index) {
+        if (!(fields.get(index) instanceof Long value)) {
+            throw new RespException("Script trả về kết quả không hợp lệ: " + fields);
+        }
+        return value;
+    }
+}
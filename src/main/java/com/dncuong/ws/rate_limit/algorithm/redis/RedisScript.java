@@ -0,0 +1,77 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Một Lua script chạy NGUYÊN TỬ trên server (Redis chạy script trọn vẹn,
+ * không xen lệnh nào khác vào giữa).
+ *
+ * Gửi bằng EVALSHA (chỉ 40 ký tự SHA1 thay vì cả đoạn script). Lần đầu
+ * trên một server, hoặc sau khi server restart / SCRIPT FLUSH, server trả
+ * lỗi NOSCRIPT → gửi lại bằng EVAL kèm nguyên văn script; EVAL đồng thời
+ * nạp script vào cache nên các lần sau EVALSHA lại thành công.
+ *
+ * @author dncuong
+ */
+final class RedisScript {
+
+    private final String source;
+
+    private final String sha1;
+
+    /**
+     * @param source mã Lua của script
+     */
+    RedisScript(String source) {
+        this.source = source;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            this.sha1 = HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Mọi JVM đều bắt buộc phải có SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Chạy script với một key.
+     *
+     * @param connection kết nối tới store
+     * @param key        KEYS[1] của script
+     * @param args       ARGV của script
+     * @return trả lời của script
+     * @throws RespException nếu script lỗi, mất kết nối hoặc quá thời gian chờ
+     */
+    Object eval(RespConnection connection, String key, String... args) {
+        try {
+            return connection.call(command("EVALSHA", sha1, key, args));
+        } catch (RespException e) {
+            if (!e.hasCode("NOSCRIPT")) {
+                throw e;
+            }
+            return connection.call(command("EVAL", source, key, args));
+        }
+    }
+
+    /** SHA1 (hex thường) của script, dùng làm tên script trong cache của server. */
+    String sha1() {
+        return sha1;
+    }
+
+    String source() {
+        return source;
+    }
+
+    private static String[] command(String name, String script, String key, String[] args) {
+        String[] command = new String[4 + args.length];
+        command[0] = name;
+        command[1] = script;
+        command[2] = "1";
+        command[3] = key;
+        System.arraycopy(args, 0, command, 4, args.length);
+        return command;
+    }
+}
@@ -0,0 +1,120 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+/**
+ * Sliding Window Counter với state trên store Redis, dùng chung giữa các
+ * replica (quy tắc giống
+ * {@link com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter}).
+ *
+ * State của mỗi key: hash {w = windowId, c = currentCounter, p = previousCounter},
+ * TTL tới khi cả hai counter trượt ra khỏi cửa sổ.
+ *
+ * @author dncuong
+ */
+public class RedisSlidingWindowCounterRateLimiter extends RedisRateLimiter {
+
+    /**
+     * KEYS[1] = key; ARGV = now, permits, refund, maxRequests, windowSizeInMillis.
+     * Trả về {allowed, limit, remaining, retryAfter, resetAfter} (retryAfter -1 = không bao giờ).
+     */
+    static final RedisScript SCRIPT = new RedisScript("""
+            local now = tonumber(ARGV[1])
+            local permits = tonumber(ARGV[2])
+            local maxRequests = tonumber(ARGV[4])
+            local windowSize = tonumber(ARGV[5])
+            local windowId = math.floor(now / windowSize)
+            local elapsed = now % windowSize
+
+            local state = redis.call('HMGET', KEYS[1], 'w', 'c', 'p')
+            local storedWindowId = tonumber(state[1])
+            local current = tonumber(state[2]) or 0
+            local previous = tonumber(state[3]) or 0
+
+            if ARGV[3] == '1' then
+                if storedWindowId == windowId then
+                    redis.call('HSET', KEYS[1], 'c', current - math.min(permits, current))
+                elseif storedWindowId == windowId + 1 then
+                    redis.call('HSET', KEYS[1], 'p', previous - math.min(permits, previous))
+                end
+                return 0
+            end
+
+            if storedWindowId ~= windowId then
+                if storedWindowId == windowId - 1 then
+                    previous = current
+                else
+                    previous = 0
+                end
+                current = 0
+            end
+
+            local estimated = previous * (1.0 - elapsed / windowSize) + current
+            local allowed = permits <= maxRequests and estimated + (permits - 1) < maxRequests
+            local retryAfter = 0
+            if allowed then
+                current = current + permits
+            elseif permits > maxRequests then
+                retryAfter = -1
+            else
+                local target = maxRequests - (permits - 1)
+                local phaseOne = -1
+                if previous > 0 and current < target then
+                    local at = math.floor(windowSize * (1.0 - (target - current) / previous)) + 1
+                    if at < windowSize then
+                        phaseOne = math.max(1, at - elapsed)
+                    end
+                end
+                if phaseOne >= 0 then
+                    retryAfter = phaseOne
+                else
+                    local at = 0
+                    if current >= target then
+                        at = math.floor(windowSize * (1.0 - target / current)) + 1
+                    end
+                    retryAfter = windowSize - elapsed + at
+                end
+            end
+
+            local resetAfter = 0
+            if current > 0 then
+                resetAfter = 2 * windowSize - elapsed
+            elseif previous > 0 then
+                resetAfter = windowSize - elapsed
+            end
+            if allowed then
+                redis.call('HSET', KEYS[1], 'w', windowId, 'c', current, 'p', previous)
+                redis.call('PEXPIRE', KEYS[1], resetAfter)
+            end
+            local remaining = math.max(0, math.ceil(maxRequests - (previous * (1.0 - elapsed / windowSize) + current)))
+            return {allowed and 1 or 0, maxRequests, remaining, retryAfter, resetAfter}
+            """);
+
+    /**
+     * @param connection         kết nối tới store
+     * @param keyPrefix          prefix của key trên store, riêng cho limiter này
+     * @param maxRequests        số request tối đa trong cửa sổ trượt
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RedisSlidingWindowCounterRateLimiter(RespConnection connection, String keyPrefix,
+                                                long maxRequests, long windowSizeInMillis) {
+        this(connection, keyPrefix, maxRequests, windowSizeInMillis, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param connection         kết nối tới store
+     * @param keyPrefix          prefix của key trên store, riêng cho limiter này
+     * @param maxRequests        số request tối đa trong cửa sổ trượt
+     * @param windowSizeInMillis kích thước cửa sổ (milliseconds)
+     * @param clock              đồng hồ tường, đồng bộ giữa các replica
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RedisSlidingWindowCounterRateLimiter(RespConnection connection, String keyPrefix,
+                                                long maxRequests, long windowSizeInMillis, RateLimitClock clock) {
+        super(connection, keyPrefix, clock, SCRIPT,
+                Long.toString(checkScriptNumber("maxRequests", maxRequests)),
+                Long.toString(checkScriptNumber("windowSizeInMillis", windowSizeInMillis)));
+    }
+}
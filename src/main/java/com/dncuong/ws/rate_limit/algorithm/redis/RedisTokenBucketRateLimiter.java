@@ -0,0 +1,105 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+/**
+ * Token Bucket với state trên store Redis, dùng chung giữa các replica
+ * (quy tắc giống {@link com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter}).
+ *
+ * State của mỗi key: hash {t = tokens, l = lastRefillTimestamp}, TTL tới khi
+ * xô đầy lại. Số token được ghi dạng "%.17g" để đọc lại ra đúng số double
+ * đã ghi.
+ *
+ * @author dncuong
+ */
+public class RedisTokenBucketRateLimiter extends RedisRateLimiter {
+
+    /**
+     * KEYS[1] = key; ARGV = now, permits, refund, bucketCapacity, refillRate.
+     * Trả về {allowed, limit, remaining, retryAfter, resetAfter} (retryAfter -1 = không bao giờ).
+     */
+    static final RedisScript SCRIPT = new RedisScript("""
+            local now = tonumber(ARGV[1])
+            local permits = tonumber(ARGV[2])
+            local capacity = tonumber(ARGV[4])
+            local refillRate = tonumber(ARGV[5])
+
+            local state = redis.call('HMGET', KEYS[1], 't', 'l')
+            local tokens = tonumber(state[1])
+            local lastRefill = tonumber(state[2])
+
+            if ARGV[3] == '1' then
+                if tokens then
+                    tokens = math.min(capacity, tokens + permits)
+                    redis.call('HSET', KEYS[1], 't', string.format('%.17g', tokens))
+                end
+                return 0
+            end
+
+            if not tokens then
+                tokens = capacity
+                lastRefill = now
+            end
+            local tokensToAdd = ((now - lastRefill) / 1000.0) * refillRate
+            if tokensToAdd > 0 then
+                tokens = math.min(capacity, tokens + tokensToAdd)
+                lastRefill = now
+            end
+
+            local allowed = tokens >= permits
+            local retryAfter = 0
+            if allowed then
+                tokens = tokens - permits
+            elseif permits > capacity then
+                retryAfter = -1
+            else
+                retryAfter = math.max(1, math.ceil((permits - tokens) * 1000 / refillRate))
+            end
+
+            local resetAfter = math.max(0, math.ceil((capacity - tokens) * 1000 / refillRate))
+            if resetAfter > 0 then
+                redis.call('HSET', KEYS[1], 't', string.format('%.17g', tokens), 'l', lastRefill)
+                redis.call('PEXPIRE', KEYS[1], resetAfter)
+            else
+                -- Xô đầy: tương đương key mới
+                redis.call('DEL', KEYS[1])
+            end
+            return {allowed and 1 or 0, capacity, math.floor(tokens), retryAfter, resetAfter}
+            """);
+
+    /**
+     * @param connection     kết nối tới store
+     * @param keyPrefix      prefix của key trên store, riêng cho limiter này
+     * @param bucketCapacity sức chứa tối đa của xô
+     * @param refillRate     số token nạp mỗi giây
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RedisTokenBucketRateLimiter(RespConnection connection, String keyPrefix,
+                                       long bucketCapacity, double refillRate) {
+        this(connection, keyPrefix, bucketCapacity, refillRate, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param connection     kết nối tới store
+     * @param keyPrefix      prefix của key trên store, riêng cho limiter này
+     * @param bucketCapacity sức chứa tối đa của xô
+     * @param refillRate     số token nạp mỗi giây
+     * @param clock          đồng hồ tường, đồng bộ giữa các replica
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public RedisTokenBucketRateLimiter(RespConnection connection, String keyPrefix,
+                                       long bucketCapacity, double refillRate, RateLimitClock clock) {
+        super(connection, keyPrefix, clock, SCRIPT,
+                Long.toString(checkScriptNumber("bucketCapacity", bucketCapacity)),
+                Double.toString(checkRefillRate(refillRate)));
+    }
+
+    private static double checkRefillRate(double refillRate) {
+        if (!(refillRate > 0) || Double.isInfinite(refillRate)) {
+            throw new IllegalArgumentException(
+                    "refillRate phải lớn hơn 0 và hữu hạn, nhận được: " + refillRate);
+        }
+        return refillRate;
+    }
+}
@@ -0,0 +1,334 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * =====================================================================
+ * KẾT NỐI RESP (GIAO THỨC REDIS) CÓ PIPELINING
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Rate limiter dùng store từ xa thì MỖI request của API tốn một round trip
+ * tới store. Client kiểu "gửi lệnh → chờ trả lời → gửi lệnh tiếp" bắt các
+ * thread xếp hàng trên một kết nối, hoặc phải mở một kết nối cho mỗi thread.
+ *
+ * GIẢI PHÁP: PIPELINING
+ * ----------------------
+ * Redis trả lời các lệnh trên một kết nối ĐÚNG THỨ TỰ đã gửi. Nên:
+ *   - Mọi thread ghi lệnh vào cùng một socket (lần lượt, trong lock ngắn)
+ *     và KHÔNG chờ trả lời: mỗi lệnh để lại một future trong hàng đợi
+ *   - Một thread đọc duy nhất đọc trả lời theo thứ tự, trả lời thứ i hoàn
+ *     thành future thứ i của hàng đợi
+ *
+ * Nhiều lệnh đang bay cùng lúc trên MỘT kết nối: throughput không còn bị
+ * giới hạn bởi 1 / RTT.
+ *
+ * Ghi theo nhóm (group flush): thread ghi xong chỉ flush socket nếu không
+ * còn thread nào đang chờ ghi; thread cuối cùng flush cho cả nhóm. Khi tải
+ * cao, nhiều lệnh đi chung một gói TCP / một syscall.
+ *
+ * KIỂU TRẢ LỜI:
+ * --------------
+ *   +OK           → String
+ *   -ERR ...      → future hoàn thành với {@link RespException}
+ *   :42           → Long
+ *   $5 hello      → String (UTF-8), $-1 → null
+ *   *2 ...        → List&lt;Object&gt; (phần tử lỗi là RespException), *-1 → null
+ *
+ * Mất kết nối: mọi lệnh đang chờ và mọi lệnh gửi sau đó thất bại với
+ * RespException. Kết nối không tự nối lại: caller tạo kết nối mới.
+ *
+ * @author dncuong
+ */
+public class RespConnection implements AutoCloseable {
+
+    /** Thời gian chờ mặc định cho kết nối và cho mỗi lời gọi {@link #call}. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1_000;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final String address;
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    /** Chỉ ghi khi giữ lock của chính nó. */
+    private final OutputStream out;
+
+    /**
+     * Future của các lệnh đã gửi, chưa có trả lời, theo đúng thứ tự gửi.
+     * Chỉ thêm khi giữ lock của out (để thứ tự trong hàng đợi = thứ tự trên
+     * socket); chỉ thread đọc lấy ra.
+     */
+    private final Queue<CompletableFuture<Object>> pending = new ConcurrentLinkedQueue<>();
+
+    /** Số thread đang ghi hoặc đang chờ lock để ghi (cho group flush). */
+    private final AtomicInteger writers = new AtomicInteger();
+
+    private final long timeoutMillis;
+
+    /** true khi kết nối đã đóng. Chỉ đổi khi giữ lock của out. */
+    private boolean closed;
+
+    /**
+     * Kết nối tới host:port với thời gian chờ mặc định.
+     *
+     * @param host địa chỉ của store
+     * @param port cổng của store
+     * @throws RespException nếu không kết nối được
+     */
+    public RespConnection(String host, int port) {
+        this(host, port, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Kết nối tới host:port.
+     *
+     * @param host          địa chỉ của store
+     * @param port          cổng của store
+     * @param timeoutMillis thời gian chờ kết nối và chờ trả lời của mỗi lời gọi {@link #call}
+     * @throws IllegalArgumentException nếu host null hoặc timeoutMillis <= 0
+     * @throws RespException            nếu không kết nối được
+     */
+    public RespConnection(String host, int port, long timeoutMillis) {
+        if (host == null) {
+            throw new IllegalArgumentException("host không được null");
+        }
+        if (timeoutMillis <= 0 || timeoutMillis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "timeoutMillis phải nằm trong (0, " + Integer.MAX_VALUE + "], nhận được: " + timeoutMillis);
+        }
+        this.address = host + ":" + port;
+        this.timeoutMillis = timeoutMillis;
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), (int) timeoutMillis);
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        } catch (IOException e) {
+            closeQuietly();
+            throw new RespException("Không kết nối được tới " + address, e);
+        }
+
+        Thread reader = new Thread(this::readLoop, "rate-limit-resp-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Gửi một lệnh, không chờ trả lời. Nhiều thread gọi cùng lúc thì các
+     * lệnh được pipeline trên cùng kết nối.
+     *
+     * @param args tên lệnh và các tham số, ví dụ "HGET", "key", "field"
+     * @return future hoàn thành với trả lời (xem bảng kiểu trả lời ở đầu class),
+     *         hoặc thất bại với {@link RespException}
+     * @throws IllegalArgumentException nếu không có tham số nào hoặc có tham số null
+     */
+    public CompletableFuture<Object> send(String... args) {
+        if (args == null || args.length == 0) {
+            throw new IllegalArgumentException("args phải có ít nhất tên lệnh");
+        }
+        for (String arg : args) {
+            if (arg == null) {
+                throw new IllegalArgumentException("args không được chứa null");
+            }
+        }
+
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        writers.incrementAndGet();
+        synchronized (out) {
+            try {
+                if (closed) {
+                    reply.completeExceptionally(new RespException("Kết nối tới " + address + " đã đóng"));
+                    return reply;
+                }
+                pending.add(reply);
+                writeCommand(args);
+                if (writers.get() == 1) {
+                    // Không còn ai chờ ghi: flush cho cả nhóm
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * Gửi một lệnh và chờ trả lời, tối đa timeoutMillis của kết nối.
+     *
+     * @param args tên lệnh và các tham số
+     * @return trả lời của server
+     * @throws RespException nếu server trả lỗi, mất kết nối hoặc quá thời gian chờ
+     */
+    public Object call(String... args) {
+        CompletableFuture<Object> reply = send(args);
+        try {
+            return reply.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // Bọc lại để stack trace có chỗ gọi của caller
+            throw new RespException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new RespException("Quá " + timeoutMillis + "ms không có trả lời từ " + address, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RespException("Bị ngắt khi chờ trả lời từ " + address, e);
+        }
+    }
+
+    /**
+     * Kết nối còn dùng được không.
+     *
+     * @return false sau khi {@link #close()} hoặc sau khi mất kết nối
+     */
+    public boolean isOpen() {
+        synchronized (out) {
+            return !closed;
+        }
+    }
+
+    /**
+     * Đóng kết nối. Các lệnh đang chờ thất bại với {@link RespException}.
+     */
+    @Override
+    public void close() {
+        fail(null);
+    }
+
+    /** Ghi lệnh dạng mảng bulk string: *N CRLF ($len CRLF bytes CRLF)×N. */
+    private void writeCommand(String[] args) throws IOException {
+        out.write('*');
+        out.write(Integer.toString(args.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            out.write('$');
+            out.write(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(bytes);
+            out.write(CRLF);
+        }
+    }
+
+    /** Vòng lặp của thread đọc: trả lời thứ i hoàn thành future thứ i. */
+    private void readLoop() {
+        try {
+            while (true) {
+                Object reply = readReply();
+                CompletableFuture<Object> future = pending.poll();
+                if (future == null) {
+                    throw new IOException("Nhận được trả lời không ứng với lệnh nào");
+                }
+                if (reply instanceof RespException error) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(reply);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private Object readReply() throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            throw new EOFException("Server đã đóng kết nối");
+        }
+        String line = readLine();
+        return switch (type) {
+            case '+' -> line;
+            case '-' -> new RespException(line);
+            case ':' -> Long.parseLong(line);
+            case '$' -> readBulk(Integer.parseInt(line));
+            case '*' -> readArray(Integer.parseInt(line));
+            default -> throw new IOException("Kiểu trả lời không hợp lệ: " + (char) type);
+        };
+    }
+
+    private String readBulk(int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+            throw new EOFException("Bulk string bị cắt ngang");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Object> readArray(int size) throws IOException {
+        if (size < 0) {
+            return null;
+        }
+        List<Object> elements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(readReply());
+        }
+        return elements;
+    }
+
+    /** Đọc tới CRLF (không gồm CRLF). */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(16);
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException("Dòng trả lời bị cắt ngang");
+            }
+            line.write(b);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("Dòng trả lời thiếu LF sau CR");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Đóng kết nối và cho mọi lệnh đang chờ thất bại. Gọi được nhiều lần,
+     * từ thread đọc (mất kết nối), thread ghi (lỗi ghi) hoặc {@link #close()}.
+     */
+    private void fail(IOException cause) {
+        synchronized (out) {
+            // Sau khi closed = true không lệnh nào được thêm vào pending nữa
+            closed = true;
+        }
+        closeQuietly();
+        CompletableFuture<Object> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(new RespException("Kết nối tới " + address + " đã đóng", cause));
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Đang đóng: không còn gì để làm
+        }
+    }
+}
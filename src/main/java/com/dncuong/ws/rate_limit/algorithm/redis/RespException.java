@@ -0,0 +1,42 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+/**
+ * Lỗi khi nói chuyện với store dùng giao thức Redis: server trả lỗi
+ * (error reply, ví dụ "NOSCRIPT ..."), mất kết nối hoặc quá thời gian chờ.
+ *
+ * Là unchecked exception: caller của rate limiter tự chọn chính sách khi
+ * store không trả lời được (fail-open cho qua, hay fail-closed từ chối).
+ *
+ * @author dncuong
+ */
+public class RespException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message mô tả lỗi (với error reply: nguyên văn dòng lỗi của server)
+     */
+    public RespException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message mô tả lỗi
+     * @param cause   nguyên nhân gốc (IOException, TimeoutException, ...)
+     */
+    public RespException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Lỗi có phải error reply với mã lỗi code không (ví dụ "NOSCRIPT").
+     *
+     * @param code mã lỗi, là từ đầu tiên của error reply
+     * @return true nếu message bắt đầu bằng code
+     */
+    public boolean hasCode(String code) {
+        String message = getMessage();
+        return message != null && message.startsWith(code)
+                && (message.length() == code.length() || message.charAt(code.length()) == ' ');
+    }
+}
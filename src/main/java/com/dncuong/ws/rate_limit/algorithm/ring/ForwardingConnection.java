@@ -0,0 +1,245 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * =====================================================================
+ * KẾT NỐI TỚI MỘT NODE SỞ HỮU, GOM REQUEST THÀNH LÔ
+ * =====================================================================
+ *
+ * Mọi thread muốn hỏi cùng một node sở hữu dùng chung một kết nối. Thread
+ * đặt request vào hàng đợi rồi thử nhận vai người ghi (CAS một cờ):
+ *   - nhận được: lấy HẾT request đang chờ (của mình và của các thread
+ *     khác), ghi thành MỘT lô, một lần flush
+ *   - không nhận được: đã có thread đang ghi, nó sẽ mang request này đi
+ * Khi tải thấp, mỗi lô một request (không chờ gom); khi tải cao, lô tự lớn
+ * lên, số syscall và gói TCP giảm theo.
+ *
+ * Một thread đọc duy nhất đọc các lô kết quả và hoàn thành request theo id.
+ *
+ * Mất kết nối: mọi request đang chờ và mọi request gửi sau đó thất bại với
+ * {@link ForwardingException}.
+ *
+ * @author dncuong
+ */
+final class ForwardingConnection implements AutoCloseable {
+
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    private final long timeoutMillis;
+
+    private final Queue<Call> outbox = new ConcurrentLinkedQueue<>();
+
+    /** Request đã đưa vào outbox, chờ kết quả. */
+    private final Map<Long, Call> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    /** Số lô đã ghi (dùng trong test). */
+    final AtomicLong batchesWritten = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * @throws ForwardingException nếu không kết nối được
+     */
+    ForwardingConnection(InetSocketAddress address, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.socket = new Socket();
+        try {
+            socket.connect(address, (int) Math.min(Integer.MAX_VALUE, timeoutMillis));
+            socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        } catch (IOException e) {
+            closeSocket();
+            throw new ForwardingException("Không kết nối được tới " + address, e);
+        }
+        Thread reader = new Thread(this::readLoop, "rate-limit-forward-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Gửi một request tới node sở hữu và chờ kết quả.
+     *
+     * @param decision holder nhận kết quả chi tiết, null nếu không cần
+     * @return true nếu được cấp (với refund: luôn true)
+     * @throws ForwardingException nếu mất kết nối, quá thời gian chờ hoặc node sở hữu báo lỗi
+     */
+    boolean call(byte op, RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        Call call = new Call(nextId.incrementAndGet(), op, key, permits, now);
+        inFlight.put(call.id, call);
+        if (closed) {
+            inFlight.remove(call.id);
+            throw new ForwardingException("Kết nối đã đóng");
+        }
+        outbox.add(call);
+        flushOutbox();
+
+        boolean allowed;
+        try {
+            allowed = call.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            inFlight.remove(call.id);
+            throw new ForwardingException("Quá " + timeoutMillis + "ms chờ node sở hữu", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof ForwardingException forwarding
+                    ? forwarding : new ForwardingException("Lỗi khi chuyển request", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            inFlight.remove(call.id);
+            throw new ForwardingException("Bị ngắt khi chờ node sở hữu", e);
+        }
+        if (decision != null) {
+            decision.set(allowed, call.limit, call.remaining, call.retryAfterMillis, call.resetAfterMillis);
+        }
+        return allowed;
+    }
+
+    /**
+     * Thread nào nhận được vai người ghi thì ghi hết outbox; kiểm tra lại
+     * sau khi trả vai để không bỏ sót request vừa được thêm vào.
+     */
+    private void flushOutbox() {
+        while (!outbox.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                List<Call> batch = new ArrayList<>();
+                Call call;
+                while ((call = outbox.poll()) != null) {
+                    batch.add(call);
+                    if (batch.size() == ForwardingProtocol.MAX_BATCH) {
+                        ForwardingProtocol.writeRequests(out, batch);
+                        batchesWritten.incrementAndGet();
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    ForwardingProtocol.writeRequests(out, batch);
+                    batchesWritten.incrementAndGet();
+                }
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                int count = ForwardingProtocol.readBatchHeader(in, ForwardingProtocol.RESPONSES);
+                for (int i = 0; i < count; i++) {
+                    long id = in.readLong();
+                    byte status = in.readByte();
+                    Call call = inFlight.remove(id);
+                    long limit = in.readLong();
+                    long remaining = in.readLong();
+                    long retryAfter = in.readLong();
+                    long resetAfter = in.readLong();
+                    if (call == null) {
+                        // Caller đã hết thời gian chờ
+                        continue;
+                    }
+                    if (status == ForwardingProtocol.STATUS_ERROR) {
+                        call.completeExceptionally(new ForwardingException("Node sở hữu không xử lý được request"));
+                        continue;
+                    }
+                    call.limit = limit;
+                    call.remaining = remaining;
+                    call.retryAfterMillis = retryAfter;
+                    call.resetAfterMillis = resetAfter;
+                    call.complete(status == ForwardingProtocol.STATUS_ALLOWED);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        fail(null);
+    }
+
+    private void fail(IOException cause) {
+        closed = true;
+        closeSocket();
+        ForwardingException error = new ForwardingException("Mất kết nối tới node sở hữu", cause);
+        // call() đưa request vào inFlight TRƯỚC khi kiểm tra closed: request nào
+        // không bị hoàn thành ở đây thì chính call() thấy closed và tự báo lỗi
+        for (Long id : inFlight.keySet()) {
+            Call call = inFlight.remove(id);
+            if (call != null) {
+                call.completeExceptionally(error);
+            }
+        }
+        outbox.clear();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Đang đóng, bỏ qua
+        }
+    }
+
+    /**
+     * Một request đang chờ kết quả. Các field kết quả được ghi trước khi
+     * complete, nên thread chờ đọc được sau get().
+     */
+    static final class Call extends CompletableFuture<Boolean> {
+        final long id;
+        final byte op;
+        final RateLimitKey key;
+        final long permits;
+        final long now;
+
+        long limit;
+        long remaining;
+        long retryAfterMillis;
+        long resetAfterMillis;
+
+        Call(long id, byte op, RateLimitKey key, long permits, long now) {
+            this.id = id;
+            this.op = op;
+            this.key = key;
+            this.permits = permits;
+            this.now = now;
+        }
+    }
+}
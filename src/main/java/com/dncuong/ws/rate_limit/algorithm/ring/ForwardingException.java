@@ -0,0 +1,30 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+/**
+ * Lỗi khi chuyển quyết định sang node sở hữu key: không kết nối được, mất
+ * kết nối, quá thời gian chờ, hoặc node sở hữu không xử lý được request.
+ *
+ * Là unchecked exception: caller của rate limiter tự chọn chính sách khi
+ * node sở hữu không trả lời được (fail-open cho qua, hay fail-closed từ chối).
+ *
+ * @author dncuong
+ */
+public class ForwardingException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message mô tả lỗi
+     */
+    public ForwardingException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message mô tả lỗi
+     * @param cause   nguyên nhân gốc (IOException, TimeoutException, ...)
+     */
+    public ForwardingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,97 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * =====================================================================
+ * GIAO THỨC NHỊ PHÂN GIỮA CÁC NODE TRÊN VÒNG
+ * =====================================================================
+ *
+ * Trên một kết nối TCP, node gửi đi các LÔ request, node sở hữu trả lời
+ * mỗi lô bằng một lô kết quả (theo đúng thứ tự, nhưng mỗi kết quả mang id
+ * của request nên bên gửi không phụ thuộc thứ tự):
+ *
+ *   lô request: [REQUESTS byte][số request int] rồi mỗi request:
+ *               [id long][op byte][permits long][now long][key]
+ *   lô kết quả: [RESPONSES byte][số kết quả int] rồi mỗi kết quả:
+ *               [id long][status byte][limit long][remaining long][retryAfter long][resetAfter long]
+ *
+ * key theo {@link RateLimitKey#writeTo}: giữ nguyên loại key. Không có
+ * chuỗi, không có tên field: một request ~40 byte cộng độ dài key.
+ *
+ * Bên đọc không tin số đọc từ mạng: lô quá {@link #MAX_BATCH} phần tử hay
+ * key quá {@link RateLimitKey#MAX_SERIALIZED_LENGTH} byte là IOException
+ * (đóng kết nối), không cấp phát theo số đó.
+ *
+ * @author dncuong
+ */
+final class ForwardingProtocol {
+
+    /** Số phần tử tối đa trong một lô. */
+    static final int MAX_BATCH = 256;
+
+    static final byte REQUESTS = 1;
+    static final byte RESPONSES = 2;
+
+    static final byte OP_ACQUIRE = 1;
+    static final byte OP_REFUND = 2;
+
+    static final byte STATUS_REJECTED = 0;
+    static final byte STATUS_ALLOWED = 1;
+    /** Node sở hữu ném exception khi xử lý (ví dụ tham số không hợp lệ). */
+    static final byte STATUS_ERROR = 2;
+
+    private ForwardingProtocol() {
+    }
+
+    static void writeRequests(DataOutput out, List<ForwardingConnection.Call> calls) throws IOException {
+        out.writeByte(REQUESTS);
+        out.writeInt(calls.size());
+        for (ForwardingConnection.Call call : calls) {
+            out.writeLong(call.id);
+            out.writeByte(call.op);
+            out.writeLong(call.permits);
+            out.writeLong(call.now);
+            call.key.writeTo(out);
+        }
+    }
+
+    /**
+     * Ghi một kết quả (phần tử của lô kết quả).
+     *
+     * @param decision kết quả chi tiết, bỏ qua khi status là lỗi
+     */
+    static void writeResponse(DataOutput out, long id, byte status, RateLimitDecision decision) throws IOException {
+        out.writeLong(id);
+        out.writeByte(status);
+        boolean filled = status != STATUS_ERROR;
+        out.writeLong(filled ? decision.getLimit() : 0);
+        out.writeLong(filled ? decision.getRemaining() : 0);
+        out.writeLong(filled ? decision.getRetryAfterMillis() : 0);
+        out.writeLong(filled ? decision.getResetAfterMillis() : 0);
+    }
+
+    /**
+     * Đọc byte loại lô và số phần tử.
+     *
+     * @throws IOException nếu loại lô không phải expected hoặc số phần tử
+     *                     không nằm trong [0, MAX_BATCH]
+     */
+    static int readBatchHeader(DataInput in, byte expected) throws IOException {
+        byte type = in.readByte();
+        if (type != expected) {
+            throw new IOException("Loại lô không hợp lệ: " + type);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > MAX_BATCH) {
+            throw new IOException("Số phần tử không hợp lệ: " + count);
+        }
+        return count;
+    }
+}
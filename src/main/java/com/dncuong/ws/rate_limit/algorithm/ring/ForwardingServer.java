@@ -0,0 +1,130 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phía node sở hữu: nhận lô request từ các node khác, chạy từng request
+ * trên limiter trong bộ nhớ của node, trả lời cả lô bằng một lần flush.
+ *
+ * Mỗi kết nối một thread (số kết nối = số node còn lại trên vòng). Node
+ * quyết định mọi request được gửi tới, kể cả khi theo vòng của nó key
+ * không còn thuộc về nó: trong lúc các node đang cập nhật thành viên, bên
+ * gửi là bên biết rõ nó đang coi ai là chủ.
+ *
+ * @author dncuong
+ */
+final class ForwardingServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+
+    private final RateLimiter limiter;
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @throws IOException nếu không mở được cổng
+     */
+    ForwardingServer(InetSocketAddress bindAddress, RateLimiter limiter) throws IOException {
+        this.limiter = limiter;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        Thread acceptor = new Thread(this::acceptLoop, "rate-limit-forward-server-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    InetSocketAddress localAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                if (serverSocket.isClosed()) {
+                    client.close();
+                    return;
+                }
+                Thread handler = new Thread(() -> serve(client), "rate-limit-forward-handler");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // Server đã đóng
+        }
+    }
+
+    private void serve(Socket client) {
+        try (client) {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            RateLimitDecision decision = new RateLimitDecision();
+            while (true) {
+                int count = ForwardingProtocol.readBatchHeader(in, ForwardingProtocol.REQUESTS);
+                out.writeByte(ForwardingProtocol.RESPONSES);
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    long id = in.readLong();
+                    byte op = in.readByte();
+                    long permits = in.readLong();
+                    long now = in.readLong();
+                    RateLimitKey key = RateLimitKey.readFrom(in);
+                    ForwardingProtocol.writeResponse(out, id, execute(op, key, permits, now, decision), decision);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Node kia ngắt kết nối
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private byte execute(byte op, RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        try {
+            if (op == ForwardingProtocol.OP_REFUND) {
+                limiter.refund(key, permits, now);
+                decision.set(true, 0, 0, 0, 0);
+                return ForwardingProtocol.STATUS_ALLOWED;
+            }
+            if (op != ForwardingProtocol.OP_ACQUIRE) {
+                return ForwardingProtocol.STATUS_ERROR;
+            }
+            return limiter.tryAcquire(key, permits, now, decision)
+                    ? ForwardingProtocol.STATUS_ALLOWED : ForwardingProtocol.STATUS_REJECTED;
+        } catch (RuntimeException e) {
+            return ForwardingProtocol.STATUS_ERROR;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Đang đóng, bỏ qua
+        }
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Đang đóng, bỏ qua
+            }
+        }
+    }
+}
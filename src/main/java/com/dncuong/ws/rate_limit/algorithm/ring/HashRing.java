@@ -0,0 +1,143 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * =====================================================================
+ * VÒNG CONSISTENT HASH: KEY → NODE SỞ HỮU
+ * =====================================================================
+ *
+ * Mỗi node đặt {@link #VIRTUAL_NODES} điểm (token) lên vòng số 64 bit; key
+ * thuộc về node có token đầu tiên tính từ hash64 của key đi theo chiều
+ * tăng (quá cuối vòng thì quay về đầu).
+ *
+ * TẠI SAO CONSISTENT HASH:
+ * -------------------------
+ * hash % N đổi N thì gần như MỌI key đổi chủ. Trên vòng:
+ *   - node mới chỉ lấy các đoạn ngay trước token của nó: ~1/(N+1) số key,
+ *     tất cả chuyển VỀ node mới
+ *   - node rời đi chỉ trả các đoạn của nó cho node kế tiếp: ~1/N số key,
+ *     key của các node khác giữ nguyên chủ
+ * Nhiều token mỗi node để mỗi node nhận phần gần bằng nhau.
+ *
+ * Token của node chỉ phụ thuộc nodeId, nên mọi node cùng danh sách thành
+ * viên tính ra cùng một vòng, không cần trao đổi gì thêm.
+ *
+ * THREAD-SAFETY:
+ * ---------------
+ * Vòng là một snapshot bất biến (mảng token đã sắp xếp + chủ của từng
+ * token) trong field volatile: ownerOf chỉ đọc snapshot và tìm nhị phân,
+ * không lock; add/remove tạo snapshot mới (synchronized giữa các lần sửa).
+ *
+ * @author dncuong
+ */
+public final class HashRing {
+
+    /** Số token của mỗi node trên vòng. */
+    public static final int VIRTUAL_NODES = 160;
+
+    private volatile Snapshot snapshot = new Snapshot(new TreeSet<>());
+
+    /**
+     * Thêm node vào vòng (không làm gì nếu đã có).
+     *
+     * @param nodeId định danh của node, giống nhau trên mọi thành viên
+     * @throws IllegalArgumentException nếu nodeId null
+     */
+    public synchronized void add(String nodeId) {
+        if (nodeId == null) {
+            throw new IllegalArgumentException("nodeId không được null");
+        }
+        Set<String> nodes = new TreeSet<>(snapshot.nodes);
+        if (nodes.add(nodeId)) {
+            snapshot = new Snapshot(nodes);
+        }
+    }
+
+    /**
+     * Bỏ node khỏi vòng (không làm gì nếu không có).
+     *
+     * @param nodeId định danh của node
+     * @throws IllegalArgumentException nếu nodeId null
+     */
+    public synchronized void remove(String nodeId) {
+        if (nodeId == null) {
+            throw new IllegalArgumentException("nodeId không được null");
+        }
+        Set<String> nodes = new TreeSet<>(snapshot.nodes);
+        if (nodes.remove(nodeId)) {
+            snapshot = new Snapshot(nodes);
+        }
+    }
+
+    /**
+     * @return các node đang có trên vòng
+     */
+    public Set<String> nodes() {
+        return snapshot.nodes;
+    }
+
+    /**
+     * Node sở hữu key.
+     *
+     * @param key định danh của nguồn request
+     * @return nodeId của chủ key
+     * @throws IllegalStateException nếu vòng chưa có node nào
+     */
+    public String ownerOf(RateLimitKey key) {
+        Snapshot ring = snapshot;
+        if (ring.tokens.length == 0) {
+            throw new IllegalStateException("Vòng chưa có node nào");
+        }
+        int index = Arrays.binarySearch(ring.tokens, key.hash64());
+        if (index < 0) {
+            // Chưa trùng token nào: lấy token đầu tiên lớn hơn, quá cuối thì quay về đầu
+            index = -index - 1;
+            if (index == ring.tokens.length) {
+                index = 0;
+            }
+        }
+        return ring.owners[index];
+    }
+
+    /**
+     * Vòng bất biến: tokens tăng dần, owners[i] là chủ của tokens[i].
+     */
+    private static final class Snapshot {
+        final Set<String> nodes;
+        final long[] tokens;
+        final String[] owners;
+
+        Snapshot(Set<String> nodes) {
+            this.nodes = Collections.unmodifiableSet(nodes);
+            long[] packed = new long[nodes.size() * VIRTUAL_NODES];
+            String[] byToken = new String[packed.length];
+            int i = 0;
+            for (String node : nodes) {
+                for (int v = 0; v < VIRTUAL_NODES; v++) {
+                    packed[i] = RateLimitKey.of(node + "#" + v).hash64();
+                    byToken[i] = node;
+                    i++;
+                }
+            }
+            // Sắp xếp token, kéo theo chủ. nodes đã sắp xếp và sort ổn định, nên kể cả
+            // khi hai token trùng nhau (cực hiếm với hash 64 bit) mọi node vẫn ra cùng vòng
+            Integer[] order = new Integer[packed.length];
+            for (int j = 0; j < order.length; j++) {
+                order[j] = j;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(packed[a], packed[b]));
+            this.tokens = new long[packed.length];
+            this.owners = new String[packed.length];
+            for (int j = 0; j < order.length; j++) {
+                tokens[j] = packed[order[j]];
+                owners[j] = byToken[order[j]];
+            }
+        }
+    }
+}
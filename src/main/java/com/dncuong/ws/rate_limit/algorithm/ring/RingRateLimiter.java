@@ -0,0 +1,304 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * =====================================================================
+ * MỖI KEY MỘT NODE SỞ HỮU, NODE KHÁC CHUYỂN REQUEST TỚI CHỦ
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Store chung (Redis) cho giới hạn chính xác nhưng mọi request đều đi một
+ * round trip tới store, và store là điểm nghẽn chung. Gossip thì không
+ * round trip nhưng chỉ xấp xỉ.
+ *
+ * GIẢI PHÁP: CHIA KEY THEO VÒNG CONSISTENT HASH
+ * -----------------------------------------------
+ * Mỗi key có đúng một node sở hữu theo {@link HashRing}; state của key chỉ
+ * nằm trong limiter trong bộ nhớ của node đó (limiter bất kỳ trong repo,
+ * không sửa gì). Node nhận request:
+ *   - tự sở hữu key: quyết định ngay trong bộ nhớ, không I/O
+ *   - không sở hữu: chuyển request tới chủ qua một kết nối TCP dùng chung
+ *     cho mỗi chủ; request của nhiều thread cùng đi tới một chủ được gom
+ *     thành lô (xem {@link ForwardingConnection})
+ * Vì chỉ chủ quyết định, giới hạn là CHÍNH XÁC trên toàn cụm, và tải được
+ * chia đều cho các node thay vì dồn vào một store.
+ *
+ * Request chuyển đi mang theo now của node gửi, nên đồng hồ dùng mặc định
+ * là đồng hồ TƯỜNG ({@link SystemClock}) và các node phải đồng bộ NTP,
+ * giống backend Redis.
+ *
+ * THÀNH VIÊN:
+ * ------------
+ * {@link #join} / {@link #leave} cập nhật vòng; mọi node cần nhận cùng danh
+ * sách thành viên (từ cấu hình hoặc service discovery) để cùng ra một chủ
+ * cho mỗi key. Khi đổi thành viên chỉ ~1/N số key đổi chủ; state của các
+ * key đó KHÔNG được chuyển theo: chủ mới bắt đầu từ quota đầy, nên trong
+ * cửa sổ đang chạy các key này có thể được cấp thêm tối đa một giới hạn.
+ * Trong lúc các node chưa cùng cập nhật, một key có thể tạm có hai chủ.
+ *
+ * LỖI:
+ * -----
+ * Chủ không trả lời (mất kết nối, quá timeoutMillis): nếu trong lúc đó vòng
+ * đã đổi chủ của key thì thử lại với chủ mới; nếu không, ném
+ * {@link ForwardingException} để tầng trên chọn fail-open hay fail-closed.
+ *
+ * @author dncuong
+ */
+public class RingRateLimiter implements RateLimiter, AutoCloseable {
+
+    /** Mặc định: chờ chủ của key tối đa 1 giây. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1_000;
+
+    private final String nodeId;
+
+    private final RateLimiter localLimiter;
+
+    private final long timeoutMillis;
+
+    private final RateLimitClock clock;
+
+    private final HashRing ring = new HashRing();
+
+    private final Map<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+
+    private final Map<String, ForwardingConnection> connections = new ConcurrentHashMap<>();
+
+    private final ForwardingServer server;
+
+    /**
+     * Node với timeout mặc định, đồng hồ hệ thống.
+     *
+     * @param nodeId       định danh của node, giống nhau trên mọi thành viên
+     * @param bindAddress  địa chỉ nhận request chuyển tới (port 0 = port bất kỳ)
+     * @param localLimiter limiter trong bộ nhớ giữ state các key node sở hữu
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     * @throws IOException              nếu không mở được cổng
+     */
+    public RingRateLimiter(String nodeId, InetSocketAddress bindAddress, RateLimiter localLimiter)
+            throws IOException {
+        this(nodeId, bindAddress, localLimiter, DEFAULT_TIMEOUT_MILLIS, SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param nodeId        định danh của node, giống nhau trên mọi thành viên
+     * @param bindAddress   địa chỉ nhận request chuyển tới (port 0 = port bất kỳ)
+     * @param localLimiter  limiter trong bộ nhớ giữ state các key node sở hữu
+     * @param timeoutMillis thời gian chờ tối đa khi kết nối và chờ chủ của key
+     * @param clock         nguồn thời gian; các node phải dùng đồng hồ đã đồng bộ
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     * @throws IOException              nếu không mở được cổng
+     */
+    public RingRateLimiter(String nodeId, InetSocketAddress bindAddress, RateLimiter localLimiter,
+                           long timeoutMillis, RateLimitClock clock) throws IOException {
+        if (nodeId == null) {
+            throw new IllegalArgumentException("nodeId không được null");
+        }
+        if (bindAddress == null) {
+            throw new IllegalArgumentException("bindAddress không được null");
+        }
+        if (localLimiter == null) {
+            throw new IllegalArgumentException("localLimiter không được null");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "timeoutMillis phải lớn hơn 0, nhận được: " + timeoutMillis);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+        this.nodeId = nodeId;
+        this.localLimiter = localLimiter;
+        this.timeoutMillis = timeoutMillis;
+        this.clock = clock;
+        this.server = new ForwardingServer(bindAddress, localLimiter);
+        ring.add(nodeId);
+    }
+
+    /**
+     * @return địa chỉ thật node đang nhận request chuyển tới
+     */
+    public InetSocketAddress localAddress() {
+        return server.localAddress();
+    }
+
+    /**
+     * Thêm (hoặc cập nhật địa chỉ của) một node khác vào vòng.
+     *
+     * @param peerId  định danh của node
+     * @param address địa chỉ node đó nhận request chuyển tới
+     * @throws IllegalArgumentException nếu tham số null hoặc peerId là chính node này
+     */
+    public synchronized void join(String peerId, InetSocketAddress address) {
+        if (peerId == null || address == null) {
+            throw new IllegalArgumentException("peerId và address không được null");
+        }
+        if (peerId.equals(nodeId)) {
+            throw new IllegalArgumentException("Không thể join chính node này: " + peerId);
+        }
+        InetSocketAddress previous = addresses.put(peerId, address);
+        if (previous != null && !previous.equals(address)) {
+            closeConnection(peerId);
+        }
+        ring.add(peerId);
+    }
+
+    /**
+     * Bỏ một node khác khỏi vòng; key của nó chuyển cho các node còn lại.
+     *
+     * @param peerId định danh của node
+     * @throws IllegalArgumentException nếu peerId null hoặc là chính node này
+     */
+    public synchronized void leave(String peerId) {
+        if (peerId == null) {
+            throw new IllegalArgumentException("peerId không được null");
+        }
+        if (peerId.equals(nodeId)) {
+            throw new IllegalArgumentException("Không thể leave chính node này: " + peerId);
+        }
+        ring.remove(peerId);
+        addresses.remove(peerId);
+        closeConnection(peerId);
+    }
+
+    /**
+     * @param key định danh của nguồn request
+     * @return nodeId của node đang sở hữu key theo vòng của node này
+     */
+    public String ownerOf(RateLimitKey key) {
+        return ring.ownerOf(key);
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key: quyết định ngay nếu node sở hữu key,
+     * nếu không thì chuyển tới chủ và chờ kết quả.
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0 hoặc key không gửi được sang node khác
+     *                                  ({@link RateLimitKey#isSerializable()})
+     * @throws ForwardingException      nếu chủ của key không trả lời
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        return route(ForwardingProtocol.OP_ACQUIRE, key, permits, now, decision);
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp cho chủ hiện tại của key.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0 hoặc key không gửi được sang node khác
+     *                                  ({@link RateLimitKey#isSerializable()})
+     * @throws ForwardingException      nếu chủ của key không trả lời
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        route(ForwardingProtocol.OP_REFUND, key, permits, now, null);
+    }
+
+    private boolean route(byte op, RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        // Kiểm tra cả khi node này sở hữu key: kết quả không phụ thuộc key đang nằm ở node nào
+        if (!key.isSerializable()) {
+            throw new IllegalArgumentException("key dài quá " + RateLimitKey.MAX_SERIALIZED_LENGTH
+                    + " byte, không chuyển được sang node khác");
+        }
+        String owner = ring.ownerOf(key);
+        while (true) {
+            if (owner.equals(nodeId)) {
+                if (op == ForwardingProtocol.OP_REFUND) {
+                    localLimiter.refund(key, permits, now);
+                    return true;
+                }
+                return localLimiter.tryAcquire(key, permits, now, decision);
+            }
+            try {
+                return connection(owner).call(op, key, permits, now, decision);
+            } catch (ForwardingException e) {
+                String current = ring.ownerOf(key);
+                if (current.equals(owner)) {
+                    throw e;
+                }
+                // Vòng đã đổi trong lúc chờ (chủ cũ rời đi): thử lại với chủ mới
+                owner = current;
+            }
+        }
+    }
+
+    /**
+     * Kết nối tới owner, tạo mới nếu chưa có hoặc kết nối cũ đã đứt.
+     */
+    private ForwardingConnection connection(String owner) {
+        ForwardingConnection connection = connections.get(owner);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        synchronized (this) {
+            connection = connections.get(owner);
+            if (connection != null && connection.isOpen()) {
+                return connection;
+            }
+            InetSocketAddress address = addresses.get(owner);
+            if (address == null) {
+                throw new ForwardingException("Không biết địa chỉ của node " + owner);
+            }
+            connection = new ForwardingConnection(address, timeoutMillis);
+            connections.put(owner, connection);
+            return connection;
+        }
+    }
+
+    private void closeConnection(String peerId) {
+        ForwardingConnection connection = connections.remove(peerId);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Số lô đã gửi tới owner (dùng trong test).
+     */
+    long forwardedBatchCount(String owner) {
+        ForwardingConnection connection = connections.get(owner);
+        return connection == null ? 0 : connection.batchesWritten.get();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Đóng cổng nhận và mọi kết nối tới node khác.
+     */
+    @Override
+    public synchronized void close() {
+        server.close();
+        for (String peerId : connections.keySet()) {
+            closeConnection(peerId);
+        }
+    }
+}
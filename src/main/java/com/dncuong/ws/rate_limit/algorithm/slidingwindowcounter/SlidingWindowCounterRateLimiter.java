@@ -1,8 +1,17 @@
 package com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
 import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+import com.dncuong.ws.rate_limit.algorithm.snapshot.SnapshotSupport;
+import com.dncuong.ws.rate_limit.algorithm.snapshot.StateSnapshot;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * =====================================================================
@@ -90,15 +99,23 @@ import java.util.concurrent.ConcurrentHashMap;
  * - ConcurrentHashMap<String, WindowState>: lưu trạng thái cho mỗi key
  *   + key: định danh client (IP, userId, apiKey, ...)
  *   + value: WindowState chứa windowId, counter hiện tại, counter trước
+ *   (map nằm trong KeyStateStore: key có cả hai counter đã hết hạn được dọn dần)
  *
  * THREAD-SAFETY:
  * ---------------
  * - ConcurrentHashMap cho key → state mapping
  * - synchronized block trên từng WindowState
  *
+ * SNAPSHOT KHI KHỞI ĐỘNG LẠI:
+ * ----------------------------
+ * State trên heap được chụp ở nền bằng
+ * {@link com.dncuong.ws.rate_limit.algorithm.snapshot.SnapshotWriter} và khôi
+ * phục lười bằng {@link #restoreFrom}; windowId tính theo đồng hồ tường nên
+ * hai counter vẫn đúng cửa sổ sau khi khởi động lại.
+ *
  * @author dncuong
  */
-public class SlidingWindowCounterRateLimiter implements RateLimiter {
+public class SlidingWindowCounterRateLimiter implements RateLimiter, SnapshotSupport {
 
     /**
      * Số request tối đa được phép trong một cửa sổ thời gian.
@@ -114,7 +131,27 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
     /**
      * Bảng lưu trạng thái rate limit cho mỗi key.
      */
-    private final ConcurrentHashMap<String, WindowState> windowStateMap;
+    private final KeyStateStore<RateLimitKey, WindowState> windowStateMap;
+
+    /**
+     * Bảng off-heap thay cho windowStateMap khi cần theo dõi hàng chục triệu key;
+     * null nếu lưu state trên heap.
+     *
+     * Bản ghi: field 0 = currentWindowId, field 1 = currentCounter, field 2 = previousCounter.
+     * Bản ghi toàn 0 có cả hai counter bằng 0 - giống hệt một WindowState mới.
+     */
+    private final OffHeapStateTable offHeapTable;
+
+    /**
+     * Snapshot đang khôi phục lười: key tạo state lần đầu lấy state đã lưu
+     * từ đây; null nếu không khôi phục.
+     */
+    private volatile StateSnapshot restoredSnapshot;
+
+    /**
+     * Nguồn thời gian ({@link SystemClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
 
     /**
      * Khởi tạo Sliding Window Counter Rate Limiter.
@@ -124,6 +161,77 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
      * @throws IllegalArgumentException nếu tham số không hợp lệ
      */
     public SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Counter Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                           nhất bị loại và bắt đầu lại từ state mới
+     *                           ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys) {
+        this(maxRequests, windowSizeInMillis, maxTrackedKeys, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Counter Rate Limiter lưu state trong bảng off-heap.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param offHeapTable       bảng off-heap dành riêng cho limiter này
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, OffHeapStateTable offHeapTable) {
+        this(maxRequests, windowSizeInMillis, offHeapTable, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Counter Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Counter Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys,
+                                           RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, maxTrackedKeys, null, clock);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Counter Rate Limiter lưu state off-heap, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param offHeapTable       bảng off-heap dành riêng cho limiter này
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, OffHeapStateTable offHeapTable,
+                                           RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED, requireTable(offHeapTable), clock);
+    }
+
+    private SlidingWindowCounterRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys,
+                                            OffHeapStateTable offHeapTable, RateLimitClock clock) {
         // === Validate tham số đầu vào ===
         if (maxRequests <= 0) {
             throw new IllegalArgumentException(
@@ -133,14 +241,27 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
             throw new IllegalArgumentException(
                     "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
         }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
 
         this.maxRequests = maxRequests;
         this.windowSizeInMillis = windowSizeInMillis;
-        this.windowStateMap = new ConcurrentHashMap<>();
+        this.windowStateMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.offHeapTable = offHeapTable;
+        this.clock = clock;
+    }
+
+    private static OffHeapStateTable requireTable(OffHeapStateTable offHeapTable) {
+        if (offHeapTable == null) {
+            throw new IllegalArgumentException("offHeapTable không được null");
+        }
+        return offHeapTable;
     }
 
     /**
-     * Kiểm tra và quyết định xem request từ key có được phép hay không.
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
      *
      * LUỒNG XỬ LÝ CHI TIẾT:
      * 1. Tính windowId hiện tại (giống Fixed Window)
@@ -150,13 +271,21 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
      * 5. Nếu estimatedCount < maxRequests → CHO PHÉP, tăng currentCounter
      * 6. Nếu estimatedCount >= maxRequests → TỪ CHỐI
      *
-     * @param key định danh của nguồn request
-     * @return true nếu request được phép, false nếu bị từ chối
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
      */
     @Override
-    public boolean allowRequest(String key) {
-        // === BƯỚC 1: Lấy thời gian hiện tại và tính windowId ===
-        long now = getCurrentTimeMillis();
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        // === BƯỚC 1: Tính windowId ===
         long currentWindowId = now / windowSizeInMillis;
 
         // === BƯỚC 2: Tính vị trí trong cửa sổ hiện tại ===
@@ -177,57 +306,343 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
         // Khi gần cuối cửa sổ (position ≈ 1): overlap ≈ 0.0 (cửa sổ trước không còn ảnh hưởng)
         double overlapRatio = 1.0 - positionInWindow;
 
-        // === BƯỚC 4: Lấy hoặc tạo mới trạng thái cho key ===
-        WindowState state = windowStateMap.computeIfAbsent(key,
-                k -> new WindowState(currentWindowId));
+        if (offHeapTable != null) {
+            return tryAcquireOffHeap(key, permits, now, currentWindowId, overlapRatio, decision);
+        }
+
+        while (true) {
+            // === BƯỚC 4: Lấy hoặc tạo mới trạng thái cho key ===
+            WindowState state = windowStateMap.getOrCreate(key, now,
+                    k -> newState(k, currentWindowId));
+
+            // === BƯỚC 5: Tính toán và quyết định (thread-safe) ===
+            synchronized (state) {
+                if (state.retired) {
+                    // Thread dọn dẹp vừa loại state này → lấy (hoặc tạo) state mới
+                    windowStateMap.removeRetired(key, state);
+                    continue;
+                }
+
+                // --- Bước 5a: Cập nhật cửa sổ nếu cần ---
+                // Nếu windowId thay đổi, cần "trượt" cửa sổ:
+                //   - Counter hiện tại → trở thành counter trước
+                //   - Counter mới → bắt đầu từ 0
+                if (state.currentWindowId != currentWindowId) {
+                    if (currentWindowId == state.currentWindowId + 1) {
+                        // Chuyển sang cửa sổ KỀ NGAY SAU → giữ counter cũ làm previous
+                        state.previousCounter = state.currentCounter;
+                    } else {
+                        // Nhảy xa hơn 1 cửa sổ → counter cũ đã quá lâu, không còn ý nghĩa
+                        state.previousCounter = 0;
+                    }
+                    state.currentCounter = 0;
+                    state.currentWindowId = currentWindowId;
+                }
+
+                // --- Bước 5b: Tính số request ước lượng ---
+                // Công thức weighted average:
+                //   estimated = (previousCounter × overlapRatio) + currentCounter
+                //
+                // Ý nghĩa: "Trong cửa sổ trượt hiện tại, ước lượng có bao nhiêu request?"
+                //   - Phần từ cửa sổ trước: previousCounter × overlap (chỉ tính phần chồng lấp)
+                //   - Phần từ cửa sổ hiện tại: currentCounter (tính hết)
+                double estimatedCount = (state.previousCounter * overlapRatio) + state.currentCounter;
+
+                // --- Bước 5c: Quyết định ---
+                // Lô permits được cấp khi permits lần gọi liên tiếp đều được cấp:
+                // lần cuối thấy estimatedCount + (permits - 1) < maxRequests
+                boolean allowed = permits <= maxRequests && estimatedCount + (permits - 1) < maxRequests;
+                if (allowed) {
+                    // Còn quota → cộng permits vào counter cửa sổ hiện tại và cho phép
+                    state.currentCounter += permits;
+                }
+                // Hết quota → từ chối, không cộng gì
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, state.previousCounter, state.currentCounter, now);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Lô nằm trong counter của cửa sổ now: currentCounter nếu vẫn là cửa sổ
+     * hiện tại, previousCounter nếu state đã trượt sang cửa sổ kế tiếp.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        long windowId = now / windowSizeInMillis;
+
+        if (offHeapTable != null) {
+            long slot = offHeapTable.acquireExisting(key.hash64());
+            if (slot == OffHeapStateTable.NO_SLOT) {
+                return;
+            }
+            try {
+                long storedWindowId = offHeapTable.get(slot, 0);
+                int field = storedWindowId == windowId ? 1 : storedWindowId == windowId + 1 ? 2 : -1;
+                if (field != -1) {
+                    long counter = offHeapTable.get(slot, field);
+                    offHeapTable.set(slot, field, counter - Math.min(permits, counter));
+                }
+            } finally {
+                offHeapTable.release(slot);
+            }
+            return;
+        }
 
-        // === BƯỚC 5: Tính toán và quyết định (thread-safe) ===
+        WindowState state = windowStateMap.get(key);
+        if (state == null) {
+            return;
+        }
         synchronized (state) {
-            // --- Bước 5a: Cập nhật cửa sổ nếu cần ---
-            // Nếu windowId thay đổi, cần "trượt" cửa sổ:
-            //   - Counter hiện tại → trở thành counter trước
-            //   - Counter mới → bắt đầu từ 0
-            if (state.currentWindowId != currentWindowId) {
-                if (currentWindowId == state.currentWindowId + 1) {
-                    // Chuyển sang cửa sổ KỀ NGAY SAU → giữ counter cũ làm previous
-                    state.previousCounter = state.currentCounter;
-                } else {
-                    // Nhảy xa hơn 1 cửa sổ → counter cũ đã quá lâu, không còn ý nghĩa
-                    state.previousCounter = 0;
+            if (state.retired) {
+                return;
+            }
+            if (state.currentWindowId == windowId) {
+                state.currentCounter -= Math.min(permits, state.currentCounter);
+            } else if (state.currentWindowId == windowId + 1) {
+                state.previousCounter -= Math.min(permits, state.previousCounter);
+            }
+        }
+    }
+
+    /**
+     * Giống BƯỚC 4-5 ở trên, nhưng state là bản ghi off-heap:
+     * acquire/release thay cho synchronized, không có retired
+     * (bảng tự tái sử dụng bản ghi fresh). release trả false (bảng dùng
+     * chung, lock đã bị giành) thì bỏ quyết định và tính lại.
+     */
+    private boolean tryAcquireOffHeap(RateLimitKey key, long permits, long now, long currentWindowId, double overlapRatio,
+                                      RateLimitDecision decision) {
+        while (true) {
+            long slot = offHeapTable.acquire(key.hash64(), now, this::isFreshRecord);
+            boolean allowed;
+            boolean kept;
+            try {
+                long windowId = offHeapTable.get(slot, 0);
+                long currentCounter = offHeapTable.get(slot, 1);
+                long previousCounter = offHeapTable.get(slot, 2);
+                if (windowId != currentWindowId) {
+                    previousCounter = currentWindowId == windowId + 1 ? currentCounter : 0;
+                    currentCounter = 0;
+                    offHeapTable.set(slot, 0, currentWindowId);
+                    offHeapTable.set(slot, 2, previousCounter);
                 }
-                state.currentCounter = 0;
-                state.currentWindowId = currentWindowId;
+
+                double estimatedCount = (previousCounter * overlapRatio) + currentCounter;
+                allowed = permits <= maxRequests && estimatedCount + (permits - 1) < maxRequests;
+                if (allowed) {
+                    currentCounter += permits;
+                }
+                offHeapTable.set(slot, 1, currentCounter);
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, previousCounter, currentCounter, now);
+                }
+            } finally {
+                kept = offHeapTable.release(slot);
             }
+            if (kept) {
+                return allowed;
+            }
+            // Lock bị tiến trình khác giành giữa chừng: bản ghi có thể đã bị ghi đè, tính lại từ đầu
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết khi vẫn đang giữ lock của state
+     * (previousCounter, currentCounter là giá trị sau quyết định).
+     *
+     * Ước lượng chỉ giảm theo thời gian, nên retry-after là thời điểm sớm nhất
+     * ước lượng + (permits - 1) xuống dưới maxRequests:
+     *   - trong cửa sổ hiện tại: phần của previousCounter giảm tuyến tính
+     *   - sang cửa sổ kế tiếp: currentCounter trở thành previous và giảm tiếp
+     * Lô không vừa ở cả hai giai đoạn thì chắc chắn vừa ở cửa sổ sau đó
+     * (ước lượng = 0), nên giai đoạn 2 luôn có nghiệm.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits,
+                              long previousCounter, long currentCounter, long now) {
+        long elapsed = now % windowSizeInMillis;
+        double estimatedCount = previousCounter * (1.0 - (double) elapsed / windowSizeInMillis) + currentCounter;
+        long remaining = Math.max(0, (long) Math.ceil(maxRequests - estimatedCount));
 
-            // --- Bước 5b: Tính số request ước lượng ---
-            // Công thức weighted average:
-            //   estimated = (previousCounter × overlapRatio) + currentCounter
-            //
-            // Ý nghĩa: "Trong cửa sổ trượt hiện tại, ước lượng có bao nhiêu request?"
-            //   - Phần từ cửa sổ trước: previousCounter × overlap (chỉ tính phần chồng lấp)
-            //   - Phần từ cửa sổ hiện tại: currentCounter (tính hết)
-            double estimatedCount = (state.previousCounter * overlapRatio) + state.currentCounter;
-
-            // --- Bước 5c: Quyết định ---
-            if (estimatedCount < maxRequests) {
-                // Còn quota → tăng counter cửa sổ hiện tại và cho phép
-                state.currentCounter++;
-                return true;
+        // Cả hai counter hết ảnh hưởng khi currentCounter đã trượt ra khỏi cửa sổ trước
+        long resetAfter = currentCounter > 0 ? 2 * windowSizeInMillis - elapsed
+                : previousCounter > 0 ? windowSizeInMillis - elapsed
+                : 0;
+
+        long retryAfter;
+        if (allowed) {
+            retryAfter = 0;
+        } else if (permits > maxRequests) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            // Cần: ước lượng < target
+            long target = maxRequests - (permits - 1);
+            long phaseOne = -1;
+            if (previousCounter > 0 && currentCounter < target) {
+                // previous × (1 - (elapsed + t) / W) < target - current
+                double boundary = windowSizeInMillis * (1.0 - (double) (target - currentCounter) / previousCounter);
+                long at = (long) Math.floor(boundary) + 1;
+                if (at < windowSizeInMillis) {
+                    phaseOne = Math.max(1, at - elapsed);
+                }
+            }
+            if (phaseOne >= 0) {
+                retryAfter = phaseOne;
             } else {
-                // Hết quota → từ chối
-                return false;
+                // Cửa sổ kế tiếp: current × (1 - e / W) < target
+                long at = currentCounter < target ? 0
+                        : (long) Math.floor(windowSizeInMillis * (1.0 - (double) target / currentCounter)) + 1;
+                retryAfter = windowSizeInMillis - elapsed + at;
             }
         }
+        decision.set(allowed, maxRequests, remaining, retryAfter, resetAfter);
     }
 
     /**
-     * Lấy thời gian hiện tại (milliseconds).
-     * Override trong test để kiểm soát thời gian (kỹ thuật "Seam").
-     *
-     * @return thời gian hiện tại tính bằng milliseconds kể từ Unix epoch
+     * Bản ghi off-heap fresh theo đúng điều kiện của {@link #retireIfFresh}.
+     */
+    private boolean isFreshRecord(long slot, long now) {
+        long windowsAhead = now / windowSizeInMillis - offHeapTable.get(slot, 0);
+        boolean currentExpired = windowsAhead >= 2 || offHeapTable.get(slot, 1) == 0;
+        boolean previousExpired = windowsAhead >= 1 || offHeapTable.get(slot, 2) == 0;
+        return currentExpired && previousExpired;
+    }
+
+    /**
+     * Đánh dấu state retired nếu sau khi trượt tới cửa sổ hiện tại cả hai
+     * counter đều bằng 0 - giống hệt một WindowState mới.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(WindowState state, long now) {
+        synchronized (state) {
+            long windowsAhead = now / windowSizeInMillis - state.currentWindowId;
+            // currentCounter còn ảnh hưởng khi đang là cửa sổ hiện tại hoặc cửa sổ trước
+            boolean currentExpired = windowsAhead >= 2 || state.currentCounter == 0;
+            // previousCounter chỉ còn ảnh hưởng khi chưa trượt sang cửa sổ mới
+            boolean previousExpired = windowsAhead >= 1 || state.previousCounter == 0;
+            if (currentExpired && previousExpired) {
+                state.retired = true;
+            }
+            return state.retired;
+        }
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(WindowState state) {
+        synchronized (state) {
+            state.retired = true;
+        }
+    }
+
+    /**
+     * State cho key lần đầu xuất hiện: state đã lưu trong snapshot nếu có,
+     * ngược lại hai counter bằng 0.
+     */
+    private WindowState newState(RateLimitKey key, long currentWindowId) {
+        StateSnapshot snapshot = restoredSnapshot;
+        long[] fields = snapshot == null ? null : snapshot.take(key);
+        if (fields == null) {
+            return new WindowState(currentWindowId);
+        }
+        WindowState state = new WindowState(fields[0]);
+        state.currentCounter = fields[1];
+        state.previousCounter = fields[2];
+        return state;
+    }
+
+    /**
+     * Cùng cách mã hóa với bản ghi off-heap: field 0 = currentWindowId,
+     * field 1 = currentCounter, field 2 = previousCounter.
      */
-    protected long getCurrentTimeMillis() {
-        return System.currentTimeMillis();
+    @Override
+    public void forEachState(long now, StateVisitor visitor) throws IOException {
+        requireOnHeap();
+        long[] fields = new long[3];
+        for (Map.Entry<RateLimitKey, WindowState> entry : windowStateMap.entries()) {
+            WindowState state = entry.getValue();
+            synchronized (state) {
+                if (state.retired) {
+                    continue;
+                }
+                fields[0] = state.currentWindowId;
+                fields[1] = state.currentCounter;
+                fields[2] = state.previousCounter;
+            }
+            if (!isFreshState(fields, now)) {
+                visitor.visit(entry.getKey(), fields);
+            }
+        }
+    }
+
+    /**
+     * Cùng điều kiện với {@link #retireIfFresh}.
+     */
+    @Override
+    public boolean isFreshState(long[] fields, long now) {
+        long windowsAhead = now / windowSizeInMillis - fields[0];
+        boolean currentExpired = windowsAhead >= 2 || fields[1] == 0;
+        boolean previousExpired = windowsAhead >= 1 || fields[2] == 0;
+        return currentExpired && previousExpired;
+    }
+
+    @Override
+    public String snapshotFormat() {
+        return "sliding-window-counter/1";
+    }
+
+    @Override
+    public int snapshotStateWidth() {
+        return 3;
+    }
+
+    @Override
+    public void restoreFrom(StateSnapshot snapshot) {
+        requireOnHeap();
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot không được null");
+        }
+        snapshot.requireFormat(snapshotFormat(), snapshotStateWidth());
+        if (windowStateMap.size() > 0) {
+            throw new IllegalStateException("restoreFrom phải được gọi trước request đầu tiên");
+        }
+        restoredSnapshot = snapshot;
+    }
+
+    @Override
+    public StateSnapshot restoredSnapshot() {
+        return restoredSnapshot;
+    }
+
+    private void requireOnHeap() {
+        if (offHeapTable != null) {
+            throw new IllegalStateException("Snapshot chỉ hỗ trợ limiter lưu state trên heap");
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    long trackedKeyCount() {
+        return offHeapTable != null ? offHeapTable.size() : windowStateMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
     }
 
     /**
@@ -255,6 +670,9 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
          */
         long previousCounter;
 
+        /** true khi state đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
+
         WindowState(long windowId) {
             this.currentWindowId = windowId;
             this.currentCounter = 0;
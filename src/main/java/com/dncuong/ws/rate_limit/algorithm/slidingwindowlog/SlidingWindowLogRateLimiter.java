@@ -1,10 +1,13 @@
 package com.dncuong.ws.rate_limit.algorithm.slidingwindowlog;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
 import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
 
 /**
  * =====================================================================
@@ -48,30 +51,41 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  * NHƯỢC ĐIỂM:
  * ------------
- * - Tốn bộ nhớ: O(n) cho mỗi key, với n = số request được chấp nhận
- *   trong cửa sổ hiện tại (tối đa = maxRequests timestamp)
- * - Mỗi request cần dọn dẹp log → chi phí O(k) với k = số entry hết hạn
+ * - Tốn bộ nhớ: O(maxRequests) cho mỗi key (8 bytes × maxRequests timestamp),
+ *   cấp phát ngay khi key xuất hiện lần đầu
  *
  * CẤU TRÚC DỮ LIỆU:
  * -------------------
  * - ConcurrentHashMap<String, RequestLog>: lưu log cho mỗi key
  *   + key: định danh client (IP, userId, apiKey, ...)
- *   + value: RequestLog chứa Deque<Long> các timestamp
+ *   + value: RequestLog chứa vòng đệm (ring buffer) long[] các timestamp
+ *   (map nằm trong KeyStateStore: key có log rỗng / toàn timestamp hết hạn
+ *   được dọn dần, trả lại vòng đệm maxRequests slot cho GC)
  *
- * - Deque<Long> (ArrayDeque): danh sách timestamp, sắp xếp tự nhiên
- *   theo thứ tự thêm vào (timestamp cũ nhất ở đầu, mới nhất ở cuối)
- *   → Dọn dẹp từ đầu (pollFirst) rất hiệu quả: O(1) cho mỗi entry
+ * - long[] vòng đệm, dung lượng CỐ ĐỊNH = maxRequests, cấp phát MỘT LẦN khi
+ *   key xuất hiện. Timestamp được ghi theo thứ tự thời gian, vị trí "head"
+ *   luôn trỏ vào timestamp cũ nhất còn lưu.
+ *   → Không boxing Long, không cấp phát gì trên đường xử lý request
+ *   → Bộ nhớ mỗi key bị chặn trên ở 8 × maxRequests bytes, không phình ra
+ *     sau burst như ArrayDeque (ArrayDeque không bao giờ thu nhỏ mảng bên trong)
+ * - tryAcquire(key, permits) ghi MỘT entry (timestamp, permits) cho cả lô,
+ *   không ghi permits timestamp giống nhau
  *
  * THREAD-SAFETY:
  * ---------------
  * - ConcurrentHashMap cho key → log mapping
  * - synchronized block trên từng RequestLog để đảm bảo
- *   việc dọn dẹp + đếm + thêm mới là nguyên tử (atomic)
+ *   việc bỏ entry hết hạn + kiểm tra quota + ghi entry mới là nguyên tử (atomic)
  *
  * @author dncuong
  */
 public class SlidingWindowLogRateLimiter implements RateLimiter {
 
+    /**
+     * Dung lượng vòng đệm lớn nhất (giới hạn kích thước mảng của JVM).
+     */
+    static final long MAX_LOG_CAPACITY = Integer.MAX_VALUE - 8;
+
     /**
      * Số request tối đa được phép trong một cửa sổ thời gian.
      * Ví dụ: maxRequests = 10 nghĩa là tối đa 10 request trong bất kỳ
@@ -94,7 +108,17 @@ public class SlidingWindowLogRateLimiter implements RateLimiter {
      * Mỗi key có một RequestLog riêng chứa danh sách timestamp
      * của các request đã được chấp nhận trong cửa sổ hiện tại.
      */
-    private final ConcurrentHashMap<String, RequestLog> requestLogMap;
+    private final KeyStateStore<RateLimitKey, RequestLog> requestLogMap;
+
+    /**
+     * Dung lượng vòng đệm của mỗi key (= maxRequests, dạng int để làm chỉ số mảng).
+     */
+    private final int capacity;
+
+    /**
+     * Nguồn thời gian ({@link SystemClock} nếu không chỉ định).
+     */
+    private final RateLimitClock clock;
 
     /**
      * Khởi tạo Sliding Window Log Rate Limiter.
@@ -102,144 +126,373 @@ public class SlidingWindowLogRateLimiter implements RateLimiter {
      * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ trượt
      * @param windowSizeInMillis kích thước cửa sổ trượt tính bằng milliseconds
      * @throws IllegalArgumentException nếu tham số không hợp lệ
+     *         (maxRequests phải vừa kích thước một mảng Java)
      */
     public SlidingWindowLogRateLimiter(long maxRequests, long windowSizeInMillis) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Log Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ trượt
+     * @param windowSizeInMillis kích thước cửa sổ trượt tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                           nhất bị loại và bắt đầu lại từ state mới
+     *                           ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     *         (maxRequests phải vừa kích thước một mảng Java)
+     */
+    public SlidingWindowLogRateLimiter(long maxRequests, long windowSizeInMillis, int maxTrackedKeys) {
+        this(maxRequests, windowSizeInMillis, maxTrackedKeys, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Log Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowLogRateLimiter(long maxRequests, long windowSizeInMillis, RateLimitClock clock) {
+        this(maxRequests, windowSizeInMillis, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Sliding Window Log Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param maxRequests        số request tối đa cho phép trong mỗi cửa sổ
+     * @param windowSizeInMillis kích thước cửa sổ tính bằng milliseconds
+     * @param maxTrackedKeys     số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock              nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SlidingWindowLogRateLimiter(long maxRequests, long windowSizeInMillis,
+                                       int maxTrackedKeys, RateLimitClock clock) {
         // === Validate tham số đầu vào ===
         if (maxRequests <= 0) {
             throw new IllegalArgumentException(
                     "maxRequests phải lớn hơn 0, nhận được: " + maxRequests);
         }
+        if (maxRequests > MAX_LOG_CAPACITY) {
+            throw new IllegalArgumentException(
+                    "maxRequests không được vượt quá " + MAX_LOG_CAPACITY
+                            + " (kích thước vòng đệm long[]), nhận được: " + maxRequests);
+        }
         if (windowSizeInMillis <= 0) {
             throw new IllegalArgumentException(
                     "windowSizeInMillis phải lớn hơn 0, nhận được: " + windowSizeInMillis);
         }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
 
         this.maxRequests = maxRequests;
         this.windowSizeInMillis = windowSizeInMillis;
-        this.requestLogMap = new ConcurrentHashMap<>();
+        this.requestLogMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.capacity = (int) maxRequests;
+        this.clock = clock;
     }
 
     /**
-     * Kiểm tra và quyết định xem request từ key có được phép hay không.
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
      *
      * LUỒNG XỬ LÝ CHI TIẾT:
      * 1. Lấy thời gian hiện tại (now)
      * 2. Tính điểm bắt đầu cửa sổ: windowStart = now - windowSizeInMillis
      * 3. Lấy hoặc tạo RequestLog cho key
      * 4. Trong synchronized block:
-     *    a. Dọn dẹp: xóa tất cả timestamp <= windowStart (đã hết hạn)
-     *    b. Đếm số request còn lại trong log
-     *    c. Nếu count < maxRequests → thêm timestamp mới, trả về true
-     *    d. Nếu count >= maxRequests → trả về false (không thêm vào log)
+     *    a. Bỏ các entry cũ nhất đã hết hạn (timestamp <= windowStart) khỏi đầu
+     *       vòng đệm, trừ số request của chúng khỏi total
+     *    b. total + permits <= maxRequests → ghi MỘT entry (now, permits)
+     *       vào cuối vòng đệm, trả về true
+     *    c. Ngược lại → trả về false, không ghi gì
+     *
+     * MỘT ENTRY CHO CẢ LÔ:
+     *   Mỗi entry là cặp (timestamp, số request). Lô 100 permits chỉ ghi một
+     *   entry, không phải 100 timestamp giống nhau. Mỗi entry có ít nhất 1
+     *   request và total <= maxRequests → số entry không bao giờ vượt
+     *   maxRequests, vòng đệm maxRequests slot luôn đủ chỗ.
+     *
+     * CHI PHÍ:
+     *   Mỗi entry được ghi một lần và bỏ đi một lần → O(1) khấu hao mỗi request,
+     *   không có cấp phát nào.
      *
      * VÍ DỤ MINH HỌA:
      *   maxRequests = 3, windowSize = 1000ms
-     *   Log hiện tại: [500, 700, 900]
+     *   Vòng đệm hiện tại: [500, 700, 900], head → 500, total = 3
      *   Request mới tại thời điểm 1200ms:
      *     - windowStart = 1200 - 1000 = 200
-     *     - Xóa tất cả timestamp <= 200 → không có gì để xóa
-     *     - Count = 3 (500, 700, 900 đều > 200)
-     *     - 3 >= 3 → TỪ CHỐI
+     *     - Cũ nhất = 500 > 200 → không bỏ được entry nào, total = 3 → TỪ CHỐI
      *
      *   Request mới tại thời điểm 1600ms:
      *     - windowStart = 1600 - 1000 = 600
-     *     - Xóa timestamp <= 600 → xóa 500
-     *     - Log còn: [700, 900], count = 2
-     *     - 2 < 3 → CHO PHÉP, thêm 1600 vào log → [700, 900, 1600]
+     *     - Cũ nhất = 500 <= 600 → bỏ, total = 2; 700 > 600 → dừng
+     *     - total + 1 <= 3 → CHO PHÉP, ghi vào slot vừa trống: [1600, 700, 900], head → 700
      *
-     * @param key định danh của nguồn request
-     * @return true nếu request được phép, false nếu bị từ chối
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
      */
     @Override
-    public boolean allowRequest(String key) {
-        // === BƯỚC 1: Lấy thời gian hiện tại ===
-        long now = getCurrentTimeMillis();
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
 
-        // === BƯỚC 2: Tính điểm bắt đầu cửa sổ trượt ===
+        // === BƯỚC 1: Tính điểm bắt đầu cửa sổ trượt ===
         // Cửa sổ trượt: [now - windowSize, now]
         // Tất cả request có timestamp <= windowStart đã "hết hạn"
         long windowStart = now - windowSizeInMillis;
 
-        // === BƯỚC 3: Lấy hoặc tạo mới log cho key ===
-        // computeIfAbsent: atomic operation của ConcurrentHashMap
-        RequestLog log = requestLogMap.computeIfAbsent(key, k -> new RequestLog());
-
-        // === BƯỚC 4: Dọn dẹp + đếm + quyết định (thread-safe) ===
-        // Phải dùng synchronized vì cần đảm bảo 3 thao tác sau là NGUYÊN TỬ:
-        //   1. Dọn dẹp timestamp cũ
-        //   2. Đếm số request hiện tại
-        //   3. Thêm timestamp mới (nếu được phép)
-        //
-        // Nếu không synchronized, race condition:
-        //   Thread A đếm count = 2, chưa kịp thêm
-        //   Thread B đếm count = 2, cũng thêm
-        //   → Cả 2 đều thêm, count thực tế = 4, vượt giới hạn 3!
+        while (true) {
+            // === BƯỚC 2: Lấy hoặc tạo mới log cho key ===
+            // getOrCreate: computeIfAbsent - atomic operation của ConcurrentHashMap
+            // Vòng đệm maxRequests slot được cấp phát MỘT LẦN mỗi khi key xuất hiện
+            RequestLog log = requestLogMap.getOrCreate(key, now, k -> new RequestLog(capacity));
+
+            // === BƯỚC 3: Kiểm tra + ghi timestamp (thread-safe) ===
+            // Phải dùng synchronized vì cần đảm bảo 2 thao tác sau là NGUYÊN TỬ:
+            //   1. Kiểm tra còn quota không (total sau khi bỏ entry hết hạn)
+            //   2. Ghi entry mới (nếu được phép)
+            //
+            // Nếu không synchronized, race condition:
+            //   Thread A thấy còn 1 chỗ, chưa kịp ghi
+            //   Thread B cũng thấy còn 1 chỗ, cũng ghi
+            //   → Cả 2 đều được phép, vượt giới hạn!
+            synchronized (log) {
+                if (log.retired) {
+                    // Thread dọn dẹp vừa loại log này → lấy (hoặc tạo) log mới
+                    requestLogMap.removeRetired(key, log);
+                    continue;
+                }
+
+                // --- Bước 3a: Bỏ các entry đã ra khỏi cửa sổ ---
+                // Entry nằm theo thứ tự thời gian → dừng ở entry đầu tiên còn hiệu lực
+                while (log.size > 0 && log.timestamps[log.head] <= windowStart) {
+                    log.total -= log.countAt(log.head);
+                    log.head = (log.head + 1) % capacity;
+                    log.size--;
+                }
+
+                // --- Bước 3b: Còn đủ quota cho cả lô → ghi một entry ---
+                boolean allowed = permits <= maxRequests - log.total;
+                if (allowed) {
+                    log.append(now, (int) permits, capacity);
+                }
+                // Không đủ quota → từ chối, KHÔNG ghi gì
+                // (request bị từ chối không chiếm quota)
+
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, log, now);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Giảm (hoặc xóa) entry có timestamp = now; entry đã hết hạn thì
+     * không còn gì để trả.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        RequestLog log = requestLogMap.get(key);
+        if (log == null) {
+            return;
+        }
         synchronized (log) {
-            // --- Bước 4a: Dọn dẹp timestamp đã hết hạn ---
-            // Vì timestamp được thêm theo thứ tự tăng dần (thời gian luôn tăng),
-            // nên timestamp cũ nhất nằm ở đầu deque.
-            // Chỉ cần xóa từ đầu cho đến khi gặp timestamp còn trong cửa sổ.
-            // Hiệu quả: mỗi lần pollFirst() là O(1)
-            while (!log.timestamps.isEmpty() && log.timestamps.peekFirst() <= windowStart) {
-                log.timestamps.pollFirst();
+            if (!log.retired) {
+                log.remove(now, permits, capacity);
             }
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết khi vẫn đang giữ lock của log (log đã chứa
+     * quyết định). Log lưu timestamp thật nên thời gian chờ là CHÍNH XÁC:
+     *   - reset: khi entry mới nhất hết hạn
+     *   - retry: khi đủ entry cũ nhất hết hạn để nhường chỗ cho cả lô
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits, RequestLog log, long now) {
+        long resetAfter = log.size == 0 ? 0
+                : Math.max(0, log.timestamps[(log.head + log.size - 1) % capacity] + windowSizeInMillis - now);
 
-            // --- Bước 4b: Đếm số request trong cửa sổ hiện tại ---
-            long currentCount = log.timestamps.size();
-
-            // --- Bước 4c: Quyết định cho phép hay từ chối ---
-            if (currentCount < maxRequests) {
-                // Còn quota → thêm timestamp mới vào cuối log và cho phép
-                log.timestamps.addLast(now);
-                return true;
-            } else {
-                // Hết quota → từ chối, KHÔNG thêm timestamp vào log
-                // (chỉ lưu request thành công, request bị từ chối không chiếm quota)
-                return false;
+        long retryAfter;
+        if (allowed) {
+            retryAfter = 0;
+        } else if (permits > maxRequests) {
+            retryAfter = RateLimitDecision.NEVER;
+        } else {
+            retryAfter = resetAfter;
+            long missing = permits - (maxRequests - log.total);
+            for (int i = 0; i < log.size; i++) {
+                int index = (log.head + i) % capacity;
+                missing -= log.countAt(index);
+                if (missing <= 0) {
+                    // Entry hết hạn khi timestamp <= now' - windowSize
+                    retryAfter = Math.max(1, log.timestamps[index] + windowSizeInMillis - now);
+                    break;
+                }
             }
         }
+        decision.set(allowed, maxRequests, maxRequests - log.total, retryAfter, resetAfter);
     }
 
     /**
-     * Lấy thời gian hiện tại (milliseconds).
-     *
-     * Tách thành method riêng để có thể override trong test,
-     * giúp kiểm soát thời gian mà không cần Thread.sleep().
-     * (Kỹ thuật "Seam" trong testing)
-     *
-     * @return thời gian hiện tại tính bằng milliseconds kể từ Unix epoch
+     * Đánh dấu log retired nếu nó rỗng hoặc timestamp MỚI NHẤT cũng đã ra khỏi
+     * cửa sổ - quyết định của mọi request sau đó giống hệt với một log mới.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
      */
-    protected long getCurrentTimeMillis() {
-        return System.currentTimeMillis();
+    private boolean retireIfFresh(RequestLog log, long now) {
+        synchronized (log) {
+            if (log.size == 0
+                    || log.timestamps[(log.head + log.size - 1) % capacity] <= now - windowSizeInMillis) {
+                log.retired = true;
+            }
+            return log.retired;
+        }
     }
 
     /**
-     * Lớp nội bộ lưu log các timestamp request cho một key cụ thể.
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(RequestLog log) {
+        synchronized (log) {
+            log.retired = true;
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return requestLogMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Lớp nội bộ lưu log các request cho một key cụ thể.
+     *
+     * Mỗi key (IP, userId, ...) có một RequestLog riêng chứa vòng đệm
+     * (circular buffer) kiểu long[]:
      *
-     * Mỗi key (IP, userId, ...) có một RequestLog riêng chứa:
-     * - timestamps: Deque<Long> lưu timestamp của các request đã được chấp nhận
+     *   capacity = 4, head = 1, size = 4
+     *   ┌──────┬──────┬──────┬──────┐
+     *   │ 1600 │  700 │  900 │ 1200 │
+     *   └──────┴──────┴──────┴──────┘
+     *            ↑ head (cũ nhất)   → thứ tự thời gian: 700, 900, 1200, 1600
      *
-     * Tại sao dùng ArrayDeque mà không dùng LinkedList hay ArrayList?
-     * - ArrayDeque: O(1) cho cả addLast() và pollFirst()
-     *   → Hoàn hảo cho pattern "thêm cuối, xóa đầu" (FIFO)
-     * - LinkedList: cũng O(1) nhưng tốn bộ nhớ hơn (mỗi node cần 2 con trỏ)
-     * - ArrayList: pollFirst() là O(n) vì phải shift tất cả phần tử
+     * Tại sao dùng long[] thay vì ArrayDeque<Long>?
+     * - ArrayDeque<Long> boxing mỗi timestamp thành một object Long (~16 bytes
+     *   + 4-8 bytes tham chiếu) → với 5,000 request/phút/key là hàng chục KB
+     *   object rác mỗi key, GC phải dọn liên tục.
+     * - long[]: 8 bytes/timestamp, cấp phát một lần, ghi đè tại chỗ
+     *   → không có cấp phát nào khi xử lý request.
+     * - ArrayDeque chỉ nới rộng mảng bên trong, không bao giờ thu nhỏ;
+     *   vòng đệm có dung lượng cố định nên bộ nhớ mỗi key không bao giờ vượt
+     *   8 × maxRequests bytes (12 × maxRequests nếu key từng xin lô nhiều permits).
      *
-     * Tại sao không dùng TreeSet hay PriorityQueue?
-     * - Không cần sắp xếp vì timestamp luôn tăng dần tự nhiên
-     * - Deque đã tự động giữ thứ tự thêm vào
+     * Số request của mỗi entry nằm trong mảng counts song song, chỉ được cấp
+     * phát khi key lần đầu xin lô > 1 permit: key chỉ gửi từng request
+     * (trường hợp phổ biến) không tốn thêm byte nào.
      */
     static class RequestLog {
         /**
-         * Danh sách timestamp của các request đã được chấp nhận.
-         * Sắp xếp tự nhiên theo thứ tự thêm vào (cũ nhất ở đầu, mới nhất ở cuối).
-         *
-         * Kích thước tối đa = maxRequests (vì chỉ thêm khi count < maxRequests)
+         * Vòng đệm timestamp của các entry được chấp nhận gần nhất.
+         * Dung lượng cố định = maxRequests.
          */
-        final Deque<Long> timestamps;
+        final long[] timestamps;
+
+        /** Số request của từng entry; null nghĩa là mọi entry đều là 1 request. */
+        int[] counts;
+
+        /** Vị trí của entry cũ nhất trong vòng đệm */
+        int head;
+
+        /** Số entry đang có trong vòng đệm */
+        int size;
+
+        /** Tổng số request của các entry đang có (≤ maxRequests) */
+        int total;
+
+        /** true khi log đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
 
-        RequestLog() {
-            this.timestamps = new ArrayDeque<>();
+        RequestLog(int capacity) {
+            this.timestamps = new long[capacity];
+            this.head = 0;
+            this.size = 0;
+        }
+
+        int countAt(int index) {
+            return counts == null ? 1 : counts[index];
+        }
+
+        /** Ghi entry (timestamp, permits) vào cuối vòng đệm; gọi khi chắc chắn còn slot. */
+        void append(long timestamp, int permits, int capacity) {
+            int tail = (head + size) % capacity;
+            if (permits != 1 && counts == null) {
+                counts = new int[capacity];
+                Arrays.fill(counts, 1);
+            }
+            timestamps[tail] = timestamp;
+            if (counts != null) {
+                counts[tail] = permits;
+            }
+            size++;
+            total += permits;
+        }
+
+        /**
+         * Bớt permits request khỏi các entry có timestamp đúng bằng timestamp,
+         * tìm từ entry mới nhất. Entry về 0 request bị xóa (các entry mới hơn
+         * dồn lùi một slot) để số entry vẫn không vượt total.
+         */
+        void remove(long timestamp, long permits, int capacity) {
+            for (int i = size - 1; i >= 0 && permits > 0; i--) {
+                int index = (head + i) % capacity;
+                if (timestamps[index] != timestamp) {
+                    continue;
+                }
+                int count = countAt(index);
+                if (count > permits) {
+                    counts[index] -= (int) permits;
+                    total -= (int) permits;
+                    return;
+                }
+                for (int j = i; j < size - 1; j++) {
+                    int to = (head + j) % capacity;
+                    int from = (head + j + 1) % capacity;
+                    timestamps[to] = timestamps[from];
+                    if (counts != null) {
+                        counts[to] = counts[from];
+                    }
+                }
+                size--;
+                total -= count;
+                permits -= count;
+            }
         }
     }
 }
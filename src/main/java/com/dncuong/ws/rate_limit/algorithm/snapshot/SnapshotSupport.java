@@ -0,0 +1,77 @@
+package com.dncuong.ws.rate_limit.algorithm.snapshot;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+
+import java.io.IOException;
+
+/**
+ * Limiter có state cố định số field mỗi key, chụp được ra {@link SnapshotWriter}
+ * và khôi phục lười từ {@link StateSnapshot}.
+ *
+ * State của một key được mã hóa thành đúng stateWidth số long, nên mọi bản
+ * ghi của một limiter có cùng độ dài phần state.
+ *
+ * @author dncuong
+ */
+public interface SnapshotSupport extends RateLimiter {
+
+    /**
+     * Nhận state của từng key khi chụp snapshot.
+     */
+    @FunctionalInterface
+    interface StateVisitor {
+
+        /**
+         * @param key    key của state
+         * @param fields state đã mã hóa; mảng được dùng lại cho key kế tiếp
+         * @throws IOException nếu ghi lỗi
+         */
+        void visit(RateLimitKey key, long[] fields) throws IOException;
+    }
+
+    /**
+     * @return tên thuật toán và phiên bản cách mã hóa, ví dụ "token-bucket/1";
+     *         snapshot chỉ khôi phục được vào limiter cùng format
+     */
+    String snapshotFormat();
+
+    /**
+     * @return số field long của mỗi state
+     */
+    int snapshotStateWidth();
+
+    /**
+     * Duyệt mọi state chưa fresh. Mỗi state được sao chép dưới chính lock của
+     * nó rồi mới chuyển cho visitor (ngoài lock): request của key khác không
+     * bao giờ phải chờ, request của cùng key chỉ chờ một lần sao chép.
+     *
+     * @param now     thời điểm chụp
+     * @param visitor nhận từng state
+     * @throws IOException           nếu visitor ném IOException
+     * @throws IllegalStateException nếu limiter lưu state off-heap
+     */
+    void forEachState(long now, StateVisitor visitor) throws IOException;
+
+    /**
+     * @param fields state đã mã hóa
+     * @param now    thời điểm hiện tại của limiter
+     * @return true nếu state tương đương state mới tại now (không cần lưu)
+     */
+    boolean isFreshState(long[] fields, long now);
+
+    /**
+     * Khôi phục lười: key được tạo state lần đầu sẽ lấy state từ snapshot (nếu
+     * có), key khác không tốn gì. Phải gọi trước request đầu tiên.
+     *
+     * @param snapshot snapshot đã mở bằng {@link StateSnapshot#open}
+     * @throws IllegalArgumentException nếu snapshot null hoặc khác format
+     * @throws IllegalStateException    nếu limiter đã có state hoặc lưu state off-heap
+     */
+    void restoreFrom(StateSnapshot snapshot);
+
+    /**
+     * @return snapshot đang khôi phục lười, null nếu không có
+     */
+    StateSnapshot restoredSnapshot();
+}
@@ -0,0 +1,302 @@
+package com.dncuong.ws.rate_limit.algorithm.snapshot;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * =====================================================================
+ * GHI SNAPSHOT STATE ĐỊNH KỲ Ở NỀN
+ * =====================================================================
+ *
+ * Một thread daemon cứ mỗi intervalMillis ghi toàn bộ state chưa fresh của
+ * limiter ra file theo định dạng của {@link StateSnapshot}.
+ *
+ * KHÔNG DỪNG allowRequest:
+ * -------------------------
+ * Không có lock toàn cục, không chụp cả map một lúc: thread ghi đi qua
+ * từng key, sao chép state của key đó dưới chính lock của nó (vài phép
+ * gán) rồi ghi ra buffer NGOÀI lock. Request của key khác chạy song song
+ * bình thường; request của cùng key chờ tối đa một lần sao chép. Mỗi key
+ * được chụp tại thời điểm thread ghi đi qua nó, nên snapshot không phải
+ * một lát cắt tại một thời điểm duy nhất - đủ cho rate limit, nơi mỗi key
+ * độc lập với nhau.
+ *
+ * KEY CHƯA QUAY LẠI SAU KHI KHÔI PHỤC:
+ * --------------------------------------
+ * State của những key này vẫn chỉ nằm trong snapshot đang khôi phục lười,
+ * nên được chép sang file mới (trừ state đã fresh). Khi không còn bản ghi
+ * nào như vậy, snapshot cũ được bỏ.
+ *
+ * KEY DÀI QUÁ GIỚI HẠN:
+ * ----------------------
+ * Key có nội dung quá {@link RateLimitKey#MAX_SERIALIZED_LENGTH} byte không
+ * ghi được (RateLimitKey#writeTo từ chối) nên bị bỏ qua: state của nó mất
+ * khi khởi động lại, mọi key còn lại vẫn được lưu. Không bỏ qua thì một key
+ * như vậy làm hỏng mọi lần ghi về sau.
+ *
+ * AN TOÀN KHI CHẾT GIỮA CHỪNG:
+ * -----------------------------
+ * Ghi ra file tạm cạnh file đích, force xuống đĩa, rồi đổi tên nguyên tử:
+ * file đích luôn là một snapshot hoàn chỉnh (cũ hoặc mới).
+ *
+ * {@link #close()} dừng thread nền và ghi một snapshot cuối: gọi khi tắt
+ * ứng dụng để lần khởi động sau nhận state mới nhất.
+ *
+ * @author dncuong
+ */
+public final class SnapshotWriter implements Closeable {
+
+    /** Mặc định: ghi snapshot mỗi 10 giây. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final SnapshotSupport limiter;
+
+    private final Path file;
+
+    private final Path tempFile;
+
+    private final long intervalNanos;
+
+    private final Thread writerThread;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /** Lỗi của lần ghi nền gần nhất, null nếu lần đó thành công. */
+    private volatile Exception lastFailure;
+
+    /**
+     * Ghi snapshot với chu kỳ mặc định.
+     *
+     * @param limiter limiter cần chụp state
+     * @param file    file đích
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SnapshotWriter(SnapshotSupport limiter, Path file) {
+        this(limiter, file, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param limiter        limiter cần chụp state
+     * @param file           file đích
+     * @param intervalMillis chu kỳ ghi ở nền
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public SnapshotWriter(SnapshotSupport limiter, Path file, long intervalMillis) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("limiter không được null");
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("file không được null");
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "intervalMillis phải lớn hơn 0, nhận được: " + intervalMillis);
+        }
+        this.limiter = limiter;
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.writerThread = new Thread(this::writeLoop, "rate-limit-snapshot-" + file.getFileName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Ghi một snapshot ngay (thread gọi làm việc ghi, thread nền chờ).
+     *
+     * @return số bản ghi đã ghi
+     * @throws IOException nếu ghi lỗi hoặc snapshot vượt giới hạn kích thước;
+     *                     file đích giữ nguyên snapshot trước đó
+     */
+    public synchronized long writeNow() throws IOException {
+        long now = limiter.currentTimeMillis();
+        int stateWidth = limiter.snapshotStateWidth();
+        byte[] format = limiter.snapshotFormat().getBytes(StandardCharsets.UTF_8);
+        StateSnapshot restored = limiter.restoredSnapshot();
+
+        long records;
+        long carried;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Không đóng stream (sẽ đóng channel): chỉ flush trước khi dựng index
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES));
+            out.writeInt(StateSnapshot.MAGIC);
+            out.writeInt(StateSnapshot.VERSION);
+            out.writeInt(stateWidth);
+            out.writeInt(format.length);
+            // Số bản ghi, indexOffset, số slot: điền sau khi ghi xong bản ghi
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeLong(now);
+            out.write(format);
+
+            RecordSink sink = new RecordSink(out, stateWidth);
+            limiter.forEachState(now, (key, fields) -> {
+                if (key.isSerializable()) {
+                    sink.write(key.hash64(), key, null, fields);
+                }
+            });
+            // Chép sau các key đang sống nên không key nào bị ghi hai lần; key được lấy khỏi
+            // snapshot cũ đúng lúc đang chép có thể vắng ở file này và có ở lần ghi sau
+            long live = sink.count;
+            if (restored != null) {
+                restored.forEachUntaken((hash, key, fields) -> {
+                    if (!limiter.isFreshState(fields, now)) {
+                        sink.write(hash, null, key, fields);
+                    }
+                });
+            }
+            out.flush();
+            records = sink.count;
+            carried = records - live;
+
+            long dataEnd = out.size();
+            long indexOffset = (dataEnd + 7) & ~7L;
+            long slots = Long.highestOneBit(Math.max(1, 2 * records - 1)) << 1;
+            buildIndex(channel, StateSnapshot.HEADER_BYTES + format.length, dataEnd, indexOffset, slots,
+                    stateWidth);
+
+            ByteBuffer counts = ByteBuffer.allocate(24).putLong(records).putLong(indexOffset).putLong(slots).flip();
+            channel.write(counts, StateSnapshot.COUNT_OFFSET);
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        if (restored != null && carried == 0) {
+            restored.discard();
+        }
+        return records;
+    }
+
+    /**
+     * Đọc lại hash của từng bản ghi vừa ghi (qua vùng map, không giữ gì
+     * trên heap) và điền index dò tuyến tính ở cuối file.
+     */
+    private static void buildIndex(FileChannel channel, long dataStart, long dataEnd, long indexOffset,
+                                   long slots, int stateWidth) throws IOException {
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataEnd);
+        MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, indexOffset,
+                slots * StateSnapshot.SLOT_BYTES);
+        int mask = (int) slots - 1;
+        int position = (int) dataStart;
+        while (position < dataEnd) {
+            long hash = data.getLong(position);
+            int slot = (int) hash & mask;
+            while (index.getLong(slot * StateSnapshot.SLOT_BYTES + 8) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index.putLong(slot * StateSnapshot.SLOT_BYTES, hash);
+            index.putLong(slot * StateSnapshot.SLOT_BYTES + 8, position);
+            position += 8 + StateSnapshot.keyLength(data, position + 8) + stateWidth * 8;
+        }
+        index.force();
+    }
+
+    private void writeLoop() {
+        long deadline = System.nanoTime() + intervalNanos;
+        while (!closed.get()) {
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            try {
+                writeNow();
+                lastFailure = null;
+            } catch (IOException | RuntimeException e) {
+                // Giữ snapshot cũ, thử lại ở chu kỳ sau
+                lastFailure = e;
+            }
+            deadline = System.nanoTime() + intervalNanos;
+        }
+    }
+
+    /**
+     * @return lỗi của lần ghi nền gần nhất, null nếu lần đó thành công (hoặc chưa ghi lần nào)
+     */
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Dừng thread nền và ghi snapshot cuối cùng.
+     *
+     * @throws IOException nếu lần ghi cuối lỗi
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeNow();
+    }
+
+    /**
+     * Ghi bản ghi và đếm; chặn trước khi vượt giới hạn của {@link StateSnapshot}.
+     */
+    private static final class RecordSink {
+
+        private final DataOutputStream out;
+
+        private final int stateWidth;
+
+        long count;
+
+        RecordSink(DataOutputStream out, int stateWidth) {
+            this.out = out;
+            this.stateWidth = stateWidth;
+        }
+
+        /**
+         * Ghi một bản ghi; key là key đang sống hoặc encodedKey là key đã mã
+         * hóa chép từ snapshot cũ.
+         */
+        void write(long hash, RateLimitKey key, ByteBuffer encodedKey, long[] fields) throws IOException {
+            if (count == StateSnapshot.MAX_RECORDS) {
+                throw new IOException("Snapshot vượt " + StateSnapshot.MAX_RECORDS + " bản ghi");
+            }
+            out.writeLong(hash);
+            if (key != null) {
+                key.writeTo(out);
+            } else {
+                byte[] bytes = new byte[encodedKey.remaining()];
+                encodedKey.get(bytes);
+                out.write(bytes);
+            }
+            for (int i = 0; i < stateWidth; i++) {
+                out.writeLong(fields[i]);
+            }
+            // DataOutputStream.size() dừng ở Integer.MAX_VALUE: vượt 2 GB thì không map được một vùng
+            if (out.size() >= Integer.MAX_VALUE - 8) {
+                throw new IOException("Snapshot vượt 2 GB dữ liệu bản ghi");
+            }
+            count++;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.dncuong.ws.rate_limit.algorithm.snapshot;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * =====================================================================
+ * SNAPSHOT STATE TRÊN FILE MEMORY-MAPPED, KHÔI PHỤC LƯỜI
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Mỗi lần deploy JVM khởi động lại, mọi counter về 0: client đang bị chặn
+ * nhận ngay một lượt quota mới. Nạp lại toàn bộ state lúc khởi động thì
+ * hàng triệu key làm startup chậm và phình heap bằng cả những key không
+ * bao giờ quay lại.
+ *
+ * GIẢI PHÁP: FILE CÓ SẴN BẢNG BĂM, MAP VÀO BỘ NHỚ, ĐỌC KHI CẦN
+ * -------------------------------------------------------------
+ * {@link #open} chỉ đọc header rồi map file (copy-on-write): không đọc bản
+ * ghi nào, startup O(1) bất kể số key. Khi limiter tạo state cho một key lần
+ * đầu, nó hỏi {@link #take}: một lần dò bảng băm trên vùng đã map, hệ điều
+ * hành nạp đúng trang chứa bản ghi đó. Key không quay lại thì không bao giờ
+ * được đọc.
+ *
+ * Mỗi bản ghi chỉ được lấy MỘT lần (đánh dấu đã lấy trên bản sao riêng
+ * trong bộ nhớ, file không bị sửa): state sau đó của key nằm trong limiter,
+ * key bị dọn rồi quay lại sẽ không nhận lại state cũ từ snapshot.
+ *
+ * ĐỊNH DẠNG FILE (big-endian):
+ * -----------------------------
+ *   header: [magic int][version int][stateWidth int][độ dài format int]
+ *           [số bản ghi long][indexOffset long][số slot long][createdAt long][format UTF-8]
+ *   bản ghi: [hash64 long][key theo RateLimitKey#writeTo][field long × stateWidth]
+ *   index (tại indexOffset, chia hết cho 8):
+ *           slot: [hash64 long][offset bản ghi long], offset 0 = slot trống
+ * Index là bảng băm dò tuyến tính, hệ số tải ≤ 0.5. So khớp key bằng hash
+ * rồi so byte của key, nên hai key trùng hash không lẫn state. Key không ghi
+ * được ({@link RateLimitKey#isSerializable()} là false) không bao giờ có
+ * trong snapshot.
+ *
+ * File tối đa 2 GB dữ liệu bản ghi và {@link #MAX_RECORDS} bản ghi (một
+ * vùng map mỗi phần).
+ *
+ * @author dncuong
+ */
+public final class StateSnapshot {
+
+    /** Số bản ghi tối đa: index 2^26 slot × 16 byte vừa một vùng map. */
+    public static final long MAX_RECORDS = 1L << 25;
+
+    static final int MAGIC = 0x524C534E;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 48;
+
+    static final int SLOT_BYTES = 16;
+
+    static final int COUNT_OFFSET = 16;
+
+    /** Bit đánh dấu bản ghi đã được lấy, trên offset của slot. */
+    private static final long TAKEN = Long.MIN_VALUE;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final String format;
+
+    private final int stateWidth;
+
+    private final long recordCount;
+
+    private final long createdAtMillis;
+
+    /** null sau {@link #discard()}: vùng map được giải phóng khi GC thu hồi. */
+    private volatile Mapping mapping;
+
+    private StateSnapshot(String format, int stateWidth, long recordCount, long createdAtMillis, Mapping mapping) {
+        this.format = format;
+        this.stateWidth = stateWidth;
+        this.recordCount = recordCount;
+        this.createdAtMillis = createdAtMillis;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Mở snapshot: đọc header và map file, không đọc bản ghi nào.
+     *
+     * @param file file do {@link SnapshotWriter} ghi
+     * @return snapshot để truyền cho {@link SnapshotSupport#restoreFrom}
+     * @throws IOException nếu không đọc được file hoặc file không phải snapshot hợp lệ
+     */
+    public static StateSnapshot open(Path file) throws IOException {
+        // MapMode.PRIVATE cần kênh mở cả đọc lẫn ghi; ghi chỉ vào bản sao trong bộ nhớ
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("File snapshot quá ngắn: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Không phải file snapshot: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Phiên bản snapshot không hỗ trợ: " + version);
+            }
+            int stateWidth = header.getInt();
+            int formatLength = header.getInt();
+            long recordCount = header.getLong();
+            long indexOffset = header.getLong();
+            long slots = header.getLong();
+            long createdAtMillis = header.getLong();
+            if (stateWidth <= 0 || formatLength < 0 || recordCount < 0 || recordCount > MAX_RECORDS
+                    || indexOffset < HEADER_BYTES + formatLength || indexOffset > Integer.MAX_VALUE
+                    || indexOffset % 8 != 0 || Long.bitCount(slots) != 1 || slots < 2 * recordCount
+                    || slots > 2 * MAX_RECORDS
+                    || indexOffset + slots * SLOT_BYTES != size) {
+                throw new IOException("Header snapshot không hợp lệ: " + file);
+            }
+            ByteBuffer formatBytes = ByteBuffer.allocate(formatLength);
+            channel.read(formatBytes, HEADER_BYTES);
+            String format = new String(formatBytes.array(), StandardCharsets.UTF_8);
+
+            Mapping mapping = new Mapping(
+                    channel.map(FileChannel.MapMode.PRIVATE, 0, indexOffset),
+                    channel.map(FileChannel.MapMode.PRIVATE, indexOffset, slots * SLOT_BYTES),
+                    (int) slots - 1);
+            return new StateSnapshot(format, stateWidth, recordCount, createdAtMillis, mapping);
+        }
+    }
+
+    /**
+     * Lấy state đã lưu của key, MỘT lần: lần gọi sau cho cùng key trả về null.
+     *
+     * @param key key đang được tạo state lần đầu
+     * @return state đã mã hóa (stateWidth field), null nếu snapshot không có key
+     *         hoặc bản ghi đã được lấy
+     */
+    public long[] take(RateLimitKey key) {
+        Mapping current = mapping;
+        if (current == null || !key.isSerializable()) {
+            return null;
+        }
+        byte[] encodedKey = encode(key);
+        long hash = key.hash64();
+        int slot = (int) hash & current.slotMask;
+        // Index hợp lệ luôn còn slot trống; file hỏng không có slot trống thì dừng sau một vòng
+        for (int probes = 0; probes <= current.slotMask; probes++) {
+            int at = slot * SLOT_BYTES;
+            long offset = (long) LONGS.getVolatile(current.index, at + 8);
+            if (offset == 0) {
+                return null;
+            }
+            long recordOffset = offset & ~TAKEN;
+            if (current.index.getLong(at) == hash && keyMatches(current.data, recordOffset, encodedKey)) {
+                if (offset != recordOffset || !LONGS.compareAndSet(current.index, at + 8, offset, offset | TAKEN)) {
+                    return null;
+                }
+                return readFields(current.data, (int) recordOffset + 8 + encodedKey.length);
+            }
+            slot = (slot + 1) & current.slotMask;
+        }
+        return null;
+    }
+
+    /**
+     * Kiểm tra snapshot được ghi bởi limiter cùng format, trước khi khôi phục.
+     *
+     * @param expectedFormat     format của limiter khôi phục
+     * @param expectedStateWidth số field của limiter khôi phục
+     * @throws IllegalArgumentException nếu không khớp
+     */
+    public void requireFormat(String expectedFormat, int expectedStateWidth) {
+        if (!format.equals(expectedFormat) || stateWidth != expectedStateWidth) {
+            throw new IllegalArgumentException("Snapshot có format " + format + " (" + stateWidth
+                    + " field), limiter cần " + expectedFormat + " (" + expectedStateWidth + " field)");
+        }
+    }
+
+    /**
+     * Nhận bản ghi chưa được lấy, khi chụp snapshot kế tiếp.
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long hash, ByteBuffer key, long[] fields) throws IOException;
+    }
+
+    /**
+     * Duyệt các bản ghi chưa được lấy: key chưa quay lại kể từ khi khôi phục,
+     * state của nó vẫn chỉ nằm trong snapshot này.
+     */
+    void forEachUntaken(RecordVisitor visitor) throws IOException {
+        Mapping current = mapping;
+        if (current == null) {
+            return;
+        }
+        for (int slot = 0; slot <= current.slotMask; slot++) {
+            int at = slot * SLOT_BYTES;
+            long offset = (long) LONGS.getVolatile(current.index, at + 8);
+            if (offset == 0 || (offset & TAKEN) != 0) {
+                continue;
+            }
+            int keyAt = (int) offset + 8;
+            int keyLength = keyLength(current.data, keyAt);
+            visitor.visit(current.index.getLong(at), current.data.slice(keyAt, keyLength),
+                    readFields(current.data, keyAt + keyLength));
+        }
+    }
+
+    /**
+     * Bỏ snapshot: không còn bản ghi nào cần khôi phục.
+     */
+    void discard() {
+        mapping = null;
+    }
+
+    /**
+     * @return tên thuật toán và phiên bản mã hóa của limiter đã ghi snapshot
+     */
+    public String format() {
+        return format;
+    }
+
+    /**
+     * @return số field long của mỗi state
+     */
+    public int stateWidth() {
+        return stateWidth;
+    }
+
+    /**
+     * @return số bản ghi trong file
+     */
+    public long recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return thời điểm chụp, theo đồng hồ của limiter đã ghi
+     */
+    public long createdAtMillis() {
+        return createdAtMillis;
+    }
+
+    /**
+     * Độ dài phần key của bản ghi (theo RateLimitKey#writeTo: loại 0 là long,
+     * loại khác là [độ dài int][byte]).
+     */
+    static int keyLength(ByteBuffer data, int keyAt) {
+        return data.get(keyAt) == 0 ? 1 + 8 : 1 + 4 + data.getInt(keyAt + 1);
+    }
+
+    /** Chỉ gọi với key {@link RateLimitKey#isSerializable()}. */
+    static byte[] encode(RateLimitKey key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try {
+            key.writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // ByteArrayOutputStream không ném IOException, key ghi được không quá giới hạn
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private boolean keyMatches(ByteBuffer data, long recordOffset, byte[] encodedKey) {
+        long keyAt = recordOffset + 8;
+        return keyAt + encodedKey.length + (long) stateWidth * 8 <= data.limit()
+                && data.slice((int) keyAt, encodedKey.length).equals(ByteBuffer.wrap(encodedKey));
+    }
+
+    private long[] readFields(ByteBuffer data, int at) {
+        long[] fields = new long[stateWidth];
+        for (int i = 0; i < stateWidth; i++) {
+            fields[i] = data.getLong(at + i * 8);
+        }
+        return fields;
+    }
+
+    /**
+     * Vùng bản ghi (từ đầu file, offset bản ghi dùng thẳng làm chỉ số) và
+     * vùng index.
+     */
+    private record Mapping(ByteBuffer data, ByteBuffer index, int slotMask) {
+    }
+}
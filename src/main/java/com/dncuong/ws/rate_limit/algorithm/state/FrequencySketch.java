@@ -0,0 +1,166 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * =====================================================================
+ * COUNT-MIN SKETCH 4-BIT: ƯỚC LƯỢNG TẦN SUẤT TRUY CẬP CỦA KEY
+ * =====================================================================
+ *
+ * Dùng cho chính sách W-TinyLFU của {@link KeyStateStore}: khi phải loại
+ * một key, so sánh "key này được truy cập thường xuyên đến mức nào" mà
+ * không cần lưu counter riêng cho từng key (kể cả key đã bị loại).
+ *
+ * CẤU TRÚC:
+ * ----------
+ * - Mảng long[], mỗi long chứa 16 counter 4 bit (giá trị 0..15)
+ * - Mỗi key được băm ra 4 vị trí counter khác nhau (4 hàm băm)
+ * - Tăng: cộng 1 vào cả 4 counter (dừng ở 15)
+ * - Ước lượng: lấy MIN của 4 counter → va chạm băm chỉ làm ước lượng
+ *   LỚN HƠN thực tế, không bao giờ nhỏ hơn
+ *
+ * LÃO HÓA (AGING):
+ * -----------------
+ * Sau mỗi sampleSize (= 10 × maxKeys) lần tăng, mọi counter bị chia đôi.
+ * Key từng "hot" nhưng không còn được truy cập sẽ dần nguội đi,
+ * nhường chỗ cho key hot mới.
+ *
+ * THREAD-SAFETY:
+ * ---------------
+ * Không lock: increment được gọi trên mọi request, một lock ở đây sẽ là điểm
+ * nghẽn toàn cục. Mỗi counter được tăng bằng vòng CAS trên cả long chứa nó,
+ * kiểm tra "chưa tới 15" NGAY TRONG vòng CAS. Nếu chỉ kiểm tra rồi cộng
+ * (không CAS), hai thread cùng thấy 14 sẽ đẩy counter lên 16: counter quay về
+ * 0 và bit tràn cộng vào counter bên cạnh - key càng hot càng dễ bị xóa tần
+ * suất đúng lúc tranh chấp nhiều nhất, và TinyLFU loại chính key đó.
+ *
+ * Lão hóa chạy dưới lock (hiếm: mỗi sampleSize lần tăng), chia đôi từng long
+ * cũng bằng CAS. Bộ đếm additions không đồng bộ: đếm thiếu chỉ làm lão hóa
+ * đến muộn hơn một chút.
+ *
+ * Bộ nhớ: 8 bytes × nextPowerOfTwo(maxKeys), ví dụ 1 triệu key → 8 MB.
+ *
+ * @author dncuong
+ */
+final class FrequencySketch {
+
+    /** Giá trị lớn nhất của một counter 4 bit. */
+    static final int MAX_FREQUENCY = 15;
+
+    /** Chia đôi 16 counter trong một long: dịch phải 1 bit rồi xóa bit tràn sang counter bên cạnh. */
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+
+    /** Hạt giống cho 4 hàm băm. */
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** Số long tối đa (2^26 long × 16 counter = 2^30 counter, vẫn đánh chỉ số bằng int). */
+    private static final int MAX_TABLE_LENGTH = 1 << 26;
+
+    private final long[] table;
+
+    /** Số counter - 1 (số counter là lũy thừa của 2). */
+    private final int counterMask;
+
+    /** Số lần tăng trước khi lão hóa. */
+    private final int sampleSize;
+
+    /** Số lần tăng kể từ lần lão hóa gần nhất. */
+    private int additions;
+
+    /**
+     * @param maxKeys số key tối đa mà kho trạng thái theo dõi
+     */
+    FrequencySketch(int maxKeys) {
+        int length = Integer.highestOneBit(Math.max(maxKeys, 4) - 1) << 1;
+        if (length <= 0 || length > MAX_TABLE_LENGTH) {
+            length = MAX_TABLE_LENGTH;
+        }
+        this.table = new long[length];
+        this.counterMask = length * 16 - 1;
+        this.sampleSize = (int) Math.min(10L * Math.max(maxKeys, 4), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Ước lượng số lần key được truy cập (0..15, đã qua lão hóa).
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            min = Math.min(min, counterAt(indexOf(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * Ghi nhận một lần truy cập của key.
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            added |= tryIncrementAt(index);
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Tăng counter tại index nếu chưa bão hòa.
+     *
+     * @return false nếu counter đã là 15
+     */
+    private boolean tryIncrementAt(int index) {
+        int i = index >>> 4;
+        int shift = (index & 15) << 2;
+        while (true) {
+            long word = (long) LONGS.getVolatile(table, i);
+            if (((word >>> shift) & 0xF) == MAX_FREQUENCY) {
+                return false;
+            }
+            if (LONGS.compareAndSet(table, i, word, word + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /** Lão hóa: chia đôi mọi counter. */
+    private synchronized void reset() {
+        // Thread khác vừa lão hóa xong: không chia đôi lần nữa
+        if (additions < sampleSize) {
+            return;
+        }
+        for (int i = 0; i < table.length; i++) {
+            long word;
+            do {
+                word = (long) LONGS.getVolatile(table, i);
+            } while (!LONGS.compareAndSet(table, i, word, (word >>> 1) & RESET_MASK));
+        }
+        additions /= 2;
+    }
+
+    private int counterAt(int index) {
+        return (int) (((long) LONGS.getOpaque(table, index >>> 4) >>> ((index & 15) << 2)) & 0xF);
+    }
+
+    /** Vị trí counter của hàm băm thứ i. */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    /** Trộn bit của hashCode để các key có hashCode gần nhau không dồn về cùng vị trí. */
+    private static int spread(int h) {
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
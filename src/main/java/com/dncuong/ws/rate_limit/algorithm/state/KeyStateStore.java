@@ -0,0 +1,377 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * =====================================================================
+ * KHO TRẠNG THÁI THEO KEY, CÓ DỌN KEY NHÀN RỖI
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Mọi limiter đều tạo state cho key mới bằng computeIfAbsent và KHÔNG BAO GIỜ
+ * xóa. Khi key là địa chỉ IP, scanner và thiết bị di động liên tục đổi địa chỉ
+ * → map phình ra vô hạn, rò rỉ bộ nhớ.
+ *
+ * Ý TƯỞNG: XÓA KEY KHI STATE CỦA NÓ ĐÃ "NHƯ MỚI"
+ * ------------------------------------------------
+ * Một state "như mới" (fresh) là state mà nếu xóa đi rồi tạo lại thì quyết định
+ * của limiter KHÔNG thay đổi:
+ *   - Fixed Window:   cửa sổ của state đã hết hạn
+ *   - Sliding Log:    mọi timestamp trong log đã ra khỏi cửa sổ
+ *   - Token Bucket:   xô đã nạp lại đầy
+ * Xóa những state này an toàn về mặt ngữ nghĩa: key quay lại sẽ nhận state mới
+ * y hệt state vừa bị xóa.
+ *
+ * DỌN DẸP TỪNG CHÚT MỘT (AMORTIZED SWEEP):
+ * -----------------------------------------
+ * Không có thread nền, không quét toàn bộ map một lúc (stop-the-world).
+ * Thay vào đó, trung bình cứ sweepInterval request thì một request "trả thêm"
+ * chi phí kiểm tra sweepBatch entry kế tiếp của một con trỏ duyệt vòng quanh map:
+ *
+ *   request:  ──●────●────●────●────●────●──
+ *   con trỏ:    [e1 e2][e3 e4][e5 e6][e7 ..]...  → hết map thì bắt đầu vòng mới
+ *
+ * Mặc định mỗi request trung bình kiểm tra 2 entry, còn mỗi request tạo tối đa
+ * 1 key mới → tốc độ dọn luôn nhanh hơn tốc độ phình, số key bị chặn quanh
+ * số key thật sự đang hoạt động. Chỉ một thread quét tại một thời điểm
+ * (AtomicBoolean); thread khác thấy đang có người quét thì bỏ qua, không chờ.
+ *
+ * KHÔNG TRANH CHẤP VỚI allowRequest TRÊN CÙNG KEY:
+ * -------------------------------------------------
+ * Nguy hiểm: thread A vừa lấy state S từ map, thread quét xóa S khỏi map,
+ * A tăng counter trên S - một object không còn ai nhìn thấy → request của A
+ * "biến mất", key được cấp thêm quota.
+ *
+ * Giải pháp: giao thức "đánh dấu rồi mới xóa" (retire):
+ *   1. Thread quét gọi {@link Retirer#retireIfFresh}: limiter kiểm tra fresh
+ *      và ĐÁNH DẤU state là retired dưới CÙNG cơ chế đồng bộ mà allowRequest
+ *      dùng (synchronized trên state, hoặc CAS sang giá trị đặc biệt)
+ *   2. Sau khi đánh dấu mới remove(key, state) khỏi map
+ *   3. allowRequest thấy state đã retired → KHÔNG sửa state đó,
+ *      gọi {@link #removeRetired} (giúp xóa nếu thread quét chưa kịp) rồi lấy lại
+ *
+ * Vì đánh dấu và cập nhật loại trừ lẫn nhau, mọi cập nhật hoặc xảy ra TRƯỚC khi
+ * đánh dấu (state không còn fresh → không bị đánh dấu), hoặc thấy dấu và đi lấy
+ * state mới. Không cập nhật nào rơi vào state đã bị loại khỏi map.
+ *
+ * GIỚI HẠN CỨNG SỐ KEY (maxKeys):
+ * --------------------------------
+ * Dọn key nhàn rỗi không đủ khi bị tấn công bằng key giả mạo: hàng triệu key
+ * mới mỗi phút, key nào cũng "đang hoạt động". Khi cấu hình maxKeys, kho không
+ * bao giờ giữ quá maxKeys state; key mới vượt giới hạn sẽ khiến một key bị loại
+ * theo chính sách W-TinyLFU ({@link WindowTinyLfuPolicy}): key dùng-một-lần
+ * bị loại trước, key "hot" (kể cả key đang bị chặn hợp lệ) được giữ lại.
+ *
+ * - Đường HIT (key đã có): chỉ đọc map + tăng sketch tần suất, không lock.
+ * - Đường MISS (key mới): lấy lock của chính sách, tạo state, có thể loại một
+ *   key khác. Key bị loại được đánh dấu retired bằng evictor - cùng giao thức
+ *   với dọn dẹp, nên request đang xử lý key đó sẽ đi lấy state mới.
+ * - Thứ tự lock luôn là: lock chính sách → lock của state (evictor).
+ *   Limiter KHÔNG được gọi getOrCreate/removeRetired khi đang giữ lock state.
+ *
+ * CHÍNH SÁCH CHO KEY BỊ LOẠI: BẮT ĐẦU LẠI TỪ STATE MỚI (không fail-open)
+ *   Key bị loại quay lại sẽ được tạo state mới, giống hệt lần đầu xuất hiện
+ *   (cửa sổ trống, xô đầy). Request của nó vẫn đi qua limiter bình thường,
+ *   không bao giờ được cho qua vô điều kiện. Cái giá: một key bị loại có thể
+ *   nhận thêm tối đa một lượt quota mới - đó là lý do chính sách ưu tiên giữ
+ *   key có tần suất cao (chính là các key đang bị chặn).
+ *
+ * @param <K> kiểu key
+ * @param <S> kiểu state của limiter (mỗi key một object)
+ * @author dncuong
+ */
+public class KeyStateStore<K, S> {
+
+    /** Mặc định: trung bình 1/16 request thực hiện một lượt quét. */
+    static final int DEFAULT_SWEEP_INTERVAL = 16;
+
+    /** Mặc định: mỗi lượt quét kiểm tra 32 entry (≈ 2 entry mỗi request). */
+    static final int DEFAULT_SWEEP_BATCH = 32;
+
+    /** Giá trị maxKeys nghĩa là không giới hạn số key. */
+    public static final int UNBOUNDED = 0;
+
+    /**
+     * Callback do limiter cung cấp: kiểm tra state có fresh không và đánh dấu nó.
+     *
+     * @param <S> kiểu state
+     */
+    @FunctionalInterface
+    public interface Retirer<S> {
+
+        /**
+         * Nếu state đã fresh tại thời điểm now thì đánh dấu retired (nguyên tử
+         * với các cập nhật của allowRequest) và trả về true.
+         * Sau khi trả về true, limiter không được sửa state này nữa.
+         *
+         * @param state state cần kiểm tra
+         * @param now   thời điểm hiện tại của limiter
+         * @return true nếu state vừa được đánh dấu retired
+         */
+        boolean retireIfFresh(S state, long now);
+    }
+
+    private final ConcurrentHashMap<K, S> map;
+
+    private final Retirer<S> retirer;
+
+    /** Đánh dấu retired VÔ ĐIỀU KIỆN một state bị loại vì kho đầy. */
+    private final Consumer<S> evictor;
+
+    /** Chính sách W-TinyLFU; null nếu không giới hạn số key. Đồng thời là lock của đường MISS. */
+    private final WindowTinyLfuPolicy<K> policy;
+
+    /**
+     * Key đã bị xóa khỏi map nhưng chưa được bỏ khỏi chính sách
+     * (xóa diễn ra ngoài lock, chính sách được cập nhật ở lần MISS kế tiếp).
+     */
+    private final Queue<K> pendingRemovals;
+
+    private final int sweepInterval;
+
+    private final int sweepBatch;
+
+    /** Chỉ một thread được quét tại một thời điểm. */
+    private final AtomicBoolean sweeping;
+
+    /**
+     * Con trỏ duyệt vòng quanh map. Chỉ được đọc/ghi bởi thread đang giữ
+     * {@link #sweeping}. Iterator của ConcurrentHashMap là weakly consistent:
+     * không bao giờ ném ConcurrentModificationException.
+     */
+    private Iterator<Map.Entry<K, S>> cursor;
+
+    /**
+     * Khởi tạo kho trạng thái với chu kỳ quét mặc định.
+     *
+     * @param retirer callback kiểm tra và đánh dấu state fresh
+     * @param evictor callback đánh dấu retired vô điều kiện một state bị loại vì kho đầy
+     * @param maxKeys số key tối đa, hoặc {@link #UNBOUNDED}
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public KeyStateStore(Retirer<S> retirer, Consumer<S> evictor, int maxKeys) {
+        this(retirer, evictor, maxKeys, DEFAULT_SWEEP_INTERVAL, DEFAULT_SWEEP_BATCH);
+    }
+
+    /**
+     * Khởi tạo kho trạng thái với chu kỳ quét tùy chỉnh (dùng trong test).
+     *
+     * @param retirer       callback kiểm tra và đánh dấu state fresh
+     * @param evictor       callback đánh dấu retired vô điều kiện một state bị loại vì kho đầy
+     * @param maxKeys       số key tối đa, hoặc {@link #UNBOUNDED}
+     * @param sweepInterval trung bình cứ sweepInterval request thì quét một lượt
+     * @param sweepBatch    số entry kiểm tra mỗi lượt quét
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    KeyStateStore(Retirer<S> retirer, Consumer<S> evictor, int maxKeys, int sweepInterval, int sweepBatch) {
+        if (retirer == null) {
+            throw new IllegalArgumentException("retirer không được null");
+        }
+        if (evictor == null) {
+            throw new IllegalArgumentException("evictor không được null");
+        }
+        if (maxKeys < 0) {
+            throw new IllegalArgumentException(
+                    "maxKeys phải lớn hơn 0 (hoặc UNBOUNDED = 0), nhận được: " + maxKeys);
+        }
+        if (sweepInterval <= 0) {
+            throw new IllegalArgumentException(
+                    "sweepInterval phải lớn hơn 0, nhận được: " + sweepInterval);
+        }
+        if (sweepBatch <= 0) {
+            throw new IllegalArgumentException(
+                    "sweepBatch phải lớn hơn 0, nhận được: " + sweepBatch);
+        }
+        this.map = new ConcurrentHashMap<>();
+        this.retirer = retirer;
+        this.evictor = evictor;
+        this.policy = maxKeys == UNBOUNDED ? null : new WindowTinyLfuPolicy<>(maxKeys);
+        this.pendingRemovals = new ConcurrentLinkedQueue<>();
+        this.sweepInterval = sweepInterval;
+        this.sweepBatch = sweepBatch;
+        this.sweeping = new AtomicBoolean(false);
+    }
+
+    /**
+     * Lấy state của key, tạo mới nếu chưa có. Trên đường đi có thể trả thêm
+     * chi phí cho một lượt quét nhỏ.
+     *
+     * State trả về CÓ THỂ đã bị đánh dấu retired ngay sau đó; limiter phải kiểm
+     * tra dấu dưới lock/CAS của mình và gọi {@link #removeRetired} rồi lấy lại.
+     * Không được gọi khi đang giữ lock của một state (xem thứ tự lock ở trên).
+     *
+     * @param key     key cần lấy state
+     * @param now     thời điểm hiện tại của limiter (dùng để kiểm tra fresh khi quét)
+     * @param factory tạo state mới cho key chưa có
+     * @return state hiện tại của key
+     */
+    public S getOrCreate(K key, long now, Function<? super K, ? extends S> factory) {
+        if (ThreadLocalRandom.current().nextInt(sweepInterval) == 0) {
+            sweep(now);
+        }
+        if (policy == null) {
+            return map.computeIfAbsent(key, factory);
+        }
+
+        // === Đường HIT: không lock ===
+        policy.recordAccess(key);
+        S state = map.get(key);
+        if (state != null) {
+            return state;
+        }
+
+        // === Đường MISS: mọi thao tác thêm key đều đi qua lock của chính sách ===
+        synchronized (policy) {
+            drainPendingRemovals();
+            state = map.get(key);
+            if (state != null) {
+                return state;
+            }
+            state = factory.apply(key);
+            map.put(key, state);
+            // Key có thể vẫn còn trong chính sách nếu thread xóa nó chưa kịp
+            // đưa vào pendingRemovals - khi đó chỉ cần tiếp tục theo dõi
+            if (!policy.contains(key)) {
+                K victim = policy.admit(key);
+                if (victim != null) {
+                    evict(victim);
+                }
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Lấy state hiện có của key, KHÔNG tạo mới và không tính là một lần truy
+     * cập (dùng khi trả lại quota: key không còn state thì không có gì để trả).
+     *
+     * @param key key cần lấy state
+     * @return state hiện tại của key, null nếu chưa có hoặc đã bị loại
+     */
+    public S get(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Xóa state đã retired khỏi map (chỉ khi key vẫn trỏ tới đúng state đó).
+     * Thread quét cũng gọi hàm này, nên gọi lặp lại là vô hại.
+     *
+     * @param key   key của state
+     * @param state state đã được đánh dấu retired
+     */
+    public void removeRetired(K key, S state) {
+        if (map.remove(key, state) && policy != null) {
+            pendingRemovals.add(key);
+        }
+    }
+
+    /**
+     * Loại key khỏi kho vì kho đầy: đánh dấu retired trước, xóa khỏi map sau.
+     * Gọi khi đang giữ lock của chính sách.
+     */
+    private void evict(K key) {
+        S state = map.get(key);
+        if (state != null) {
+            evictor.accept(state);
+            map.remove(key, state);
+        }
+    }
+
+    /**
+     * Bỏ khỏi chính sách các key đã bị xóa khỏi map. Key đã được tạo lại
+     * trong lúc chờ (vẫn có trong map) thì giữ nguyên trong chính sách.
+     * Gọi khi đang giữ lock của chính sách.
+     */
+    private void drainPendingRemovals() {
+        K key;
+        while ((key = pendingRemovals.poll()) != null) {
+            if (!map.containsKey(key)) {
+                policy.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Quét tiếp sweepBatch entry kể từ vị trí con trỏ. Bỏ qua nếu thread khác
+     * đang quét.
+     *
+     * @param now thời điểm hiện tại của limiter
+     */
+    void sweep(long now) {
+        if (sweeping.get() || !sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            boolean restarted = false;
+            for (int i = 0; i < sweepBatch; i++) {
+                if (cursor == null || !cursor.hasNext()) {
+                    // Map nhỏ hơn sweepBatch: quét hết một vòng là đủ cho lượt này
+                    if (restarted) {
+                        return;
+                    }
+                    cursor = map.entrySet().iterator();
+                    restarted = true;
+                    if (!cursor.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<K, S> entry = cursor.next();
+                S state = entry.getValue();
+                if (retirer.retireIfFresh(state, now)) {
+                    removeRetired(entry.getKey(), state);
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Quét TOÀN BỘ map một lượt, ngay lập tức. Dùng khi limiter cần dọn chủ
+     * động thay vì chờ các lượt quét nhỏ đi kèm request, ví dụ trả lại tài
+     * nguyên mà state đang giữ khi node không còn traffic.
+     * Chi phí O(số key): không gọi trên đường xử lý request.
+     *
+     * @param now thời điểm hiện tại của limiter
+     */
+    public void sweepAll(long now) {
+        for (Map.Entry<K, S> entry : map.entrySet()) {
+            S state = entry.getValue();
+            if (retirer.retireIfFresh(state, now)) {
+                removeRetired(entry.getKey(), state);
+            }
+        }
+    }
+
+    /**
+     * Các (key, state) hiện có, để đọc ngoài đường xử lý request (ví dụ chụp
+     * snapshot). Weakly consistent như iterator của ConcurrentHashMap: không
+     * chặn ai, có thể thấy hoặc không thấy thay đổi xảy ra trong lúc duyệt.
+     * State có thể đã retired; limiter kiểm tra dưới lock của state.
+     *
+     * @return view chỉ đọc của các entry
+     */
+    public Set<Map.Entry<K, S>> entries() {
+        return Collections.unmodifiableMap(map).entrySet();
+    }
+
+    /**
+     * Số key đang được theo dõi.
+     *
+     * @return số entry hiện có trong map
+     */
+    public int size() {
+        return map.size();
+    }
+}
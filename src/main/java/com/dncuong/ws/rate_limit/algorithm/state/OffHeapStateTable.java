@@ -0,0 +1,951 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * =====================================================================
+ * BẢNG TRẠNG THÁI OFF-HEAP: HÀNG CHỤC TRIỆU KEY KHÔNG TỐN HEAP
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Với {@link KeyStateStore}, mỗi key tốn: một String (~56 bytes cho IP),
+ * một node của ConcurrentHashMap (~32 bytes), một object state (~32 bytes)
+ * cộng header, padding... → 150+ bytes để giữ 16-24 bytes dữ liệu thật.
+ * 50 triệu key → 7-8 GB heap, GC phải duyệt hàng trăm triệu object.
+ *
+ * Ý TƯỞNG: BẢN GHI CỐ ĐỊNH TRONG BỘ NHỚ NGOÀI HEAP
+ * -------------------------------------------------
+ * - Không lưu key: chỉ lưu hash 63 bit của key
+ * - Mỗi key là một bản ghi 32 bytes trong direct ByteBuffer (GC không quét)
+ * - Bảng băm open addressing, dò tuyến tính (linear probing)
+ *
+ *   bản ghi (32 bytes):
+ *   ┌───────────────────────┬──────────┬──────────┬──────────┐
+ *   │ L │ hash key (63 bit) │ field 0  │ field 1  │ field 2  │
+ *   └───────────────────────┴──────────┴──────────┴──────────┘
+ *     L = bit lock của bản ghi; header = 0 nghĩa là slot trống
+ *
+ * 50 triệu key / hệ số tải 0.75 × 32 bytes ≈ 2.1 GB off-heap, heap gần như
+ * không đổi. (Direct memory bị giới hạn bởi -XX:MaxDirectMemorySize.)
+ *
+ * QUY ƯỚC "BẢN GHI TOÀN 0 = STATE MỚI":
+ * --------------------------------------
+ * Slot mới được cấp (hoặc tái sử dụng) luôn có 3 field bằng 0. Limiter phải
+ * chọn cách mã hóa sao cho bản ghi toàn 0 có nghĩa giống hệt state của key
+ * lần đầu xuất hiện (ví dụ Token Bucket lưu số token ĐÃ DÙNG thay vì số token
+ * còn lại: 0 = xô đầy). Nhờ vậy không cần callback khởi tạo.
+ *
+ * ĐỒNG THỜI:
+ * -----------
+ * - {@link #acquire}: tìm bản ghi của key rồi KHÓA nó (CAS bit L trên header,
+ *   spin rất ngắn vì đoạn găng chỉ vài phép tính). Limiter đọc/ghi field bằng
+ *   {@link #get}/{@link #set} rồi {@link #release}. Cặp acquire/release đóng
+ *   vai trò như synchronized(state) của các limiter on-heap.
+ * - Key đã có: không lock nào ngoài bit L của chính bản ghi đó.
+ * - Key mới: thêm vào dưới lock của shard (bảng lớn chia thành 64 shard trở lên,
+ *   mỗi shard một direct ByteBuffer ≤ 1 GB) → hai thread không bao giờ
+ *   cấp hai slot cho cùng một key.
+ * - Thứ tự lock: lock shard → bit L. Giữa acquire và release limiter KHÔNG
+ *   được gọi lại bảng.
+ *
+ * XÓA KEY: TÁI SỬ DỤNG BẢN GHI ĐÃ "NHƯ MỚI"
+ * ------------------------------------------
+ * Open addressing không xóa slot được (sẽ cắt đứt chuỗi dò của key khác).
+ * Thay vào đó, khi shard đã chiếm quá 90% slot, key mới chiếm lại một bản ghi
+ * trên chuỗi dò của nó mà limiter xác nhận là fresh ({@link FreshnessCheck}) -
+ * cùng ý nghĩa "fresh" với {@link KeyStateStore}: chủ cũ quay lại sẽ nhận state
+ * mới giống hệt. Không có bản ghi fresh thì vẫn dùng slot trống cho tới khi
+ * shard chỉ còn một slot trống → {@link IllegalStateException}: bảng được cấu
+ * hình quá nhỏ cho số key đang thật sự hoạt động.
+ *
+ * VA CHẠM HASH:
+ * --------------
+ * Hai key trùng 63 bit hash sẽ dùng chung một bản ghi. Với 50 triệu key xác suất
+ * có ít nhất một cặp trùng ≈ n² / 2^64 ≈ 0.01% - chấp nhận được cho rate limit
+ * (hậu quả chỉ là hai client chia nhau một quota).
+ *
+ * MỖI BẢNG CHỈ DÙNG CHO MỘT LIMITER: ý nghĩa của 3 field do limiter quyết định.
+ *
+ * DÙNG CHUNG GIỮA NHIỀU JVM TRÊN CÙNG MÁY: {@link #openShared}
+ * ---------------------------------------------------------------
+ * Nhiều worker JVM sau cùng một cổng mà mỗi worker tự đếm thì client được
+ * N lần quota. {@link #openShared} đặt bảng vào file map chung (nên để trong
+ * /dev/shm: tmpfs, không bao giờ ghi xuống đĩa): mọi tiến trình map cùng các
+ * trang bộ nhớ, CAS lock trên vùng map loại trừ lẫn nhau giữa các tiến
+ * trình như giữa các thread. Không cần mạng, không cần thêm tiến trình.
+ *
+ *   file: [header][lock thêm key + số slot đã chiếm của từng shard][phiên]
+ *         rồi từng shard: [bản ghi × số slot][owner × số slot]
+ *
+ * Bố cục (số shard, số slot) chỉ phụ thuộc maxKeys và cố định lúc tạo file;
+ * mọi tiến trình phải mở với cùng maxKeys. Thêm key mới dùng lock của shard
+ * NẰM TRONG FILE (thay cho synchronized, vốn chỉ có tác dụng trong một JVM).
+ *
+ * Tiến trình chết giữa chừng (kill -9, OOM) có thể để lại lock bản ghi hoặc
+ * lock thêm key không bao giờ được mở. Vì vậy lock dùng chung là một word
+ * "owner" (CAS): token PHIÊN của tiến trình giữ lock và số lần lock đã được
+ * giành; bit L không dùng. Mỗi tiến trình mở file chiếm một ô trong vùng phiên
+ * và giữ lock của hệ điều hành ({@link FileLock}) trên ô đó tới khi thoát. Hệ
+ * điều hành tự nhả lock này khi tiến trình chết, nên thread chờ lock lâu
+ * ({@code STALE_CHECK_MILLIS}) thử lock ô phiên của owner: thành công CHỨNG
+ * MINH owner đã chết, lúc đó mới giành lock bằng CAS trên owner (đúng một
+ * thread thắng). Không dùng pid: pid bị tái sử dụng, và các container dùng
+ * chung /dev/shm ở PID namespace khác nhau thấy pid của nhau sai.
+ *
+ * Owner còn sống (kể cả đang treo, đang GC dài) thì KHÔNG BAO GIỜ bị giành
+ * lock: thread khác chờ tới khi nó nhả. {@link #release} là CAS kiểm tra owner
+ * và trả false nếu lock đã bị giành, để caller bỏ kết quả đã tính. Bản ghi
+ * đang được cập nhật dở khi tiến trình chết giữ nguyên các field đã ghi: tệ
+ * nhất một key bị đếm lệch trong một cửa sổ - chấp nhận được cho rate limit.
+ *
+ * Các tiến trình phải dùng đồng hồ epoch (như MonotonicClock) và cùng cấu hình
+ * limiter. File tồn tại sau khi mọi tiến trình thoát: khởi động lại vẫn giữ
+ * state; xóa file để bắt đầu lại từ đầu.
+ *
+ * @author dncuong
+ */
+public final class OffHeapStateTable {
+
+    /** Số field 64 bit trong mỗi bản ghi. */
+    public static final int FIELD_COUNT = 3;
+
+    /** Giá trị {@link #acquireExisting} trả về khi key chưa có bản ghi. */
+    public static final long NO_SLOT = -1;
+
+    /** Số key tối đa có thể cấu hình (≈ 183 GB off-heap). */
+    public static final long MAX_KEYS = 1L << 32;
+
+    /** Kích thước bản ghi: header + 3 field. */
+    static final int RECORD_SIZE = 8 + FIELD_COUNT * 8;
+
+    /** Tỉ lệ key/slot khi tính số slot cần cấp phát. */
+    static final double LOAD_FACTOR = 0.75;
+
+    /** Vượt tỉ lệ slot bị chiếm này, shard ưu tiên tái sử dụng bản ghi fresh trước khi chiếm slot trống. */
+    static final double MAX_FILL = 0.9;
+
+    /** 2^25 slot × 32 bytes = 1 GB: vừa trong một ByteBuffer (chỉ số int). */
+    static final int MAX_SLOTS_PER_SHARD = 1 << 25;
+
+    /** Không chia nhỏ bảng thành shard dưới 4096 slot. */
+    static final int MIN_SLOTS_PER_SHARD = 1 << 12;
+
+    /** Số shard mục tiêu: đủ để việc thêm key mới ít tranh chấp lock. */
+    static final int TARGET_SHARDS = 64;
+
+    /** Bit lock trong header (bit dấu - hash chỉ dùng 63 bit thấp). */
+    private static final long LOCK_BIT = Long.MIN_VALUE;
+
+    /** Số vòng spin trước khi nhường CPU khi chờ bit lock. */
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    /** Bảng dùng chung: magic ở đầu file ("RLSH"). */
+    static final int SHARED_MAGIC = 0x524C5348;
+
+    static final int SHARED_VERSION = 2;
+
+    /** Bảng dùng chung: [magic int][version int][maxKeys long][số shard int][slot mỗi shard int], đệm tới 64. */
+    static final int SHARED_HEADER_BYTES = 64;
+
+    /** Bảng dùng chung: mỗi shard [lock thêm key long][số slot đã chiếm long]. */
+    static final int SHARED_CONTROL_BYTES = 16;
+
+    /** Bảng dùng chung: số ô phiên (ô 0 không dùng) = số tiến trình tối đa mở cùng file, cộng 1. */
+    static final int SHARED_SESSIONS = 1 << 12;
+
+    /** Bảng dùng chung: mỗi ô phiên là thế hệ (long) của phiên đang chiếm ô. */
+    static final int SHARED_SESSION_BYTES = 8;
+
+    /** Chờ lock dùng chung quá lâu chừng này thì kiểm tra owner còn sống không (và cứ thế mỗi khoảng này). */
+    static final long STALE_CHECK_MILLIS = 10;
+
+    /** Đã chờ quá STALE_CHECK_MILLIS: ngủ chừng này giữa hai lần xem owner, không đốt CPU. */
+    private static final long STALE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /** Owner = [số lần lock được giành (32 bit cao)][token phiên (32 bit thấp)], token 0 = không ai giữ. */
+    private static final long TOKEN_MASK = 0xFFFF_FFFFL;
+
+    /** Token phiên = [thế hệ (20 bit)][chỉ số ô phiên (12 bit)]. */
+    private static final int SESSION_INDEX_BITS = 12;
+
+    private static final long GENERATION_MASK = (1L << (32 - SESSION_INDEX_BITS)) - 1;
+
+    /**
+     * Phiên của JVM này trên từng file dùng chung (theo inode), mở một lần và
+     * giữ tới khi JVM thoát. Guarded by itself.
+     */
+    private static final Map<Object, Session> SESSIONS = new HashMap<>();
+
+    private static final int PAGE_BYTES = 4096;
+
+    /** Truy cập long nguyên tử trên direct ByteBuffer (offset phải chia hết cho 8). */
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Callback do limiter cung cấp: bản ghi có tương đương state mới không.
+     * Được gọi khi bản ghi ĐANG BỊ KHÓA bởi thread gọi.
+     */
+    @FunctionalInterface
+    public interface FreshnessCheck {
+
+        /**
+         * @param slot bản ghi cần kiểm tra (đọc field bằng {@link #get})
+         * @param now  thời điểm hiện tại của limiter
+         * @return true nếu có thể xóa bản ghi mà quyết định của limiter không đổi
+         */
+        boolean isFresh(long slot, long now);
+    }
+
+    private final Shard[] shards;
+
+    private final int shardMask;
+
+    private final long maxKeys;
+
+    /**
+     * Cấp phát bảng cho tối đa maxKeys key đang hoạt động.
+     * Toàn bộ bộ nhớ (≈ 43 bytes × maxKeys) được cấp phát ngay.
+     *
+     * @param maxKeys số key đang hoạt động tối đa
+     * @throws IllegalArgumentException nếu maxKeys không nằm trong (0, MAX_KEYS]
+     */
+    public OffHeapStateTable(long maxKeys) {
+        this(maxKeys, allocateShards(Layout.of(maxKeys)));
+    }
+
+    private OffHeapStateTable(long maxKeys, Shard[] shards) {
+        this.shards = shards;
+        this.shardMask = shards.length - 1;
+        this.maxKeys = maxKeys;
+    }
+
+    private static Shard[] allocateShards(Layout layout) {
+        Shard[] shards = new Shard[layout.shardCount];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(layout.slotsPerShard);
+        }
+        return shards;
+    }
+
+    /**
+     * Mở (hoặc tạo) bảng dùng chung giữa các tiến trình trên cùng máy, đặt
+     * trong file map chung - nên là một file trong /dev/shm. File mới được
+     * cấp đủ kích thước ngay (tmpfs chỉ thật sự cấp trang khi có key ghi vào).
+     *
+     * @param file    file chứa bảng, dành riêng cho một limiter
+     * @param maxKeys số key đang hoạt động tối đa; mọi tiến trình phải dùng cùng giá trị
+     * @return bảng dùng chung; truyền cho limiter như bảng off-heap thường
+     * @throws IllegalArgumentException nếu maxKeys không hợp lệ hoặc khác maxKeys đã tạo file
+     * @throws IOException              nếu không mở được file hoặc file không phải bảng dùng chung
+     */
+    public static OffHeapStateTable openShared(Path file, long maxKeys) throws IOException {
+        Layout layout = Layout.of(maxKeys);
+        int controlBytes = layout.shardCount * SHARED_CONTROL_BYTES;
+        long sessionsStart = SHARED_HEADER_BYTES + controlBytes;
+        int sessionsBytes = SHARED_SESSIONS * SHARED_SESSION_BYTES;
+        long recordsStart = Math.ceilDiv(sessionsStart + sessionsBytes, PAGE_BYTES) * (long) PAGE_BYTES;
+        // Sau mỗi shard là vùng owner (8 bytes mỗi slot) → shard kế tiếp vẫn chia hết cho 8
+        long shardBytes = (long) layout.slotsPerShard * (RECORD_SIZE + 8);
+        long fileSize = recordsStart + shardBytes * layout.shardCount;
+
+        synchronized (SESSIONS) {
+            // Đóng BẤT KỲ channel nào của file sẽ nhả mọi lock của tiến trình trên file đó (kể cả lock
+            // phiên) → file đã có phiên thì dùng lại channel của phiên, không mở channel thứ hai
+            Session session = SESSIONS.get(fileKey(file));
+            FileChannel channel = session != null ? session.channel : FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // Lock của hệ điều hành trên header: tự nhả khi tiến trình chết, chỉ giữ trong lúc tạo/kiểm tra
+                FileLock headerLock = channel.lock(0, SHARED_HEADER_BYTES, false);
+                try {
+                    initOrValidateHeader(channel, file, maxKeys, layout, fileSize);
+                } finally {
+                    headerLock.release();
+                }
+                if (session == null) {
+                    session = Session.register(channel, sessionsStart,
+                            channel.map(FileChannel.MapMode.READ_WRITE, sessionsStart, sessionsBytes));
+                    SESSIONS.put(fileKey(file), session);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (session == null) {
+                    channel.close();
+                }
+                throw e;
+            }
+
+            // Vùng map vẫn dùng được sau khi mở xong
+            ByteBuffer control = channel.map(FileChannel.MapMode.READ_WRITE, SHARED_HEADER_BYTES, controlBytes);
+            Shard[] shards = new Shard[layout.shardCount];
+            for (int i = 0; i < shards.length; i++) {
+                long start = recordsStart + shardBytes * i;
+                long recordBytes = (long) layout.slotsPerShard * RECORD_SIZE;
+                shards[i] = new Shard(
+                        channel.map(FileChannel.MapMode.READ_WRITE, start, recordBytes),
+                        control, i * SHARED_CONTROL_BYTES,
+                        channel.map(FileChannel.MapMode.READ_WRITE, start + recordBytes,
+                                layout.slotsPerShard * 8L),
+                        session, layout.slotsPerShard);
+            }
+            return new OffHeapStateTable(maxKeys, shards);
+        }
+    }
+
+    /** Gọi khi giữ lock header: tạo header cho file mới, hoặc kiểm tra file đã có khớp bố cục. */
+    private static void initOrValidateHeader(FileChannel channel, Path file, long maxKeys, Layout layout,
+                                             long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SHARED_HEADER_BYTES).order(ByteOrder.nativeOrder());
+        channel.read(header, 0);
+        if (channel.size() == 0 || (channel.size() == fileSize && header.getInt(0) == 0)) {
+            // File mới, hoặc tiến trình tạo file chết trước khi ghi magic: tạo lại từ đầu
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(1), fileSize - 1);
+            header.clear();
+            header.putInt(4, SHARED_VERSION).putLong(8, maxKeys)
+                    .putInt(16, layout.shardCount).putInt(20, layout.slotsPerShard);
+            channel.write(header, 0);
+            // Magic ghi sau cùng: có magic nghĩa là header đầy đủ
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(0, SHARED_MAGIC), 0);
+            return;
+        }
+        if (channel.size() < SHARED_HEADER_BYTES || header.getInt(0) != SHARED_MAGIC
+                || header.getInt(4) != SHARED_VERSION) {
+            throw new IOException("Không phải file bảng trạng thái dùng chung: " + file);
+        }
+        if (header.getLong(8) != maxKeys) {
+            throw new IllegalArgumentException("File " + file + " được tạo với maxKeys = "
+                    + header.getLong(8) + ", nhận được: " + maxKeys);
+        }
+        if (header.getInt(16) != layout.shardCount || header.getInt(20) != layout.slotsPerShard
+                || channel.size() != fileSize) {
+            throw new IOException("Bố cục file bảng trạng thái dùng chung không khớp: " + file);
+        }
+    }
+
+    /**
+     * Định danh của file (inode) để hai đường dẫn tới cùng file dùng chung
+     * một phiên; null nếu file chưa tồn tại. Không mở file (xem openShared).
+     */
+    private static Object fileKey(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : file.toRealPath();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tìm (hoặc cấp mới) bản ghi của key và KHÓA nó. Bản ghi mới có 3 field = 0.
+     * Mỗi lần acquire phải đi kèm đúng một lần {@link #release}.
+     *
+     * @param keyHash   hash 64 bit của key (xem RateLimitKey#hash64)
+     * @param now       thời điểm hiện tại, chuyển cho freshness khi phải tái sử dụng bản ghi
+     * @param freshness kiểm tra bản ghi nào có thể tái sử dụng khi shard đầy
+     * @return định danh slot đã khóa
+     * @throws IllegalStateException nếu shard đầy và không có bản ghi fresh nào để tái sử dụng
+     */
+    public long acquire(long keyHash, long now, FreshnessCheck freshness) {
+        long tag = tagOf(keyHash);
+        int shardIndex = (int) (tag >>> 32) & shardMask;
+        Shard shard = shards[shardIndex];
+        int home = homeOf(shard, tag);
+
+        int index = find(shard, tag, home);
+        if (index < 0) {
+            index = insert(shard, shardIndex, tag, home, now, freshness);
+        }
+        return slotId(shardIndex, index);
+    }
+
+    /**
+     * Giống {@link #acquire} nhưng KHÔNG cấp bản ghi mới: dùng cho thao tác
+     * chỉ có nghĩa với state đã có (refund). Key chưa có bản ghi thì không
+     * chiếm slot, không khóa gì và không bao giờ throw vì shard đầy.
+     *
+     * @param keyHash hash 64 bit của key (xem RateLimitKey#hash64)
+     * @return định danh slot đã khóa (phải {@link #release}), hoặc {@link #NO_SLOT}
+     */
+    public long acquireExisting(long keyHash) {
+        long tag = tagOf(keyHash);
+        int shardIndex = (int) (tag >>> 32) & shardMask;
+        Shard shard = shards[shardIndex];
+
+        int index = find(shard, tag, homeOf(shard, tag));
+        return index < 0 ? NO_SLOT : slotId(shardIndex, index);
+    }
+
+    /**
+     * Mở khóa bản ghi đã lấy bằng {@link #acquire}.
+     *
+     * Bảng dùng chung: CAS trên owner, chỉ mở nếu owner vẫn là tiến trình
+     * này. false nghĩa là tiến trình khác đã giành lock (nó xác nhận tiến
+     * trình này đã chết - chỉ xảy ra nếu file bị can thiệp từ bên ngoài): các
+     * field vừa ghi có thể đã lẫn với của owner mới, caller phải bỏ kết quả
+     * đã tính trên bản ghi.
+     *
+     * @param slot định danh slot
+     * @return true nếu lock vẫn thuộc caller tới lúc mở (bảng riêng: luôn true)
+     */
+    public boolean release(long slot) {
+        return unlock(shards[shardOf(slot)], (int) slot);
+    }
+
+    /**
+     * Đọc một field của bản ghi (chỉ gọi khi đang giữ bản ghi).
+     *
+     * @param slot  định danh slot
+     * @param field chỉ số field, 0..FIELD_COUNT-1
+     * @return giá trị field
+     */
+    public long get(long slot, int field) {
+        Objects.checkIndex(field, FIELD_COUNT);
+        return (long) LONGS.get(shards[shardOf(slot)].buffer, offsetOf(slot) + 8 + field * 8);
+    }
+
+    /**
+     * Ghi một field của bản ghi (chỉ gọi khi đang giữ bản ghi).
+     *
+     * @param slot  định danh slot
+     * @param field chỉ số field, 0..FIELD_COUNT-1
+     * @param value giá trị mới
+     */
+    public void set(long slot, int field, long value) {
+        Objects.checkIndex(field, FIELD_COUNT);
+        LONGS.set(shards[shardOf(slot)].buffer, offsetOf(slot) + 8 + field * 8, value);
+    }
+
+    /**
+     * Số slot đang bị chiếm, kể cả bản ghi đã fresh nhưng chưa bị tái sử dụng.
+     *
+     * @return số key đang được theo dõi
+     */
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.used();
+        }
+        return size;
+    }
+
+    /**
+     * @return số key đang hoạt động tối đa đã cấu hình
+     */
+    public long maxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * Dò từ vị trí home tới slot trống đầu tiên, tìm bản ghi của tag và khóa nó.
+     *
+     * @return chỉ số slot đã khóa, hoặc -1 nếu key chưa có bản ghi
+     */
+    private int find(Shard shard, long tag, int home) {
+        int index = home;
+        for (int probes = 0; probes < shard.slotCount; probes++) {
+            long owner = header(shard, index) & ~LOCK_BIT;
+            if (owner == 0) {
+                return -1;
+            }
+            // lock thất bại = bản ghi vừa bị key khác tái sử dụng → key không còn ở đây
+            if (owner == tag && lock(shard, index, tag)) {
+                return index;
+            }
+            index = shard.next(index);
+        }
+        return -1;
+    }
+
+    /**
+     * Thêm key mới dưới lock của shard: dùng slot trống nếu shard chưa đầy,
+     * ngược lại tái sử dụng bản ghi fresh đầu tiên trên chuỗi dò.
+     */
+    private int insert(Shard shard, int shardIndex, long tag, int home, long now, FreshnessCheck freshness) {
+        synchronized (shard) {
+            if (shard.control == null) {
+                return insertLocked(shard, shardIndex, tag, home, now, freshness);
+            }
+            // Bảng dùng chung: synchronized chỉ chặn thread cùng JVM, lock trong file chặn tiến trình khác
+            lockInsert(shard);
+            try {
+                return insertLocked(shard, shardIndex, tag, home, now, freshness);
+            } finally {
+                unlockInsert(shard);
+            }
+        }
+    }
+
+    private int insertLocked(Shard shard, int shardIndex, long tag, int home, long now,
+                             FreshnessCheck freshness) {
+        // Thread khác có thể vừa thêm chính key này
+        int index = home;
+        int empty = -1;
+        for (int probes = 0; probes < shard.slotCount; probes++) {
+            long owner = header(shard, index) & ~LOCK_BIT;
+            if (owner == 0) {
+                empty = index;
+                break;
+            }
+            if (owner == tag && lock(shard, index, tag)) {
+                return index;
+            }
+            index = shard.next(index);
+        }
+
+        if (empty >= 0 && shard.used() < shard.maxUsed) {
+            return claimEmpty(shard, empty, tag);
+        }
+
+        // Shard đã quá MAX_FILL: ưu tiên tái sử dụng bản ghi fresh để chuỗi dò không dài thêm
+        index = home;
+        for (int probes = 0; probes < shard.slotCount; probes++) {
+            long owner = header(shard, index) & ~LOCK_BIT;
+            if (owner == 0) {
+                break;
+            }
+            if (lock(shard, index, owner)) {
+                if (freshness.isFresh(slotId(shardIndex, index), now)) {
+                    int offset = index * RECORD_SIZE;
+                    for (int field = 0; field < FIELD_COUNT; field++) {
+                        LONGS.set(shard.buffer, offset + 8 + field * 8, 0L);
+                    }
+                    // Bảng riêng: giữ bit L; bảng dùng chung: lock nằm ở owner
+                    LONGS.setVolatile(shard.buffer, offset, shard.owners == null ? tag | LOCK_BIT : tag);
+                    return index;
+                }
+                unlock(shard, index);
+            }
+            index = shard.next(index);
+        }
+
+        // Luôn chừa ít nhất một slot trống để mọi chuỗi dò đều kết thúc
+        if (empty >= 0 && shard.used() < shard.slotCount - 1) {
+            return claimEmpty(shard, empty, tag);
+        }
+        throw new IllegalStateException(
+                "OffHeapStateTable đã đầy (maxKeys = " + maxKeys
+                        + ") và không có bản ghi fresh nào để tái sử dụng");
+    }
+
+    /** Chiếm slot chưa từng được dùng: 3 field vẫn là 0 từ lúc cấp phát. */
+    private static int claimEmpty(Shard shard, int index, long tag) {
+        if (shard.owners == null) {
+            LONGS.setVolatile(shard.buffer, index * RECORD_SIZE, tag | LOCK_BIT);
+        } else {
+            // Slot trống chưa từng bị khóa: không ai giữ owner. Owner trước, tag sau: ai thấy tag đều thấy lock
+            int at = index * 8;
+            LONGS.setVolatile(shard.owners, at, shard.session.nextOwner((long) LONGS.getVolatile(shard.owners, at)));
+            LONGS.setVolatile(shard.buffer, index * RECORD_SIZE, tag);
+        }
+        shard.incrementUsed();
+        return index;
+    }
+
+    /**
+     * Khóa bản ghi khi header vẫn thuộc về owner.
+     *
+     * @return false nếu bản ghi đã chuyển sang key khác
+     */
+    private static boolean lock(Shard shard, int index, long owner) {
+        if (shard.owners != null) {
+            return lockShared(shard, index, owner);
+        }
+        int offset = index * RECORD_SIZE;
+        int spins = 0;
+        while (true) {
+            long header = (long) LONGS.getVolatile(shard.buffer, offset);
+            if (header == owner) {
+                if (LONGS.compareAndSet(shard.buffer, offset, owner, owner | LOCK_BIT)) {
+                    return true;
+                }
+            } else if (header != (owner | LOCK_BIT)) {
+                return false;
+            } else if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                spins = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Bảng dùng chung: khóa bản ghi bằng CAS trên owner của nó. Giành owner
+     * trước rồi mới xác nhận header: bản ghi đã chuyển sang key khác thì
+     * trả owner lại.
+     */
+    private static boolean lockShared(Shard shard, int index, long tag) {
+        int at = index * 8;
+        int spins = 0;
+        StaleLockWait wait = null;
+        while (true) {
+            if (header(shard, index) != tag) {
+                return false;
+            }
+            long word = (long) LONGS.getVolatile(shard.owners, at);
+            boolean locked;
+            if ((word & TOKEN_MASK) == 0) {
+                locked = LONGS.compareAndSet(shard.owners, at, word, shard.session.nextOwner(word));
+            } else if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+                continue;
+            } else {
+                spins = 0;
+                if (wait == null) {
+                    wait = new StaleLockWait(shard.session, shard.owners, at);
+                }
+                locked = wait.takeOver();
+            }
+            if (locked) {
+                if (header(shard, index) == tag) {
+                    return true;
+                }
+                unlock(shard, index);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Mở khóa bản ghi đang giữ.
+     *
+     * @return false nếu (bảng dùng chung) owner không còn là tiến trình này
+     */
+    private static boolean unlock(Shard shard, int index) {
+        if (shard.owners == null) {
+            int offset = index * RECORD_SIZE;
+            LONGS.setVolatile(shard.buffer, offset, (long) LONGS.getVolatile(shard.buffer, offset) & ~LOCK_BIT);
+            return true;
+        }
+        return shard.session.release(shard.owners, index * 8);
+    }
+
+    /** Lock thêm key của shard trong file dùng chung: word = owner, token 0 = không ai giữ. */
+    private static void lockInsert(Shard shard) {
+        int at = shard.controlOffset;
+        int spins = 0;
+        StaleLockWait wait = null;
+        while (true) {
+            long word = (long) LONGS.getVolatile(shard.control, at);
+            if ((word & TOKEN_MASK) == 0) {
+                if (LONGS.compareAndSet(shard.control, at, word, shard.session.nextOwner(word))) {
+                    return;
+                }
+            } else if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                spins = 0;
+                if (wait == null) {
+                    wait = new StaleLockWait(shard.session, shard.control, at);
+                }
+                if (wait.takeOver()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Mở lock thêm key (không còn là owner thì không có gì để mở). */
+    private static void unlockInsert(Shard shard) {
+        shard.session.release(shard.control, shard.controlOffset);
+    }
+
+    private static long header(Shard shard, int index) {
+        return (long) LONGS.getVolatile(shard.buffer, index * RECORD_SIZE);
+    }
+
+    private static long tagOf(long keyHash) {
+        long tag = keyHash & ~LOCK_BIT;
+        return tag == 0 ? 1 : tag;  // header = 0 dành cho slot trống
+    }
+
+    private static int homeOf(Shard shard, long tag) {
+        return (int) (((tag & 0xFFFF_FFFFL) * shard.slotCount) >>> 32);
+    }
+
+    private static long slotId(int shardIndex, int index) {
+        return ((long) shardIndex << 32) | index;
+    }
+
+    private static int shardOf(long slot) {
+        return (int) (slot >>> 32);
+    }
+
+    private static int offsetOf(long slot) {
+        return (int) slot * RECORD_SIZE;
+    }
+
+    /**
+     * Phiên của JVM này trên một file dùng chung: chiếm một ô trong vùng phiên
+     * và giữ lock của hệ điều hành trên ô đó tới khi JVM thoát. Mọi lock dùng
+     * chung mà JVM này giữ mang token của phiên.
+     *
+     * Token = thế hệ của ô (tăng mỗi lần ô được chiếm lại) + chỉ số ô: ô của
+     * tiến trình đã chết được tiến trình mới dùng lại mà token cũ vẫn được
+     * nhận ra là đã chết.
+     */
+    private static final class Session {
+
+        /** Giữ mở tới khi JVM thoát: đóng channel sẽ nhả lock của phiên. */
+        final FileChannel channel;
+
+        private final long sessionsStart;
+
+        /** Vùng phiên: thế hệ hiện tại của từng ô. */
+        private final ByteBuffer sessions;
+
+        /** Lock của hệ điều hành trên ô của phiên này; giữ tham chiếu tới khi JVM thoát. */
+        @SuppressWarnings("unused")
+        private final FileLock lock;
+
+        final long token;
+
+        private Session(FileChannel channel, long sessionsStart, ByteBuffer sessions, FileLock lock, long token) {
+            this.channel = channel;
+            this.sessionsStart = sessionsStart;
+            this.sessions = sessions;
+            this.lock = lock;
+            this.token = token;
+        }
+
+        /**
+         * Chiếm ô phiên đầu tiên không tiến trình sống nào giữ.
+         *
+         * @throws IOException nếu mọi ô đều đang bị giữ
+         */
+        static Session register(FileChannel channel, long sessionsStart, ByteBuffer sessions) throws IOException {
+            for (int index = 1; index < SHARED_SESSIONS; index++) {
+                FileLock lock;
+                try {
+                    lock = channel.tryLock(sessionsStart + (long) index * SHARED_SESSION_BYTES,
+                            SHARED_SESSION_BYTES, false);
+                } catch (OverlappingFileLockException e) {
+                    // Thread khác của JVM này đang kiểm tra ô này
+                    continue;
+                }
+                if (lock != null) {
+                    int at = index * SHARED_SESSION_BYTES;
+                    long generation = ((long) LONGS.getVolatile(sessions, at) + 1) & GENERATION_MASK;
+                    if (generation == 0) {
+                        generation = 1;
+                    }
+                    LONGS.setVolatile(sessions, at, generation);
+                    return new Session(channel, sessionsStart, sessions, lock,
+                            (generation << SESSION_INDEX_BITS) | index);
+                }
+            }
+            throw new IOException("Đã có " + (SHARED_SESSIONS - 1) + " tiến trình mở bảng dùng chung");
+        }
+
+        /** Owner kế tiếp: tăng số lần giành, token của phiên này. */
+        long nextOwner(long owner) {
+            return (((owner >>> 32) + 1) << 32) | token;
+        }
+
+        /**
+         * Nhả lock có owner tại at bằng CAS, giữ số lần giành để thread đang
+         * chờ thấy owner đã đổi.
+         *
+         * @return false nếu owner không còn là phiên này
+         */
+        boolean release(ByteBuffer buffer, int at) {
+            long word = (long) LONGS.getVolatile(buffer, at);
+            return (word & TOKEN_MASK) == token && LONGS.compareAndSet(buffer, at, word, word & ~TOKEN_MASK);
+        }
+
+        /**
+         * @return false chỉ khi CHỨNG MINH được phiên của owner đã kết thúc:
+         * ô của nó đã có thế hệ mới, hoặc hệ điều hành cho lock ô đó
+         */
+        boolean isAlive(long owner) {
+            long ownerToken = owner & TOKEN_MASK;
+            if (ownerToken == token) {
+                return true;
+            }
+            int index = (int) (ownerToken & (SHARED_SESSIONS - 1));
+            if ((long) LONGS.getVolatile(sessions, index * SHARED_SESSION_BYTES) != ownerToken >>> SESSION_INDEX_BITS) {
+                return false;
+            }
+            try {
+                FileLock probe = channel.tryLock(sessionsStart + (long) index * SHARED_SESSION_BYTES,
+                        SHARED_SESSION_BYTES, false);
+                if (probe == null) {
+                    return true;
+                }
+                probe.release();
+                return false;
+            } catch (OverlappingFileLockException | IOException e) {
+                // Thread khác của JVM này đang kiểm tra cùng ô, hoặc không kiểm tra được: hỏi lại sau
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Chờ một lock dùng chung đang bị giữ. Owner không đổi quá
+     * STALE_CHECK_MILLIS thì kiểm tra phiên của owner (rồi cứ mỗi
+     * STALE_CHECK_MILLIS một lần): chỉ khi phiên đó đã chết mới giành lock
+     * bằng CAS trên owner. Owner còn sống thì chờ bao lâu cũng không giành.
+     * Chỉ tạo khi đã spin hết một vòng.
+     */
+    private static final class StaleLockWait {
+
+        private static final long STALE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(STALE_CHECK_MILLIS);
+
+        private final Session session;
+
+        private final ByteBuffer buffer;
+
+        private final int at;
+
+        private long owner;
+
+        private long since;
+
+        private long checkedAt;
+
+        StaleLockWait(Session session, ByteBuffer buffer, int at) {
+            this.session = session;
+            this.buffer = buffer;
+            this.at = at;
+            this.owner = (long) LONGS.getVolatile(buffer, at);
+            this.since = System.nanoTime();
+            this.checkedAt = since;
+        }
+
+        /**
+         * @return true nếu đã giành lock (owner giờ là phiên này)
+         */
+        boolean takeOver() {
+            long current = (long) LONGS.getVolatile(buffer, at);
+            long now = System.nanoTime();
+            if (current != owner) {
+                // Lock đã đổi chủ: tính thời gian chờ từ đầu
+                owner = current;
+                since = now;
+                checkedAt = now;
+            }
+            if ((current & TOKEN_MASK) == 0) {
+                // Vừa được nhả: giành như bình thường
+                return LONGS.compareAndSet(buffer, at, current, session.nextOwner(current));
+            }
+            if (now - since < STALE_CHECK_NANOS) {
+                Thread.yield();
+                return false;
+            }
+            if (now - checkedAt >= STALE_CHECK_NANOS) {
+                checkedAt = now;
+                if (!session.isAlive(current)) {
+                    return LONGS.compareAndSet(buffer, at, current, session.nextOwner(current));
+                }
+            }
+            LockSupport.parkNanos(STALE_PARK_NANOS);
+            return false;
+        }
+    }
+
+    /**
+     * Số shard và số slot mỗi shard cho maxKeys.
+     */
+    private record Layout(int shardCount, int slotsPerShard) {
+
+        static Layout of(long maxKeys) {
+            if (maxKeys <= 0 || maxKeys > MAX_KEYS) {
+                throw new IllegalArgumentException(
+                        "maxKeys phải nằm trong (0, " + MAX_KEYS + "], nhận được: " + maxKeys);
+            }
+            long totalSlots = (long) Math.ceil(maxKeys / LOAD_FACTOR) + 1;
+
+            // Bảng nhỏ: ít shard để key phân bố đều; bảng lớn: đủ shard để mỗi shard ≤ 1 GB
+            int shardCount = 1;
+            while (shardCount < TARGET_SHARDS && totalSlots / (shardCount * 2L) >= MIN_SLOTS_PER_SHARD) {
+                shardCount <<= 1;
+            }
+            while (Math.ceilDiv(totalSlots, shardCount) > MAX_SLOTS_PER_SHARD) {
+                shardCount <<= 1;
+            }
+            return new Layout(shardCount, (int) Math.ceilDiv(totalSlots, shardCount));
+        }
+    }
+
+    /**
+     * Một vùng bộ nhớ ngoài heap, thêm key dưới lock của chính object này
+     * (cộng lock trong file nếu là bảng dùng chung).
+     */
+    private static final class Shard {
+
+        final ByteBuffer buffer;
+
+        /** Bảng dùng chung: vùng [lock thêm key][số slot đã chiếm] của mọi shard; null nếu bảng riêng. */
+        final ByteBuffer control;
+
+        final int controlOffset;
+
+        /** Bảng dùng chung: owner lock của từng bản ghi; null nếu bảng riêng. */
+        final ByteBuffer owners;
+
+        /** Bảng dùng chung: phiên của JVM này trên file; null nếu bảng riêng. */
+        final Session session;
+
+        final int slotCount;
+
+        final int maxUsed;
+
+        /** Bảng riêng: số slot đã bị chiếm; chỉ tăng, ghi dưới lock của shard. */
+        private volatile int used;
+
+        Shard(int slotCount) {
+            // allocateDirect đã xóa 0 toàn bộ vùng nhớ; alignedSlice để CAS trên long hợp lệ
+            this(ByteBuffer.allocateDirect(slotCount * RECORD_SIZE + 7).alignedSlice(8), null, 0, null, null,
+                    slotCount);
+        }
+
+        Shard(ByteBuffer buffer, ByteBuffer control, int controlOffset, ByteBuffer owners, Session session,
+              int slotCount) {
+            this.buffer = buffer;
+            this.control = control;
+            this.controlOffset = controlOffset;
+            this.owners = owners;
+            this.session = session;
+            this.slotCount = slotCount;
+            this.maxUsed = Math.max(1, (int) (slotCount * MAX_FILL));
+        }
+
+        /** Số slot đã bị chiếm (của mọi tiến trình nếu là bảng dùng chung). */
+        int used() {
+            return control == null ? used : (int) (long) LONGS.getVolatile(control, controlOffset + 8);
+        }
+
+        /** Gọi dưới lock của shard. */
+        void incrementUsed() {
+            if (control == null) {
+                used++;
+            } else {
+                LONGS.setVolatile(control, controlOffset + 8, (long) LONGS.getVolatile(control, controlOffset + 8) + 1);
+            }
+        }
+
+        int next(int index) {
+            return index + 1 == slotCount ? 0 : index + 1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * =====================================================================
+ * CHÍNH SÁCH W-TinyLFU: CHỌN KEY BỊ LOẠI KHI KHO ĐẦY
+ * =====================================================================
+ *
+ * Tập key được chia làm 2 vùng:
+ *
+ *   ┌──────────── window (~1%) ────────────┐   ┌──────────── main (~99%) ────────────┐
+ *   │ key mới vào đây trước, FIFO          │ → │ key đã chứng minh được "đáng giữ"    │
+ *   └──────────────────────────────────────┘   └─────────────────────────────────────┘
+ *
+ * 1. Key mới LUÔN được vào window (một key mới cũng được đếm ngay request đầu).
+ * 2. Window tràn → key cũ nhất của window trở thành ỨNG VIÊN vào main.
+ * 3. Main còn chỗ → ứng viên vào main.
+ *    Main đầy → chọn NẠN NHÂN trong main: lấy mẫu ngẫu nhiên vài key,
+ *    chọn key có tần suất (theo {@link FrequencySketch}) THẤP NHẤT.
+ * 4. TinyLFU admission: ứng viên chỉ thay được nạn nhân nếu tần suất của
+ *    ứng viên LỚN HƠN HẲN; ngược lại chính ứng viên bị loại.
+ *
+ * KẾT QUẢ VỚI TRAFFIC GIẢ MẠO:
+ * -----------------------------
+ * Một cơn lũ key dùng-một-lần (tần suất 1) chỉ luân chuyển qua window rồi bị
+ * loại ngay tại bước 4, không bao giờ đẩy được key "hot" (tần suất cao) ra
+ * khỏi main → key đang bị chặn hợp lệ vẫn giữ nguyên counter của nó.
+ *
+ * Lấy mẫu thay vì danh sách LRU/LFU đầy đủ: truy cập một key đã có (hit)
+ * KHÔNG phải sửa cấu trúc nào ngoài sketch → đường hit không cần lock.
+ *
+ * THREAD-SAFETY: mọi method trừ {@link #recordAccess} phải được gọi khi
+ * đang giữ lock của {@link KeyStateStore}.
+ *
+ * @param <K> kiểu key
+ * @author dncuong
+ */
+final class WindowTinyLfuPolicy<K> {
+
+    /** Số key lấy mẫu trong main khi chọn nạn nhân. */
+    static final int SAMPLE_SIZE = 8;
+
+    private final FrequencySketch sketch;
+
+    private final int windowCapacity;
+
+    private final int mainCapacity;
+
+    /** Vùng window, thứ tự chèn (FIFO). */
+    private final LinkedHashSet<K> window;
+
+    /** Vùng main: mảng để lấy mẫu ngẫu nhiên O(1), kèm chỉ số để xóa O(1). */
+    private final ArrayList<K> mainKeys;
+
+    private final HashMap<K, Integer> mainIndex;
+
+    /**
+     * @param maxKeys số key tối đa (window + main), tối thiểu 1
+     */
+    WindowTinyLfuPolicy(int maxKeys) {
+        this.sketch = new FrequencySketch(maxKeys);
+        this.windowCapacity = Math.max(1, maxKeys / 100);
+        this.mainCapacity = maxKeys - windowCapacity;
+        this.window = new LinkedHashSet<>();
+        this.mainKeys = new ArrayList<>();
+        this.mainIndex = new HashMap<>();
+    }
+
+    /**
+     * Ghi nhận một lần truy cập key (gọi trên mọi request, không cần lock).
+     */
+    void recordAccess(K key) {
+        sketch.increment(key);
+    }
+
+    boolean contains(K key) {
+        return window.contains(key) || mainIndex.containsKey(key);
+    }
+
+    /**
+     * Thêm key mới vào window.
+     *
+     * @return key phải bị loại khỏi kho để giữ số key ≤ maxKeys, hoặc null
+     */
+    K admit(K key) {
+        window.add(key);
+        if (window.size() <= windowCapacity) {
+            return null;
+        }
+
+        // Window tràn → key cũ nhất của window là ứng viên vào main
+        Iterator<K> oldest = window.iterator();
+        K candidate = oldest.next();
+        oldest.remove();
+
+        if (mainKeys.size() < mainCapacity) {
+            addToMain(candidate);
+            return null;
+        }
+        if (mainKeys.isEmpty()) {
+            // maxKeys = 1: không có main, ứng viên bị loại
+            return candidate;
+        }
+
+        K victim = sampleVictim();
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            removeFromMain(victim);
+            addToMain(candidate);
+            return victim;
+        }
+        return candidate;
+    }
+
+    /**
+     * Bỏ key khỏi chính sách (key đã bị xóa khỏi kho vì lý do khác, ví dụ hết hạn).
+     */
+    void remove(K key) {
+        if (!window.remove(key)) {
+            removeFromMain(key);
+        }
+    }
+
+    /** Lấy mẫu SAMPLE_SIZE key trong main, trả về key có tần suất thấp nhất. */
+    private K sampleVictim() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        K victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            K sampled = mainKeys.get(random.nextInt(mainKeys.size()));
+            int frequency = sketch.frequency(sampled);
+            if (frequency < victimFrequency) {
+                victim = sampled;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
+    }
+
+    private void addToMain(K key) {
+        mainIndex.put(key, mainKeys.size());
+        mainKeys.add(key);
+    }
+
+    /** Xóa O(1): chuyển phần tử cuối vào chỗ trống. */
+    private void removeFromMain(K key) {
+        Integer index = mainIndex.remove(key);
+        if (index == null) {
+            return;
+        }
+        K last = mainKeys.remove(mainKeys.size() - 1);
+        if (index < mainKeys.size()) {
+            mainKeys.set(index, last);
+            mainIndex.put(last, index);
+        }
+    }
+}
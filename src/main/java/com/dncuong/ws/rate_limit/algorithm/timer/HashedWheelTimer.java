@@ -0,0 +1,341 @@
+package com.dncuong.ws.rate_limit.algorithm.timer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * =====================================================================
+ * HASHED TIMING WHEEL: HẸN GIỜ CHO HÀNG CHỤC NGHÌN TÁC VỤ BẰNG MỘT THREAD
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Caller chờ permit (xem {@link com.dncuong.ws.rate_limit.algorithm.AsyncRateLimiter})
+ * cần được đánh thức đúng lúc permit có lại. Mỗi waiter một thread ngủ thì
+ * tốn ~1 MB stack; mỗi waiter một ScheduledFuture thì mỗi lần thêm/huỷ là
+ * O(log n) trên heap dùng chung một lock.
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * Vòng tròn ticksPerWheel ô, mỗi ô là một danh sách liên kết. Một thread
+ * worker cứ mỗi tick xử lý ô tiếp theo:
+ *
+ *   tick = 10ms, ticksPerWheel = 8 → một vòng = 80ms
+ *   ┌───┬───┬───┬───┬───┬───┬───┬───┐
+ *   │ 0 │ 1 │ 2 │ 3 │ 4 │ 5 │ 6 │ 7 │   tác vụ hẹn 35ms  → ô 3, rounds = 0
+ *   └───┴───┴───┴───┴───┴───┴───┴───┘   tác vụ hẹn 115ms → ô 3, rounds = 1
+ *         ▲ worker
+ *
+ * Tác vụ có rounds > 0 chỉ bị giảm rounds khi worker đi qua; rounds = 0
+ * thì chạy. Thêm và huỷ đều O(1):
+ *   - thêm: đẩy vào hàng đợi lock-free, worker chuyển vào đúng ô ở tick sau
+ *   - huỷ:  CAS trạng thái, worker gỡ node khỏi ô ở lần đi qua tiếp theo
+ *
+ * Mỗi tác vụ đang chờ chỉ tốn một node nhỏ ({@link Timeout}), không tốn thread.
+ *
+ * ĐỘ CHÍNH XÁC:
+ * --------------
+ * Tác vụ chạy tại mốc tick ĐẦU TIÊN không sớm hơn thời hạn: trễ tối đa một
+ * tick (cộng độ trễ lập lịch của worker), KHÔNG BAO GIỜ sớm hơn. Với tick
+ * 10ms đủ cho rate limit; tick nhỏ hơn làm worker thức dậy nhiều hơn.
+ *
+ * Tác vụ chạy TRÊN thread worker: phải ngắn và không chặn. Tác vụ ném
+ * RuntimeException không làm dừng worker (exception được chuyển cho
+ * default uncaught exception handler nếu có).
+ *
+ * VÒNG ĐỜI:
+ * ----------
+ * Thread worker là daemon và chỉ được tạo ở lần hẹn giờ đầu tiên.
+ * {@link #close()} dừng worker; tác vụ chưa tới hạn sẽ không bao giờ chạy.
+ *
+ * @author dncuong
+ */
+public final class HashedWheelTimer implements AutoCloseable {
+
+    /** Tick mặc định của timer dùng chung. */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    /** Số ô mặc định của timer dùng chung: một vòng ≈ 5 giây. */
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_STARTED = 1;
+    private static final int STATE_CLOSED = 2;
+
+    /**
+     * Timer dùng chung, tạo khi lần đầu được dùng.
+     */
+    private static final class SharedHolder {
+        static final HashedWheelTimer INSTANCE =
+                new HashedWheelTimer(DEFAULT_TICK_MILLIS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    private final long tickNanos;
+
+    private final int mask;
+
+    /** Đầu danh sách của từng ô; chỉ thread worker đọc/ghi. */
+    private final Timeout[] heads;
+
+    /** Tác vụ mới hẹn, chờ worker chuyển vào ô. */
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+
+    /** Số tác vụ chưa chạy và chưa huỷ. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+
+    private final Thread worker;
+
+    /** Mốc tick 0 (System.nanoTime), worker ghi trước khi xử lý tick đầu tiên. */
+    private long startNanos;
+
+    /**
+     * @param tickMillis    độ phân giải của timer, tính bằng milliseconds
+     * @param ticksPerWheel số ô của vòng, làm tròn lên lũy thừa của 2
+     * @throws IllegalArgumentException nếu tham số không dương hoặc quá lớn
+     */
+    public HashedWheelTimer(long tickMillis, int ticksPerWheel) {
+        if (tickMillis <= 0 || tickMillis > TimeUnit.DAYS.toMillis(1)) {
+            throw new IllegalArgumentException(
+                    "tickMillis phải nằm trong (0, 1 ngày], nhận được: " + tickMillis);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 20) {
+            throw new IllegalArgumentException(
+                    "ticksPerWheel phải nằm trong (0, 2^20], nhận được: " + ticksPerWheel);
+        }
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = size - 1;
+        this.heads = new Timeout[size];
+        this.worker = new Thread(this::run, "rate-limit-wheel-timer");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Timer dùng chung cho cả ứng dụng (tick {@value #DEFAULT_TICK_MILLIS}ms,
+     * {@value #DEFAULT_TICKS_PER_WHEEL} ô). Không nên close.
+     */
+    public static HashedWheelTimer shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Hẹn chạy task sau delay.
+     *
+     * @param task  tác vụ ngắn, không chặn, chạy trên thread worker
+     * @param delay thời gian chờ (âm hoặc 0 = chạy ở tick kế tiếp)
+     * @param unit  đơn vị của delay
+     * @return handle để huỷ
+     * @throws IllegalArgumentException nếu task hoặc unit null
+     * @throws IllegalStateException    nếu timer đã close
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null || unit == null) {
+            throw new IllegalArgumentException("task và unit không được null");
+        }
+        start();
+        // Giới hạn ~100 năm để deadline không tràn long
+        long delayNanos = Math.min(unit.toNanos(Math.max(0, delay)), Long.MAX_VALUE / 4);
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + delayNanos);
+        pending.incrementAndGet();
+        incoming.add(timeout);
+        if (state.get() == STATE_CLOSED) {
+            // close() chạy xen giữa: worker có thể đã dừng trước khi thấy tác vụ này
+            timeout.cancel();
+            throw new IllegalStateException("Timer đã đóng");
+        }
+        return timeout;
+    }
+
+    /**
+     * Số tác vụ đang chờ (chưa chạy, chưa huỷ).
+     */
+    public int pendingTimeouts() {
+        return pending.get();
+    }
+
+    /**
+     * Dừng thread worker. Tác vụ chưa tới hạn không bao giờ chạy.
+     */
+    @Override
+    public void close() {
+        if (state.getAndSet(STATE_CLOSED) == STATE_STARTED) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void start() {
+        int current = state.get();
+        if (current == STATE_INIT && state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+            worker.start();
+        } else if (current == STATE_CLOSED) {
+            throw new IllegalStateException("Timer đã đóng");
+        }
+    }
+
+    // =====================================================================
+    // THREAD WORKER
+    // =====================================================================
+
+    private void run() {
+        startNanos = System.nanoTime();
+        long tick = 0;
+        while (true) {
+            // Ô của tick được xử lý tại mốc (tick + 1) × tickNanos
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0 && state.get() != STATE_CLOSED) {
+                LockSupport.parkNanos(this, wait);
+            }
+            if (state.get() == STATE_CLOSED) {
+                return;
+            }
+            transferIncoming(tick);
+            expire((int) (tick & mask), tick);
+            tick++;
+        }
+    }
+
+    /**
+     * Chuyển tác vụ mới vào ô. Tác vụ có thời hạn d (tính từ startNanos)
+     * thuộc tick ceil(d / tickNanos) - 1, hoặc tick hiện tại nếu đã quá hạn.
+     */
+    private void transferIncoming(long tick) {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long relative = timeout.deadlineNanos - startNanos;
+            long target = Math.max(tick, Math.ceilDiv(relative, tickNanos) - 1);
+            timeout.remainingRounds = (target - tick) >> Integer.numberOfTrailingZeros(heads.length);
+            int bucket = (int) (target & mask);
+            timeout.next = heads[bucket];
+            if (heads[bucket] != null) {
+                heads[bucket].prev = timeout;
+            }
+            heads[bucket] = timeout;
+        }
+    }
+
+    /**
+     * Đi qua một ô: gỡ tác vụ đã huỷ, chạy tác vụ tới hạn, giảm rounds của phần còn lại.
+     */
+    private void expire(int bucket, long tick) {
+        Timeout timeout = heads[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                unlink(bucket, timeout);
+            } else if (timeout.remainingRounds <= 0) {
+                unlink(bucket, timeout);
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(int bucket, Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            heads[bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    // =====================================================================
+    // HANDLE CỦA MỘT TÁC VỤ ĐÃ HẸN
+    // =====================================================================
+
+    /**
+     * Một tác vụ đã hẹn giờ. Đồng thời là node của danh sách trong ô
+     * (không cấp phát thêm node riêng).
+     */
+    public static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadlineNanos;
+
+        @SuppressWarnings("unused") // truy cập qua STATE
+        private volatile int state;
+
+        // Chỉ thread worker đọc/ghi
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadlineNanos) {
+            this.timer = timer;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Huỷ tác vụ nếu nó chưa chạy.
+         *
+         * @return true nếu huỷ thành công, false nếu tác vụ đã chạy hoặc đã bị huỷ
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            timer.pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Một tác vụ lỗi không được làm dừng mọi tác vụ khác
+                Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+                if (handler != null) {
+                    handler.uncaughtException(Thread.currentThread(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * =====================================================================
+ * THUẬT TOÁN: TOKEN BUCKET - BIẾN THỂ LOCK-FREE, SỐ HỌC DẤU CHẤM TĨNH
+ * =====================================================================
+ *
+ * Cùng ngữ nghĩa với {@link TokenBucketRateLimiter} (xô đầy lúc đầu,
+ * lazy refill, không tràn quá capacity), nhưng thay 2 chi phí lớn nhất:
+ *
+ * 1. MONITOR (synchronized) → VÒNG LẶP CAS
+ *    Trạng thái của xô là một object BẤT BIẾN (immutable) {@link State}.
+ *    Refill + consume được tính trên bản sao rồi thay thế bằng một phép
+ *    compareAndSet duy nhất. Không thread nào phải đứng chờ lock.
+ *
+ * 2. SỐ THỰC (double) → SỐ NGUYÊN DẤU CHẤM TĨNH (fixed-point)
+ *    Token được lưu dưới dạng "micro-token": 1 token = 1_000_000 micro-token.
+ *    Ví dụ: 0.6 token = 600_000 micro-token.
+ *
+ *    Công thức refill chỉ còn phép nhân/chia số nguyên:
+ *      microTokensToAdd = elapsedMillis × refillMicroTokensPerSecond / 1000
+ *
+ *    Ví dụ: refillRate = 2 token/s → 2_000_000 micro-token/s
+ *      trôi 300ms → 300 × 2_000_000 / 1000 = 600_000 micro-token = 0.6 token
+ *
+ *    Sai số làm tròn mỗi lần refill < 1 micro-token (10^-6 token),
+ *    nhỏ hơn rất nhiều so với sai số tích lũy của double ở các bước cộng lặp lại.
+ *
+ * TẠI SAO KHÔNG GÓI CẢ 2 GIÁ TRỊ VÀO MỘT long NHƯ FIXED WINDOW LOCK-FREE?
+ * ------------------------------------------------------------------------
+ * Timestamp cần ~41 bit (milliseconds), micro-token của capacity 1000 đã
+ * cần ~30 bit → không vừa 64 bit cho các cấu hình thực tế. Vì vậy trạng thái
+ * được giữ trong một object bất biến và thay thế nguyên khối qua
+ * AtomicReference (cách làm "copy-on-write" phổ biến của các thư viện
+ * rate limit lock-free).
+ *
+ * Request bị TỪ CHỐI không ghi gì cả: lazy refill tính từ lastRefillTimestamp
+ * nên bỏ qua bước lưu kết quả refill không làm thay đổi quyết định sau này.
+ * Chỉ request được CHO PHÉP mới tạo State mới.
+ *
+ * @author dncuong
+ */
+public class LockFreeTokenBucketRateLimiter implements RateLimiter {
+
+    /** Số micro-token trong 1 token. */
+    static final long MICRO_TOKENS_PER_TOKEN = 1_000_000L;
+
+    /**
+     * State đặc biệt đánh dấu xô đã bị thread dọn dẹp loại khỏi map
+     * (so sánh bằng tham chiếu, giá trị bên trong không có ý nghĩa).
+     */
+    static final State RETIRED = new State(0, Long.MIN_VALUE);
+
+    /**
+     * Sức chứa tối đa của xô, tính bằng micro-token.
+     */
+    private final long capacityMicroTokens;
+
+    /**
+     * Tốc độ nạp, tính bằng micro-token mỗi GIÂY.
+     */
+    private final long refillMicroTokensPerSecond;
+
+    /**
+     * Số milliseconds trôi qua lớn nhất mà phép nhân
+     * elapsedMillis × refillMicroTokensPerSecond chưa bị tràn số.
+     * Trôi qua lâu hơn ngưỡng này thì xô chắc chắn đã đầy.
+     */
+    private final long maxElapsedMillisWithoutOverflow;
+
+    /**
+     * Bảng lưu trạng thái bucket cho mỗi key.
+     * Xô đã nạp lại đầy được {@link KeyStateStore} dọn dần.
+     */
+    private final KeyStateStore<RateLimitKey, AtomicReference<State>> bucketMap;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định).
+     * Đồng hồ đơn điệu để NTP chỉnh giờ không làm sai phép tính elapsed.
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Lock-free Token Bucket Rate Limiter.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây, tối thiểu 10^-6)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeTokenBucketRateLimiter(long bucketCapacity, double refillRate) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Lock-free Token Bucket Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây, tối thiểu 10^-6)
+     * @param maxTrackedKeys số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                       nhất bị loại và bắt đầu lại từ state mới
+     *                       ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeTokenBucketRateLimiter(long bucketCapacity, double refillRate, int maxTrackedKeys) {
+        this(bucketCapacity, refillRate, maxTrackedKeys, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Lock-free Token Bucket Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeTokenBucketRateLimiter(long bucketCapacity, double refillRate, RateLimitClock clock) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Lock-free Token Bucket Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public LockFreeTokenBucketRateLimiter(long bucketCapacity, double refillRate,
+                                          int maxTrackedKeys, RateLimitClock clock) {
+        if (bucketCapacity <= 0) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity phải lớn hơn 0, nhận được: " + bucketCapacity);
+        }
+        if (bucketCapacity > Long.MAX_VALUE / MICRO_TOKENS_PER_TOKEN) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity quá lớn để biểu diễn bằng micro-token, nhận được: " + bucketCapacity);
+        }
+        if (refillRate <= 0) {
+            throw new IllegalArgumentException(
+                    "refillRate phải lớn hơn 0, nhận được: " + refillRate);
+        }
+        long refillMicro = Math.round(refillRate * MICRO_TOKENS_PER_TOKEN);
+        if (refillMicro <= 0) {
+            throw new IllegalArgumentException(
+                    "refillRate quá nhỏ (tối thiểu 0.000001 token/giây), nhận được: " + refillRate);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.capacityMicroTokens = bucketCapacity * MICRO_TOKENS_PER_TOKEN;
+        this.refillMicroTokensPerSecond = refillMicro;
+        this.maxElapsedMillisWithoutOverflow = Long.MAX_VALUE / refillMicro;
+        this.bucketMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
+     *
+     * LUỒNG XỬ LÝ (một vòng lặp CAS):
+     * 1. Đọc State hiện tại
+     * 2. Tính số micro-token sau khi refill (không vượt capacity)
+     * 3. Nếu còn < permits token → từ chối (không ghi gì)
+     * 4. Ngược lại tạo State mới (token - permits, timestamp mới) và CAS
+     * 5. CAS thất bại → thread khác vừa đổi state, quay lại bước 1
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        // Lô lớn hơn cả sức chứa không bao giờ được cấp
+        // (chặn trước để permits × 10^6 không tràn số; xô không bao giờ có Long.MAX_VALUE micro-token)
+        long requiredMicroTokens = permits > capacityMicroTokens / MICRO_TOKENS_PER_TOKEN
+                ? Long.MAX_VALUE
+                : permits * MICRO_TOKENS_PER_TOKEN;
+
+        // Xô mới bắt đầu ĐẦY token
+        AtomicReference<State> ref = bucketMap.getOrCreate(key, now,
+                k -> new AtomicReference<>(new State(capacityMicroTokens, now)));
+
+        while (true) {
+            State current = ref.get();
+            if (current == RETIRED) {
+                // Thread dọn dẹp vừa loại xô này → lấy (hoặc tạo) xô mới
+                bucketMap.removeRetired(key, ref);
+                ref = bucketMap.getOrCreate(key, now,
+                        k -> new AtomicReference<>(new State(capacityMicroTokens, now)));
+                continue;
+            }
+
+            // --- Refill bằng số nguyên ---
+            long elapsedMillis = now - current.lastRefillTimestamp;
+            long tokens = current.microTokens;
+            long refillTimestamp = current.lastRefillTimestamp;
+            if (elapsedMillis > 0) {
+                tokens = Math.min(capacityMicroTokens, tokens + microTokensFor(elapsedMillis));
+                refillTimestamp = now;
+            }
+
+            // --- Consume ---
+            if (tokens < requiredMicroTokens) {
+                if (decision != null) {
+                    fillDecision(decision, false, requiredMicroTokens, tokens);
+                }
+                return false;
+            }
+            State next = new State(tokens - requiredMicroTokens, refillTimestamp);
+            if (ref.compareAndSet(current, next)) {
+                if (decision != null) {
+                    fillDecision(decision, true, requiredMicroTokens, next.microTokens);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Token được bỏ lại vào xô, không vượt quá capacity.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        AtomicReference<State> ref = bucketMap.get(key);
+        if (ref == null) {
+            return;
+        }
+        // Lô lớn hơn sức chứa không bao giờ được cấp → trả tối đa cả xô
+        long refundMicroTokens = permits > capacityMicroTokens / MICRO_TOKENS_PER_TOKEN
+                ? capacityMicroTokens
+                : permits * MICRO_TOKENS_PER_TOKEN;
+        while (true) {
+            State current = ref.get();
+            if (current == RETIRED) {
+                return;
+            }
+            long tokens = capacityMicroTokens - current.microTokens <= refundMicroTokens
+                    ? capacityMicroTokens
+                    : current.microTokens + refundMicroTokens;
+            if (ref.compareAndSet(current, new State(tokens, current.lastRefillTimestamp))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết từ State đã dùng để quyết định (tokens là số
+     * micro-token sau quyết định). Làm tròn lên theo đúng cách
+     * {@link #microTokensFor} làm tròn xuống khi nạp.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long requiredMicroTokens, long tokens) {
+        long resetAfter = (long) Math.ceil((capacityMicroTokens - tokens) * 1000.0 / refillMicroTokensPerSecond);
+        long retryAfter = allowed ? 0
+                : requiredMicroTokens > capacityMicroTokens ? RateLimitDecision.NEVER
+                : Math.max(1, (long) Math.ceil((requiredMicroTokens - tokens) * 1000.0 / refillMicroTokensPerSecond));
+        decision.set(allowed, capacityMicroTokens / MICRO_TOKENS_PER_TOKEN, tokens / MICRO_TOKENS_PER_TOKEN,
+                retryAfter, resetAfter);
+    }
+
+    /**
+     * CAS xô sang {@link #RETIRED} nếu sau khi nạp lại nó đã ĐẦY - giống hệt
+     * xô mới tạo cho key lần đầu xuất hiện.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(AtomicReference<State> ref, long now) {
+        State current = ref.get();
+        if (current == RETIRED) {
+            return true;
+        }
+        long elapsedMillis = now - current.lastRefillTimestamp;
+        long tokens = current.microTokens;
+        if (elapsedMillis > 0) {
+            tokens = Math.min(capacityMicroTokens, tokens + microTokensFor(elapsedMillis));
+        }
+        return tokens >= capacityMicroTokens && ref.compareAndSet(current, RETIRED);
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(AtomicReference<State> ref) {
+        ref.set(RETIRED);
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return bucketMap.size();
+    }
+
+    /**
+     * Số micro-token được nạp sau elapsedMillis (đã chặn tràn số).
+     */
+    private long microTokensFor(long elapsedMillis) {
+        if (elapsedMillis >= maxElapsedMillisWithoutOverflow) {
+            return capacityMicroTokens;
+        }
+        return elapsedMillis * refillMicroTokensPerSecond / 1000;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Trạng thái BẤT BIẾN của một xô.
+     *
+     * Vì không bao giờ bị sửa sau khi tạo, một thread đọc State luôn thấy
+     * cặp (microTokens, lastRefillTimestamp) nhất quán với nhau
+     * mà không cần lock.
+     */
+    static final class State {
+        /** Số token hiện có, tính bằng micro-token */
+        final long microTokens;
+
+        /** Thời điểm nạp token lần cuối (milliseconds) */
+        final long lastRefillTimestamp;
+
+        State(long microTokens, long lastRefillTimestamp) {
+            this.microTokens = microTokens;
+            this.lastRefillTimestamp = lastRefillTimestamp;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+
+/**
+ * =====================================================================
+ * THUẬT TOÁN: TOKEN BUCKET - ĐỘ PHÂN GIẢI NANOSECOND, SỐ HỌC NGUYÊN CHÍNH XÁC
+ * =====================================================================
+ *
+ * Cùng ngữ nghĩa với {@link TokenBucketRateLimiter} (xô đầy lúc đầu,
+ * lazy refill, không tràn quá capacity), dành cho tốc độ nạp RẤT CAO
+ * (hàng chục tới hàng trăm nghìn token/giây, ví dụ ngân sách gọi giữa
+ * các service nội bộ).
+ *
+ * VẤN ĐỀ VỚI TIMESTAMP MILLISECOND:
+ * ----------------------------------
+ * refillRate = 200_000 token/s → 200 token mỗi millisecond. Với đồng hồ
+ * millisecond, token chỉ xuất hiện theo từng cục 200 token ở ranh giới ms:
+ *   - "giật" (stutter): cả cục được tiêu trong vài µs, phần còn lại của ms
+ *     mọi request bị từ chối
+ *   - nếu bucketCapacity < 200 thì mỗi ms phần vượt capacity bị BỎ ĐI:
+ *     capacity = 50 → thực tế chỉ đạt 50_000 token/s thay vì 200_000
+ *
+ * GIẢI PHÁP:
+ * -----------
+ * 1. Thời gian tính bằng NANOSECOND lấy từ đồng hồ đơn điệu
+ *    ({@link RateLimitClock#currentTimeNanos()}, mặc định {@link MonotonicClock}).
+ *
+ * 2. Token lưu dưới dạng "nano-token": 1 token = 10^9 nano-token. Khi đó
+ *    lượng nạp là một phép nhân số nguyên CHÍNH XÁC, không có phép chia:
+ *
+ *      nanoTokensToAdd = elapsedNanos × refillTokensPerSecond
+ *
+ *    (ns × token/s = 10^-9 token·s/s = nano-token). Không làm tròn ở bước
+ *    nạp → không mất phần lẻ dù refill được gọi hàng triệu lần mỗi giây.
+ *
+ * 3. Chống tràn số: elapsedNanos được chặn ở thời gian nạp đầy cả xô
+ *    (fullRefillNanos) TRƯỚC khi nhân, nên tích luôn ≤ capacity × 10^9 + rate.
+ *    Vì vậy bucketCapacity ≤ ~9.2 × 10^9 token và refillTokensPerSecond là
+ *    số nguyên ≤ 10^9 (tối đa 1 token/ns).
+ *
+ * ĐỒNG HỒ VÀ API THEO MILLISECOND:
+ * ---------------------------------
+ * allowRequest/tryAcquire(key, permits) đọc thẳng currentTimeNanos().
+ * Các lệnh gọi truyền now theo millisecond (tryAcquire(key, permits, now, ...),
+ * ví dụ từ RateLimitBatch) được đổi sang nanosecond bằng now × 10^6, nên chỉ
+ * chính xác tới millisecond; dùng {@link #tryAcquireNanos} để giữ độ phân giải.
+ *
+ * THREAD-SAFETY:
+ * ---------------
+ * Giống {@link TokenBucketRateLimiter}: KeyStateStore cho key → xô,
+ * synchronized trên từng xô cho refill + consume.
+ *
+ * @author dncuong
+ */
+public class NanoTokenBucketRateLimiter implements RateLimiter {
+
+    /** Số nano-token trong 1 token (cũng là số nanosecond trong 1 giây). */
+    static final long NANO_TOKENS_PER_TOKEN = 1_000_000_000L;
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /** Sức chứa tối đa của xô, tính bằng token. */
+    private final long bucketCapacity;
+
+    /** Sức chứa tối đa của xô, tính bằng nano-token. */
+    private final long capacityNanoTokens;
+
+    /** Tốc độ nạp, tính bằng token/giây (= nano-token mỗi nanosecond). */
+    private final long refillTokensPerSecond;
+
+    /**
+     * Thời gian nạp đầy một xô rỗng, tính bằng nanoseconds (làm tròn lên).
+     * elapsedNanos từ mức này trở lên chắc chắn làm xô đầy.
+     */
+    private final long fullRefillNanos;
+
+    /**
+     * Bảng lưu trạng thái bucket cho mỗi key.
+     */
+    private final KeyStateStore<RateLimitKey, Bucket> bucketMap;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định).
+     * Cần độ phân giải nanosecond thật; đồng hồ chỉ có millisecond vẫn chạy
+     * đúng nhưng quay về hành vi nạp theo từng cục mỗi ms.
+     */
+    private final RateLimitClock clock;
+
+    /**
+     * Khởi tạo Nano Token Bucket Rate Limiter.
+     *
+     * @param bucketCapacity        sức chứa tối đa của xô (burst tối đa)
+     * @param refillTokensPerSecond tốc độ nạp token (số token nguyên mỗi giây)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public NanoTokenBucketRateLimiter(long bucketCapacity, long refillTokensPerSecond) {
+        this(bucketCapacity, refillTokensPerSecond, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Nano Token Bucket Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param bucketCapacity        sức chứa tối đa của xô (burst tối đa)
+     * @param refillTokensPerSecond tốc độ nạp token (số token nguyên mỗi giây)
+     * @param maxTrackedKeys        số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public NanoTokenBucketRateLimiter(long bucketCapacity, long refillTokensPerSecond, int maxTrackedKeys) {
+        this(bucketCapacity, refillTokensPerSecond, maxTrackedKeys, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Nano Token Bucket Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity        sức chứa tối đa của xô (burst tối đa)
+     * @param refillTokensPerSecond tốc độ nạp token (số token nguyên mỗi giây)
+     * @param clock                 nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public NanoTokenBucketRateLimiter(long bucketCapacity, long refillTokensPerSecond, RateLimitClock clock) {
+        this(bucketCapacity, refillTokensPerSecond, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Nano Token Bucket Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity        sức chứa tối đa của xô (burst tối đa)
+     * @param refillTokensPerSecond tốc độ nạp token (số token nguyên mỗi giây)
+     * @param maxTrackedKeys        số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock                 nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public NanoTokenBucketRateLimiter(long bucketCapacity, long refillTokensPerSecond, int maxTrackedKeys,
+                                      RateLimitClock clock) {
+        if (bucketCapacity <= 0) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity phải lớn hơn 0, nhận được: " + bucketCapacity);
+        }
+        if (bucketCapacity > Long.MAX_VALUE / NANO_TOKENS_PER_TOKEN - 1) {
+            throw new IllegalArgumentException(
+                    "bucketCapacity quá lớn để biểu diễn bằng nano-token, nhận được: " + bucketCapacity);
+        }
+        if (refillTokensPerSecond <= 0 || refillTokensPerSecond > NANO_TOKENS_PER_TOKEN) {
+            throw new IllegalArgumentException(
+                    "refillTokensPerSecond phải nằm trong [1, " + NANO_TOKENS_PER_TOKEN + "], nhận được: "
+                            + refillTokensPerSecond);
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
+
+        this.bucketCapacity = bucketCapacity;
+        this.capacityNanoTokens = bucketCapacity * NANO_TOKENS_PER_TOKEN;
+        this.refillTokensPerSecond = refillTokensPerSecond;
+        this.fullRefillNanos = Math.ceilDiv(capacityNanoTokens, refillTokensPerSecond);
+        this.bucketMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits) {
+        return tryAcquireNanos(key, permits, clock.currentTimeNanos(), null);
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, RateLimitDecision decision) {
+        return tryAcquireNanos(key, permits, clock.currentTimeNanos(), decision);
+    }
+
+    /**
+     * Xin permits đơn vị quota tại thời điểm now tính bằng millisecond
+     * (độ phân giải chỉ tới 1 ms, xem javadoc của lớp).
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        return tryAcquireNanos(key, permits, now * NANOS_PER_MILLI, decision);
+    }
+
+    /**
+     * Xin permits đơn vị quota cho key tại nowNanos: cấp cả lô hoặc không trừ gì.
+     *
+     * LUỒNG XỬ LÝ:
+     * 1. Lấy hoặc tạo Bucket cho key (xô bắt đầu ĐẦY token)
+     * 2. Nạp nano-token theo elapsedNanos × refillTokensPerSecond (chính xác)
+     * 3. Đủ permits × 10^9 nano-token → trừ và cho phép; không đủ → từ chối
+     *
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param nowNanos thời điểm hiện tại, lấy từ {@link RateLimitClock#currentTimeNanos()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    public boolean tryAcquireNanos(RateLimitKey key, long permits, long nowNanos, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        // Lô lớn hơn sức chứa không bao giờ được cấp (và permits × 10^9 sẽ tràn số)
+        long requiredNanoTokens = permits > bucketCapacity ? Long.MAX_VALUE : permits * NANO_TOKENS_PER_TOKEN;
+        long nowMillis = Math.floorDiv(nowNanos, NANOS_PER_MILLI);
+
+        while (true) {
+            Bucket bucket = bucketMap.getOrCreate(key, nowMillis,
+                    k -> new Bucket(capacityNanoTokens, nowNanos));
+
+            synchronized (bucket) {
+                if (bucket.retired) {
+                    // Thread dọn dẹp vừa loại xô này → lấy (hoặc tạo) xô mới
+                    bucketMap.removeRetired(key, bucket);
+                    continue;
+                }
+
+                refill(bucket, nowNanos);
+
+                boolean allowed = bucket.nanoTokens >= requiredNanoTokens;
+                if (allowed) {
+                    bucket.nanoTokens -= requiredNanoTokens;
+                }
+                if (decision != null) {
+                    fillDecision(decision, allowed, requiredNanoTokens, bucket.nanoTokens);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp (huỷ phần đã cấp của một lô).
+     * Token được bỏ lại vào xô, không vượt quá capacity.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        Bucket bucket = bucketMap.get(key);
+        if (bucket == null) {
+            return;
+        }
+        long refundNanoTokens = Math.min(permits, bucketCapacity) * NANO_TOKENS_PER_TOKEN;
+        synchronized (bucket) {
+            if (!bucket.retired) {
+                bucket.nanoTokens = capacityNanoTokens - bucket.nanoTokens <= refundNanoTokens
+                        ? capacityNanoTokens
+                        : bucket.nanoTokens + refundNanoTokens;
+            }
+        }
+    }
+
+    /**
+     * Lazy refill bằng số học nguyên. Gọi khi đang giữ lock của xô.
+     * Đồng hồ lùi (elapsedNanos <= 0) → không nạp, giữ nguyên mốc cũ.
+     */
+    private void refill(Bucket bucket, long nowNanos) {
+        long elapsedNanos = nowNanos - bucket.lastRefillNanos;
+        if (elapsedNanos > 0) {
+            // So với phần còn thiếu thay vì cộng rồi min: tổng có thể vượt phạm vi long
+            long missing = capacityNanoTokens - bucket.nanoTokens;
+            bucket.nanoTokens = elapsedNanos >= fullRefillNanos || elapsedNanos * refillTokensPerSecond >= missing
+                    ? capacityNanoTokens
+                    : bucket.nanoTokens + elapsedNanos * refillTokensPerSecond;
+            bucket.lastRefillNanos = nowNanos;
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết khi vẫn đang giữ lock của xô (nanoTokens là số
+     * nano-token sau quyết định). Mỗi nanosecond nạp đúng refillTokensPerSecond
+     * nano-token nên thời gian chờ là phép chia làm tròn lên.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long requiredNanoTokens, long nanoTokens) {
+        long resetAfter = nanosToMillisCeil(capacityNanoTokens - nanoTokens);
+        long retryAfter = allowed ? 0
+                : requiredNanoTokens > capacityNanoTokens ? RateLimitDecision.NEVER
+                : Math.max(1, nanosToMillisCeil(requiredNanoTokens - nanoTokens));
+        decision.set(allowed, bucketCapacity, nanoTokens / NANO_TOKENS_PER_TOKEN, retryAfter, resetAfter);
+    }
+
+    /** Số millisecond (làm tròn lên) để nạp thêm missingNanoTokens. */
+    private long nanosToMillisCeil(long missingNanoTokens) {
+        return Math.ceilDiv(Math.ceilDiv(missingNanoTokens, refillTokensPerSecond), NANOS_PER_MILLI);
+    }
+
+    /**
+     * Đánh dấu xô retired nếu sau khi nạp lại nó đã ĐẦY - giống hệt xô mới
+     * tạo cho key lần đầu xuất hiện.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp (now tính bằng millisecond).
+     */
+    private boolean retireIfFresh(Bucket bucket, long now) {
+        synchronized (bucket) {
+            refill(bucket, now * NANOS_PER_MILLI);
+            if (bucket.nanoTokens >= capacityNanoTokens) {
+                bucket.retired = true;
+            }
+            return bucket.retired;
+        }
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(Bucket bucket) {
+        synchronized (bucket) {
+            bucket.retired = true;
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
+     */
+    int trackedKeyCount() {
+        return bucketMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Xô của một key.
+     */
+    static class Bucket {
+        /** Số nano-token hiện có trong xô (1 token = 10^9 nano-token) */
+        long nanoTokens;
+
+        /** Thời điểm nạp token lần cuối (nanoseconds) */
+        long lastRefillNanos;
+
+        /** true khi xô đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
+
+        Bucket(long initialNanoTokens, long timestamp) {
+            this.nanoTokens = initialNanoTokens;
+            this.lastRefillNanos = timestamp;
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
 import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.MonotonicClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.state.KeyStateStore;
+import com.dncuong.ws.rate_limit.algorithm.snapshot.SnapshotSupport;
+import com.dncuong.ws.rate_limit.algorithm.snapshot.StateSnapshot;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * =====================================================================
@@ -87,12 +96,21 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  * THREAD-SAFETY:
  * ---------------
- * - ConcurrentHashMap cho key → bucket mapping
+ * - ConcurrentHashMap cho key → bucket mapping (trong KeyStateStore:
+ *   xô đã nạp lại đầy được dọn dần, key quay lại nhận xô đầy y hệt)
  * - synchronized block trên từng Bucket để đảm bảo refill + consume là atomic
  *
+ * SNAPSHOT KHI KHỞI ĐỘNG LẠI:
+ * ----------------------------
+ * Xô trên heap được chụp ở nền bằng
+ * {@link com.dncuong.ws.rate_limit.algorithm.snapshot.SnapshotWriter} và khôi
+ * phục lười bằng {@link #restoreFrom}. Mốc nạp lưu theo đồng hồ của limiter;
+ * {@link MonotonicClock} có gốc Unix epoch nên mốc vẫn so được với đồng hồ
+ * của lần chạy sau (xô nạp tiếp phần thời gian JVM đã tắt).
+ *
  * @author dncuong
  */
-public class TokenBucketRateLimiter implements RateLimiter {
+public class TokenBucketRateLimiter implements RateLimiter, SnapshotSupport {
 
     /**
      * Sức chứa tối đa của xô (số token tối đa).
@@ -114,7 +132,32 @@ public class TokenBucketRateLimiter implements RateLimiter {
     /**
      * Bảng lưu trạng thái bucket cho mỗi key.
      */
-    private final ConcurrentHashMap<String, Bucket> bucketMap;
+    private final KeyStateStore<RateLimitKey, Bucket> bucketMap;
+
+    /**
+     * Bảng off-heap thay cho bucketMap khi cần theo dõi hàng chục triệu key;
+     * null nếu lưu state trên heap.
+     *
+     * Bản ghi: field 0 = số token ĐÃ DÙNG (bit của double), field 1 = lastRefillTimestamp.
+     * Lưu token đã dùng thay vì token còn lại để bản ghi toàn 0 nghĩa là xô ĐẦY -
+     * giống hệt xô mới (tokens = bucketCapacity - used).
+     */
+    private final OffHeapStateTable offHeapTable;
+
+    /**
+     * Snapshot đang khôi phục lười: key tạo xô lần đầu lấy xô đã lưu từ đây;
+     * null nếu không khôi phục.
+     */
+    private volatile StateSnapshot restoredSnapshot;
+
+    /**
+     * Nguồn thời gian ({@link MonotonicClock} nếu không chỉ định).
+     *
+     * Mặc định là đồng hồ đơn điệu: elapsed = now - lastRefillTimestamp
+     * tính trên đồng hồ hệ thống sẽ sai khi NTP chỉnh giờ (nhảy tới 1 giờ →
+     * mọi xô đầy ngay lập tức).
+     */
+    private final RateLimitClock clock;
 
     /**
      * Khởi tạo Token Bucket Rate Limiter.
@@ -124,6 +167,77 @@ public class TokenBucketRateLimiter implements RateLimiter {
      * @throws IllegalArgumentException nếu tham số không hợp lệ
      */
     public TokenBucketRateLimiter(long bucketCapacity, double refillRate) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED);
+    }
+
+    /**
+     * Khởi tạo Token Bucket Rate Limiter, giới hạn số key được theo dõi.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param maxTrackedKeys số key tối đa được theo dõi; vượt quá thì key ít được truy cập
+     *                       nhất bị loại và bắt đầu lại từ state mới
+     *                       ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public TokenBucketRateLimiter(long bucketCapacity, double refillRate, int maxTrackedKeys) {
+        this(bucketCapacity, refillRate, maxTrackedKeys, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Token Bucket Rate Limiter lưu state trong bảng off-heap.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param offHeapTable   bảng off-heap dành riêng cho limiter này
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public TokenBucketRateLimiter(long bucketCapacity, double refillRate, OffHeapStateTable offHeapTable) {
+        this(bucketCapacity, refillRate, offHeapTable, MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * Khởi tạo Token Bucket Rate Limiter với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public TokenBucketRateLimiter(long bucketCapacity, double refillRate, RateLimitClock clock) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED, clock);
+    }
+
+    /**
+     * Khởi tạo Token Bucket Rate Limiter giới hạn số key, với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param maxTrackedKeys số key tối đa được theo dõi ({@link KeyStateStore#UNBOUNDED} = không giới hạn)
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public TokenBucketRateLimiter(long bucketCapacity, double refillRate, int maxTrackedKeys,
+                                  RateLimitClock clock) {
+        this(bucketCapacity, refillRate, maxTrackedKeys, null, clock);
+    }
+
+    /**
+     * Khởi tạo Token Bucket Rate Limiter lưu state off-heap, với nguồn thời gian cho trước.
+     *
+     * @param bucketCapacity sức chứa tối đa của xô (burst tối đa)
+     * @param refillRate     tốc độ nạp token (số token mỗi giây)
+     * @param offHeapTable   bảng off-heap dành riêng cho limiter này
+     * @param clock          nguồn thời gian
+     * @throws IllegalArgumentException nếu tham số không hợp lệ
+     */
+    public TokenBucketRateLimiter(long bucketCapacity, double refillRate, OffHeapStateTable offHeapTable,
+                                  RateLimitClock clock) {
+        this(bucketCapacity, refillRate, KeyStateStore.UNBOUNDED, requireTable(offHeapTable), clock);
+    }
+
+    private TokenBucketRateLimiter(long bucketCapacity, double refillRate, int maxTrackedKeys,
+                                   OffHeapStateTable offHeapTable, RateLimitClock clock) {
         // === Validate tham số đầu vào ===
         if (bucketCapacity <= 0) {
             throw new IllegalArgumentException(
@@ -133,14 +247,27 @@ public class TokenBucketRateLimiter implements RateLimiter {
             throw new IllegalArgumentException(
                     "refillRate phải lớn hơn 0, nhận được: " + refillRate);
         }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock không được null");
+        }
 
         this.bucketCapacity = bucketCapacity;
         this.refillRate = refillRate;
-        this.bucketMap = new ConcurrentHashMap<>();
+        this.bucketMap = new KeyStateStore<>(this::retireIfFresh, this::retire, maxTrackedKeys);
+        this.offHeapTable = offHeapTable;
+        this.clock = clock;
+    }
+
+    private static OffHeapStateTable requireTable(OffHeapStateTable offHeapTable) {
+        if (offHeapTable == null) {
+            throw new IllegalArgumentException("offHeapTable không được null");
+        }
+        return offHeapTable;
     }
 
     /**
-     * Kiểm tra và quyết định xem request từ key có được phép hay không.
+     * Xin permits đơn vị quota cho key: cấp cả lô hoặc không trừ gì.
+     * (allowRequest(key) = tryAcquire(key, 1): các bước dưới mô tả permits = 1.)
      *
      * LUỒNG XỬ LÝ CHI TIẾT:
      * 1. Lấy hoặc tạo Bucket cho key (xô bắt đầu ĐẦY token)
@@ -149,58 +276,287 @@ public class TokenBucketRateLimiter implements RateLimiter {
      * 4. Nếu còn ≥ 1 token → lấy 1 token, trả về true
      * 5. Nếu hết token → trả về false
      *
-     * @param key định danh của nguồn request
-     * @return true nếu request được phép, false nếu bị từ chối
+     * @param key      định danh của nguồn request
+     * @param permits  số đơn vị quota cần, lớn hơn 0
+     * @param now      thời điểm hiện tại, lấy từ {@link #currentTimeMillis()}
+     * @param decision holder nhận kết quả chi tiết, null nếu caller chỉ cần boolean
+     * @return true nếu cả permits đơn vị được cấp, false nếu bị từ chối
+     * @throws IllegalArgumentException nếu permits <= 0
      */
     @Override
-    public boolean allowRequest(String key) {
-        long now = getCurrentTimeMillis();
+    public boolean tryAcquire(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+
+        if (offHeapTable != null) {
+            return tryAcquireOffHeap(key, permits, now, decision);
+        }
+
+        while (true) {
+            // === BƯỚC 1: Lấy hoặc tạo mới bucket cho key ===
+            // Xô mới bắt đầu ĐẦY token (bucketCapacity)
+            // → Client mới có thể burst ngay lập tức
+            Bucket bucket = bucketMap.getOrCreate(key, now,
+                    k -> newBucket(k, now));
+
+            // === BƯỚC 2 + 3 + 4: Refill + kiểm tra + consume (thread-safe) ===
+            synchronized (bucket) {
+                if (bucket.retired) {
+                    // Thread dọn dẹp vừa loại xô này → lấy (hoặc tạo) xô mới
+                    bucketMap.removeRetired(key, bucket);
+                    continue;
+                }
+
+                // --- Bước 2: Tính số token cần nạp (lazy refill) ---
+                // Thay vì chạy timer background, ta tính số token dựa trên
+                // thời gian đã trôi qua kể từ lần refill cuối
+                //
+                // Ví dụ: refillRate = 2 token/s, đã trôi 3.5 giây
+                //   tokensToAdd = 3.5 × 2 = 7 token
+                long elapsedMillis = now - bucket.lastRefillTimestamp;
+                double tokensToAdd = (elapsedMillis / 1000.0) * refillRate;
 
-        // === BƯỚC 1: Lấy hoặc tạo mới bucket cho key ===
-        // Xô mới bắt đầu ĐẦY token (bucketCapacity)
-        // → Client mới có thể burst ngay lập tức
-        Bucket bucket = bucketMap.computeIfAbsent(key,
-                k -> new Bucket(bucketCapacity, now));
+                // --- Bước 3: Nạp token vào xô ---
+                // Cập nhật số token, nhưng không vượt quá sức chứa (capacity)
+                // Math.min đảm bảo xô không bao giờ tràn
+                if (tokensToAdd > 0) {
+                    bucket.tokens = Math.min(bucketCapacity, bucket.tokens + tokensToAdd);
+                    bucket.lastRefillTimestamp = now;
+                }
 
-        // === BƯỚC 2 + 3 + 4: Refill + kiểm tra + consume (thread-safe) ===
+                // --- Bước 4: Kiểm tra và consume token ---
+                boolean allowed = bucket.tokens >= permits;
+                if (allowed) {
+                    // Đủ token cho cả lô → lấy permits token và cho phép
+                    bucket.tokens -= permits;
+                }
+                // Không đủ → từ chối, không lấy token nào
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, bucket.tokens);
+                }
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * Trả lại permits đơn vị đã cấp tại now (huỷ phần đã cấp của một lô).
+     * Token được bỏ lại vào xô, không vượt quá capacity.
+     *
+     * @param key     định danh đã dùng khi xin
+     * @param permits số đơn vị đã được cấp, lớn hơn 0
+     * @param now     thời điểm đã dùng khi xin
+     * @throws IllegalArgumentException nếu permits <= 0
+     */
+    @Override
+    public void refund(RateLimitKey key, long permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException(
+                    "permits phải lớn hơn 0, nhận được: " + permits);
+        }
+        if (offHeapTable != null) {
+            long slot = offHeapTable.acquireExisting(key.hash64());
+            if (slot == OffHeapStateTable.NO_SLOT) {
+                return;
+            }
+            try {
+                double used = Double.longBitsToDouble(offHeapTable.get(slot, 0));
+                offHeapTable.set(slot, 0, Double.doubleToRawLongBits(Math.max(0, used - permits)));
+            } finally {
+                offHeapTable.release(slot);
+            }
+            return;
+        }
+
+        Bucket bucket = bucketMap.get(key);
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (!bucket.retired) {
+                bucket.tokens = Math.min(bucketCapacity, bucket.tokens + permits);
+            }
+        }
+    }
+
+    /**
+     * Giống BƯỚC 1-4 ở trên, nhưng xô là bản ghi off-heap:
+     * acquire/release thay cho synchronized, không có retired
+     * (bảng tự tái sử dụng bản ghi fresh). release trả false (bảng dùng
+     * chung, lock đã bị giành) thì bỏ quyết định và tính lại.
+     */
+    private boolean tryAcquireOffHeap(RateLimitKey key, long permits, long now, RateLimitDecision decision) {
+        while (true) {
+            long slot = offHeapTable.acquire(key.hash64(), now, this::isFreshRecord);
+            boolean allowed;
+            boolean kept;
+            try {
+                double used = Double.longBitsToDouble(offHeapTable.get(slot, 0));
+                long elapsedMillis = now - offHeapTable.get(slot, 1);
+                double tokensToAdd = (elapsedMillis / 1000.0) * refillRate;
+                if (tokensToAdd > 0) {
+                    used = Math.max(0, used - tokensToAdd);
+                    offHeapTable.set(slot, 1, now);
+                }
+
+                allowed = bucketCapacity - used >= permits;
+                if (allowed) {
+                    used += permits;
+                }
+                offHeapTable.set(slot, 0, Double.doubleToRawLongBits(used));
+                if (decision != null) {
+                    fillDecision(decision, allowed, permits, bucketCapacity - used);
+                }
+            } finally {
+                kept = offHeapTable.release(slot);
+            }
+            if (kept) {
+                return allowed;
+            }
+            // Lock bị tiến trình khác giành giữa chừng: bản ghi có thể đã bị ghi đè, tính lại từ đầu
+        }
+    }
+
+    /**
+     * Điền kết quả chi tiết khi vẫn đang giữ lock của xô (tokens là số token
+     * sau quyết định). Token nạp đều refillRate/giây nên thời gian chờ tính
+     * thẳng từ số token còn thiếu.
+     */
+    private void fillDecision(RateLimitDecision decision, boolean allowed, long permits, double tokens) {
+        long resetAfter = (long) Math.ceil((bucketCapacity - tokens) * 1000 / refillRate);
+        long retryAfter = allowed ? 0
+                : permits > bucketCapacity ? RateLimitDecision.NEVER
+                : Math.max(1, (long) Math.ceil((permits - tokens) * 1000 / refillRate));
+        decision.set(allowed, bucketCapacity, (long) tokens, retryAfter, Math.max(0, resetAfter));
+    }
+
+    /**
+     * Bản ghi off-heap fresh khi xô đã nạp lại đầy (token đã dùng về 0).
+     */
+    private boolean isFreshRecord(long slot, long now) {
+        double used = Double.longBitsToDouble(offHeapTable.get(slot, 0));
+        long elapsedMillis = now - offHeapTable.get(slot, 1);
+        return used - (elapsedMillis / 1000.0) * refillRate <= 0;
+    }
+
+    /**
+     * Đánh dấu xô retired nếu sau khi nạp lại nó đã ĐẦY - giống hệt xô mới
+     * tạo cho key lần đầu xuất hiện.
+     * Gọi bởi {@link KeyStateStore} khi dọn dẹp.
+     */
+    private boolean retireIfFresh(Bucket bucket, long now) {
         synchronized (bucket) {
-            // --- Bước 2: Tính số token cần nạp (lazy refill) ---
-            // Thay vì chạy timer background, ta tính số token dựa trên
-            // thời gian đã trôi qua kể từ lần refill cuối
-            //
-            // Ví dụ: refillRate = 2 token/s, đã trôi 3.5 giây
-            //   tokensToAdd = 3.5 × 2 = 7 token
             long elapsedMillis = now - bucket.lastRefillTimestamp;
-            double tokensToAdd = (elapsedMillis / 1000.0) * refillRate;
-
-            // --- Bước 3: Nạp token vào xô ---
-            // Cập nhật số token, nhưng không vượt quá sức chứa (capacity)
-            // Math.min đảm bảo xô không bao giờ tràn
-            if (tokensToAdd > 0) {
-                bucket.tokens = Math.min(bucketCapacity, bucket.tokens + tokensToAdd);
-                bucket.lastRefillTimestamp = now;
+            if (bucket.tokens + (elapsedMillis / 1000.0) * refillRate >= bucketCapacity) {
+                bucket.retired = true;
             }
+            return bucket.retired;
+        }
+    }
+
+    /**
+     * Đánh dấu retired vô điều kiện: key bị loại vì kho đã đủ maxTrackedKeys.
+     */
+    private void retire(Bucket bucket) {
+        synchronized (bucket) {
+            bucket.retired = true;
+        }
+    }
 
-            // --- Bước 4: Kiểm tra và consume token ---
-            if (bucket.tokens >= 1) {
-                // Còn token → lấy 1 token và cho phép request
-                bucket.tokens -= 1;
-                return true;
-            } else {
-                // Hết token → từ chối request
-                return false;
+    /**
+     * Xô cho key lần đầu xuất hiện: xô đã lưu trong snapshot nếu có, ngược
+     * lại xô đầy. Mốc nạp không được sau now (đồng hồ lần chạy trước có thể
+     * lệch chút ít so với lần này), để xô vẫn nạp tiếp ngay.
+     */
+    private Bucket newBucket(RateLimitKey key, long now) {
+        StateSnapshot snapshot = restoredSnapshot;
+        long[] fields = snapshot == null ? null : snapshot.take(key);
+        if (fields == null) {
+            return new Bucket(bucketCapacity, now);
+        }
+        Bucket bucket = new Bucket(bucketCapacity, Math.min(fields[1], now));
+        bucket.tokens = Math.min(bucketCapacity, Double.longBitsToDouble(fields[0]));
+        return bucket;
+    }
+
+    /**
+     * field 0 = số token còn lại (bit của double, giữ nguyên từng bit khi
+     * khôi phục), field 1 = lastRefillTimestamp.
+     */
+    @Override
+    public void forEachState(long now, StateVisitor visitor) throws IOException {
+        requireOnHeap();
+        long[] fields = new long[2];
+        for (Map.Entry<RateLimitKey, Bucket> entry : bucketMap.entries()) {
+            Bucket bucket = entry.getValue();
+            synchronized (bucket) {
+                if (bucket.retired) {
+                    continue;
+                }
+                fields[0] = Double.doubleToRawLongBits(bucket.tokens);
+                fields[1] = bucket.lastRefillTimestamp;
+            }
+            if (!isFreshState(fields, now)) {
+                visitor.visit(entry.getKey(), fields);
             }
         }
     }
 
     /**
-     * Lấy thời gian hiện tại (milliseconds).
-     * Override trong test để kiểm soát thời gian (kỹ thuật "Seam").
-     *
-     * @return thời gian hiện tại tính bằng milliseconds kể từ Unix epoch
+     * Xô đã nạp lại đầy, cùng điều kiện với {@link #retireIfFresh}.
+     */
+    @Override
+    public boolean isFreshState(long[] fields, long now) {
+        double tokens = Double.longBitsToDouble(fields[0]);
+        return tokens + ((now - fields[1]) / 1000.0) * refillRate >= bucketCapacity;
+    }
+
+    @Override
+    public String snapshotFormat() {
+        return "token-bucket/1";
+    }
+
+    @Override
+    public int snapshotStateWidth() {
+        return 2;
+    }
+
+    @Override
+    public void restoreFrom(StateSnapshot snapshot) {
+        requireOnHeap();
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot không được null");
+        }
+        snapshot.requireFormat(snapshotFormat(), snapshotStateWidth());
+        if (bucketMap.size() > 0) {
+            throw new IllegalStateException("restoreFrom phải được gọi trước request đầu tiên");
+        }
+        restoredSnapshot = snapshot;
+    }
+
+    @Override
+    public StateSnapshot restoredSnapshot() {
+        return restoredSnapshot;
+    }
+
+    private void requireOnHeap() {
+        if (offHeapTable != null) {
+            throw new IllegalStateException("Snapshot chỉ hỗ trợ limiter lưu state trên heap");
+        }
+    }
+
+    /**
+     * Số key đang được theo dõi (dùng trong test).
      */
-    protected long getCurrentTimeMillis() {
-        return System.currentTimeMillis();
+    long trackedKeyCount() {
+        return offHeapTable != null ? offHeapTable.size() : bucketMap.size();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
     }
 
     /**
@@ -223,6 +579,9 @@ public class TokenBucketRateLimiter implements RateLimiter {
         /** Thời điểm nạp token lần cuối (milliseconds) */
         long lastRefillTimestamp;
 
+        /** true khi xô đã bị loại khỏi map, không được sửa nữa */
+        boolean retired;
+
         Bucket(long initialTokens, long timestamp) {
             this.tokens = initialTokens;
             this.lastRefillTimestamp = timestamp;
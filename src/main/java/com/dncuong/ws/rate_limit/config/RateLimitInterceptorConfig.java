@@ -0,0 +1,37 @@
+package com.dncuong.ws.rate_limit.config;
+
+import com.dncuong.ws.rate_limit.filter.RateLimitInterceptor;
+import com.dncuong.ws.rate_limit.filter.RateLimited;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+/**
+ * Đăng ký {@link RateLimitInterceptor} cho mọi handler có {@link RateLimited}.
+ *
+ * Bảng policy được dựng sau khi mọi singleton đã tạo xong (trước khi server
+ * nhận request). Không inject handler mapping thẳng vào interceptor: handler
+ * mapping được tạo CÙNG với danh sách interceptor → vòng phụ thuộc.
+ *
+ * @author dncuong
+ */
+@Configuration
+public class RateLimitInterceptorConfig implements WebMvcConfigurer {
+
+    private final RateLimitInterceptor rateLimitInterceptor = new RateLimitInterceptor();
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(rateLimitInterceptor);
+    }
+
+    @Bean
+    public SmartInitializingSingleton rateLimitPolicyCompiler(
+            @Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping handlerMapping) {
+        return () -> rateLimitInterceptor.compile(handlerMapping.getHandlerMethods().values());
+    }
+}
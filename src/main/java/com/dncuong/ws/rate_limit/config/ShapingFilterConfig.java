@@ -0,0 +1,48 @@
+package com.dncuong.ws.rate_limit.config;
+
+import com.dncuong.ws.rate_limit.algorithm.leakybucket.LeakyBucketShaper;
+import com.dncuong.ws.rate_limit.filter.ShapingFilter;
+import jakarta.servlet.DispatcherType;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Đăng ký {@link ShapingFilter} cho endpoint demo Leaky Bucket.
+ *
+ * Cấu hình mặc định:
+ * - Tốc độ xử lý: 1 request/giây cho mỗi IP
+ * - Thời gian chờ tối đa: 5 giây (request thứ 7 gửi liên tiếp bị 429)
+ *
+ * @author dncuong
+ */
+@Configuration
+public class ShapingFilterConfig {
+
+    /**
+     * Một thread daemon đủ cho việc hẹn giờ: task chỉ gọi AsyncContext.dispatch(),
+     * phần xử lý request chạy trên thread của container.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService shapingScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-shaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Bean
+    public FilterRegistrationBean<ShapingFilter> shapingFilter(ScheduledExecutorService shapingScheduler) {
+        LeakyBucketShaper shaper = new LeakyBucketShaper(1.0, 5_000);
+        FilterRegistrationBean<ShapingFilter> registration =
+                new FilterRegistrationBean<>(new ShapingFilter(shaper, shapingScheduler));
+        registration.addUrlPatterns("/api/leaky-bucket/*");
+        // Lượt ASYNC là lượt request được xử lý sau khi chờ
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        return registration;
+    }
+}
@@ -0,0 +1,45 @@
+package com.dncuong.ws.rate_limit.controller;
+
+import com.dncuong.ws.rate_limit.filter.RateLimited;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Controller demo cho rate limit khai báo bằng {@link RateLimited}.
+ *
+ * Controller không tự tạo limiter: {@link com.dncuong.ws.rate_limit.filter.RateLimitInterceptor}
+ * (đăng ký trong {@link com.dncuong.ws.rate_limit.config.RateLimitInterceptorConfig})
+ * đã trả 429 trước khi vào đây nếu client vượt giới hạn.
+ *
+ * Cấu hình (Token Bucket, giống TokenBucketDemoController):
+ * - Burst tối đa 5 request, nạp lại 5 request mỗi 5 giây (1 request/giây)
+ * - Mọi response đều có header X-RateLimit-Limit / Remaining / Reset
+ *
+ * @author dncuong
+ */
+@RestController
+@RequestMapping("/api/annotated")
+public class AnnotatedDemoController {
+
+    /**
+     * Endpoint demo: GET /api/annotated/test
+     *
+     * @param request HttpServletRequest để lấy thông tin IP của client
+     * @return ResponseEntity 200 OK (request bị từ chối đã được interceptor trả 429)
+     */
+    @GetMapping("/test")
+    @RateLimited(limit = 5, periodMillis = 5_000)
+    public ResponseEntity<Map<String, Object>> testRateLimit(HttpServletRequest request) {
+        return ResponseEntity.ok(Map.of(
+                "status", "SUCCESS",
+                "message", "Request duoc chap nhan!",
+                "algorithm", "Token Bucket (@RateLimited)",
+                "clientIp", request.getRemoteAddr()
+        ));
+    }
+}
@@ -0,0 +1,44 @@
+package com.dncuong.ws.rate_limit.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Controller demo cho Leaky Bucket Shaper (hoãn request thay vì từ chối).
+ *
+ * Controller không tự gọi rate limiter: {@link com.dncuong.ws.rate_limit.filter.ShapingFilter}
+ * (đăng ký trong {@link com.dncuong.ws.rate_limit.config.ShapingFilterConfig})
+ * đã hoãn request tới đúng lượt trước khi vào đây.
+ *
+ * Hành vi (1 request/giây, chờ tối đa 5 giây):
+ * - Gửi 6 request cùng lúc → cả 6 đều OK, lần lượt sau 0, 1, 2, 3, 4, 5 giây
+ * - Request thứ 7 → HTTP 429 ngay (hàng đợi đã đầy)
+ * - Trong lúc chờ không có thread nào của server bị giữ
+ *
+ * @author dncuong
+ */
+@RestController
+@RequestMapping("/api/leaky-bucket")
+public class LeakyBucketDemoController {
+
+    /**
+     * Endpoint demo: GET /api/leaky-bucket/test
+     *
+     * @param request HttpServletRequest để lấy thông tin IP của client
+     * @return ResponseEntity 200 OK (request bị từ chối đã được filter trả 429)
+     */
+    @GetMapping("/test")
+    public ResponseEntity<Map<String, Object>> testRateLimit(HttpServletRequest request) {
+        return ResponseEntity.ok(Map.of(
+                "status", "SUCCESS",
+                "message", "Request duoc xu ly sau khi xep hang!",
+                "algorithm", "Leaky Bucket",
+                "clientIp", request.getRemoteAddr()
+        ));
+    }
+}
@@ -1,7 +1,9 @@
 package com.dncuong.ws.rate_limit.controller;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
 import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
 import com.dncuong.ws.rate_limit.algorithm.slidingwindowlog.SlidingWindowLogRateLimiter;
+import com.dncuong.ws.rate_limit.filter.ClientKeys;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -19,6 +21,7 @@ import java.util.Map;
  * Cấu hình mặc định:
  * - Tối đa 5 requests mỗi 10 giây cho mỗi IP
  * - Khi vượt giới hạn → trả về HTTP 429 (Too Many Requests)
+ * - Mọi response đều có header X-RateLimit-Limit / Remaining / Reset
  *
  * So sánh với FixedWindowDemoController:
  * - Cùng giới hạn (5 req / 10s) nhưng dùng thuật toán khác
@@ -41,14 +44,22 @@ public class SlidingWindowLogDemoController {
      */
     private final RateLimiter rateLimiter = new SlidingWindowLogRateLimiter(5, 10_000);
 
+    /**
+     * Holder kết quả, mỗi thread phục vụ request dùng lại một holder
+     * → không cấp phát object kết quả cho mỗi request.
+     */
+    private final ThreadLocal<RateLimitDecision> decisionHolder = ThreadLocal.withInitial(RateLimitDecision::new);
+
     /**
      * Endpoint demo: GET /api/sliding-window-log/test
      *
      * Luồng xử lý:
      * 1. Lấy IP address của client làm key để rate limit
-     * 2. Gọi rateLimiter.allowRequest(ip) để kiểm tra
+     * 2. Gọi rateLimiter.tryAcquire(ClientKeys.of(request), 1, decision) để kiểm tra
+     *    (key theo IP, tạo một lần cho cả request); limiter điền
+     *    limit / remaining / reset / retry-after ngay trong lúc quyết định
      * 3. Nếu được phép → trả về 200 OK với thông báo thành công
-     * 4. Nếu bị từ chối → trả về 429 Too Many Requests
+     * 4. Nếu bị từ chối → trả về 429 Too Many Requests, Retry-After lấy từ decision
      *
      * @param request HttpServletRequest để lấy thông tin IP của client
      * @return ResponseEntity chứa kết quả (200 OK hoặc 429 Too Many Requests)
@@ -59,20 +70,28 @@ public class SlidingWindowLogDemoController {
         String clientIp = request.getRemoteAddr();
 
         // Hỏi rate limiter: request này có được phép không?
-        boolean allowed = rateLimiter.allowRequest(clientIp);
+        RateLimitDecision decision = decisionHolder.get();
+        boolean allowed = rateLimiter.tryAcquire(ClientKeys.of(request), 1, decision);
 
         if (allowed) {
             // === REQUEST ĐƯỢC PHÉP ===
-            return ResponseEntity.ok(Map.of(
-                    "status", "SUCCESS",
-                    "message", "Request duoc chap nhan!",
-                    "algorithm", "Sliding Window Log",
-                    "clientIp", clientIp
-            ));
+            return ResponseEntity.ok()
+                    .header("X-RateLimit-Limit", Long.toString(decision.getLimit()))
+                    .header("X-RateLimit-Remaining", Long.toString(decision.getRemaining()))
+                    .header("X-RateLimit-Reset", Long.toString(decision.getResetAfterSeconds()))
+                    .body(Map.of(
+                            "status", "SUCCESS",
+                            "message", "Request duoc chap nhan!",
+                            "algorithm", "Sliding Window Log",
+                            "clientIp", clientIp
+                    ));
         } else {
             // === REQUEST BỊ TỪ CHỐI ===
             return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
-                    .header("Retry-After", "10")
+                    .header("Retry-After", Long.toString(decision.getRetryAfterSeconds()))
+                    .header("X-RateLimit-Limit", Long.toString(decision.getLimit()))
+                    .header("X-RateLimit-Remaining", Long.toString(decision.getRemaining()))
+                    .header("X-RateLimit-Reset", Long.toString(decision.getResetAfterSeconds()))
                     .body(Map.of(
                             "status", "RATE_LIMITED",
                             "message", "Ban da vuot qua gioi han! Toi da 5 requests / 10 giay.",
@@ -1,7 +1,9 @@
 package com.dncuong.ws.rate_limit.controller;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
 import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
 import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import com.dncuong.ws.rate_limit.filter.ClientKeys;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -20,6 +22,7 @@ import java.util.Map;
  * - Sức chứa xô: 5 token (burst tối đa = 5 request)
  * - Tốc độ nạp: 1 token/giây (throughput trung bình = 1 req/s)
  * - Khi hết token → trả về HTTP 429 (Too Many Requests)
+ * - Mọi response đều có header X-RateLimit-Limit / Remaining / Reset
  *
  * So sánh với các controller khác:
  * - Window-based (Fixed, Sliding): giới hạn theo cửa sổ thời gian
@@ -44,6 +47,12 @@ public class TokenBucketDemoController {
      */
     private final RateLimiter rateLimiter = new TokenBucketRateLimiter(5, 1.0);
 
+    /**
+     * Holder kết quả, mỗi thread phục vụ request dùng lại một holder
+     * → không cấp phát object kết quả cho mỗi request.
+     */
+    private final ThreadLocal<RateLimitDecision> decisionHolder = ThreadLocal.withInitial(RateLimitDecision::new);
+
     /**
      * Endpoint demo: GET /api/token-bucket/test
      *
@@ -53,18 +62,26 @@ public class TokenBucketDemoController {
     @GetMapping("/test")
     public ResponseEntity<Map<String, Object>> testRateLimit(HttpServletRequest request) {
         String clientIp = request.getRemoteAddr();
-        boolean allowed = rateLimiter.allowRequest(clientIp);
+        RateLimitDecision decision = decisionHolder.get();
+        boolean allowed = rateLimiter.tryAcquire(ClientKeys.of(request), 1, decision);
 
         if (allowed) {
-            return ResponseEntity.ok(Map.of(
-                    "status", "SUCCESS",
-                    "message", "Request duoc chap nhan!",
-                    "algorithm", "Token Bucket",
-                    "clientIp", clientIp
-            ));
+            return ResponseEntity.ok()
+                    .header("X-RateLimit-Limit", Long.toString(decision.getLimit()))
+                    .header("X-RateLimit-Remaining", Long.toString(decision.getRemaining()))
+                    .header("X-RateLimit-Reset", Long.toString(decision.getResetAfterSeconds()))
+                    .body(Map.of(
+                            "status", "SUCCESS",
+                            "message", "Request duoc chap nhan!",
+                            "algorithm", "Token Bucket",
+                            "clientIp", clientIp
+                    ));
         } else {
             return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
-                    .header("Retry-After", "1")
+                    .header("Retry-After", Long.toString(decision.getRetryAfterSeconds()))
+                    .header("X-RateLimit-Limit", Long.toString(decision.getLimit()))
+                    .header("X-RateLimit-Remaining", Long.toString(decision.getRemaining()))
+                    .header("X-RateLimit-Reset", Long.toString(decision.getResetAfterSeconds()))
                     .body(Map.of(
                             "status", "RATE_LIMITED",
                             "message", "Het token! Doi 1 giay de co token moi.",
@@ -0,0 +1,41 @@
+package com.dncuong.ws.rate_limit.filter;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Key rate limit của client (IP) cho một HTTP request, tạo MỘT lần cho cả request.
+ *
+ * allowRequest(String) tạo một {@link RateLimitKey} mới (và băm lại IP) ở
+ * mỗi lần gọi. Một request có thể đi qua nhiều điểm rate limit
+ * ({@link ShapingFilter}, {@link RateLimitInterceptor}, demo controller) và
+ * nhiều lượt dispatch (lượt ASYNC sau khi ShapingFilter hoãn): điểm đầu tiên
+ * tạo key và gắn vào request dưới dạng attribute, các điểm sau dùng lại
+ * đúng object đó (tra map trên heap so sánh {@code ==} thành công ngay).
+ *
+ * @author dncuong
+ */
+public final class ClientKeys {
+
+    /** Tên attribute giữ key trên request. */
+    static final String ATTRIBUTE = ClientKeys.class.getName() + ".KEY";
+
+    private ClientKeys() {
+    }
+
+    /**
+     * Key của client gửi request: lấy từ attribute nếu đã có, ngược lại tạo
+     * từ IP và gắn vào request.
+     *
+     * @param request request đang xử lý
+     * @return key theo IP của client
+     */
+    public static RateLimitKey of(HttpServletRequest request) {
+        if (request.getAttribute(ATTRIBUTE) instanceof RateLimitKey key) {
+            return key;
+        }
+        RateLimitKey key = RateLimitKey.of(request.getRemoteAddr());
+        request.setAttribute(ATTRIBUTE, key);
+        return key;
+    }
+}
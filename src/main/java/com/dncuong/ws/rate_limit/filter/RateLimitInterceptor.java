@@ -0,0 +1,180 @@
+package com.dncuong.ws.rate_limit.filter;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowlog.SlidingWindowLogRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * =====================================================================
+ * INTERCEPTOR RATE LIMIT THEO ANNOTATION {@link RateLimited}
+ * =====================================================================
+ *
+ * VẤN ĐỀ:
+ * --------
+ * Mỗi demo controller tự tạo limiter và tự gọi tryAcquire: endpoint thật
+ * muốn rate limit phải chép lại cùng đoạn code đó. Còn nếu đọc annotation
+ * của handler ở mỗi request thì mỗi request tốn một lần reflection.
+ *
+ * GIẢI PHÁP: DỊCH ANNOTATION MỘT LẦN THÀNH BẢNG TRA
+ * --------------------------------------------------
+ * Lúc khởi động, {@link #compile} duyệt mọi handler method, đọc
+ * {@link RateLimited}, tạo limiter và ghi vào bảng Method → policy. Bảng
+ * không đổi sau đó.
+ *
+ * Mỗi request chỉ còn:
+ *   1. Một lần tra bảng theo ĐỊNH DANH (IdentityHashMap) của Method - Spring
+ *      giữ nguyên object Method của handler cho mọi request, nên không cần
+ *      equals/hashCode của Method
+ *   2. Một lần gọi limiter
+ * Handler không có annotation: tra bảng rồi đi tiếp, không tốn gì thêm.
+ *
+ * Bị từ chối → trả 429 cùng Retry-After và X-RateLimit-* ngay trong
+ * interceptor, controller không được gọi. Key là IP của client, giống các
+ * demo controller.
+ *
+ * @author dncuong
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    /** Body của response 429, mã hóa sẵn một lần. */
+    private static final byte[] REJECTED_BODY =
+            "{\"status\":\"RATE_LIMITED\",\"message\":\"Ban da vuot qua gioi han!\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Holder kết quả, mỗi thread phục vụ request dùng lại một holder
+     * → không cấp phát object kết quả cho mỗi request.
+     */
+    private final ThreadLocal<RateLimitDecision> decisionHolder = ThreadLocal.withInitial(RateLimitDecision::new);
+
+    /** Handler method → policy; rỗng cho tới khi {@link #compile} chạy. */
+    private volatile Map<Method, Policy> policies = Map.of();
+
+    /**
+     * Dựng bảng policy từ các handler method. Gọi một lần lúc khởi động,
+     * trước khi nhận request.
+     *
+     * @param handlerMethods mọi handler method của ứng dụng
+     * @throws IllegalStateException nếu có {@link RateLimited} không hợp lệ
+     */
+    public void compile(Collection<HandlerMethod> handlerMethods) {
+        Map<Method, Policy> table = new IdentityHashMap<>();
+        // Annotation trên class: mọi method của class dùng chung một policy
+        Map<Class<?>, Policy> classPolicies = new IdentityHashMap<>();
+        for (HandlerMethod handlerMethod : handlerMethods) {
+            Method method = handlerMethod.getMethod();
+            if (table.containsKey(method)) {
+                continue;
+            }
+            RateLimited annotation = AnnotatedElementUtils.findMergedAnnotation(method, RateLimited.class);
+            Policy policy;
+            if (annotation != null) {
+                policy = createPolicy(annotation, method.toString());
+            } else {
+                Class<?> beanType = handlerMethod.getBeanType();
+                RateLimited classAnnotation = AnnotatedElementUtils.findMergedAnnotation(beanType, RateLimited.class);
+                if (classAnnotation == null) {
+                    continue;
+                }
+                policy = classPolicies.computeIfAbsent(beanType,
+                        type -> createPolicy(classAnnotation, type.getName()));
+            }
+            table.put(method, policy);
+        }
+        this.policies = Collections.unmodifiableMap(table);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        Policy policy = policies.get(handlerMethod.getMethod());
+        if (policy == null) {
+            return true;
+        }
+
+        RateLimitDecision decision = decisionHolder.get();
+        RateLimitKey key = ClientKeys.of(request);
+        boolean allowed = policy.limiter.tryAcquire(key, policy.permits, decision);
+        response.setHeader("X-RateLimit-Limit", Long.toString(decision.getLimit()));
+        response.setHeader("X-RateLimit-Remaining", Long.toString(decision.getRemaining()));
+        response.setHeader("X-RateLimit-Reset", Long.toString(decision.getResetAfterSeconds()));
+        if (allowed) {
+            return true;
+        }
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", Long.toString(decision.getRetryAfterSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(REJECTED_BODY.length);
+        response.getOutputStream().write(REJECTED_BODY);
+        return false;
+    }
+
+    /**
+     * @return số handler method có rate limit
+     */
+    public int policyCount() {
+        return policies.size();
+    }
+
+    /**
+     * Tạo limiter theo annotation.
+     *
+     * @param annotation annotation của handler
+     * @param target     method/class mang annotation, để báo lỗi
+     * @throws IllegalStateException nếu cấu hình không hợp lệ
+     */
+    private static Policy createPolicy(RateLimited annotation, String target) {
+        try {
+            RateLimiter limiter = switch (annotation.algorithm()) {
+                case FIXED_WINDOW -> new FixedWindowCounterRateLimiter(annotation.limit(), annotation.periodMillis());
+                case SLIDING_WINDOW_LOG -> new SlidingWindowLogRateLimiter(annotation.limit(), annotation.periodMillis());
+                case SLIDING_WINDOW_COUNTER ->
+                        new SlidingWindowCounterRateLimiter(annotation.limit(), annotation.periodMillis());
+                case TOKEN_BUCKET -> {
+                    if (annotation.periodMillis() <= 0) {
+                        throw new IllegalArgumentException(
+                                "periodMillis phải lớn hơn 0, nhận được: " + annotation.periodMillis());
+                    }
+                    yield new TokenBucketRateLimiter(annotation.limit(),
+                            annotation.limit() * 1000.0 / annotation.periodMillis());
+                }
+            };
+            if (annotation.permits() <= 0 || annotation.permits() > annotation.limit()) {
+                throw new IllegalArgumentException("permits phải nằm trong (0, limit], nhận được: "
+                        + annotation.permits());
+            }
+            return new Policy(limiter, annotation.permits());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("@RateLimited không hợp lệ trên " + target + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Limiter của handler và số permit mỗi request.
+     */
+    private record Policy(RateLimiter limiter, long permits) {
+    }
+}
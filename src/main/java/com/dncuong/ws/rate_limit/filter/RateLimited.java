@@ -0,0 +1,66 @@
+package com.dncuong.ws.rate_limit.filter;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Đánh dấu handler cần rate limit theo IP của client; {@link RateLimitInterceptor}
+ * trả 429 trước khi vào controller.
+ *
+ * - Trên method: method đó có limiter riêng.
+ * - Trên class: mọi handler method của class (không tự gắn annotation) dùng
+ *   CHUNG một limiter, tức quota tính cho cả controller.
+ *
+ * Annotation chỉ được đọc một lần lúc khởi động; cấu hình sai (limit ≤ 0, ...)
+ * làm ứng dụng không khởi động được thay vì lỗi ở request đầu tiên.
+ *
+ * Ví dụ: burst 5 request, nạp lại 1 request/giây
+ * <pre>
+ * &#64;GetMapping("/test")
+ * &#64;RateLimited(limit = 5, periodMillis = 5_000)
+ * public ResponseEntity&lt;...&gt; test() { ... }
+ * </pre>
+ *
+ * @author dncuong
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface RateLimited {
+
+    /**
+     * @return thuật toán của limiter
+     */
+    Algorithm algorithm() default Algorithm.TOKEN_BUCKET;
+
+    /**
+     * Số request tối đa mỗi periodMillis. Với Token Bucket: sức chứa xô,
+     * nạp lại limit token mỗi periodMillis.
+     *
+     * @return số request tối đa
+     */
+    long limit();
+
+    /**
+     * @return độ dài cửa sổ (hoặc chu kỳ nạp lại của Token Bucket), tính bằng millisecond
+     */
+    long periodMillis() default 1_000;
+
+    /**
+     * @return số permit mỗi request tiêu tốn (endpoint nặng tốn nhiều hơn)
+     */
+    long permits() default 1;
+
+    /**
+     * Thuật toán dùng cho limiter của handler.
+     */
+    enum Algorithm {
+        FIXED_WINDOW,
+        SLIDING_WINDOW_LOG,
+        SLIDING_WINDOW_COUNTER,
+        TOKEN_BUCKET
+    }
+}
@@ -0,0 +1,185 @@
+package com.dncuong.ws.rate_limit.filter;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.leakybucket.LeakyBucketShaper;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Filter hoãn request theo {@link LeakyBucketShaper} thay vì trả 429 ngay.
+ *
+ * LUỒNG XỬ LÝ:
+ * - delay = 0        → cho request đi tiếp ngay
+ * - delay > 0        → request.startAsync(), trả thread về container, hẹn
+ *                      scheduler gọi AsyncContext.dispatch() sau delay;
+ *                      container chạy lại chuỗi filter với DispatcherType.ASYNC
+ *                      và filter này bỏ qua lượt đó (OncePerRequestFilter)
+ * - REJECTED         → HTTP 429 (hàng đợi của client đã dài quá maxDelay)
+ * - Huỷ trước khi dispatch (timeout, lỗi kết nối) → trả chỗ trong hàng đợi
+ *                      ({@link LeakyBucketShaper#cancel}); request đã dispatch
+ *                      thì giữ chỗ dù lỗi sau đó
+ *
+ * Trong lúc chờ KHÔNG có thread nào bị giữ: hàng nghìn request đang xếp hàng
+ * chỉ tốn một task trong scheduler và một AsyncContext.
+ *
+ * Nên đặt filter này SAU các filter khác (thứ tự mặc định): các filter của
+ * Spring đã chạy ở lượt REQUEST và bỏ qua lượt ASYNC, nên request sau khi
+ * chờ vẫn đi qua chúng đúng một lần.
+ *
+ * Key là IP của client, giống các demo controller.
+ *
+ * @author dncuong
+ */
+public class ShapingFilter extends OncePerRequestFilter {
+
+    /**
+     * Thời gian dư cho timeout của AsyncContext so với delay: scheduler có
+     * thể dispatch trễ một chút khi bận.
+     */
+    static final long DISPATCH_GRACE_MILLIS = 1_000;
+
+    private final LeakyBucketShaper shaper;
+
+    /** Thread hẹn giờ dispatch các request đang chờ. */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param shaper    shaper quyết định thời gian chờ
+     * @param scheduler scheduler hẹn giờ dispatch (do caller quản lý vòng đời)
+     * @throws IllegalArgumentException nếu tham số null
+     */
+    public ShapingFilter(LeakyBucketShaper shaper, ScheduledExecutorService scheduler) {
+        if (shaper == null) {
+            throw new IllegalArgumentException("shaper không được null");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler không được null");
+        }
+        this.shaper = shaper;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        RateLimitKey key = ClientKeys.of(request);
+        long now = shaper.currentTimeNanos();
+        long delayNanos = shaper.reserve(key, 1, now);
+
+        if (delayNanos == LeakyBucketShaper.REJECTED) {
+            reject(response);
+            return;
+        }
+        if (delayNanos == 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (!request.isAsyncSupported()) {
+            // Không chờ được mà không giữ thread → trả chỗ lại và từ chối
+            shaper.cancel(key, 1, now, delayNanos);
+            reject(response);
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(TimeUnit.NANOSECONDS.toMillis(delayNanos) + DISPATCH_GRACE_MILLIS);
+        PendingDispatch pending = new PendingDispatch(asyncContext, key, now, delayNanos);
+        asyncContext.addListener(pending);
+        try {
+            scheduler.schedule(pending, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Scheduler đã tắt (ứng dụng đang dừng)
+            if (pending.abort()) {
+                response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private void reject(HttpServletResponse response) {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(
+                Math.max(1, TimeUnit.MILLISECONDS.toSeconds(shaper.getMaxDelayMillis()))));
+    }
+
+    /**
+     * Một request đang chờ: scheduler gọi {@link #run()} để dispatch; nếu
+     * request bị huỷ trước đó (client ngắt kết nối, timeout) thì trả chỗ
+     * trong hàng đợi.
+     *
+     * Dispatch và huỷ loại trừ nhau qua một CAS: request đã dispatch thì
+     * đang được xử lý, lỗi sau đó (onError) không được trả chỗ của nó, nếu
+     * không request kế tiếp sẽ chạy chồng lên nó. Ngược lại request đã huỷ
+     * thì không dispatch nữa.
+     */
+    private final class PendingDispatch implements AsyncListener, Runnable {
+        /** true khi request đã dispatch hoặc đã huỷ. */
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private final AsyncContext asyncContext;
+        private final RateLimitKey key;
+        private final long reservedAtNanos;
+        private final long delayNanos;
+
+        PendingDispatch(AsyncContext asyncContext, RateLimitKey key, long reservedAtNanos, long delayNanos) {
+            this.asyncContext = asyncContext;
+            this.key = key;
+            this.reservedAtNanos = reservedAtNanos;
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public void run() {
+            if (settled.compareAndSet(false, true)) {
+                asyncContext.dispatch();
+            }
+        }
+
+        /**
+         * Huỷ request chưa dispatch và trả chỗ của nó.
+         *
+         * @return false nếu request đã dispatch (hoặc đã huỷ) trước đó
+         */
+        boolean abort() {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
+            }
+            shaper.cancel(key, 1, reservedAtNanos, delayNanos);
+            return true;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (abort()) {
+                ((HttpServletResponse) event.getSuppliedResponse())
+                        .setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                event.getAsyncContext().complete();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            abort();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.timer.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO ASYNC RATE LIMITER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Có permit ngay → future đã hoàn thành với true
+ * 2. Hết permit → future hoàn thành khi permit có lại, không sớm hơn
+ * 3. Chờ lâu hơn maxWait hoặc lô lớn hơn giới hạn → false ngay
+ * 4. Nhiều waiter trên một key: đúng số permit được cấp qua các cửa sổ
+ * 5. Huỷ future huỷ lần hẹn trên timer
+ *
+ * @author dncuong
+ */
+class AsyncRateLimiterTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(1, 64);
+
+    @AfterEach
+    void close() {
+        timer.close();
+    }
+
+    // =====================================================================
+    // TEST 1-2: Có ngay và chờ tới khi có
+    // =====================================================================
+
+    @Test
+    @DisplayName("Co permit ngay → da hoan thanh, het permit → hoan thanh khi nap lai")
+    void acquireAsync_shouldCompleteWhenPermitAvailable() throws Exception {
+        // 20 token/s → 1 token mỗi 50ms
+        AsyncRateLimiter async = new AsyncRateLimiter(new TokenBucketRateLimiter(1, 20.0), timer);
+
+        CompletableFuture<Boolean> first = async.acquireAsync("svc", Duration.ofSeconds(1));
+        assertTrue(first.isDone(), "TEST 1: hoan thanh ngay tren thread goi");
+        assertTrue(first.get());
+
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> second = async.acquireAsync("svc", Duration.ofSeconds(1));
+        assertFalse(second.isDone(), "TEST 2: phai cho token moi");
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        long waited = System.nanoTime() - start;
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(40), "Cho " + waited + " ns");
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    // =====================================================================
+    // TEST 3: Không thể có trong maxWait
+    // =====================================================================
+
+    @Test
+    @DisplayName("Retry-after vuot maxWait hoac lo khong bao gio duoc cap → false ngay")
+    void acquireAsync_beyondMaxWait_shouldFailFast() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        AsyncRateLimiter async = new AsyncRateLimiter(new FixedWindowCounterRateLimiter(2, 60_000, clock), timer);
+        RateLimitKey key = RateLimitKey.of("svc");
+
+        assertTrue(async.acquireAsync(key, 2, Duration.ZERO).get());
+
+        CompletableFuture<Boolean> tooLong = async.acquireAsync(key, 1, Duration.ofSeconds(30));
+        assertTrue(tooLong.isDone(), "Cua so reset sau 60s > 30s: khong cho vo ich");
+        assertFalse(tooLong.get());
+
+        CompletableFuture<Boolean> never = async.acquireAsync(key, 3, Duration.ofDays(1));
+        assertTrue(never.isDone());
+        assertFalse(never.get(), "Lo lon hon maxRequests khong bao gio duoc cap");
+        assertEquals(0, timer.pendingTimeouts());
+
+        assertThrows(IllegalArgumentException.class, () -> async.acquireAsync("svc", Duration.ofMillis(-1)));
+        assertThrows(IllegalArgumentException.class, () -> async.acquireAsync(key, 0, Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> new AsyncRateLimiter(null, timer));
+    }
+
+    // =====================================================================
+    // TEST 4: Nhiều waiter
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu waiter cung key: moi cua so cap dung maxRequests, khong ai vuot gioi han")
+    void acquireAsync_manyWaiters_shouldBeServedAcrossWindows() throws Exception {
+        // 50 request mỗi cửa sổ 100ms, 200 waiter → cần 4 cửa sổ
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(50, 100);
+        AsyncRateLimiter async = new AsyncRateLimiter(limiter, timer);
+
+        List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            waiters.add(async.acquireAsync("shared", Duration.ofSeconds(5)));
+        }
+        CompletableFuture.allOf(waiters.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        for (CompletableFuture<Boolean> waiter : waiters) {
+            assertTrue(waiter.get());
+        }
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    // =====================================================================
+    // TEST 5: Huỷ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Huy future huy lan hen tren timer va khong tieu permit")
+    void acquireAsync_cancel_shouldRemoveTimeout() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(1, 1_000, clock);
+        AsyncRateLimiter async = new AsyncRateLimiter(limiter, timer);
+
+        assertTrue(async.acquireAsync("svc", Duration.ZERO).get());
+        CompletableFuture<Boolean> waiter = async.acquireAsync("svc", Duration.ofSeconds(5));
+        assertEquals(1, timer.pendingTimeouts());
+
+        assertTrue(waiter.cancel(false));
+        assertEquals(0, timer.pendingTimeouts());
+
+        clock.advance(1_000);
+        assertTrue(limiter.allowRequest("svc"), "Waiter da huy khong lay permit cua cua so moi");
+    }
+}
@@ -0,0 +1,174 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+import com.dncuong.ws.rate_limit.algorithm.bucketedslidingwindow.BucketedSlidingWindowRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.LockFreeFixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowlog.SlidingWindowLogRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.LockFreeTokenBucketRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO RATE LIMIT BATCH
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Nhiều key trên một limiter: key lặp lại thấy quota của lần trước
+ * 2. Cặp (limiter, key) độc lập: cặp bị từ chối không trả lại cặp khác
+ * 3. allowAll: bị từ chối ở cặp cuối → không limiter nào bị trừ quota (mọi thuật toán)
+ * 4. Mỗi limiter chỉ đọc đồng hồ một lần cho cả lượt
+ * 5. Tham số không hợp lệ → throw exception
+ *
+ * KỸ THUẬT TEST:
+ * - Limiter có đồng hồ đứng yên (ManualClock không được tua) để
+ *   không cửa sổ nào trôi qua giữa lúc cấp và lúc kiểm tra
+ *
+ * @author dncuong
+ */
+class RateLimitBatchTest {
+
+    private static final long NOW = 1_000_000;
+
+    /** Mọi thuật toán (kể cả bản off-heap), giới hạn 2 request, đồng hồ đứng yên tại NOW. */
+    private static RateLimiter[] allLimiters() {
+        RateLimitClock clock = new ManualClock(NOW);
+        return new RateLimiter[]{
+                new FixedWindowCounterRateLimiter(2, 1000, clock),
+                new FixedWindowCounterRateLimiter(2, 1000, new OffHeapStateTable(100), clock),
+                new LockFreeFixedWindowCounterRateLimiter(2, 1000, clock),
+                new SlidingWindowCounterRateLimiter(2, 1000, clock),
+                new SlidingWindowCounterRateLimiter(2, 1000, new OffHeapStateTable(100), clock),
+                new SlidingWindowLogRateLimiter(2, 1000, clock),
+                new BucketedSlidingWindowRateLimiter(2, 1000, 10, clock),
+                new TokenBucketRateLimiter(2, 1.0, clock),
+                new TokenBucketRateLimiter(2, 1.0, new OffHeapStateTable(100), clock),
+                new LockFreeTokenBucketRateLimiter(2, 1.0, clock),
+        };
+    }
+
+    // =====================================================================
+    // TEST 1: Nhiều key trên một limiter
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu key tren mot limiter: key lap lai thay quota cua lan truoc")
+    void allowRequests_singleLimiter_shouldDecideInOrder() {
+        RateLimiter limiter = new FixedWindowCounterRateLimiter(2, 60_000);
+        RateLimitKey a = RateLimitKey.of("a");
+        RateLimitKey b = RateLimitKey.of("b");
+
+        boolean[] decisions = RateLimitBatch.allowRequests(limiter, new RateLimitKey[]{a, a, b, a});
+
+        assertArrayEquals(new boolean[]{true, true, true, false}, decisions);
+        assertTrue(limiter.allowRequest(b), "b moi dung 1/2 quota");
+    }
+
+    // =====================================================================
+    // TEST 2: Cặp (limiter, key) độc lập
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cap (limiter, key) doc lap: cap bi tu choi khong tra lai cap khac")
+    void allowRequests_pairs_shouldDecideIndependently() {
+        RateLimiter perIp = new FixedWindowCounterRateLimiter(5, 60_000);
+        RateLimiter perRoute = new FixedWindowCounterRateLimiter(1, 60_000);
+        RateLimitKey ip = RateLimitKey.of(0x0A000001L);
+        RateLimitKey route = RateLimitKey.of("/upload");
+        perRoute.allowRequest(route);
+
+        boolean[] decisions = RateLimitBatch.allowRequests(
+                new RateLimiter[]{perIp, perRoute}, new RateLimitKey[]{ip, route});
+
+        assertArrayEquals(new boolean[]{true, false}, decisions);
+        assertTrue(perIp.tryAcquire(ip, 4));
+        assertFalse(perIp.allowRequest(ip), "Cap theo IP van bi tru du route bi tu choi");
+    }
+
+    // =====================================================================
+    // TEST 3: allowAll - tất cả hoặc không
+    // =====================================================================
+
+    @Test
+    @DisplayName("allowAll bi tu choi o cap cuoi: khong limiter nao bi tru quota")
+    void allowAll_lastPairRejected_shouldRefundEarlierPairs() {
+        RateLimiter blocker = new FixedWindowCounterRateLimiter(1, 60_000);
+        RateLimitKey blocked = RateLimitKey.of("blocked");
+        blocker.allowRequest(blocked);
+
+        for (RateLimiter limiter : allLimiters()) {
+            String name = limiter.getClass().getSimpleName();
+            RateLimitKey key = RateLimitKey.of("user");
+
+            // Cùng key hai lần trên limiter + cặp cuối bị từ chối → trả lại cả hai
+            assertFalse(RateLimitBatch.allowAll(
+                    new RateLimiter[]{limiter, limiter, blocker},
+                    new RateLimitKey[]{key, key, blocked}), name);
+            assertTrue(limiter.tryAcquire(key, 2), name + ": quota phai con nguyen");
+            assertFalse(limiter.allowRequest(key), name);
+
+            // Refund không bao giờ cho nhiều hơn giới hạn
+            RateLimitKey fresh = RateLimitKey.of("fresh");
+            limiter.refund(fresh, 5, NOW);
+            assertFalse(limiter.tryAcquire(fresh, 3), name + ": refund khong duoc noi rong gioi han");
+
+            // Mọi cặp được cho phép → giữ nguyên phần đã cấp
+            RateLimitKey other = RateLimitKey.of("other");
+            assertTrue(RateLimitBatch.allowAll(
+                    new RateLimiter[]{limiter, limiter}, new RateLimitKey[]{other, other}), name);
+            assertFalse(limiter.allowRequest(other), name);
+        }
+    }
+
+    // =====================================================================
+    // TEST 4: Đồng hồ đọc một lần cho mỗi limiter
+    // =====================================================================
+
+    @Test
+    @DisplayName("Moi limiter chi doc dong ho mot lan cho ca luot")
+    void allowRequests_shouldReadEachClockOnce() {
+        AtomicInteger clockReads = new AtomicInteger();
+        RateLimiter counted = new FixedWindowCounterRateLimiter(10, 1000, () -> {
+            clockReads.incrementAndGet();
+            return NOW;
+        });
+        RateLimiter other = new FixedWindowCounterRateLimiter(10, 60_000);
+        RateLimitKey key = RateLimitKey.of(1L);
+
+        RateLimitBatch.allowRequests(counted, new RateLimitKey[]{key, key, key});
+        assertEquals(1, clockReads.get());
+
+        RateLimitBatch.allowAll(
+                new RateLimiter[]{counted, other, counted, counted},
+                new RateLimitKey[]{key, key, key, key});
+        assertEquals(2, clockReads.get());
+    }
+
+    // =====================================================================
+    // TEST 5: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void allowRequests_invalidArguments_shouldThrow() {
+        RateLimiter limiter = new FixedWindowCounterRateLimiter(1, 1000);
+        RateLimitKey key = RateLimitKey.of(1L);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> RateLimitBatch.allowRequests((RateLimiter) null, new RateLimitKey[]{key}));
+        assertThrows(IllegalArgumentException.class,
+                () -> RateLimitBatch.allowRequests(new RateLimiter[]{limiter}, new RateLimitKey[]{key, key}));
+        assertThrows(IllegalArgumentException.class,
+                () -> RateLimitBatch.allowAll(new RateLimiter[]{null}, new RateLimitKey[]{key}));
+        assertThrows(IllegalArgumentException.class, () -> limiter.refund(key, 0, 0));
+    }
+}
@@ -0,0 +1,172 @@
+package com.dncuong.ws.rate_limit.algorithm;
+
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO RATE LIMIT KEY
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Cùng loại, cùng giá trị → bằng nhau; khác loại → luôn khác nhau
+ * 2. Key nhị phân được sao chép: caller dùng lại buffer không ảnh hưởng key
+ * 3. Tham số không hợp lệ → throw exception
+ * 4. Limiter: overload long / byte[] / String / handle dùng lại cho cùng quyết định
+ * 5. writeTo / readFrom giữ nguyên loại và giá trị; độ dài key giả → IOException
+ *
+ * @author dncuong
+ */
+class RateLimitKeyTest {
+
+    // =====================================================================
+    // TEST 1: equals / hashCode
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cung loai cung gia tri thi bang nhau, khac loai luon khac nhau")
+    void equals_shouldCompareKindAndValue() {
+        assertEquals(RateLimitKey.of(42L), RateLimitKey.of(42L));
+        assertEquals(RateLimitKey.of(42L).hashCode(), RateLimitKey.of(42L).hashCode());
+        assertEquals(RateLimitKey.of(42L).hash64(), RateLimitKey.of(42L).hash64());
+        assertEquals(RateLimitKey.of("10.0.0.1"), RateLimitKey.of("10.0.0.1"));
+        assertEquals(RateLimitKey.of("10.0.0.1").hash64(), RateLimitKey.of("10.0.0.1").hash64());
+        assertEquals(RateLimitKey.of(new byte[]{1, 2, 3}, 0, 3), RateLimitKey.of(new byte[]{9, 1, 2, 3}, 1, 3));
+
+        assertNotEquals(RateLimitKey.of(42L), RateLimitKey.of(43L));
+        assertNotEquals(RateLimitKey.of(5L), RateLimitKey.of("5"));
+        assertNotEquals(RateLimitKey.of(5L), RateLimitKey.of(new byte[]{5}, 0, 1));
+        assertNotEquals(RateLimitKey.of("5"), RateLimitKey.of(new byte[]{'5'}, 0, 1));
+
+        // Dạng chuỗi giữ loại: khác loại thì khác nhau dù toString trùng
+        assertEquals("n:5", RateLimitKey.of(5L).toTypedString());
+        assertEquals("s:5", RateLimitKey.of("5").toTypedString());
+        assertEquals("b:05", RateLimitKey.of(new byte[]{5}, 0, 1).toTypedString());
+        assertEquals("s:0x05", RateLimitKey.of("0x05").toTypedString());
+    }
+
+    // =====================================================================
+    // TEST 2: Key nhị phân được sao chép
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhi phan duoc sao chep, caller duoc dung lai buffer")
+    void of_bytes_shouldCopyBuffer() {
+        byte[] buffer = {10, 0, 0, 1};
+        RateLimitKey key = RateLimitKey.of(buffer, 0, buffer.length);
+
+        buffer[3] = 2;
+
+        assertEquals(RateLimitKey.of(new byte[]{10, 0, 0, 1}, 0, 4), key);
+        assertNotEquals(RateLimitKey.of(buffer, 0, buffer.length), key);
+    }
+
+    // =====================================================================
+    // TEST 3: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void of_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> RateLimitKey.of((String) null));
+        assertThrows(IllegalArgumentException.class, () -> RateLimitKey.of(null, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> RateLimitKey.of(new byte[4], -1, 2));
+        assertThrows(IllegalArgumentException.class, () -> RateLimitKey.of(new byte[4], 2, 3));
+        assertThrows(IllegalArgumentException.class, () -> RateLimitKey.of(new byte[4], 0, -1));
+    }
+
+    // =====================================================================
+    // TEST 4: Dùng qua RateLimiter
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cac overload cua allowRequest dung chung quota cua cung mot key")
+    void allowRequest_overloads_shouldShareQuotaOfSameKey() {
+        RateLimiter limiter = new FixedWindowCounterRateLimiter(3, 60_000);
+        int ipv4 = (10 << 24) | 1;
+        byte[] header = {'x', '-', 'k', 'e', 'y', ':', 'a', 'b', 'c'};
+
+        // Handle giữ lâu dài (ví dụ gắn với connection) và overload long là cùng một key
+        RateLimitKey handle = RateLimitKey.of(ipv4);
+        assertTrue(limiter.allowRequest(handle));
+        assertTrue(limiter.allowRequest(ipv4));
+        assertTrue(limiter.allowRequest(handle));
+        assertFalse(limiter.allowRequest(ipv4), "Request thu 4 cua cung IP phai bi chan");
+
+        // Key nhị phân đọc thẳng từ buffer, không tạo String
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest(header, 6, 3));
+        }
+        assertFalse(limiter.allowRequest(header, 6, 3));
+
+        // Chuỗi "10.0.0.1" là key khác với IPv4 dạng số
+        assertTrue(limiter.allowRequest("10.0.0.1"));
+    }
+
+    // =====================================================================
+    // TEST 5: Dạng nhị phân
+    // =====================================================================
+
+    @Test
+    @DisplayName("writeTo / readFrom giu nguyen loai va gia tri")
+    void writeTo_readFrom_shouldRoundTrip() throws IOException {
+        RateLimitKey[] keys = {
+                RateLimitKey.of(-7L), RateLimitKey.of("10.0.0.1"), RateLimitKey.of("người dùng"),
+                RateLimitKey.of(new byte[]{(byte) 0xFE, 0, 1}, 0, 3), RateLimitKey.of(""), RateLimitKey.of("5")
+        };
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (RateLimitKey key : keys) {
+            key.writeTo(out);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        for (RateLimitKey key : keys) {
+            RateLimitKey read = RateLimitKey.readFrom(in);
+            assertEquals(key, read);
+            assertEquals(key.hash64(), read.hash64());
+        }
+        assertEquals(0, in.available());
+
+        DataInputStream invalid = new DataInputStream(new ByteArrayInputStream(new byte[]{9}));
+        assertThrows(IOException.class, () -> RateLimitKey.readFrom(invalid));
+    }
+
+    @Test
+    @DisplayName("Do dai key vuot MAX_SERIALIZED_LENGTH → IOException, khong cap phat theo do dai gia")
+    void readFrom_bogusLength_shouldThrow() throws IOException {
+        // Loại chuỗi + độ dài Integer.MAX_VALUE, không có nội dung: không được cấp phát 2 GB
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(2);
+        out.writeInt(Integer.MAX_VALUE);
+        DataInputStream bogus = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        IOException e = assertThrows(IOException.class, () -> RateLimitKey.readFrom(bogus));
+        assertTrue(e.getMessage().contains(Integer.toString(Integer.MAX_VALUE)), e.getMessage());
+
+        // Key đúng bằng giới hạn vẫn đi qua, dài hơn thì không ghi được
+        RateLimitKey largest = RateLimitKey.of(new byte[RateLimitKey.MAX_SERIALIZED_LENGTH],
+                0, RateLimitKey.MAX_SERIALIZED_LENGTH);
+        RateLimitKey tooLong = RateLimitKey.of("k".repeat(RateLimitKey.MAX_SERIALIZED_LENGTH + 1));
+        assertTrue(largest.isSerializable());
+        assertFalse(tooLong.isSerializable());
+        assertFalse(RateLimitKey.of("ư".repeat(RateLimitKey.MAX_SERIALIZED_LENGTH / 2 + 1)).isSerializable(),
+                "Moi ky tu 2 byte UTF-8");
+
+        buffer.reset();
+        largest.writeTo(out);
+        assertEquals(largest, RateLimitKey.readFrom(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()))));
+        buffer.reset();
+        assertThrows(IOException.class, () -> tooLong.writeTo(out));
+        assertEquals(0, buffer.size(), "Key qua dai khong ghi byte nao");
+    }
+}
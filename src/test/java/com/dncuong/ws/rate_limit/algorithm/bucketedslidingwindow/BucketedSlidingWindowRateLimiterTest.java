@@ -0,0 +1,350 @@
+package com.dncuong.ws.rate_limit.algorithm.bucketedslidingwindow;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowlog.SlidingWindowLogRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO THUẬT TOÁN BUCKETED SLIDING WINDOW
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Giới hạn cơ bản và trọng số của ô cũ nhất
+ * 2. Ô hết hạn được tái sử dụng, nhảy xa reset toàn bộ
+ * 3. Tham số không hợp lệ → throw exception
+ * 4. Thread-safe (concurrent)
+ * 5. ĐO sai số cho phép vượt (over-admission) so với Sliding Window Log chính xác,
+ *    và chứng minh sai số giảm khi tăng số ô N
+ * 6. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 7. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
+ *
+ * @author dncuong
+ */
+class BucketedSlidingWindowRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Giới hạn cơ bản
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cho phep dung maxRequests request trong cua so roi tu choi")
+    void allowRequest_exceedLimit_shouldReject() {
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(5, 1000, 10, clock);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.allowRequest("user1"), "Request " + (i + 1));
+        }
+        assertFalse(limiter.allowRequest("user1"), "Request 6 phai bi tu choi");
+
+        // Các key độc lập
+        assertTrue(limiter.allowRequest("user2"), "user2 doc lap voi user1");
+    }
+
+    // =====================================================================
+    // TEST 2: Trọng số của ô cũ nhất giảm dần
+    // =====================================================================
+
+    @Test
+    @DisplayName("O cu nhat duoc tinh theo phan con chong lap voi cua so truot")
+    void allowRequest_oldestBucket_shouldBeWeightedByOverlap() {
+        // Cửa sổ 1000ms, 10 ô × 100ms, tối đa 10 request
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(10, 1000, 10, clock);
+
+        // 10 request trong ô [0, 100)
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+
+        // Tại 1000ms: ô [0,100) là ô cũ nhất, chồng lấp 100% → estimated = 10
+        clock.set(1000);
+        assertFalse(limiter.allowRequest("user1"), "1000ms: o cu nhat con nguyen trong so");
+
+        // Tại 1050ms: chồng lấp 50% → estimated = 5 → còn 5 chỗ
+        clock.set(1050);
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limiter.allowRequest("user1")) {
+                allowed++;
+            }
+        }
+        assertEquals(5, allowed, "1050ms: o cu nhat chi con 50% trong so");
+
+        // Tại 1100ms: ô [0,100) rơi hẳn khỏi cửa sổ → chỉ còn 5 request ở ô [1000,1100)
+        clock.set(1100);
+        allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limiter.allowRequest("user1")) {
+                allowed++;
+            }
+        }
+        assertEquals(5, allowed, "1100ms: o [0,100) da het han hoan toan");
+    }
+
+    // =====================================================================
+    // TEST 3: Nhảy xa → reset toàn bộ vòng đệm
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhay xa hon ca cua so: moi o deu reset")
+    void allowRequest_longIdle_shouldResetAllBuckets() {
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(3, 600, 6, clock);
+
+        for (int i = 0; i < 3; i++) {
+            clock.set(i * 100L);
+            assertTrue(limiter.allowRequest("user1"));
+        }
+        assertFalse(limiter.allowRequest("user1"));
+
+        clock.set(1_000_000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"), "Sau khi nhan roi lau, du quota tro lai");
+        }
+        assertFalse(limiter.allowRequest("user1"));
+    }
+
+    // =====================================================================
+    // TEST 4: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new BucketedSlidingWindowRateLimiter(0, 1000, 10));
+        assertThrows(IllegalArgumentException.class, () -> new BucketedSlidingWindowRateLimiter(10, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new BucketedSlidingWindowRateLimiter(10, 1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BucketedSlidingWindowRateLimiter(10, 1000, 3),
+                "1000 khong chia het cho 3");
+    }
+
+    // =====================================================================
+    // TEST 5: Thread-safe
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: chi cho phep dung so request khi nhieu thread dong thoi")
+    void allowRequest_concurrent_shouldBeThreadSafe() throws InterruptedException {
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(100, 60_000, 60);
+
+        int totalThreads = 200;
+        AtomicInteger allowedCount = new AtomicInteger(0);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch doneLatch = new CountDownLatch(totalThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(totalThreads);
+        for (int i = 0; i < totalThreads; i++) {
+            executor.submit(() -> {
+                try {
+                    startLatch.await();
+                    if (limiter.allowRequest("concurrent-test-key")) {
+                        allowedCount.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneLatch.countDown();
+                }
+            });
+        }
+
+        startLatch.countDown();
+        doneLatch.await();
+        executor.shutdown();
+
+        assertEquals(100, allowedCount.get(), "Chi dung 100 request duoc cho phep");
+    }
+
+    // =====================================================================
+    // TEST 6: Đo sai số over-admission so với log chính xác
+    // =====================================================================
+
+    @Test
+    @DisplayName("Sai so vuot gioi han giam khi tang so o N, log chinh xac luon bang 0")
+    void allowRequest_overAdmissionError_shouldShrinkWithMoreBuckets() {
+        long limit = 100;
+        long window = 60_000;
+        long[] arrivals = overloadArrivals(new Random(2024), limit, window, 50 * window);
+
+        double logError = overAdmissionError(replayLog(arrivals, limit, window), limit, window);
+        double errorN1 = overAdmissionError(replayBucketed(arrivals, limit, window, 1), limit, window);
+        double errorN6 = overAdmissionError(replayBucketed(arrivals, limit, window, 6), limit, window);
+        double errorN60 = overAdmissionError(replayBucketed(arrivals, limit, window, 60), limit, window);
+
+        String errors = String.format("log=%.3f, N=1: %.3f, N=6: %.3f, N=60: %.3f",
+                logError, errorN1, errorN6, errorN60);
+
+        assertEquals(0.0, logError, "Sliding Window Log khong bao gio vuot gioi han: " + errors);
+        assertTrue(errorN6 <= errorN1, "N=6 phai chinh xac hon (hoac bang) N=1: " + errors);
+        assertTrue(errorN60 <= errorN6, "N=60 phai chinh xac hon (hoac bang) N=6: " + errors);
+        assertTrue(errorN60 <= 0.05, "N=60: vuot gioi han toi da 5%, thuc te: " + errorN60);
+    }
+
+    // =====================================================================
+    // HÀM HỖ TRỢ ĐO SAI SỐ
+    // =====================================================================
+
+    /**
+     * Sinh chuỗi thời điểm request QUÁ TẢI có tốc độ thay đổi: mỗi giai đoạn
+     * (khoảng một cửa sổ) chọn ngẫu nhiên tốc độ từ 1× đến 5× giới hạn, khoảng
+     * cách giữa 2 request phân bố đều quanh giá trị trung bình của giai đoạn.
+     */
+    private static long[] overloadArrivals(Random random, long limit, long window, long duration) {
+        List<Long> arrivals = new ArrayList<>();
+        long t = 0;
+        while (t < duration) {
+            long phaseEnd = t + window / 2 + random.nextInt((int) window);
+            long meanGap = Math.max(1, window / (limit * (1 + random.nextInt(5))));
+            while (t < phaseEnd) {
+                arrivals.add(t);
+                t += 1 + random.nextInt((int) (2 * meanGap));
+            }
+        }
+        return arrivals.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static List<Long> replayBucketed(long[] arrivals, long limit, long window, int buckets) {
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(limit, window, buckets, clock);
+        List<Long> admitted = new ArrayList<>();
+        for (long t : arrivals) {
+            clock.set(t);
+            if (limiter.allowRequest("key")) {
+                admitted.add(t);
+            }
+        }
+        return admitted;
+    }
+
+    private static List<Long> replayLog(long[] arrivals, long limit, long window) {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(limit, window, clock);
+        List<Long> admitted = new ArrayList<>();
+        for (long t : arrivals) {
+            clock.set(t);
+            if (limiter.allowRequest("key")) {
+                admitted.add(t);
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Sai số = (số request được cho phép NHIỀU NHẤT trong một cửa sổ trượt
+     * (t - window, t] bất kỳ - limit) / limit. Bằng 0 nếu không bao giờ vượt.
+     */
+    private static double overAdmissionError(List<Long> admitted, long limit, long window) {
+        long worst = 0;
+        int start = 0;
+        for (int end = 0; end < admitted.size(); end++) {
+            while (admitted.get(start) <= admitted.get(end) - window) {
+                start++;
+            }
+            worst = Math.max(worst, end - start + 1);
+        }
+        return Math.max(0, worst - limit) / (double) limit;
+    }
+
+    // =====================================================================
+    // TEST 7: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(3, 1000, 10, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: mọi ô của key nhàn rỗi đã ra khỏi cửa sổ
+        clock.set(1100);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 8: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(5, 1000, 10, clock);
+
+        assertTrue(limiter.tryAcquire("user", 3));
+        assertFalse(limiter.tryAcquire("user", 3), "Chi con 2 → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 2), "Lo bi tu choi khong duoc tru quota");
+        assertFalse(limiter.allowRequest("user"));
+
+        assertFalse(limiter.tryAcquire("other", 6), "Lo lon hon gioi han khong bao gio duoc cap");
+        assertTrue(limiter.tryAcquire("other", 5));
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 9: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        ManualClock clock = new ManualClock(0);
+        BucketedSlidingWindowRateLimiter limiter = new BucketedSlidingWindowRateLimiter(10, 1000, 10, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        // Ô 0 còn được tính tới hết ô 10 (t = 1100)
+        assertTrue(limiter.tryAcquire(key, 10, decision));
+        assertEquals(10, decision.getLimit());
+        assertEquals(0, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(1100, decision.getResetAfterMillis());
+
+        // t = 1050: ô 0 là ô cũ nhất, trọng số 0.5 → ước lượng 5
+        clock.set(1050);
+        assertFalse(limiter.tryAcquire(key, 6, decision));
+        assertEquals(5, decision.getRemaining());
+        assertEquals(1, decision.getRetryAfterMillis());
+        assertEquals(50, decision.getResetAfterMillis());
+        assertTrue(limiter.tryAcquire(key, 5, decision));
+        assertEquals(0, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(1050, decision.getResetAfterMillis());
+
+        // Ước lượng = 5 + 10 × (1 - pos) < 10 từ t = 1051
+        assertFalse(limiter.tryAcquire(key, 1, decision));
+        assertEquals(0, decision.getRemaining());
+        assertEquals(1, decision.getRetryAfterMillis());
+        clock.set(1051);
+        assertTrue(limiter.allowRequest(key));
+    }
+}
@@ -0,0 +1,107 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO COARSE CLOCK
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Thread nền công bố thời gian của đồng hồ nguồn
+ * 2. Nguồn nhảy lùi → đồng hồ thô đứng yên, không bao giờ giảm
+ * 3. close() dừng thread nền
+ * 4. Tham số không hợp lệ → throw exception
+ *
+ * KỸ THUẬT TEST:
+ * - Đồng hồ nguồn là ManualClock; chờ thread nền bằng cách hỏi lại
+ *   cho tới khi thấy giá trị mới (có hạn chờ) thay vì sleep cố định
+ *
+ * @author dncuong
+ */
+class CoarseClockTest {
+
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    /** Chờ tới khi đồng hồ thô công bố đúng giá trị mong đợi. */
+    private static void awaitPublished(CoarseClock clock, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1_000_000;
+        while (clock.currentTimeMillis() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, clock.currentTimeMillis());
+    }
+
+    // =====================================================================
+    // TEST 1: Công bố thời gian của nguồn
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread nen cong bo thoi gian cua dong ho nguon")
+    void currentTimeMillis_shouldFollowSource() throws InterruptedException {
+        ManualClock source = new ManualClock(1_000);
+        try (CoarseClock clock = new CoarseClock(source, 1)) {
+            assertEquals(1_000, clock.currentTimeMillis(), "Gia tri ban dau doc ngay trong constructor");
+
+            source.advance(500);
+            awaitPublished(clock, 1_500);
+
+            source.set(60_000);
+            awaitPublished(clock, 60_000);
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Không bao giờ giảm
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nguon nhay lui: dong ho tho dung yen cho toi khi nguon duoi kip")
+    void currentTimeMillis_sourceJumpsBack_shouldNotDecrease() throws InterruptedException {
+        ManualClock source = new ManualClock(10_000);
+        try (CoarseClock clock = new CoarseClock(source, 1)) {
+            source.set(5_000);
+            Thread.sleep(20);
+            assertEquals(10_000, clock.currentTimeMillis());
+
+            source.set(10_001);
+            awaitPublished(clock, 10_001);
+        }
+    }
+
+    // =====================================================================
+    // TEST 3: close() dừng thread nền
+    // =====================================================================
+
+    @Test
+    @DisplayName("close() dung thread nen, gia tri cuoi cung duoc giu lai")
+    void close_shouldStopTicker() throws InterruptedException {
+        ManualClock source = new ManualClock(0);
+        CoarseClock clock = new CoarseClock(source, 1);
+        source.set(100);
+        awaitPublished(clock, 100);
+
+        clock.close();
+        clock.close();
+        Thread.sleep(20);
+        source.set(200);
+        Thread.sleep(20);
+
+        assertEquals(100, clock.currentTimeMillis());
+    }
+
+    // =====================================================================
+    // TEST 4: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new CoarseClock(0));
+        assertThrows(IllegalArgumentException.class, () -> new CoarseClock(-5));
+        assertThrows(IllegalArgumentException.class, () -> new CoarseClock(null, 10));
+    }
+}
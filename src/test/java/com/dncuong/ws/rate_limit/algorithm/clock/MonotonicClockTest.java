@@ -0,0 +1,54 @@
+package com.dncuong.ws.rate_limit.algorithm.clock;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO MONOTONIC CLOCK
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Cùng gốc với Unix epoch (gần giờ hệ thống lúc không có ai chỉnh giờ)
+ * 2. Không bao giờ giảm giữa các lần đọc liên tiếp
+ *
+ * @author dncuong
+ */
+class MonotonicClockTest {
+
+    // =====================================================================
+    // TEST 1: Cùng gốc với Unix epoch
+    // =====================================================================
+
+    @Test
+    @DisplayName("Gia tri cung goc voi Unix epoch, gan gio he thong")
+    void currentTimeMillis_shouldStayCloseToWallClock() throws InterruptedException {
+        MonotonicClock clock = new MonotonicClock();
+        Thread.sleep(20);
+
+        long before = System.currentTimeMillis();
+        long now = clock.currentTimeMillis();
+        long after = System.currentTimeMillis();
+
+        // Sai lệch cho phép: độ phân giải của currentTimeMillis trên một số nền tảng
+        assertTrue(now >= before - 50 && now <= after + 50,
+                "now = " + now + " phai nam gan [" + before + ", " + after + "]");
+    }
+
+    // =====================================================================
+    // TEST 2: Không bao giờ giảm
+    // =====================================================================
+
+    @Test
+    @DisplayName("Khong bao gio giam giua cac lan doc lien tiep")
+    void currentTimeMillis_shouldNeverDecrease() {
+        long previous = MonotonicClock.INSTANCE.currentTimeMillis();
+        for (int i = 0; i < 1_000_000; i++) {
+            long now = MonotonicClock.INSTANCE.currentTimeMillis();
+            assertTrue(now >= previous, "Dong ho lui tu " + previous + " ve " + now);
+            previous = now;
+        }
+    }
+}
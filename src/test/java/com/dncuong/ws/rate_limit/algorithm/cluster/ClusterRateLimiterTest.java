@@ -0,0 +1,339 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO CÁC RATE LIMITER TOÀN CỤM TRÊN COUNTER GOSSIP
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Node không có peer: quyết định và kết quả chi tiết giống limiter trong bộ nhớ
+ * 2. 3 node trên loopback cùng nhận traffic: cụm hội tụ về giới hạn chung
+ * 3. Hết phần chưa gửi → từ chối, gossip sớm, peer thấy ngay
+ *    (kể cả request xin nhiều permit hơn phần chưa gửi; maxOverAdmission = 0
+ *    thì mỗi round chỉ cấp một permit cho mỗi key dù quota còn: cấp thiếu có chủ ý)
+ * 4. refund ở một node → peer thấy sau round gossip
+ * 5. Sliding window: counter cửa sổ trước của peer vẫn được tính
+ * 6. Tham số không hợp lệ → throw exception
+ * 7. Key khác loại cùng toString (of(5L) / of("5")) → counter độc lập trên mọi node
+ *
+ * @author dncuong
+ */
+class ClusterRateLimiterTest {
+
+    private static final long NO_AUTO_SYNC = 3_600_000;
+
+    private final List<GossipNode> nodes = new ArrayList<>();
+
+    @AfterEach
+    void closeNodes() {
+        nodes.forEach(GossipNode::close);
+    }
+
+    /** count node nối full mesh trên loopback. */
+    private List<GossipNode> cluster(int count, long syncIntervalMillis, ManualClock clock) throws IOException {
+        List<GossipNode> cluster = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GossipNode node = new GossipNode(i + 1, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    syncIntervalMillis, clock);
+            nodes.add(node);
+            cluster.add(node);
+        }
+        for (GossipNode node : cluster) {
+            for (GossipNode peer : cluster) {
+                if (peer != node) {
+                    node.addPeer(peer.localAddress());
+                }
+            }
+        }
+        cluster.forEach(GossipNode::start);
+        return cluster;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Het thoi gian cho gossip");
+            Thread.sleep(1);
+        }
+    }
+
+    // =====================================================================
+    // TEST 1: Một node giống limiter trong bộ nhớ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Node khong co peer: quyet dinh va ket qua chi tiet giong limiter trong bo nho")
+    void tryAcquire_singleNode_shouldMatchInMemoryLimiters() throws IOException {
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        GossipNode node = cluster(1, NO_AUTO_SYNC, clock).get(0);
+        RateLimiter[][] pairs = {
+                {new ClusterFixedWindowRateLimiter(node, "fw:", 5, 1_000, 0, clock),
+                        new FixedWindowCounterRateLimiter(5, 1_000, clock)},
+                {new ClusterSlidingWindowCounterRateLimiter(node, "swc:", 5, 1_000, 0, clock),
+                        new SlidingWindowCounterRateLimiter(5, 1_000, clock)}
+        };
+        Random random = new Random(42);
+        RateLimitDecision cluster = new RateLimitDecision();
+        RateLimitDecision local = new RateLimitDecision();
+
+        for (int i = 0; i < 3_000; i++) {
+            clock.advance(random.nextInt(150));
+            RateLimitKey key = RateLimitKey.of("client-" + random.nextInt(3));
+            long permits = 1 + random.nextInt(6);
+            for (RateLimiter[] pair : pairs) {
+                boolean allowed = pair[0].tryAcquire(key, permits, cluster);
+                assertEquals(pair[1].tryAcquire(key, permits, local), allowed, "Request " + i);
+                assertEquals(local.toString(), cluster.toString(), "Request " + i);
+                if (allowed && random.nextInt(10) == 0) {
+                    pair[0].refund(key, permits, clock.currentTimeMillis());
+                    pair[1].refund(key, permits, clock.currentTimeMillis());
+                }
+            }
+            if (i % 100 == 0) {
+                node.gossipRound();
+            }
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Nhiều node hội tụ về giới hạn chung
+    // =====================================================================
+
+    @Test
+    @DisplayName("3 node tren loopback cung nhan traffic: cum hoi tu ve gioi han chung")
+    void allowRequest_threeNodes_shouldConvergeToGlobalLimit() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(3, 5, clock);
+        long maxRequests = 300;
+        long maxOverAdmission = 6;
+
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(cluster.size() * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(cluster.size() * 2);
+        for (GossipNode node : cluster) {
+            RateLimiter limiter = new ClusterFixedWindowRateLimiter(node, "api:", maxRequests, 60_000,
+                    maxOverAdmission, clock);
+            for (int t = 0; t < 2; t++) {
+                executor.submit(() -> {
+                    try {
+                        start.await();
+                        long deadline = System.nanoTime() + 500_000_000L;
+                        while (System.nanoTime() < deadline) {
+                            if (limiter.allowRequest("tenant")) {
+                                admitted.incrementAndGet();
+                            }
+                            Thread.onSpinWait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertTrue(admitted.get() >= maxRequests, "Cum da hoi tu, dung het quota: " + admitted.get());
+        // Ngoài phần chưa gửi (maxOverAdmission), peer còn chưa thấy gói đang trên đường
+        assertTrue(admitted.get() <= maxRequests + 2 * maxOverAdmission, "Cap vuot qua nhieu: " + admitted.get());
+        for (GossipNode node : cluster) {
+            await(() -> node.existingCounter("api:", RateLimitKey.of("tenant"), 0).value() == admitted.get());
+        }
+    }
+
+    // =====================================================================
+    // TEST 3: Phần chưa gửi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Het phan chua gui → tu choi, gossip som, peer thay ngay")
+    void tryAcquire_unsyncedBudgetExhausted_shouldRequestEarlySync() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(2, NO_AUTO_SYNC, clock);
+        RateLimiter a = new ClusterFixedWindowRateLimiter(cluster.get(0), "api:", 10, 60_000, 4, clock);
+        RateLimiter b = new ClusterFixedWindowRateLimiter(cluster.get(1), "api:", 10, 60_000, 4, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(a.tryAcquire(key, 4));
+        assertFalse(a.tryAcquire(key, 1, decision), "B chua biet 4 permit nay");
+        assertEquals(ClusterRateLimiter.SYNC_RETRY_MILLIS, decision.getRetryAfterMillis());
+
+        // Round sớm đã gửi: B thấy 4, A lại được cấp
+        await(() -> cluster.get(1).existingCounter("api:", key, 0) != null
+                && cluster.get(1).existingCounter("api:", key, 0).value() == 4);
+        await(() -> a.tryAcquire(key, 1));
+        assertTrue(b.tryAcquire(key, 1, decision));
+        assertEquals(5, decision.getRemaining(), "10 - 4 (A da gui) - 1; permit thu 5 cua A B chua thay");
+    }
+
+    @Test
+    @DisplayName("permits > maxOverAdmission / so peer: cap khi da gui het, gui xong cap tiep")
+    void tryAcquire_batchLargerThanUnsyncedBudget_shouldBeAdmitted() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(3, NO_AUTO_SYNC, clock);
+        // 2 peer → mỗi node được 4 / 2 = 2 permit chưa gửi
+        RateLimiter a = new ClusterFixedWindowRateLimiter(cluster.get(0), "api:", 20, 60_000, 4, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+
+        assertTrue(a.tryAcquire(key, 5), "Chua co permit nao chua gui");
+        assertFalse(a.tryAcquire(key, 5), "5 permit truoc chua gui");
+
+        // Round sớm gửi 5 permit cho cả hai peer, A lại được cấp lô 5
+        for (GossipNode peer : cluster.subList(1, 3)) {
+            await(() -> peer.existingCounter("api:", key, 0) != null
+                    && peer.existingCounter("api:", key, 0).value() == 5);
+        }
+        await(() -> a.tryAcquire(key, 5));
+    }
+
+    @Test
+    @DisplayName("maxOverAdmission = 0: moi round gossip chi cap 1 permit cho moi key (cap thieu co chu y)")
+    void tryAcquire_zeroOverAdmission_shouldAdmitOnePermitPerRound() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(2, NO_AUTO_SYNC, clock);
+        ClusterRateLimiter a = new ClusterFixedWindowRateLimiter(cluster.get(0), "api:", 100, 60_000, 0, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertEquals(1, a.unsyncedBudget(), "Toi thieu 1 permit chua gui");
+        assertTrue(a.tryAcquire(key, 1));
+        assertFalse(a.tryAcquire(key, 1, decision), "Permit truoc chua gui, du quota con 99");
+        assertEquals(99, decision.getRemaining());
+        assertEquals(ClusterRateLimiter.SYNC_RETRY_MILLIS, decision.getRetryAfterMillis());
+
+        // Round sớm gửi permit đó: A lại được cấp một permit
+        await(() -> cluster.get(1).existingCounter("api:", key, 0) != null
+                && cluster.get(1).existingCounter("api:", key, 0).value() == 1);
+        await(() -> a.tryAcquire(key, 1));
+    }
+
+    // =====================================================================
+    // TEST 4: refund
+    // =====================================================================
+
+    @Test
+    @DisplayName("refund o mot node → peer thay sau round gossip")
+    void refund_shouldPropagateToPeers() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(2, NO_AUTO_SYNC, clock);
+        RateLimiter a = new ClusterFixedWindowRateLimiter(cluster.get(0), "api:", 10, 60_000, 100, clock);
+        RateLimiter b = new ClusterFixedWindowRateLimiter(cluster.get(1), "api:", 10, 60_000, 100, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+
+        assertTrue(a.tryAcquire(key, 6));
+        a.refund(key, 4, clock.currentTimeMillis());
+        cluster.get(0).gossipRound();
+        await(() -> cluster.get(1).existingCounter("api:", key, 0) != null
+                && cluster.get(1).existingCounter("api:", key, 0).value() == 2);
+
+        assertTrue(b.tryAcquire(key, 8));
+        assertFalse(b.allowRequest(key));
+    }
+
+    // =====================================================================
+    // TEST 5: Sliding window
+    // =====================================================================
+
+    @Test
+    @DisplayName("Sliding window: counter cua so truoc cua peer van duoc tinh")
+    void tryAcquire_slidingWindow_shouldWeighPeersPreviousWindow() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(2, NO_AUTO_SYNC, clock);
+        RateLimiter a = new ClusterSlidingWindowCounterRateLimiter(cluster.get(0), "api:", 10, 1_000, 100, clock);
+        RateLimiter b = new ClusterSlidingWindowCounterRateLimiter(cluster.get(1), "api:", 10, 1_000, 100, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+
+        clock.set(900);
+        assertTrue(a.tryAcquire(key, 8));
+        cluster.get(0).gossipRound();
+        await(() -> cluster.get(1).existingCounter("api:", key, 0) != null);
+
+        // Cửa sổ mới, đi được 25%: ước lượng = 8 × 0.75 = 6 → B còn 4
+        clock.set(1_250);
+        RateLimitDecision decision = new RateLimitDecision();
+        assertTrue(b.tryAcquire(key, 4, decision));
+        assertEquals(0, decision.getRemaining());
+        assertFalse(b.allowRequest(key));
+    }
+
+    // =====================================================================
+    // TEST 6: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() throws IOException {
+        ManualClock clock = new ManualClock(0);
+        GossipNode node = cluster(1, NO_AUTO_SYNC, clock).get(0);
+        assertThrows(IllegalArgumentException.class, () -> new ClusterFixedWindowRateLimiter(null, "p:", 10, 1_000, 5));
+        assertThrows(IllegalArgumentException.class, () -> new ClusterFixedWindowRateLimiter(node, null, 10, 1_000, 5));
+        assertThrows(IllegalArgumentException.class, () -> new ClusterFixedWindowRateLimiter(node, "p:", 0, 1_000, 5));
+        assertThrows(IllegalArgumentException.class, () -> new ClusterFixedWindowRateLimiter(node, "p:", 10, 0, 5));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ClusterSlidingWindowCounterRateLimiter(node, "p:", 10, 1_000, -1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ClusterSlidingWindowCounterRateLimiter(node, "p:", 10, 1_000, 5, null));
+
+        RateLimiter limiter = new ClusterFixedWindowRateLimiter(node, "p:", 10, 1_000, 5, clock);
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire(RateLimitKey.of("a"), 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.refund(RateLimitKey.of("a"), 0, 0));
+    }
+
+    // =====================================================================
+    // TEST 7: Key khác loại
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key khac loai cung toString (of(5L) / of(\"5\")) → counter doc lap tren moi node")
+    void tryAcquire_keysOfDifferentKinds_shouldBeIndependentAcrossNodes() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<GossipNode> cluster = cluster(2, NO_AUTO_SYNC, clock);
+        RateLimiter a = new ClusterFixedWindowRateLimiter(cluster.get(0), "api:", 2, 60_000, 100, clock);
+        RateLimiter b = new ClusterFixedWindowRateLimiter(cluster.get(1), "api:", 2, 60_000, 100, clock);
+        RateLimitKey number = RateLimitKey.of(5L);
+        RateLimitKey string = RateLimitKey.of("5");
+        RateLimitKey bytes = RateLimitKey.of(new byte[]{5}, 0, 1);
+
+        assertTrue(a.tryAcquire(number, 2));
+        assertTrue(a.tryAcquire(bytes, 1));
+        cluster.get(0).gossipRound();
+        await(() -> cluster.get(1).existingCounter("api:", number, 0) != null
+                && cluster.get(1).existingCounter("api:", bytes, 0) != null);
+
+        // Gossip giữ loại của key: B thấy quota của of(5L) đã hết, of("5") vẫn còn nguyên
+        assertFalse(b.allowRequest(number));
+        assertNull(cluster.get(1).existingCounter("api:", string, 0));
+        assertTrue(b.tryAcquire(string, 2));
+        assertEquals(1, cluster.get(1).existingCounter("api:", bytes, 0).value());
+    }
+}
@@ -0,0 +1,227 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO GOSSIP NODE
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Counter của node này tới được peer qua UDP loopback
+ * 2. Nhiều counter hơn một gói → chia nhiều gói, tới đủ
+ * 3. Gói bị mất → round đồng bộ toàn bộ gửi lại
+ * 4. Counter hết hạn bị xoá, không được tạo lại từ gói của peer
+ * 5. Gói hỏng bị bỏ qua
+ * 6. Tham số không hợp lệ → throw exception
+ * 7. Node chưa start() không nhận gói; start() sau close() → throw exception
+ *
+ * Chu kỳ gossip đặt rất dài: test tự chạy từng round bằng gossipRound().
+ *
+ * @author dncuong
+ */
+class GossipNodeTest {
+
+    private static final long NO_AUTO_SYNC = 3_600_000;
+
+    private final List<GossipNode> nodes = new ArrayList<>();
+
+    @AfterEach
+    void closeNodes() {
+        nodes.forEach(GossipNode::close);
+    }
+
+    private GossipNode node(int nodeId, ManualClock clock) throws IOException {
+        GossipNode node = new GossipNode(nodeId, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                NO_AUTO_SYNC, clock);
+        nodes.add(node);
+        node.start();
+        return node;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Het thoi gian cho gossip");
+            Thread.sleep(1);
+        }
+    }
+
+    // =====================================================================
+    // TEST 1: Gossip qua loopback
+    // =====================================================================
+
+    @Test
+    @DisplayName("Counter cua node nay toi duoc peer qua UDP loopback")
+    void gossipRound_shouldDeliverLocalCountsToPeers() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        GossipNode a = node(1, clock);
+        GossipNode b = node(2, clock);
+        a.addPeer(b.localAddress());
+        b.addPeer(a.localAddress());
+
+        a.counter("api:", RateLimitKey.of("user"), 0, 10_000).tryIncrement(7, 100, Long.MAX_VALUE);
+        b.counter("api:", RateLimitKey.of("user"), 0, 10_000).tryIncrement(2, 100, Long.MAX_VALUE);
+        a.gossipRound();
+        b.gossipRound();
+
+        await(() -> a.counter("api:", RateLimitKey.of("user"), 0, 10_000).value() == 9);
+        await(() -> b.counter("api:", RateLimitKey.of("user"), 0, 10_000).value() == 9);
+    }
+
+    // =====================================================================
+    // TEST 2: Nhiều gói
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu counter hon mot goi → chia nhieu goi, toi du")
+    void gossipRound_manyCounters_shouldSplitDatagrams() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        GossipNode a = node(1, clock);
+        GossipNode b = node(2, clock);
+        a.addPeer(b.localAddress());
+
+        int keys = 500;
+        for (int i = 0; i < keys; i++) {
+            RateLimitKey key = RateLimitKey.of("tenant-with-a-fairly-long-name-" + i);
+            a.counter("api:", key, 0, 10_000).tryIncrement(1 + i % 3, 100, Long.MAX_VALUE);
+        }
+        a.gossipRound();
+
+        await(() -> b.counterCount() == keys);
+        for (int i = 0; i < keys; i++) {
+            RateLimitKey key = RateLimitKey.of("tenant-with-a-fairly-long-name-" + i);
+            assertEquals(1 + i % 3, b.existingCounter("api:", key, 0).value());
+        }
+    }
+
+    // =====================================================================
+    // TEST 3: Gói bị mất
+    // =====================================================================
+
+    @Test
+    @DisplayName("Goi bi mat → round dong bo toan bo gui lai")
+    void gossipRound_lostDatagram_shouldBeRepairedByFullSync() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        GossipNode a = node(1, clock);
+        GossipNode b = node(2, clock);
+
+        // Chưa có peer: delta của round 1 coi như đã gửi nhưng không ai nhận
+        a.counter("api:", RateLimitKey.of("user"), 0, 10_000).tryIncrement(5, 100, Long.MAX_VALUE);
+        a.gossipRound();
+        a.addPeer(b.localAddress());
+
+        for (int round = 2; round < GossipNode.FULL_SYNC_ROUNDS; round++) {
+            a.gossipRound();
+        }
+        Thread.sleep(50);
+        assertNull(b.existingCounter("api:", RateLimitKey.of("user"), 0), "Round delta khong gui lai counter khong doi");
+
+        a.gossipRound();
+        await(() -> b.existingCounter("api:", RateLimitKey.of("user"), 0) != null);
+        assertEquals(5, b.existingCounter("api:", RateLimitKey.of("user"), 0).value());
+    }
+
+    // =====================================================================
+    // TEST 4: Counter hết hạn
+    // =====================================================================
+
+    @Test
+    @DisplayName("Counter het han bi xoa, khong duoc tao lai tu goi cua peer")
+    void gossipRound_expiredCounters_shouldBeDropped() throws Exception {
+        ManualClock clockA = new ManualClock(0);
+        ManualClock clockB = new ManualClock(0);
+        GossipNode a = node(1, clockA);
+        GossipNode b = node(2, clockB);
+        a.addPeer(b.localAddress());
+
+        a.counter("", RateLimitKey.of("old"), 0, 1_000).tryIncrement(1, 100, Long.MAX_VALUE);
+        a.counter("", RateLimitKey.of("new"), 1, 2_000).tryIncrement(1, 100, Long.MAX_VALUE);
+
+        // B đã qua thời điểm hết hạn của "old", A thì chưa
+        clockB.set(1_500);
+        a.gossipRound();
+        await(() -> b.existingCounter("", RateLimitKey.of("new"), 1) != null);
+        assertNull(b.existingCounter("", RateLimitKey.of("old"), 0));
+
+        clockA.set(1_000);
+        a.gossipRound();
+        assertEquals(1, a.counterCount(), "Chi con counter chua het han");
+    }
+
+    // =====================================================================
+    // TEST 5: Gói hỏng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Goi hong bi bo qua")
+    void merge_malformedDatagram_shouldBeIgnored() throws Exception {
+        GossipNode node = node(1, new ManualClock(0));
+
+        node.merge(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        node.merge(ByteBuffer.allocate(64).putInt(0x12345678).putInt(2).putShort((short) 1).flip());
+        ByteBuffer truncated = ByteBuffer.allocate(16).putInt(0x524C4732).putInt(2).putShort((short) 3)
+                .putShort((short) -1).flip();
+        node.merge(truncated);
+
+        assertEquals(0, node.counterCount());
+    }
+
+    // =====================================================================
+    // TEST 6: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() throws IOException {
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        ManualClock clock = new ManualClock(0);
+        assertThrows(IllegalArgumentException.class, () -> new GossipNode(1, null));
+        assertThrows(IllegalArgumentException.class, () -> new GossipNode(1, loopback, 0, clock));
+        assertThrows(IllegalArgumentException.class, () -> new GossipNode(1, loopback, 50, null));
+        assertThrows(IllegalArgumentException.class, () -> node(1, clock).addPeer(null));
+    }
+
+    // =====================================================================
+    // TEST 7: Vòng đời start()/close()
+    // =====================================================================
+
+    @Test
+    @DisplayName("Node chua start() khong nhan goi; start() sau close() nem IllegalStateException")
+    void start_shouldControlThreads() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        GossipNode a = node(1, clock);
+        GossipNode b = new GossipNode(2, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                NO_AUTO_SYNC, clock);
+        nodes.add(b);
+        a.addPeer(b.localAddress());
+
+        a.counter("api:", RateLimitKey.of("user"), 0, 10_000).tryIncrement(3, 100, Long.MAX_VALUE);
+        a.gossipRound();
+        Thread.sleep(50);
+        assertEquals(0, b.counterCount(), "Thread nhan chua chay");
+
+        // Gói đã nằm trong buffer của socket: thread nhận đọc nó ngay khi chạy
+        b.start();
+        b.start();
+        await(() -> b.existingCounter("api:", RateLimitKey.of("user"), 0) != null);
+        assertEquals(3, b.existingCounter("api:", RateLimitKey.of("user"), 0).value());
+
+        a.close();
+        assertThrows(IllegalStateException.class, a::start);
+    }
+}
@@ -0,0 +1,161 @@
+package com.dncuong.ws.rate_limit.algorithm.cluster;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO PN-COUNTER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. merge giữ giá trị lớn nhất: gói trễ, lặp, sai thứ tự đều vô hại
+ * 2. tryIncrement không vượt maxValue kể cả khi nhiều thread cùng cộng
+ * 3. Hết phần chưa gửi → OVER_BUDGET, gửi xong thì cấp tiếp
+ * 4. decrement không vượt số đã cấp ở node này
+ * 5. Lô lớn hơn phần chưa gửi: cấp khi đã gửi hết, không OVER_BUDGET mãi
+ * 6. unsyncedBudget = 1: mỗi round chỉ cấp một permit dù còn xa maxValue (cấp thiếu có chủ ý)
+ *
+ * @author dncuong
+ */
+class PNCounterTest {
+
+    // =====================================================================
+    // TEST 1: merge
+    // =====================================================================
+
+    @Test
+    @DisplayName("merge giu gia tri lon nhat: goi tre, lap, sai thu tu deu vo hai")
+    void merge_shouldBeIdempotentAndOrderInsensitive() {
+        PNCounter inOrder = new PNCounter(Long.MAX_VALUE);
+        inOrder.merge(2, 3, 0);
+        inOrder.merge(2, 5, 1);
+        inOrder.merge(3, 4, 0);
+
+        PNCounter shuffled = new PNCounter(Long.MAX_VALUE);
+        shuffled.merge(3, 4, 0);
+        shuffled.merge(2, 5, 1);
+        shuffled.merge(2, 3, 0);
+        shuffled.merge(2, 5, 1);
+
+        assertEquals(8, inOrder.value(), "(5 - 1) + 4");
+        assertEquals(inOrder.value(), shuffled.value());
+    }
+
+    // =====================================================================
+    // TEST 2: tryIncrement đồng thời
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryIncrement khong vuot maxValue khi nhieu thread cung cong")
+    void tryIncrement_concurrently_shouldNeverExceedMaxValue() throws InterruptedException {
+        PNCounter counter = new PNCounter(Long.MAX_VALUE);
+        counter.merge(2, 40, 0);
+        AtomicInteger admitted = new AtomicInteger();
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    if (counter.tryIncrement(1, 1_000, Long.MAX_VALUE) == PNCounter.Admission.ADMITTED) {
+                        admitted.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(960, admitted.get(), "Peer da dung 40 trong 1.000");
+        assertEquals(1_000, counter.value());
+        assertEquals(PNCounter.Admission.OVER_LIMIT, counter.tryIncrement(1, 1_000, Long.MAX_VALUE));
+    }
+
+    // =====================================================================
+    // TEST 3: Phần chưa gửi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Het phan chua gui → OVER_BUDGET, gui xong thi cap tiep")
+    void tryIncrement_unsyncedBudget_shouldWaitForGossip() {
+        PNCounter counter = new PNCounter(Long.MAX_VALUE);
+
+        assertEquals(PNCounter.Admission.ADMITTED, counter.tryIncrement(3, 100, 4));
+        assertEquals(PNCounter.Admission.OVER_BUDGET, counter.tryIncrement(2, 100, 4));
+        assertEquals(PNCounter.Admission.ADMITTED, counter.tryIncrement(1, 100, 4));
+        assertEquals(PNCounter.Admission.OVER_BUDGET, counter.tryIncrement(1, 100, 4));
+
+        // Thread gossip đã gửi P = 4
+        counter.sentIncrements = counter.localIncrements();
+        assertEquals(PNCounter.Admission.ADMITTED, counter.tryIncrement(4, 100, 4));
+    }
+
+    // =====================================================================
+    // TEST 4: decrement
+    // =====================================================================
+
+    @Test
+    @DisplayName("decrement khong vuot so da cap o node nay")
+    void decrement_shouldNotExceedLocalIncrements() {
+        PNCounter counter = new PNCounter(Long.MAX_VALUE);
+        counter.merge(2, 10, 0);
+        counter.tryIncrement(3, 100, Long.MAX_VALUE);
+
+        counter.decrement(2);
+        assertEquals(11, counter.value());
+
+        counter.decrement(5);
+        assertEquals(3, counter.localDecrements(), "Chi refund duoc 3 permit node nay da cap");
+        assertEquals(10, counter.value());
+    }
+
+    // =====================================================================
+    // TEST 5: Lô lớn hơn phần chưa gửi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Lo lon hon phan chua gui: cap khi da gui het, khong OVER_BUDGET mai")
+    void tryIncrement_batchLargerThanBudget_shouldBeAdmittedWhenSynced() {
+        PNCounter counter = new PNCounter(Long.MAX_VALUE);
+
+        assertEquals(PNCounter.Admission.ADMITTED, counter.tryIncrement(5, 100, 2));
+        assertEquals(PNCounter.Admission.OVER_BUDGET, counter.tryIncrement(5, 100, 2));
+        assertEquals(PNCounter.Admission.OVER_BUDGET, counter.tryIncrement(1, 100, 2));
+
+        counter.sentIncrements = counter.localIncrements();
+        assertEquals(PNCounter.Admission.ADMITTED, counter.tryIncrement(5, 100, 2));
+        assertEquals(10, counter.value());
+
+        // Giới hạn vẫn được kiểm tra trước
+        counter.sentIncrements = counter.localIncrements();
+        assertEquals(PNCounter.Admission.OVER_LIMIT, counter.tryIncrement(5, 12, 2));
+    }
+
+    // =====================================================================
+    // TEST 6: Cấp thiếu có chủ ý
+    // =====================================================================
+
+    @Test
+    @DisplayName("unsyncedBudget = 1: moi round chi cap 1 permit du con xa maxValue")
+    void tryIncrement_budgetOfOne_shouldAdmitOnePermitPerRound() {
+        PNCounter counter = new PNCounter(Long.MAX_VALUE);
+
+        for (int round = 1; round <= 5; round++) {
+            assertEquals(PNCounter.Admission.ADMITTED, counter.tryIncrement(1, 100, 1));
+            assertEquals(PNCounter.Admission.OVER_BUDGET, counter.tryIncrement(1, 100, 1),
+                    "Round " + round + ": value " + counter.value() + " con xa 100");
+            counter.sentIncrements = counter.localIncrements();
+        }
+        assertEquals(5, counter.value());
+    }
+}
@@ -0,0 +1,264 @@
+package com.dncuong.ws.rate_limit.algorithm.composite;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitBatch;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO COMPOSITE RATE LIMITER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Nhiều băng cùng lúc: băng chặt nhất quyết định
+ * 2. Băng sau từ chối thì băng trước không bị trừ quota
+ * 3. Composite một băng quyết định giống hệt limiter đơn (cả kết quả chi tiết)
+ * 4. Composite nhiều băng giống RateLimitBatch.allowAll trên các limiter đơn
+ * 5. Kết quả chi tiết: remaining của băng chặt nhất, retry-after của băng chậm nhất
+ * 6. Tham số không hợp lệ → throw exception
+ * 7. Thread-safe (concurrent)
+ * 8. Key nhàn rỗi bị dọn khi mọi băng đã về trạng thái ban đầu
+ *
+ * @author dncuong
+ */
+class CompositeRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Nhiều băng cùng lúc
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu bang cung luc: 3/giay VA 5/10 giay")
+    void allowRequest_multipleBands_shouldEnforceAll() {
+        ManualClock clock = new ManualClock(0);
+        CompositeRateLimiter limiter = new CompositeRateLimiter(clock,
+                Band.fixedWindow(3, 1_000), Band.fixedWindow(5, 10_000));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+        assertFalse(limiter.allowRequest("user1"), "Bang 3/giay");
+
+        clock.advance(1_000);
+        assertTrue(limiter.allowRequest("user1"));
+        assertTrue(limiter.allowRequest("user1"));
+        assertFalse(limiter.allowRequest("user1"), "Bang 5/10 giay, du bang 3/giay con cho");
+
+        clock.advance(9_000);
+        assertTrue(limiter.allowRequest("user1"), "Ca hai cua so da reset");
+        assertTrue(limiter.allowRequest("user2"), "Key khac co state rieng");
+    }
+
+    // =====================================================================
+    // TEST 2: Không rò quota
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang sau tu choi thi bang truoc khong bi tru quota")
+    void tryAcquire_laterBandRejects_shouldNotLeakQuota() {
+        ManualClock clock = new ManualClock(0);
+        CompositeRateLimiter limiter = new CompositeRateLimiter(clock,
+                Band.tokenBucket(10, 10.0), Band.fixedWindow(4, 60_000));
+
+        assertTrue(limiter.tryAcquire("user1", 4));
+        // Băng fixed window từ chối liên tục: xô token không được bị tiêu
+        for (int i = 0; i < 100; i++) {
+            assertFalse(limiter.allowRequest("user1"));
+        }
+        clock.advance(60_000);
+        assertTrue(limiter.tryAcquire("user1", 4), "Xo van con du token");
+    }
+
+    // =====================================================================
+    // TEST 3: Một băng giống limiter đơn
+    // =====================================================================
+
+    @Test
+    @DisplayName("Composite mot bang quyet dinh giong het limiter don, ca ket qua chi tiet")
+    void tryAcquire_singleBand_shouldMatchStandaloneLimiter() {
+        assertMatchesStandalone(Band.fixedWindow(7, 1_000),
+                clock -> new FixedWindowCounterRateLimiter(7, 1_000, clock));
+        assertMatchesStandalone(Band.slidingWindowCounter(7, 1_000),
+                clock -> new SlidingWindowCounterRateLimiter(7, 1_000, clock));
+        assertMatchesStandalone(Band.tokenBucket(7, 2.0),
+                clock -> new TokenBucketRateLimiter(7, 2.0, clock));
+    }
+
+    private static void assertMatchesStandalone(Band band, Function<ManualClock, RateLimiter> factory) {
+        Random random = new Random(42);
+        ManualClock clock = new ManualClock(0);
+        CompositeRateLimiter composite = new CompositeRateLimiter(clock, band);
+        RateLimiter reference = factory.apply(clock);
+        RateLimitDecision expected = new RateLimitDecision();
+        RateLimitDecision actual = new RateLimitDecision();
+
+        for (int i = 0; i < 10_000; i++) {
+            // Bội số 125ms: phép tính double của bản tham chiếu không có sai số làm tròn
+            clock.advance(125L * random.nextInt(6));
+            RateLimitKey key = RateLimitKey.of("user" + random.nextInt(3));
+            long permits = 1 + random.nextInt(3);
+
+            boolean allowed = reference.tryAcquire(key, permits, expected);
+            assertEquals(allowed, composite.tryAcquire(key, permits, actual), "Quyet dinh khac o request " + i);
+            assertEquals(expected.toString(), actual.toString(), "Ket qua chi tiet khac o request " + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 4: Nhiều băng giống allowAll
+    // =====================================================================
+
+    @Test
+    @DisplayName("Composite nhieu bang giong RateLimitBatch.allowAll tren cac limiter don")
+    void tryAcquire_mixedBands_shouldMatchAllOrNothingOverStandaloneLimiters() {
+        Random random = new Random(7);
+        ManualClock clock = new ManualClock(0);
+        CompositeRateLimiter composite = new CompositeRateLimiter(clock,
+                Band.tokenBucket(4, 4.0), Band.slidingWindowCounter(10, 2_000), Band.fixedWindow(30, 10_000));
+        RateLimiter[] limiters = {
+                new TokenBucketRateLimiter(4, 4.0, clock),
+                new SlidingWindowCounterRateLimiter(10, 2_000, clock),
+                new FixedWindowCounterRateLimiter(30, 10_000, clock)
+        };
+
+        for (int i = 0; i < 10_000; i++) {
+            clock.advance(125L * random.nextInt(4));
+            RateLimitKey key = RateLimitKey.of("user" + random.nextInt(2));
+            RateLimitKey[] keys = {key, key, key};
+
+            assertEquals(RateLimitBatch.allowAll(limiters, keys), composite.allowRequest(key),
+                    "Quyet dinh khac o request " + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 5: Kết quả chi tiết
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: remaining cua bang chat nhat, retry-after cua bang cham nhat")
+    void tryAcquire_decision_shouldCombineBands() {
+        ManualClock clock = new ManualClock(0);
+        CompositeRateLimiter limiter = new CompositeRateLimiter(clock,
+                Band.fixedWindow(5, 1_000), Band.fixedWindow(7, 10_000));
+        RateLimitKey key = RateLimitKey.of("user1");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(key, 3, decision));
+        assertEquals(5, decision.getLimit(), "Bang 5/giay con it nhat");
+        assertEquals(2, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(10_000, decision.getResetAfterMillis());
+
+        clock.advance(1_000);
+        assertTrue(limiter.tryAcquire(key, 3, decision));
+        assertEquals(7, decision.getLimit(), "Bang 7/10 giay chi con 1");
+        assertEquals(1, decision.getRemaining());
+
+        clock.advance(200);
+        assertFalse(limiter.tryAcquire(key, 2, decision));
+        assertEquals(8_800, decision.getRetryAfterMillis(), "Phai cho bang 10 giay");
+
+        assertFalse(limiter.tryAcquire(key, 6, decision));
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis(), "Lo lon hon bang 5/giay");
+    }
+
+    // =====================================================================
+    // TEST 6: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, CompositeRateLimiter::new);
+        assertThrows(IllegalArgumentException.class, () -> new CompositeRateLimiter((Band) null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompositeRateLimiter((ManualClock) null, Band.fixedWindow(1, 1_000)));
+        assertThrows(IllegalArgumentException.class, () -> Band.fixedWindow(0, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> Band.slidingWindowCounter(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> Band.tokenBucket(10, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompositeRateLimiter(Band.fixedWindow(1, 1_000)).tryAcquire("user1", 0));
+    }
+
+    // =====================================================================
+    // TEST 7: Thread-safe
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: khong bang nao vuot gioi han khi nhieu thread dong thoi")
+    void allowRequest_concurrent_shouldBeThreadSafe() throws InterruptedException {
+        CompositeRateLimiter limiter = new CompositeRateLimiter(new ManualClock(0),
+                Band.tokenBucket(500, 1.0), Band.fixedWindow(300, 60_000));
+        int threads = 8;
+        int perThread = 200;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        if (limiter.allowRequest("shared")) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        executor.shutdown();
+
+        assertEquals(300, allowed.get(), "Bang fixed window chat hon quyet dinh");
+    }
+
+    // =====================================================================
+    // TEST 8: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don khi moi bang da ve trang thai ban dau")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        CompositeRateLimiter limiter = new CompositeRateLimiter(clock,
+                Band.tokenBucket(3, 1.0), Band.slidingWindowCounter(10, 1_000));
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Cửa sổ trượt cần 2 cửa sổ để quên request cũ, xô cần 1 giây để đầy lại
+        clock.advance(2_000);
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+}
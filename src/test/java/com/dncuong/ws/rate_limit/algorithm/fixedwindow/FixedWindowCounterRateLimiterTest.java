@@ -1,11 +1,16 @@
 package com.dncuong.ws.rate_limit.algorithm.fixedwindow;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -26,10 +31,14 @@ import static org.junit.jupiter.api.Assertions.*;
  * 5. Trường hợp tham số không hợp lệ → throw exception
  * 6. Trường hợp đồng thời (concurrent) → thread-safe
  * 7. Trường hợp ranh giới (boundary problem) → minh họa nhược điểm
+ * 8. Giới hạn số key: lũ key giả mạo không reset được key đang bị chặn
+ * 9. Bảng off-heap: quyết định giống hệt khi lưu trên heap
+ * 10. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 11. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
  *
  * KỸ THUẬT TEST:
- * - Sử dụng lớp TestableFixedWindowCounter (kế thừa từ lớp chính)
- *   để kiểm soát thời gian thay vì dùng Thread.sleep()
+ * - Truyền ManualClock vào constructor (RateLimitClock) để kiểm soát
+ *   thời gian thay vì dùng Thread.sleep()
  * - Điều này giúp test chạy nhanh, ổn định, không phụ thuộc vào
  *   tốc độ CPU hay scheduling của OS
  *
@@ -37,43 +46,6 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 class FixedWindowCounterRateLimiterTest {
 
-    // =====================================================================
-    // LỚP HỖ TRỢ TEST: Cho phép kiểm soát thời gian
-    // =====================================================================
-
-    /**
-     * Lớp con kế thừa FixedWindowCounterRateLimiter, override getCurrentTimeMillis()
-     * để trả về thời gian do chúng ta kiểm soát thay vì thời gian thật.
-     *
-     * Kỹ thuật này gọi là "Test Double" - cụ thể là "Fake" object.
-     * Giúp test không cần Thread.sleep() → chạy nhanh và đáng tin cậy.
-     */
-    static class TestableFixedWindowCounter extends FixedWindowCounterRateLimiter {
-        /** Thời gian giả lập, ta có thể thay đổi tùy ý trong test */
-        private long currentTime;
-
-        TestableFixedWindowCounter(long maxRequests, long windowSizeInMillis, long startTime) {
-            super(maxRequests, windowSizeInMillis);
-            this.currentTime = startTime;
-        }
-
-        /** Override để trả về thời gian giả lập thay vì System.currentTimeMillis() */
-        @Override
-        protected long getCurrentTimeMillis() {
-            return currentTime;
-        }
-
-        /** Phương thức tiện ích: "tua" thời gian về phía trước */
-        void advanceTime(long millis) {
-            this.currentTime += millis;
-        }
-
-        /** Phương thức tiện ích: đặt thời gian về một giá trị cụ thể */
-        void setCurrentTime(long time) {
-            this.currentTime = time;
-        }
-    }
-
     // =====================================================================
     // TEST 1: Request trong giới hạn → tất cả phải được cho phép
     // =====================================================================
@@ -82,7 +54,8 @@ class FixedWindowCounterRateLimiterTest {
     @DisplayName("Cho phep tat ca request khi chua vuot gioi han")
     void allowRequest_withinLimit_shouldAllowAll() {
         // GIVEN: Rate limiter cho phép tối đa 3 request trong cửa sổ 1000ms
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(3, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(3, 1000, clock);
 
         // WHEN & THEN: 3 request đầu tiên phải đều được cho phép
         assertTrue(limiter.allowRequest("user1"), "Request 1 phai duoc cho phep");
@@ -98,7 +71,8 @@ class FixedWindowCounterRateLimiterTest {
     @DisplayName("Tu choi request khi vuot qua gioi han")
     void allowRequest_exceedLimit_shouldReject() {
         // GIVEN: Rate limiter cho phép tối đa 3 request trong cửa sổ 1000ms
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(3, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(3, 1000, clock);
 
         // WHEN: Gửi 3 request (đủ giới hạn)
         limiter.allowRequest("user1"); // request 1 → OK
@@ -119,7 +93,8 @@ class FixedWindowCounterRateLimiterTest {
     void allowRequest_newWindow_shouldResetCounter() {
         // GIVEN: Rate limiter cho phép tối đa 2 request trong cửa sổ 1000ms
         // Bắt đầu tại thời điểm 0ms
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(2, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(2, 1000, clock);
 
         // WHEN: Dùng hết 2 request trong cửa sổ đầu tiên [0-999ms]
         assertTrue(limiter.allowRequest("user1"), "Request 1, cua so 1");
@@ -127,7 +102,7 @@ class FixedWindowCounterRateLimiterTest {
         assertFalse(limiter.allowRequest("user1"), "Request 3 bi tu choi, cua so 1 da day");
 
         // Tua thời gian đến cửa sổ thứ 2 [1000-1999ms]
-        limiter.advanceTime(1000);
+        clock.advance(1000);
 
         // THEN: Counter đã reset, request mới phải được cho phép
         assertTrue(limiter.allowRequest("user1"), "Request 1, cua so 2 - counter da reset");
@@ -143,7 +118,8 @@ class FixedWindowCounterRateLimiterTest {
     @DisplayName("Cac key khac nhau co counter doc lap")
     void allowRequest_differentKeys_shouldBeIndependent() {
         // GIVEN: Rate limiter cho phép tối đa 2 request/cửa sổ
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(2, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(2, 1000, clock);
 
         // WHEN: user1 dùng hết giới hạn
         assertTrue(limiter.allowRequest("user1"));
@@ -258,12 +234,13 @@ class FixedWindowCounterRateLimiterTest {
     void allowRequest_boundaryProblem_demonstration() {
         // GIVEN: Rate limiter cho phép tối đa 10 request/cửa sổ 1000ms
         // Bắt đầu tại thời điểm 0ms
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(10, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(10, 1000, clock);
 
         // === KỊCH BẢN: Gửi 10 request cuối cửa sổ 1 + 10 request đầu cửa sổ 2 ===
 
         // Tua đến cuối cửa sổ 1 (thời điểm 900ms, tức 100ms trước khi cửa sổ kết thúc)
-        limiter.setCurrentTime(900);
+        clock.set(900);
 
         // Gửi 10 request ở cuối cửa sổ 1 → tất cả OK vì counter mới bắt đầu đếm
         int allowedInWindow1 = 0;
@@ -275,7 +252,7 @@ class FixedWindowCounterRateLimiterTest {
         assertEquals(10, allowedInWindow1, "10 request cuoi cua so 1 deu duoc cho phep");
 
         // Tua đến đầu cửa sổ 2 (thời điểm 1000ms, chỉ cách 100ms!)
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
 
         // Gửi 10 request ở đầu cửa sổ 2 → tất cả OK vì counter đã reset!
         int allowedInWindow2 = 0;
@@ -303,7 +280,8 @@ class FixedWindowCounterRateLimiterTest {
     @DisplayName("Nhieu cua so lien tiep hoat dong chinh xac")
     void allowRequest_multipleConsecutiveWindows_shouldWorkCorrectly() {
         // GIVEN: Tối đa 3 request/cửa sổ 1000ms
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(3, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(3, 1000, clock);
 
         // === Cửa sổ 1 [0-999ms] ===
         assertTrue(limiter.allowRequest("user1"));
@@ -312,18 +290,18 @@ class FixedWindowCounterRateLimiterTest {
         assertFalse(limiter.allowRequest("user1"), "Cua so 1 da day");
 
         // === Cửa sổ 2 [1000-1999ms] ===
-        limiter.advanceTime(1000);
+        clock.advance(1000);
         assertTrue(limiter.allowRequest("user1"), "Cua so 2, counter reset");
         assertTrue(limiter.allowRequest("user1"));
         assertTrue(limiter.allowRequest("user1"));
         assertFalse(limiter.allowRequest("user1"), "Cua so 2 da day");
 
         // === Cửa sổ 3 [2000-2999ms] ===
-        limiter.advanceTime(1000);
+        clock.advance(1000);
         assertTrue(limiter.allowRequest("user1"), "Cua so 3, counter reset");
 
         // === Nhảy xa đến cửa sổ 100 ===
-        limiter.advanceTime(97_000);
+        clock.advance(97_000);
         assertTrue(limiter.allowRequest("user1"), "Cua so 100, counter reset");
         assertTrue(limiter.allowRequest("user1"));
         assertTrue(limiter.allowRequest("user1"));
@@ -338,18 +316,174 @@ class FixedWindowCounterRateLimiterTest {
     @DisplayName("Request dung tai ranh gioi cua so duoc xu ly chinh xac")
     void allowRequest_exactlyAtWindowBoundary_shouldStartNewWindow() {
         // GIVEN: 2 request/cửa sổ 1000ms, bắt đầu tại 0ms
-        TestableFixedWindowCounter limiter = new TestableFixedWindowCounter(2, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(2, 1000, clock);
 
         // Cửa sổ 1: windowId = 0/1000 = 0
         assertTrue(limiter.allowRequest("user1")); // counter = 1
         assertTrue(limiter.allowRequest("user1")); // counter = 2
 
         // Thời điểm 999ms: vẫn ở cửa sổ 1 (windowId = 999/1000 = 0)
-        limiter.setCurrentTime(999);
+        clock.set(999);
         assertFalse(limiter.allowRequest("user1"), "999ms van o cua so 1, da day");
 
         // Thời điểm 1000ms: cửa sổ mới! (windowId = 1000/1000 = 1)
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
         assertTrue(limiter.allowRequest("user1"), "1000ms la cua so moi, counter reset");
     }
+
+    // =====================================================================
+    // TEST 10: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(3, 1000, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: cửa sổ của các key nhàn rỗi đã hết hạn
+        clock.advance(1000);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 11: Giới hạn số key theo dõi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Lu key gia mao khong reset duoc key dang bi chan")
+    void allowRequest_boundedKeys_floodShouldNotResetBlockedKey() {
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(3, 60_000, 100, clock);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("attacker"));
+        }
+
+        // Kẻ tấn công vừa tiếp tục gửi, vừa xoay vòng key giả để đẩy counter của mình ra ngoài
+        for (int i = 0; i < 10_000; i++) {
+            limiter.allowRequest("spoofed-" + i);
+            assertFalse(limiter.allowRequest("attacker"), "Key bi chan bi reset o vong " + i);
+            assertTrue(limiter.trackedKeyCount() <= 100);
+        }
+    }
+
+    @Test
+    @DisplayName("Key bi loai khoi kho quay lai bat dau tu trang thai moi")
+    void allowRequest_evictedKey_shouldStartFresh() {
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(3, 60_000, 1, clock);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("a"));
+        }
+        assertFalse(limiter.allowRequest("a"));
+
+        // maxTrackedKeys = 1 → "b" chiếm chỗ, "a" bị loại
+        assertTrue(limiter.allowRequest("b"));
+        assertEquals(1, limiter.trackedKeyCount());
+
+        assertTrue(limiter.allowRequest("a"), "Chinh sach da ghi nhan: key bi loai bat dau lai tu dau");
+    }
+
+    // =====================================================================
+    // TEST 12: Lưu state trong bảng off-heap
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang off-heap: quyet dinh giong het khi luu tren heap")
+    void allowRequest_offHeapTable_shouldMatchOnHeapDecisions() {
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter onHeap = new FixedWindowCounterRateLimiter(3, 1000, clock);
+        FixedWindowCounterRateLimiter offHeap = new FixedWindowCounterRateLimiter(3, 1000, new OffHeapStateTable(1_000), clock);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            if (random.nextInt(10) == 0) {
+                long millis = random.nextInt(700);
+                clock.advance(millis);
+            }
+            String key = "key-" + random.nextInt(50);
+            assertEquals(onHeap.allowRequest(key), offHeap.allowRequest(key), "Lech quyet dinh o request " + i);
+        }
+        assertEquals(50, offHeap.trackedKeyCount());
+    }
+
+    // =====================================================================
+    // TEST 13: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(5, 1000, clock);
+
+        assertTrue(limiter.tryAcquire("user", 3));
+        assertFalse(limiter.tryAcquire("user", 3), "Chi con 2 → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 2), "Lo bi tu choi khong duoc tru quota");
+        assertFalse(limiter.allowRequest("user"));
+
+        // Lô lớn hơn cả giới hạn không bao giờ được cấp
+        assertFalse(limiter.tryAcquire("other", 6));
+        assertTrue(limiter.tryAcquire("other", 5));
+
+        // Cửa sổ mới → đủ quota cho cả lô
+        clock.advance(1000);
+        assertTrue(limiter.tryAcquire("user", 5));
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 14: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        ManualClock clock = new ManualClock(200);
+        for (FixedWindowCounterRateLimiter limiter : new FixedWindowCounterRateLimiter[]{
+                new FixedWindowCounterRateLimiter(3, 1000, clock),
+                new FixedWindowCounterRateLimiter(3, 1000, new OffHeapStateTable(100), clock)}) {
+            assertTrue(limiter.tryAcquire(key, 1, decision));
+            assertEquals(3, decision.getLimit());
+            assertEquals(2, decision.getRemaining());
+            assertEquals(0, decision.getRetryAfterMillis());
+            assertEquals(800, decision.getResetAfterMillis());
+            assertTrue(limiter.tryAcquire(key, 2, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(0, decision.getRetryAfterMillis());
+
+            // Bị chặn tới ranh giới cửa sổ kế tiếp (1000ms), không phải cả cửa sổ
+            assertFalse(limiter.tryAcquire(key, 1, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(800, decision.getRetryAfterMillis());
+            assertEquals(800, decision.getResetAfterMillis());
+            assertEquals(1, decision.getRetryAfterSeconds());
+
+            // Lô lớn hơn giới hạn không bao giờ được cấp
+            assertFalse(limiter.tryAcquire(key, 4, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+        }
+    }
 }
@@ -0,0 +1,263 @@
+package com.dncuong.ws.rate_limit.algorithm.fixedwindow;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO FIXED WINDOW COUNTER - BIẾN THỂ LOCK-FREE
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Cùng ngữ nghĩa với bản synchronized: giới hạn, reset cửa sổ, key độc lập
+ * 2. Đóng gói windowId + counter vào một long
+ * 3. Tham số không hợp lệ → throw exception
+ * 4. Đồng thời: 200 thread, không bao giờ cho phép vượt giới hạn
+ * 5. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 6. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
+ *
+ * @author dncuong
+ */
+class LockFreeFixedWindowCounterRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Giới hạn trong một cửa sổ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cho phep dung maxRequests request roi tu choi")
+    void allowRequest_exceedLimit_shouldReject() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(3, 1000, clock);
+
+        assertTrue(limiter.allowRequest("user1"), "Request 1 phai duoc cho phep");
+        assertTrue(limiter.allowRequest("user1"), "Request 2 phai duoc cho phep");
+        assertTrue(limiter.allowRequest("user1"), "Request 3 phai duoc cho phep");
+        assertFalse(limiter.allowRequest("user1"), "Request 4 phai bi tu choi");
+        assertFalse(limiter.allowRequest("user1"), "Request 5 cung phai bi tu choi");
+    }
+
+    // =====================================================================
+    // TEST 2: Sang cửa sổ mới → counter reset
+    // =====================================================================
+
+    @Test
+    @DisplayName("Reset counter khi cua so moi bat dau")
+    void allowRequest_newWindow_shouldResetCounter() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(2, 1000, clock);
+
+        assertTrue(limiter.allowRequest("user1"));
+        assertTrue(limiter.allowRequest("user1"));
+        assertFalse(limiter.allowRequest("user1"), "Cua so 1 da day");
+
+        clock.set(999);
+        assertFalse(limiter.allowRequest("user1"), "999ms van o cua so 1");
+
+        clock.set(1000);
+        assertTrue(limiter.allowRequest("user1"), "1000ms la cua so moi, counter reset");
+        assertTrue(limiter.allowRequest("user1"));
+        assertFalse(limiter.allowRequest("user1"), "Cua so 2 da day");
+
+        // Nhảy xa nhiều cửa sổ
+        clock.advance(97_000);
+        assertTrue(limiter.allowRequest("user1"), "Cua so xa, counter reset");
+    }
+
+    // =====================================================================
+    // TEST 3: Các key độc lập
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cac key khac nhau co counter doc lap")
+    void allowRequest_differentKeys_shouldBeIndependent() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(1, 1000, clock);
+
+        assertTrue(limiter.allowRequest("user1"));
+        assertFalse(limiter.allowRequest("user1"), "user1 da het gioi han");
+        assertTrue(limiter.allowRequest("user2"), "user2 phai doc lap voi user1");
+    }
+
+    // =====================================================================
+    // TEST 4: Đóng gói word
+    // =====================================================================
+
+    @Test
+    @DisplayName("Pack/unpack windowId va counter khong mat du lieu")
+    void pack_roundTrip_shouldPreserveBothHalves() {
+        long word = LockFreeFixedWindowCounterRateLimiter.pack(0xFFFF_FFFEL, 0xFFFF_FFFFL);
+
+        assertEquals(0xFFFF_FFFEL, LockFreeFixedWindowCounterRateLimiter.windowIdOf(word));
+        assertEquals(0xFFFF_FFFFL, LockFreeFixedWindowCounterRateLimiter.counterOf(word));
+    }
+
+    @Test
+    @DisplayName("windowId lon (timestamp that / cua so 1ms) van reset dung")
+    void allowRequest_largeWindowIds_shouldStillReset() {
+        // Cửa sổ 1ms → windowId ~ 1.7 × 10^12, vượt 32 bit → chỉ giữ 32 bit thấp
+        long now = 1_700_000_000_000L;
+        ManualClock clock = new ManualClock(now);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(1, 1, clock);
+
+        assertTrue(limiter.allowRequest("user1"));
+        assertFalse(limiter.allowRequest("user1"));
+
+        clock.advance(1);
+        assertTrue(limiter.allowRequest("user1"), "Cua so ke tiep phai reset");
+    }
+
+    // =====================================================================
+    // TEST 5: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () ->
+                new LockFreeFixedWindowCounterRateLimiter(0, 1000));
+        assertThrows(IllegalArgumentException.class, () ->
+                new LockFreeFixedWindowCounterRateLimiter(1L << 32, 1000),
+                "counter chi co 32 bit");
+        assertThrows(IllegalArgumentException.class, () ->
+                new LockFreeFixedWindowCounterRateLimiter(10, 0));
+    }
+
+    // =====================================================================
+    // TEST 6: Thread-safe - cùng kịch bản 200 thread như bản synchronized
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: chi cho phep dung so request khi nhieu thread dong thoi")
+    void allowRequest_concurrent_shouldBeThreadSafe() throws InterruptedException {
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(100, 10_000);
+
+        int totalThreads = 200;
+        AtomicInteger allowedCount = new AtomicInteger(0);
+        AtomicInteger rejectedCount = new AtomicInteger(0);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch doneLatch = new CountDownLatch(totalThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(totalThreads);
+        for (int i = 0; i < totalThreads; i++) {
+            executor.submit(() -> {
+                try {
+                    startLatch.await();
+                    if (limiter.allowRequest("concurrent-test-key")) {
+                        allowedCount.incrementAndGet();
+                    } else {
+                        rejectedCount.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneLatch.countDown();
+                }
+            });
+        }
+
+        startLatch.countDown();
+        doneLatch.await();
+        executor.shutdown();
+
+        assertEquals(100, allowedCount.get(),
+                "Chi dung 100 request duoc cho phep (khong hon, khong kem)");
+        assertEquals(100, rejectedCount.get(), "Dung 100 request bi tu choi");
+    }
+
+    // =====================================================================
+    // TEST 7: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(3, 1000, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: cửa sổ của các key nhàn rỗi đã hết hạn
+        clock.advance(1000);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 8: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(5, 1000, clock);
+
+        assertTrue(limiter.tryAcquire("user", 3));
+        assertFalse(limiter.tryAcquire("user", 3), "Chi con 2 → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 2), "Lo bi tu choi khong duoc tru quota");
+        assertFalse(limiter.allowRequest("user"));
+
+        // Lô lớn hơn cả giới hạn, kể cả lớn hơn 32 bit counter, không bao giờ được cấp
+        assertFalse(limiter.tryAcquire("other", 6));
+        assertFalse(limiter.tryAcquire("other", Long.MAX_VALUE));
+        assertTrue(limiter.tryAcquire("other", 5));
+
+        clock.advance(1000);
+        assertTrue(limiter.tryAcquire("user", 5));
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 9: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        ManualClock clock = new ManualClock(200);
+        LockFreeFixedWindowCounterRateLimiter limiter = new LockFreeFixedWindowCounterRateLimiter(3, 1000, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(key, 1, decision));
+        assertEquals(3, decision.getLimit());
+        assertEquals(2, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(800, decision.getResetAfterMillis());
+        assertTrue(limiter.tryAcquire(key, 2, decision));
+        assertEquals(0, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+
+        assertFalse(limiter.tryAcquire(key, 1, decision));
+        assertEquals(0, decision.getRemaining());
+        assertEquals(800, decision.getRetryAfterMillis());
+        assertEquals(800, decision.getResetAfterMillis());
+
+        assertFalse(limiter.tryAcquire(key, 4, decision));
+        assertEquals(0, decision.getRemaining());
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+    }
+}
@@ -0,0 +1,251 @@
+package com.dncuong.ws.rate_limit.algorithm.gcra;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO GCRA (GENERIC CELL RATE ALGORITHM)
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Burst rồi hết quota
+ * 2. Nạp lại theo emission interval, không tích lũy quá burst
+ * 3. So sánh từng quyết định (cả lô nhiều permit) với TokenBucketRateLimiter
+ * 4. Tham số không hợp lệ → throw exception
+ * 5. Thread-safe (concurrent)
+ * 6. Key nhàn rỗi bị dọn, key đang bị chặn giữ trạng thái
+ * 7. tryAcquire(key, permits) và refund: cấp cả lô hoặc không trừ gì
+ * 8. Kết quả chi tiết: retry-after chính xác suy ra từ TAT
+ *
+ * @author dncuong
+ */
+class GcraRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Burst rồi hết quota
+    // =====================================================================
+
+    @Test
+    @DisplayName("Burst: gui het capacity cung luc duoc cho phep")
+    void allowRequest_burst_shouldAllowUpToCapacity() {
+        ManualClock clock = new ManualClock(0);
+        GcraRateLimiter limiter = new GcraRateLimiter(10, 1.0, clock);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.allowRequest("user1"), "Request " + (i + 1) + " trong burst");
+        }
+        assertFalse(limiter.allowRequest("user1"), "Het quota sau burst");
+        assertTrue(limiter.allowRequest("user2"), "Key khac co TAT rieng");
+    }
+
+    // =====================================================================
+    // TEST 2: Nạp lại theo emission interval
+    // =====================================================================
+
+    @Test
+    @DisplayName("Refill: 1 permit moi emission interval, khong tich luy qua burst")
+    void allowRequest_refill_shouldFollowEmissionInterval() {
+        // 3 permit/s → T = 333_333_333 ns
+        ManualClock clock = new ManualClock(1_000);
+        GcraRateLimiter limiter = new GcraRateLimiter(3, 3.0, clock);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+        assertFalse(limiter.allowRequest("user1"));
+
+        clock.advanceNanos(333_333_332);
+        assertFalse(limiter.allowRequest("user1"), "Thieu 1 ns");
+        clock.advanceNanos(1);
+        assertTrue(limiter.allowRequest("user1"), "Du dung 1 emission interval");
+
+        // Nhàn rỗi rất lâu: TAT lùi về quá khứ, chỉ còn lại burst = 3
+        clock.advance(3_600_000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+        assertFalse(limiter.allowRequest("user1"), "Khong tich luy qua capacity");
+    }
+
+    // =====================================================================
+    // TEST 3: Cùng kết quả với TokenBucketRateLimiter
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cung quyet dinh voi TokenBucketRateLimiter tren chuoi request ngau nhien")
+    void tryAcquire_randomWorkload_shouldMatchTokenBucket() {
+        Random random = new Random(42);
+        ManualClock clock = new ManualClock(0);
+        GcraRateLimiter gcra = new GcraRateLimiter(7, 2.0, clock);
+        ManualClock referenceClock = new ManualClock(0);
+        TokenBucketRateLimiter reference = new TokenBucketRateLimiter(7, 2.0, referenceClock);
+
+        for (int i = 0; i < 10_000; i++) {
+            // Bước thời gian là bội số 125ms → mỗi lần refill là bội số của 0.25 token,
+            // double biểu diễn chính xác nên bản tham chiếu không có sai số làm tròn
+            long step = 125L * random.nextInt(6);
+            clock.advance(step);
+            referenceClock.advance(step);
+            String key = "user" + random.nextInt(3);
+            long permits = 1 + random.nextInt(3);
+
+            assertEquals(reference.tryAcquire(key, permits), gcra.tryAcquire(key, permits),
+                    "Quyet dinh khac nhau o request thu " + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 4: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(0, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(10, Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(10, 2e9),
+                "Toi da 1 permit/ns");
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(Long.MAX_VALUE, 1.0),
+                "tolerance tran long");
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(10, 1.0, null));
+        assertThrows(IllegalArgumentException.class, () -> new GcraRateLimiter(10, 1.0).tryAcquire("user1", 0));
+    }
+
+    // =====================================================================
+    // TEST 5: Thread-safe
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: nhieu thread cung key khong vuot qua capacity")
+    void allowRequest_concurrent_shouldNotExceedCapacity() throws InterruptedException {
+        // Đồng hồ đứng yên → chỉ có đúng capacity permit
+        GcraRateLimiter limiter = new GcraRateLimiter(1_000, 1.0, new ManualClock(0));
+        int threads = 8;
+        int perThread = 500;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        if (limiter.tryAcquire("shared", 1 + i % 2)) {
+                            allowed.addAndGet(1 + i % 2);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        executor.shutdown();
+
+        assertEquals(1_000, allowed.get(), "Tong so permit duoc cap dung bang capacity");
+    }
+
+    // =====================================================================
+    // TEST 6: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        GcraRateLimiter limiter = new GcraRateLimiter(3, 1.0, clock);
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // TAT của các key nhàn rỗi đã lùi về quá khứ
+        clock.advance(1000);
+
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 7: tryAcquire(key, permits) và refund
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire lo: cap ca lo hoac khong tru gi, refund khong vuot capacity")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        GcraRateLimiter limiter = new GcraRateLimiter(5, 1.0, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+
+        assertTrue(limiter.tryAcquire(key, 3));
+        assertFalse(limiter.tryAcquire(key, 3), "Chi con 2 permit → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire(key, 2), "Lo bi tu choi khong ghi TAT");
+        assertFalse(limiter.tryAcquire(key, Long.MAX_VALUE), "Lo lon hon capacity khong tran so");
+
+        limiter.refund(key, 100, limiter.currentTimeMillis());
+        assertTrue(limiter.tryAcquire(key, 5), "Refund tra lai toan bo");
+        assertFalse(limiter.allowRequest(key), "Refund khong noi rong capacity");
+
+        // API theo millisecond (dùng bởi RateLimitBatch) quyết định cùng trạng thái
+        long now = limiter.currentTimeMillis() + 2000;
+        assertTrue(limiter.tryAcquire(key, 2, now));
+        assertFalse(limiter.tryAcquire(key, 1, now));
+    }
+
+    // =====================================================================
+    // TEST 8: Kết quả chi tiết
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: retry-after chinh xac tinh tu TAT")
+    void tryAcquire_decision_shouldReportExactRetryAfter() {
+        ManualClock clock = new ManualClock(0);
+        GcraRateLimiter limiter = new GcraRateLimiter(5, 1.0, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(key, 3, decision));
+        assertEquals(5, decision.getLimit());
+        assertEquals(2, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(3000, decision.getResetAfterMillis(), "TAT - now");
+
+        clock.advance(250);
+        assertFalse(limiter.tryAcquire(key, 4, decision));
+        assertEquals(2, decision.getRemaining());
+        assertEquals(1750, decision.getRetryAfterMillis(), "TAT + 4T - tolerance - now");
+        assertEquals(2750, decision.getResetAfterMillis());
+
+        assertFalse(limiter.tryAcquire(key, 6, decision));
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+
+        // Đúng thời điểm retry-after báo thì được cấp, sớm hơn 1 ns thì không
+        clock.advanceNanos(1_750_000_000L - 1);
+        assertFalse(limiter.tryAcquire(key, 4));
+        clock.advanceNanos(1);
+        assertTrue(limiter.tryAcquire(key, 4));
+    }
+}
@@ -0,0 +1,273 @@
+package com.dncuong.ws.rate_limit.algorithm.hierarchical;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitBatch;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.gcra.GcraRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO HIERARCHICAL RATE LIMITER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Mỗi tầng giới hạn riêng: credential, user, tenant
+ * 2. Tầng cha từ chối thì tầng con không bị trừ (và ngược lại)
+ * 3. Giống RateLimitBatch.allowAll trên các GcraRateLimiter riêng từng tầng
+ * 4. Kết quả chi tiết: tầng chặt nhất, retry-after của tầng chờ lâu nhất
+ * 5. Tham số không hợp lệ → throw exception
+ * 6. Thread-safe: không tầng nào vượt quota, không deadlock
+ * 7. Key nhàn rỗi ở mọi tầng bị dọn dần
+ *
+ * @author dncuong
+ */
+class HierarchicalRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Mỗi tầng giới hạn riêng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Moi tang gioi han rieng: credential, user, tenant")
+    void allowRequest_eachLevel_shouldEnforceItsQuota() {
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(new ManualClock(0),
+                new QuotaLevel(5, 1.0), new QuotaLevel(3, 1.0), new QuotaLevel(2, 1.0));
+
+        assertTrue(limiter.allowRequest("acme", "alice", "key-1"));
+        assertTrue(limiter.allowRequest("acme", "alice", "key-1"));
+        assertFalse(limiter.allowRequest("acme", "alice", "key-1"), "Credential 2 burst");
+
+        assertTrue(limiter.allowRequest("acme", "alice", "key-2"));
+        assertFalse(limiter.allowRequest("acme", "alice", "key-2"), "User 3 burst");
+
+        assertTrue(limiter.allowRequest("acme", "bob", "key-3"));
+        assertTrue(limiter.allowRequest("acme", "bob", "key-3"));
+        assertFalse(limiter.allowRequest("acme", "bob", "key-4"), "Tenant 5 burst");
+
+        assertTrue(limiter.allowRequest("globex", "carol", "key-5"), "Tenant khac co quota rieng");
+    }
+
+    // =====================================================================
+    // TEST 2: Từ chối không trừ gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("Tang cha tu choi thi tang con khong bi tru, va nguoc lai")
+    void tryAcquire_rejection_shouldConsumeNothing() {
+        ManualClock clock = new ManualClock(0);
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(clock,
+                new QuotaLevel(4, 1.0), new QuotaLevel(10, 1.0));
+        RateLimitKey[] alice = {RateLimitKey.of("acme"), RateLimitKey.of("alice")};
+        RateLimitKey[] bob = {RateLimitKey.of("acme"), RateLimitKey.of("bob")};
+
+        assertTrue(limiter.tryAcquire(alice, 4));
+        // Tenant hết quota: user bob bị từ chối nhiều lần, không được trừ gì ở tầng user
+        for (int i = 0; i < 50; i++) {
+            assertFalse(limiter.tryAcquire(bob, 1));
+        }
+        clock.advance(4_000);
+        assertTrue(limiter.tryAcquire(bob, 4), "Xo cua bob van day");
+
+        // User từ chối (lô 11 > 10): tenant không bị trừ
+        clock.advance(4_000);
+        assertFalse(limiter.tryAcquire(alice, 11));
+        assertTrue(limiter.tryAcquire(bob, 4), "Tenant van con du 4");
+    }
+
+    // =====================================================================
+    // TEST 3: Giống allowAll trên các limiter riêng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Giong RateLimitBatch.allowAll tren cac GcraRateLimiter rieng tung tang")
+    void tryAcquire_randomWorkload_shouldMatchAllOrNothingReference() {
+        Random random = new Random(42);
+        ManualClock clock = new ManualClock(0);
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(clock,
+                new QuotaLevel(12, 4.0), new QuotaLevel(6, 2.0), new QuotaLevel(3, 1.0));
+        RateLimiter[] reference = {
+                new GcraRateLimiter(12, 4.0, clock),
+                new GcraRateLimiter(6, 2.0, clock),
+                new GcraRateLimiter(3, 1.0, clock)
+        };
+
+        for (int i = 0; i < 10_000; i++) {
+            clock.advance(125L * random.nextInt(4));
+            int user = random.nextInt(4);
+            RateLimitKey[] path = {
+                    RateLimitKey.of("tenant" + user / 2),
+                    RateLimitKey.of("user" + user),
+                    RateLimitKey.of("key" + user + "-" + random.nextInt(2))
+            };
+            long permits = 1 + random.nextInt(2);
+
+            boolean expected = permits == 1
+                    ? RateLimitBatch.allowAll(reference, path)
+                    : allOrNothing(reference, path, permits);
+            assertEquals(expected, limiter.tryAcquire(path, permits), "Quyet dinh khac o request " + i);
+        }
+    }
+
+    private static boolean allOrNothing(RateLimiter[] limiters, RateLimitKey[] path, long permits) {
+        long now = limiters[0].currentTimeMillis();
+        for (int i = 0; i < limiters.length; i++) {
+            if (!limiters[i].tryAcquire(path[i], permits, now)) {
+                for (int j = 0; j < i; j++) {
+                    limiters[j].refund(path[j], permits, now);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // =====================================================================
+    // TEST 4: Kết quả chi tiết
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: tang chat nhat va retry-after cua tang cho lau nhat")
+    void tryAcquire_decision_shouldCombineLevels() {
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(new ManualClock(0),
+                new QuotaLevel(4, 1.0), new QuotaLevel(3, 0.5));
+        RateLimitKey[] alice = {RateLimitKey.of("acme"), RateLimitKey.of("alice")};
+        RateLimitKey[] bob = {RateLimitKey.of("acme"), RateLimitKey.of("bob")};
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(alice, 3, decision));
+        assertEquals(3, decision.getLimit(), "Tang user con 0");
+        assertEquals(0, decision.getRemaining());
+        assertEquals(6_000, decision.getResetAfterMillis(), "User nap 3 permit mat 6s");
+
+        // bob: tầng user còn 3, tenant chỉ còn 1 → tenant từ chối
+        assertFalse(limiter.tryAcquire(bob, 3, decision));
+        assertEquals(4, decision.getLimit());
+        assertEquals(1, decision.getRemaining());
+        assertEquals(2_000, decision.getRetryAfterMillis(), "Tenant can them 2 permit");
+
+        // alice: user từ chối (chờ 4s), tenant cũng thiếu (chờ 1s) → chờ tầng lâu nhất
+        assertFalse(limiter.tryAcquire(alice, 2, decision));
+        assertEquals(4_000, decision.getRetryAfterMillis());
+
+        assertFalse(limiter.tryAcquire(alice, 5, decision));
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis(), "Lo lon hon moi burst");
+    }
+
+    // =====================================================================
+    // TEST 5: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, HierarchicalRateLimiter::new);
+        assertThrows(IllegalArgumentException.class, () -> new HierarchicalRateLimiter((QuotaLevel) null));
+        assertThrows(IllegalArgumentException.class, () -> new QuotaLevel(0, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new QuotaLevel(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new QuotaLevel(Long.MAX_VALUE, 1.0));
+
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(new QuotaLevel(10, 1.0), new QuotaLevel(5, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest("acme"), "Thieu tang");
+        assertThrows(IllegalArgumentException.class,
+                () -> limiter.tryAcquire(new RateLimitKey[]{RateLimitKey.of("a"), RateLimitKey.of("b")}, 0));
+    }
+
+    // =====================================================================
+    // TEST 6: Thread-safe
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: khong tang nao vuot quota, khong deadlock")
+    void tryAcquire_concurrent_shouldRespectEveryLevel() throws InterruptedException {
+        // Đồng hồ đứng yên: tenant 100, mỗi user 30, mỗi credential 12
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(new ManualClock(0),
+                new QuotaLevel(100, 1.0), new QuotaLevel(30, 1.0), new QuotaLevel(12, 1.0));
+        int users = 5;
+        int keysPerUser = 4;
+        AtomicIntegerArray perUser = new AtomicIntegerArray(users);
+        AtomicIntegerArray perKey = new AtomicIntegerArray(users * keysPerUser);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            executor.submit(() -> {
+                Random random = new Random(seed);
+                try {
+                    start.await();
+                    for (int i = 0; i < 2_000; i++) {
+                        int user = random.nextInt(users);
+                        int credential = user * keysPerUser + random.nextInt(keysPerUser);
+                        RateLimitKey[] path = {
+                                RateLimitKey.of("acme"), RateLimitKey.of("user" + user), RateLimitKey.of("key" + credential)
+                        };
+                        if (limiter.tryAcquire(path, 1)) {
+                            perUser.incrementAndGet(user);
+                            perKey.incrementAndGet(credential);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS), "Khong duoc deadlock");
+        executor.shutdown();
+
+        int total = 0;
+        for (int u = 0; u < users; u++) {
+            assertTrue(perUser.get(u) <= 30, "User " + u + ": " + perUser.get(u));
+            total += perUser.get(u);
+        }
+        for (int k = 0; k < perKey.length(); k++) {
+            assertTrue(perKey.get(k) <= 12, "Credential " + k + ": " + perKey.get(k));
+        }
+        assertEquals(100, total, "Tenant cap dung 100 permit");
+    }
+
+    // =====================================================================
+    // TEST 7: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi o moi tang bi don dan")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        HierarchicalRateLimiter limiter = new HierarchicalRateLimiter(clock,
+                new QuotaLevel(3, 1.0), new QuotaLevel(1_000, 1_000.0));
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("tenant-" + i, "user-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount(0));
+        assertEquals(200, limiter.trackedKeyCount(1));
+
+        clock.advance(1_000);
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("busy", "blocked");
+        }
+
+        // Tenant "busy" từ chối: tầng user được đọc nhưng không bị trừ, cả hai tầng đều quét
+        assertEquals(1, limiter.trackedKeyCount(0), "Chi con tenant dang hoat dong");
+        assertEquals(1, limiter.trackedKeyCount(1), "Chi con user dang hoat dong");
+        assertFalse(limiter.allowRequest("busy", "blocked"), "Tenant dang bi chan khong duoc reset");
+    }
+}
@@ -0,0 +1,211 @@
+package com.dncuong.ws.rate_limit.algorithm.leakybucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO LEAKY BUCKET SHAPER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Request liên tiếp được hoãn đều nhau, vượt maxDelay thì bị từ chối
+ * 2. Hàng đợi rò theo thời gian, thời gian nhàn rỗi không tích lũy thành burst
+ * 3. Lô nhiều permit chiếm chỗ tương ứng, lô quá lớn không tràn số
+ * 4. cancel chỉ trả chỗ cuối hàng (chỗ giữa hàng thành khoảng trống), không lùi quá hiện tại
+ * 5. Tham số không hợp lệ → throw exception
+ * 6. Thread-safe: mỗi request nhận một chỗ riêng trong hàng đợi
+ * 7. Key có hàng đợi trống bị dọn dần
+ *
+ * @author dncuong
+ */
+class LeakyBucketShaperTest {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    // =====================================================================
+    // TEST 1: Hoãn đều nhau, vượt maxDelay thì từ chối
+    // =====================================================================
+
+    @Test
+    @DisplayName("Request lien tiep duoc hoan deu nhau, vuot maxDelay bi tu choi")
+    void reserve_burst_shouldSpaceRequestsEvenly() {
+        ManualClock clock = new ManualClock(0);
+        LeakyBucketShaper shaper = new LeakyBucketShaper(1.0, 2_000, clock);
+
+        assertEquals(0, shaper.reserve("user1"), "Hang doi trong → xu ly ngay");
+        assertEquals(1_000 * NANOS_PER_MILLI, shaper.reserve("user1"));
+        assertEquals(2_000 * NANOS_PER_MILLI, shaper.reserve("user1"), "Dung bang maxDelay van duoc xep");
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve("user1"), "3 giay > maxDelay");
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve("user1"), "Request bi tu choi khong chiem cho");
+
+        assertEquals(0, shaper.reserve("user2"), "Key khac co hang doi rieng");
+    }
+
+    // =====================================================================
+    // TEST 2: Hàng đợi rò theo thời gian
+    // =====================================================================
+
+    @Test
+    @DisplayName("Hang doi ro theo thoi gian, nhan roi khong tich luy thanh burst")
+    void reserve_drain_shouldNotAccumulateIdleTime() {
+        ManualClock clock = new ManualClock(1_000);
+        LeakyBucketShaper shaper = new LeakyBucketShaper(4.0, 1_000, clock);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 250 * NANOS_PER_MILLI, shaper.reserve("user1"));
+        }
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve("user1"));
+
+        clock.advance(300);
+        assertEquals(950 * NANOS_PER_MILLI, shaper.reserve("user1"), "Cho tiep theo o moc 1250ms");
+
+        // Nhàn rỗi 1 giờ: hàng đợi trống, nhưng request vẫn bị giãn cách đúng 250ms
+        clock.advance(3_600_000);
+        assertEquals(0, shaper.reserve("user1"));
+        assertEquals(250 * NANOS_PER_MILLI, shaper.reserve("user1"));
+    }
+
+    // =====================================================================
+    // TEST 3: Lô nhiều permit
+    // =====================================================================
+
+    @Test
+    @DisplayName("Lo nhieu permit chiem cho tuong ung, lo qua lon khong tran so")
+    void reserve_batch_shouldOccupyProportionalSlot() {
+        ManualClock clock = new ManualClock(0);
+        LeakyBucketShaper shaper = new LeakyBucketShaper(10.0, 500, clock);
+        RateLimitKey key = RateLimitKey.of("batch");
+
+        assertEquals(0, shaper.reserve(key, 5));
+        assertEquals(500 * NANOS_PER_MILLI, shaper.reserve(key, 1), "5 permit × 100ms");
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve(key, 1));
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve(RateLimitKey.of("other"), Long.MAX_VALUE));
+    }
+
+    // =====================================================================
+    // TEST 4: cancel
+    // =====================================================================
+
+    @Test
+    @DisplayName("cancel chi tra cho cuoi hang, khong lui qua hien tai")
+    void cancel_shouldReleaseOnlyLastReservation() {
+        ManualClock clock = new ManualClock(0);
+        LeakyBucketShaper shaper = new LeakyBucketShaper(1.0, 2_000, clock);
+        RateLimitKey key = RateLimitKey.of("user1");
+
+        long now = shaper.currentTimeNanos();
+        long first = shaper.reserve(key, 1, now);
+        long second = shaper.reserve(key, 1, now);
+        long third = shaper.reserve(key, 1, now);
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve(key, 1, now));
+
+        // Chỗ giữa hàng: request thứ ba đã hẹn lúc 2s, không được xếp chồng lên
+        assertFalse(shaper.cancel(key, 1, now, second));
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve(key, 1, now), "Cho giua hang thanh khoang trong");
+
+        // Chỗ cuối hàng được trả lại và dùng lại
+        assertTrue(shaper.cancel(key, 1, now, third));
+        long reused = shaper.reserve(key, 1, now);
+        assertEquals(2_000 * NANOS_PER_MILLI, reused, "Cho vua huy duoc dung lai");
+
+        // Không lùi quá hiện tại: chỗ [2s, 3s) huỷ lúc 2.5s chỉ trả phần còn lại
+        clock.advance(2_500);
+        assertTrue(shaper.cancel(key, 1, now, reused));
+        assertEquals(0, shaper.reserve(key, 1), "Hang doi trong tu hien tai");
+        assertFalse(shaper.cancel(key, 1, now, first), "Cho da qua");
+
+        assertFalse(shaper.cancel(RateLimitKey.of("unknown"), 1, now, 0));
+        assertThrows(IllegalArgumentException.class, () -> shaper.cancel(key, 0, now, 0));
+    }
+
+    // =====================================================================
+    // TEST 5: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new LeakyBucketShaper(0, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> new LeakyBucketShaper(Double.NaN, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> new LeakyBucketShaper(2e9, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> new LeakyBucketShaper(1.0, -1));
+        assertThrows(IllegalArgumentException.class, () -> new LeakyBucketShaper(1.0, Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> new LeakyBucketShaper(1.0, 1_000, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LeakyBucketShaper(1.0, 1_000).reserve(RateLimitKey.of("user1"), 0));
+    }
+
+    // =====================================================================
+    // TEST 6: Thread-safe
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: moi request nhan mot cho rieng trong hang doi")
+    void reserve_concurrent_shouldAssignDistinctSlots() throws InterruptedException {
+        // Đồng hồ đứng yên, 1000 request/s, chờ tối đa 999ms → đúng 1000 chỗ 0..999ms
+        LeakyBucketShaper shaper = new LeakyBucketShaper(1_000.0, 999, new ManualClock(0));
+        int threads = 8;
+        int perThread = 250;
+        Set<Long> delays = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        long delay = shaper.reserve("shared");
+                        if (delay != LeakyBucketShaper.REJECTED) {
+                            assertTrue(delays.add(delay), "Hai request cung mot cho: " + delay);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        executor.shutdown();
+
+        assertEquals(1_000, delays.size());
+    }
+
+    // =====================================================================
+    // TEST 7: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key co hang doi trong bi don dan, key dang xep hang giu trang thai")
+    void reserve_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        LeakyBucketShaper shaper = new LeakyBucketShaper(1.0, 10_000, clock);
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals(0, shaper.reserve("idle-" + i));
+        }
+        assertEquals(200, shaper.trackedKeyCount());
+
+        clock.advance(1_000);
+        for (int i = 0; i < 2_000; i++) {
+            shaper.reserve("busy");
+        }
+
+        assertEquals(1, shaper.trackedKeyCount(), "Chi con key dang xep hang");
+        assertEquals(LeakyBucketShaper.REJECTED, shaper.reserve("busy"), "Hang doi cua key khong bi reset");
+    }
+}
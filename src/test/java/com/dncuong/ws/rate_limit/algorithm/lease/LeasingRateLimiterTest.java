@@ -0,0 +1,300 @@
+package com.dncuong.ws.rate_limit.algorithm.lease;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO LEASING RATE LIMITER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Nhiều node xin đồng thời: tổng permit không vượt quota toàn cục
+ * 2. Traffic đều: số lần hỏi coordinator ít hơn nhiều so với số request
+ * 3. Kích thước lease thích nghi: key nóng lô lớn, key lạnh lô nhỏ
+ * 4. Key nhàn rỗi: lease trả về coordinator, state bị xoá
+ * 5. Renew bất đồng bộ khi lease còn dưới ngưỡng
+ * 6. Coordinator hết quota → từ chối kèm retry-after của coordinator
+ * 7. refund trả vào lease, hoặc về coordinator nếu lease đã trả
+ * 8. Tham số không hợp lệ → throw exception
+ *
+ * @author dncuong
+ */
+class LeasingRateLimiterTest {
+
+    /**
+     * Coordinator đếm số lần được hỏi.
+     */
+    private static final class CountingCoordinator implements LeaseCoordinator {
+        final LeaseCoordinator delegate;
+        final AtomicInteger acquireCalls = new AtomicInteger();
+
+        CountingCoordinator(LeaseCoordinator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public long acquire(RateLimitKey key, long min, long max, RateLimitDecision decision) {
+            acquireCalls.incrementAndGet();
+            return delegate.acquire(key, min, max, decision);
+        }
+
+        @Override
+        public void release(RateLimitKey key, long permits) {
+            delegate.release(key, permits);
+        }
+    }
+
+    /** Quota toàn cục gần như không nạp lại trong thời gian test. */
+    private static LocalLeaseCoordinator fixedQuota(long quota, ManualClock clock) {
+        return new LocalLeaseCoordinator(new TokenBucketRateLimiter(quota, 0.001, clock));
+    }
+
+    // =====================================================================
+    // TEST 1: Không vượt quota toàn cục
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu node xin dong thoi: tong permit khong vuot quota toan cuc")
+    void allowRequest_manyNodesConcurrently_shouldNeverExceedGlobalQuota() throws InterruptedException {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = fixedQuota(1_000, clock);
+        ExecutorService renewals = Executors.newFixedThreadPool(2);
+        List<LeasingRateLimiter> nodes = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            nodes.add(new LeasingRateLimiter(coordinator, 64, 1_000, renewals, clock));
+        }
+
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(nodes.size() * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(nodes.size() * 2);
+        for (LeasingRateLimiter node : nodes) {
+            for (int t = 0; t < 2; t++) {
+                executor.submit(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 500; i++) {
+                            if (node.allowRequest("tenant")) {
+                                allowed.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        renewals.shutdown();
+        assertTrue(renewals.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertTrue(allowed.get() <= 1_000, "4.000 request, quota 1.000, duoc cap: " + allowed.get());
+
+        // Trả lease nhàn rỗi: phần node đang giữ về lại coordinator, không mất permit nào
+        clock.advance(1_000);
+        nodes.forEach(LeasingRateLimiter::returnIdleLeases);
+        assertEquals(1_000 - allowed.get(), coordinator.acquire(RateLimitKey.of("tenant"), 1, 1_000, null));
+    }
+
+    // =====================================================================
+    // TEST 2: Ít round trip
+    // =====================================================================
+
+    @Test
+    @DisplayName("Traffic deu: so lan hoi coordinator it hon nhieu so request")
+    void allowRequest_steadyTraffic_shouldRarelyCallCoordinator() {
+        ManualClock clock = new ManualClock(0);
+        CountingCoordinator coordinator = new CountingCoordinator(
+                new LocalLeaseCoordinator(new TokenBucketRateLimiter(1_000_000, 1_000_000.0, clock)));
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 1_000, 1_000, Runnable::run, clock);
+
+        for (int i = 0; i < 10_000; i++) {
+            clock.advance(1);
+            assertTrue(node.allowRequest("tenant"), "Request " + i);
+        }
+
+        assertTrue(coordinator.acquireCalls.get() < 500,
+                "10.000 request, so lan hoi coordinator: " + coordinator.acquireCalls.get());
+    }
+
+    // =====================================================================
+    // TEST 3: Lease thích nghi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nong lo lon (toi da maxLeaseSize), key lanh lo nho")
+    void leaseSize_shouldFollowConsumptionRate() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = new LocalLeaseCoordinator(
+                new TokenBucketRateLimiter(1_000_000, 1_000_000.0, clock));
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 500, 1_000, Runnable::run, clock);
+        RateLimitKey hot = RateLimitKey.of("hot");
+        RateLimitKey cold = RateLimitKey.of("cold");
+
+        for (int ms = 0; ms < 2_000; ms++) {
+            clock.advance(1);
+            for (int i = 0; i < 10; i++) {
+                assertTrue(node.tryAcquire(hot, 1));
+            }
+            if (ms % 50 == 0) {
+                assertTrue(node.tryAcquire(cold, 1));
+            }
+        }
+
+        assertEquals(500, node.leaseSize(hot), "10.000 permit/giay, kep o maxLeaseSize");
+        assertTrue(node.leaseSize(cold) <= 4, "20 permit/giay, lease: " + node.leaseSize(cold));
+    }
+
+    // =====================================================================
+    // TEST 4: Trả lease khi nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi: lease tra ve coordinator, state bi xoa")
+    void returnIdleLeases_shouldReleaseUnusedPermits() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = fixedQuota(10, clock);
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 8, 1_000, Runnable::run, clock);
+
+        assertTrue(node.allowRequest("tenant"));
+        assertEquals(1, node.trackedKeyCount());
+
+        clock.advance(999);
+        node.returnIdleLeases();
+        assertEquals(1, node.trackedKeyCount(), "Chua du idleMillis");
+
+        clock.advance(1);
+        node.returnIdleLeases();
+        assertEquals(0, node.trackedKeyCount());
+        assertEquals(9, coordinator.acquire(RateLimitKey.of("tenant"), 1, 10, null),
+                "Chi 1 permit da thuc su tieu");
+    }
+
+    // =====================================================================
+    // TEST 5: Renew bất đồng bộ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Lease duoi nguong: renew chay nen, request sau van di duong nhanh")
+    void allowRequest_belowThreshold_shouldRenewAsynchronously() {
+        ManualClock clock = new ManualClock(0);
+        CountingCoordinator coordinator = new CountingCoordinator(fixedQuota(100, clock));
+        Queue<Runnable> renewals = new ArrayDeque<>();
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 8, 1_000, renewals::add, clock);
+
+        // Lần đầu: lease trống → xin đồng bộ 1 + lease (2)
+        assertTrue(node.allowRequest("tenant"));
+        assertEquals(1, coordinator.acquireCalls.get());
+        assertTrue(renewals.isEmpty());
+
+        // Tiêu nốt → dưới ngưỡng → hẹn renew, không chờ coordinator
+        assertTrue(node.allowRequest("tenant"));
+        assertEquals(1, coordinator.acquireCalls.get());
+        assertEquals(1, renewals.size());
+
+        renewals.poll().run();
+        assertEquals(2, coordinator.acquireCalls.get());
+
+        // Lô mới đã về: hai request tiếp theo không phải chờ coordinator
+        assertTrue(node.allowRequest("tenant"));
+        assertTrue(node.allowRequest("tenant"));
+        assertEquals(2, coordinator.acquireCalls.get());
+        assertEquals(1, renewals.size(), "Mot lan hen moi");
+    }
+
+    // =====================================================================
+    // TEST 6: Coordinator hết quota
+    // =====================================================================
+
+    @Test
+    @DisplayName("Coordinator het quota → tu choi kem retry-after cua coordinator")
+    void tryAcquire_globalQuotaExhausted_shouldRejectWithCoordinatorRetryAfter() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = new LocalLeaseCoordinator(new TokenBucketRateLimiter(3, 1.0, clock));
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 8, 1_000, Runnable::run, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(node.tryAcquire(key, 1, decision), "Request " + i);
+        }
+        assertFalse(node.tryAcquire(key, 1, decision));
+        assertEquals(3, decision.getLimit());
+        assertEquals(0, decision.getRemaining());
+        assertEquals(1_000, decision.getRetryAfterMillis(), "1 token o toc do 1/s");
+
+        clock.advance(1_000);
+        assertTrue(node.tryAcquire(key, 1, decision));
+    }
+
+    // =====================================================================
+    // TEST 7: refund
+    // =====================================================================
+
+    @Test
+    @DisplayName("refund tra vao lease, hoac ve coordinator neu lease da tra")
+    void refund_shouldReturnToLeaseOrCoordinator() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = fixedQuota(10, clock);
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 8, 1_000, task -> { }, clock);
+        RateLimitKey key = RateLimitKey.of("tenant");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(node.tryAcquire(key, 1, decision));
+        assertEquals(1, decision.getRemaining());
+
+        node.refund(key, 1, clock.currentTimeMillis());
+        assertTrue(node.tryAcquire(key, 1, decision));
+        assertEquals(1, decision.getRemaining(), "Permit tra ve nam trong lease");
+
+        // Lease đã trả: refund đi thẳng về coordinator
+        clock.advance(1_000);
+        node.returnIdleLeases();
+        node.refund(key, 1, clock.currentTimeMillis());
+        assertEquals(10, coordinator.acquire(key, 1, 10, null));
+    }
+
+    // =====================================================================
+    // TEST 8: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = fixedQuota(10, clock);
+        assertThrows(IllegalArgumentException.class, () -> new LeasingRateLimiter(null, 8));
+        assertThrows(IllegalArgumentException.class, () -> new LeasingRateLimiter(coordinator, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LeasingRateLimiter(coordinator, 8, 0, Runnable::run, clock));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LeasingRateLimiter(coordinator, 8, 1_000, null, clock));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LeasingRateLimiter(coordinator, 8, 1_000, Runnable::run, null));
+
+        LeasingRateLimiter node = new LeasingRateLimiter(coordinator, 8);
+        assertThrows(IllegalArgumentException.class, () -> node.tryAcquire(RateLimitKey.of("a"), 0));
+        assertThrows(IllegalArgumentException.class, () -> node.refund(RateLimitKey.of("a"), 0, 0));
+    }
+}
@@ -0,0 +1,80 @@
+package com.dncuong.ws.rate_limit.algorithm.lease;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO LOCAL LEASE COORDINATOR
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Cấp một phần khi xô không đủ, dưới min thì cấp 0 kèm retry-after cho min
+ * 2. release trả permit về xô toàn cục
+ * 3. Tham số không hợp lệ → throw exception
+ *
+ * @author dncuong
+ */
+class LocalLeaseCoordinatorTest {
+
+    // =====================================================================
+    // TEST 1: Cấp một phần
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cap mot phan khi xo khong du, duoi min thi cap 0 kem retry-after cho min")
+    void acquire_partial_shouldGrantWhatIsLeft() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = new LocalLeaseCoordinator(new TokenBucketRateLimiter(10, 2.0, clock));
+        RateLimitKey key = RateLimitKey.of("tenant");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertEquals(6, coordinator.acquire(key, 1, 6, decision));
+        assertEquals(4, coordinator.acquire(key, 2, 8, decision), "Chi con 4");
+        assertEquals(0, coordinator.acquire(key, 3, 5, decision));
+        assertFalse(decision.isAllowed());
+        assertEquals(10, decision.getLimit());
+        assertEquals(1_500, decision.getRetryAfterMillis(), "Cho du min = 3 token o toc do 2/s");
+
+        clock.advance(1_000);
+        assertEquals(0, coordinator.acquire(key, 3, 5, null), "Moi co 2 < min");
+        assertEquals(2, coordinator.acquire(key, 1, 5, null));
+    }
+
+    // =====================================================================
+    // TEST 2: release
+    // =====================================================================
+
+    @Test
+    @DisplayName("release tra permit ve xo toan cuc")
+    void release_shouldReturnPermits() {
+        ManualClock clock = new ManualClock(0);
+        LocalLeaseCoordinator coordinator = new LocalLeaseCoordinator(new TokenBucketRateLimiter(10, 1.0, clock));
+        RateLimitKey key = RateLimitKey.of("tenant");
+
+        assertEquals(10, coordinator.acquire(key, 10, 10, null));
+        coordinator.release(key, 7);
+        assertEquals(7, coordinator.acquire(key, 1, 10, null));
+    }
+
+    // =====================================================================
+    // TEST 3: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void acquire_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new LocalLeaseCoordinator(null));
+
+        LocalLeaseCoordinator coordinator = new LocalLeaseCoordinator(new TokenBucketRateLimiter(10, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> coordinator.acquire(RateLimitKey.of("a"), 0, 5, null));
+        assertThrows(IllegalArgumentException.class, () -> coordinator.acquire(RateLimitKey.of("a"), 5, 4, null));
+        assertThrows(IllegalArgumentException.class, () -> coordinator.release(RateLimitKey.of("a"), 0));
+    }
+}
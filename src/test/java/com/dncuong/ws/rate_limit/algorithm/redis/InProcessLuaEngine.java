@@ -0,0 +1,275 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaFunction;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.StringLib;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseMathLib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyspace trong bộ nhớ cùng trình thông dịch Lua (luaj) để
+ * {@link InProcessRespServer} chạy ĐÚNG mã Lua của script limiter, không
+ * giả lập.
+ *
+ * Script chạy như trên Redis:
+ * - KEYS / ARGV là biến toàn cục, chỉ có thư viện base, string, table, math
+ * - redis.call hỗ trợ lệnh mà các script dùng: HMGET, HGET, HSET, DEL,
+ *   EXISTS, PEXPIRE, PTTL. Lỗi của lệnh làm script dừng với lỗi
+ * - Chuyển kiểu giữa Redis và Lua theo quy tắc của Redis: field không tồn
+ *   tại → false, integer reply → number; script trả number → integer (cắt
+ *   phần thập phân), table → mảng (dừng ở phần tử nil đầu tiên), false → nil
+ *
+ * TTL tính theo clock truyền vào (cùng clock với limiter trong test), key
+ * hết hạn bị xóa khi được truy cập.
+ *
+ * Khác Redis: luaj là Lua 5.2 (Redis dùng 5.1) và số lớn hơn 10^14 được
+ * chuyển thành chuỗi đầy đủ thay vì dạng %.14g. Script của limiter không
+ * dùng chỗ nào khác nhau giữa hai bản.
+ *
+ * Không thread-safe: {@link InProcessRespServer} chạy mọi lệnh lần lượt.
+ *
+ * @author dncuong
+ */
+final class InProcessLuaEngine {
+
+    private final RateLimitClock clock;
+
+    private final Globals globals = new Globals();
+
+    /** key → hash (field → value). */
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+
+    /** key → thời điểm hết hạn (clock). */
+    private final Map<String, Long> expiresAt = new HashMap<>();
+
+    /** SHA1 → script đã biên dịch. */
+    private final Map<String, LuaFunction> compiled = new HashMap<>();
+
+    InProcessLuaEngine(RateLimitClock clock) {
+        this.clock = clock;
+        globals.load(new JseBaseLib());
+        globals.load(new PackageLib());
+        globals.load(new TableLib());
+        globals.load(new StringLib());
+        globals.load(new JseMathLib());
+        LoadState.install(globals);
+        LuaC.install(globals);
+
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                String[] command = new String[args.narg()];
+                for (int i = 0; i < command.length; i++) {
+                    LuaValue arg = args.arg(i + 1);
+                    if (!arg.isstring()) {
+                        throw new LuaError("Lua redis() command arguments must be strings or integers");
+                    }
+                    command[i] = arg.tojstring();
+                }
+                Object reply = execute(command);
+                if (reply instanceof RespException error) {
+                    throw new LuaError(error.getMessage());
+                }
+                return toLua(reply);
+            }
+        });
+        globals.set("redis", redis);
+    }
+
+    /**
+     * Chạy script với KEYS / ARGV.
+     *
+     * @return trả lời đã chuyển sang kiểu RESP, hoặc RespException nếu script lỗi
+     */
+    Object eval(String sha1, String source, List<String> keys, List<String> args) {
+        LuaFunction script = compiled.get(sha1);
+        if (script == null) {
+            try {
+                script = globals.load(source, "@user_script").checkfunction();
+            } catch (LuaError e) {
+                return new RespException("ERR Error compiling script: " + e.getMessage());
+            }
+            compiled.put(sha1, script);
+        }
+        globals.set("KEYS", array(keys));
+        globals.set("ARGV", array(args));
+        try {
+            return fromLua(script.call());
+        } catch (LuaError e) {
+            return new RespException("ERR Error running script: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chạy một lệnh trên keyspace (từ redis.call hoặc trực tiếp từ client).
+     *
+     * @return trả lời kiểu RESP, hoặc RespException nếu lệnh không hợp lệ
+     */
+    Object execute(String[] command) {
+        String name = command[0].toUpperCase();
+        try {
+            return switch (name) {
+                case "HMGET" -> {
+                    Map<String, String> hash = hash(command[1]);
+                    List<Object> values = new ArrayList<>();
+                    for (int i = 2; i < command.length; i++) {
+                        values.add(bulk(hash == null ? null : hash.get(command[i])));
+                    }
+                    yield values;
+                }
+                case "HGET" -> {
+                    Map<String, String> hash = hash(command[1]);
+                    yield bulk(hash == null ? null : hash.get(command[2]));
+                }
+                case "HSET" -> {
+                    if (command.length < 4 || command.length % 2 != 0) {
+                        yield new RespException("ERR wrong number of arguments for 'hset' command");
+                    }
+                    Map<String, String> hash = hash(command[1]);
+                    if (hash == null) {
+                        hash = new LinkedHashMap<>();
+                        hashes.put(command[1], hash);
+                    }
+                    long added = 0;
+                    for (int i = 2; i < command.length; i += 2) {
+                        if (hash.put(command[i], command[i + 1]) == null) {
+                            added++;
+                        }
+                    }
+                    yield added;
+                }
+                case "DEL", "EXISTS" -> {
+                    long count = 0;
+                    for (int i = 1; i < command.length; i++) {
+                        if (hash(command[i]) != null) {
+                            count++;
+                            if (name.equals("DEL")) {
+                                delete(command[i]);
+                            }
+                        }
+                    }
+                    yield count;
+                }
+                case "PEXPIRE" -> {
+                    if (hash(command[1]) == null) {
+                        yield 0L;
+                    }
+                    long ttl = Long.parseLong(command[2]);
+                    if (ttl <= 0) {
+                        delete(command[1]);
+                    } else {
+                        expiresAt.put(command[1], clock.currentTimeMillis() + ttl);
+                    }
+                    yield 1L;
+                }
+                case "PTTL" -> {
+                    if (hash(command[1]) == null) {
+                        yield -2L;
+                    }
+                    Long deadline = expiresAt.get(command[1]);
+                    yield deadline == null ? -1L : deadline - clock.currentTimeMillis();
+                }
+                default -> new RespException("ERR unknown command '" + command[0] + "'");
+            };
+        } catch (NumberFormatException e) {
+            return new RespException("ERR value is not an integer or out of range");
+        }
+    }
+
+    /** Hash của key, null nếu key không tồn tại hoặc đã hết hạn. */
+    private Map<String, String> hash(String key) {
+        Long deadline = expiresAt.get(key);
+        if (deadline != null && deadline <= clock.currentTimeMillis()) {
+            delete(key);
+        }
+        return hashes.get(key);
+    }
+
+    private static InProcessRespServer.Bulk bulk(String value) {
+        return value == null ? null : new InProcessRespServer.Bulk(value);
+    }
+
+    private void delete(String key) {
+        hashes.remove(key);
+        expiresAt.remove(key);
+    }
+
+    private static LuaTable array(List<String> values) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, LuaValue.valueOf(values.get(i)));
+        }
+        return table;
+    }
+
+    /** Trả lời của lệnh → giá trị Lua, theo quy tắc của Redis. */
+    private static LuaValue toLua(Object reply) {
+        if (reply == null) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Long integer) {
+            return LuaValue.valueOf(integer);
+        }
+        if (reply instanceof InProcessRespServer.Bulk bulk) {
+            return LuaValue.valueOf(bulk.value());
+        }
+        if (reply instanceof String status) {
+            LuaTable table = new LuaTable();
+            table.set("ok", status);
+            return table;
+        }
+        LuaTable table = new LuaTable();
+        List<?> elements = (List<?>) reply;
+        for (int i = 0; i < elements.size(); i++) {
+            table.set(i + 1, toLua(elements.get(i)));
+        }
+        return table;
+    }
+
+    /** Giá trị script trả về → trả lời RESP, theo quy tắc của Redis. */
+    private static Object fromLua(LuaValue value) {
+        int type = value.type();
+        if (type == LuaValue.TNUMBER) {
+            return (long) value.todouble();
+        }
+        if (type == LuaValue.TSTRING) {
+            return new InProcessRespServer.Bulk(value.tojstring());
+        }
+        if (type == LuaValue.TBOOLEAN) {
+            return value.toboolean() ? 1L : null;
+        }
+        if (type == LuaValue.TTABLE) {
+            LuaValue error = value.get("err");
+            if (error.type() == LuaValue.TSTRING) {
+                return new RespException(error.tojstring());
+            }
+            LuaValue status = value.get("ok");
+            if (status.type() == LuaValue.TSTRING) {
+                return status.tojstring();
+            }
+            List<Object> elements = new ArrayList<>();
+            for (int i = 1; !value.get(i).isnil(); i++) {
+                elements.add(fromLua(value.get(i)));
+            }
+            return elements;
+        }
+        return null;
+    }
+}
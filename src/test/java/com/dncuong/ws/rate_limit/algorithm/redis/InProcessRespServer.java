@@ -0,0 +1,258 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server giả lập giao thức Redis chạy trong JVM của test, để test không cần
+ * Redis thật.
+ *
+ * Hỗ trợ đúng những gì client dùng: PING, ECHO, DEBUG SLEEP, SCRIPT LOAD,
+ * SCRIPT FLUSH, EVAL, EVALSHA, cùng các lệnh hash/TTL mà script dùng (xem
+ * {@link InProcessLuaEngine}). Giống Redis, mọi lệnh (của mọi kết nối) chạy
+ * lần lượt, không xen nhau; EVALSHA với script chưa nạp trả lỗi NOSCRIPT.
+ *
+ * EVAL/EVALSHA chạy NGUYÊN VĂN mã Lua nhận được trên trình thông dịch Lua
+ * trong JVM ({@link InProcessLuaEngine}): test của limiter Redis kiểm tra
+ * chính script sẽ chạy trên Redis thật, không phải một bản giả lập.
+ *
+ * @author dncuong
+ */
+final class InProcessRespServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    /** Lock chung: mọi lệnh chạy lần lượt như Redis. */
+    private final Object commandLock = new Object();
+
+    /** SHA1 → source của các script đã nạp (cache script của server). */
+    private final Map<String, String> loadedScripts = new HashMap<>();
+
+    /** Keyspace và trình thông dịch Lua, chỉ dùng khi giữ commandLock. */
+    private final InProcessLuaEngine lua;
+
+    private final AtomicInteger evalCount = new AtomicInteger();
+
+    /** Server có TTL của key tính theo đồng hồ hệ thống. */
+    InProcessRespServer() throws IOException {
+        this(SystemClock.INSTANCE);
+    }
+
+    /**
+     * @param clock đồng hồ tính TTL của key (PEXPIRE), thường là clock của limiter trong test
+     */
+    InProcessRespServer(RateLimitClock clock) throws IOException {
+        this.lua = new InProcessLuaEngine(clock);
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "resp-test-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Kết nối mới tới server này. */
+    RespConnection connect() {
+        return new RespConnection("127.0.0.1", port());
+    }
+
+    /** Số lần nhận lệnh EVAL (gửi nguyên văn script). */
+    int evalCount() {
+        return evalCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                // close() chạy giữa accept và add sẽ bỏ sót client này
+                if (serverSocket.isClosed()) {
+                    client.close();
+                    return;
+                }
+                Thread handler = new Thread(() -> serve(client), "resp-test-client");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // Server đã đóng
+        }
+    }
+
+    private void serve(Socket client) {
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            while (true) {
+                String[] command = readCommand(in);
+                Object reply;
+                synchronized (commandLock) {
+                    reply = execute(command);
+                }
+                writeReply(out, reply);
+                // Còn lệnh pipeline đang chờ trong buffer → trả lời tiếp rồi mới flush
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Client ngắt kết nối
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private Object execute(String[] command) {
+        String name = command[0].toUpperCase();
+        try {
+            return switch (name) {
+                case "PING" -> "PONG";
+                case "ECHO" -> new Bulk(command[1]);
+                case "DEBUG" -> {
+                    Thread.sleep((long) (Double.parseDouble(command[2]) * 1000));
+                    yield "OK";
+                }
+                case "SCRIPT" -> script(command);
+                case "EVAL" -> {
+                    evalCount.incrementAndGet();
+                    String sha1 = new RedisScript(command[1]).sha1();
+                    loadedScripts.put(sha1, command[1]);
+                    yield runScript(sha1, command);
+                }
+                case "EVALSHA" -> loadedScripts.containsKey(command[1])
+                        ? runScript(command[1], command)
+                        : new RespException("NOSCRIPT No matching script. Please use EVAL.");
+                default -> lua.execute(command);
+            };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new RespException("ERR interrupted");
+        }
+    }
+
+    private Object script(String[] command) {
+        switch (command[1].toUpperCase()) {
+            case "LOAD" -> {
+                String sha1 = new RedisScript(command[2]).sha1();
+                loadedScripts.put(sha1, command[2]);
+                return new Bulk(sha1);
+            }
+            case "FLUSH" -> {
+                loadedScripts.clear();
+                return "OK";
+            }
+            default -> {
+                return new RespException("ERR unknown SCRIPT subcommand");
+            }
+        }
+    }
+
+    /** EVAL/EVALSHA script numkeys key... arg... */
+    private Object runScript(String sha1, String[] command) {
+        int numKeys = Integer.parseInt(command[2]);
+        if (numKeys < 0 || 3 + numKeys > command.length) {
+            return new RespException("ERR Number of keys can't be greater than number of args");
+        }
+        List<String> keys = Arrays.asList(command).subList(3, 3 + numKeys);
+        List<String> args = Arrays.asList(command).subList(3 + numKeys, command.length);
+        return lua.eval(sha1, loadedScripts.get(sha1), keys, args);
+    }
+
+    private static String[] readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            throw new EOFException();
+        }
+        if (type != '*') {
+            throw new IOException("Chỉ hỗ trợ lệnh dạng mảng");
+        }
+        int size = Integer.parseInt(readLine(in));
+        String[] command = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Tham số phải là bulk string");
+            }
+            int length = Integer.parseInt(readLine(in));
+            command[i] = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+            in.readNBytes(2);
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            line.write(b);
+        }
+        in.read();
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        StringBuilder text = new StringBuilder();
+        appendReply(text, reply);
+        out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendReply(StringBuilder text, Object reply) {
+        if (reply == null) {
+            text.append("$-1\r\n");
+        } else if (reply instanceof String simple) {
+            text.append('+').append(simple).append("\r\n");
+        } else if (reply instanceof Bulk bulk) {
+            text.append('$').append(bulk.value().getBytes(StandardCharsets.UTF_8).length).append("\r\n")
+                    .append(bulk.value()).append("\r\n");
+        } else if (reply instanceof Long integer) {
+            text.append(':').append(integer).append("\r\n");
+        } else if (reply instanceof RespException error) {
+            text.append('-').append(error.getMessage()).append("\r\n");
+        } else if (reply instanceof List<?> elements) {
+            text.append('*').append(elements.size()).append("\r\n");
+            for (Object element : elements) {
+                appendReply(text, element);
+            }
+        } else {
+            throw new IllegalArgumentException("Kiểu trả lời không hỗ trợ: " + reply);
+        }
+    }
+
+    /** Trả lời dạng bulk string (phân biệt với simple string). */
+    record Bulk(String value) {
+    }
+}
@@ -0,0 +1,298 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO CÁC RATE LIMITER TRÊN STORE REDIS
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Quyết định và kết quả chi tiết giống limiter trong bộ nhớ tương ứng
+ * 2. 12 replica (12 kết nối) dùng chung MỘT quota
+ * 3. refund trả lại quota trên store
+ * 4. Script gửi nguyên văn một lần, sau đó chỉ gửi SHA1; server mất cache → gửi lại
+ * 5. Prefix khác nhau → limiter độc lập trên cùng store
+ * 6. Tham số không hợp lệ → throw exception
+ * 7. Store không trả lời → RespException
+ * 8. TTL của key: hết TTL thì state đúng bằng state mới, key nhàn rỗi biến mất
+ * 9. Key khác loại cùng toString (of(5L) / of("5")) → quota độc lập trên store
+ *
+ * Chạy với {@link InProcessRespServer}: server chạy nguyên văn Lua script của
+ * limiter, TTL tính theo cùng clock với limiter.
+ *
+ * @author dncuong
+ */
+class RedisRateLimiterTest {
+
+    /** Clock của limiter và của TTL trên server. */
+    private final ManualClock clock = new ManualClock(1_700_000_000_000L);
+
+    private InProcessRespServer server;
+
+    private final List<RespConnection> connections = new ArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new InProcessRespServer(clock);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        connections.forEach(RespConnection::close);
+        server.close();
+    }
+
+    private RespConnection connect() {
+        RespConnection connection = server.connect();
+        connections.add(connection);
+        return connection;
+    }
+
+    // =====================================================================
+    // TEST 1: Giống limiter trong bộ nhớ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Quyet dinh va ket qua chi tiet giong limiter trong bo nho")
+    void tryAcquire_randomWorkload_shouldMatchInMemoryLimiters() {
+        RespConnection connection = connect();
+        RateLimiter[][] pairs = {
+                {new RedisFixedWindowRateLimiter(connection, "fw:", 5, 1_000, clock),
+                        new FixedWindowCounterRateLimiter(5, 1_000, clock)},
+                {new RedisSlidingWindowCounterRateLimiter(connection, "swc:", 5, 1_000, clock),
+                        new SlidingWindowCounterRateLimiter(5, 1_000, clock)},
+                {new RedisTokenBucketRateLimiter(connection, "tb:", 5, 2.5, clock),
+                        new TokenBucketRateLimiter(5, 2.5, clock)}
+        };
+        Random random = new Random(42);
+        RateLimitDecision remote = new RateLimitDecision();
+        RateLimitDecision local = new RateLimitDecision();
+
+        for (int i = 0; i < 3_000; i++) {
+            clock.advance(random.nextInt(150));
+            RateLimitKey key = RateLimitKey.of("client-" + random.nextInt(3));
+            long permits = 1 + random.nextInt(6);
+            for (RateLimiter[] pair : pairs) {
+                boolean allowed = pair[0].tryAcquire(key, permits, remote);
+                assertEquals(pair[1].tryAcquire(key, permits, local), allowed, "Request " + i);
+                assertEquals(local.toString(), remote.toString(), "Request " + i);
+            }
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Nhiều replica dùng chung quota
+    // =====================================================================
+
+    @Test
+    @DisplayName("12 replica dung chung mot quota, khong phai 12 lan quota")
+    void allowRequest_manyReplicas_shouldShareOneQuota() throws InterruptedException {
+        int replicas = 12;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(replicas * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(replicas * 2);
+
+        for (int r = 0; r < replicas; r++) {
+            RateLimiter replica = new RedisFixedWindowRateLimiter(connect(), "api:", 100, 60_000, clock);
+            // Hai thread mỗi replica: lệnh được pipeline trên kết nối của replica
+            for (int t = 0; t < 2; t++) {
+                executor.submit(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 50; i++) {
+                            if (replica.allowRequest("tenant-1")) {
+                                allowed.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(100, allowed.get(), "1.200 request, quota chung 100");
+    }
+
+    // =====================================================================
+    // TEST 3: refund
+    // =====================================================================
+
+    @Test
+    @DisplayName("refund tra lai quota tren store")
+    void refund_shouldReturnQuotaOnStore() {
+        RateLimiter limiter = new RedisTokenBucketRateLimiter(connect(), "tb:", 3, 1.0, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+
+        assertTrue(limiter.tryAcquire(key, 3));
+        assertFalse(limiter.allowRequest(key));
+
+        limiter.refund(key, 2, clock.currentTimeMillis());
+        assertTrue(limiter.tryAcquire(key, 2));
+        assertFalse(limiter.allowRequest(key));
+    }
+
+    // =====================================================================
+    // TEST 4: EVALSHA và NOSCRIPT
+    // =====================================================================
+
+    @Test
+    @DisplayName("Script gui nguyen van mot lan, sau do chi gui SHA1")
+    void tryAcquire_scriptCache_shouldFallBackToEvalOnNoScript() {
+        RespConnection connection = connect();
+        RateLimiter limiter = new RedisSlidingWindowCounterRateLimiter(connection, "swc:", 1_000, 1_000, clock);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.allowRequest("user"));
+        }
+        assertEquals(1, server.evalCount(), "Chi lan dau gui nguyen van script");
+
+        // Server restart / SCRIPT FLUSH: cache script bị xoá
+        assertEquals("OK", connection.call("SCRIPT", "FLUSH"));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.allowRequest("user"));
+        }
+        assertEquals(2, server.evalCount());
+    }
+
+    // =====================================================================
+    // TEST 5: Prefix
+    // =====================================================================
+
+    @Test
+    @DisplayName("Prefix khac nhau → limiter doc lap tren cung store")
+    void allowRequest_differentPrefixes_shouldBeIndependent() {
+        RespConnection connection = connect();
+        RateLimiter login = new RedisFixedWindowRateLimiter(connection, "login:", 2, 1_000, clock);
+        RateLimiter search = new RedisFixedWindowRateLimiter(connection, "search:", 2, 1_000, clock);
+
+        assertTrue(login.allowRequest("10.0.0.1"));
+        assertTrue(login.allowRequest("10.0.0.1"));
+        assertFalse(login.allowRequest("10.0.0.1"));
+        assertTrue(search.allowRequest("10.0.0.1"), "Quota cua search rieng");
+    }
+
+    // =====================================================================
+    // TEST 6: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        RespConnection connection = connect();
+        assertThrows(IllegalArgumentException.class, () -> new RedisFixedWindowRateLimiter(null, "p:", 10, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> new RedisFixedWindowRateLimiter(connection, null, 10, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> new RedisFixedWindowRateLimiter(connection, "p:", 0, 1_000));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RedisSlidingWindowCounterRateLimiter(connection, "p:", Long.MAX_VALUE, 1_000),
+                "Lua chi bieu dien chinh xac toi 2^53");
+        assertThrows(IllegalArgumentException.class, () -> new RedisTokenBucketRateLimiter(connection, "p:", 10, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RedisTokenBucketRateLimiter(connection, "p:", 10, Double.POSITIVE_INFINITY));
+
+        RateLimiter limiter = new RedisTokenBucketRateLimiter(connection, "p:", 10, 1.0);
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire(RateLimitKey.of("a"), 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.refund(RateLimitKey.of("a"), 0, 0));
+    }
+
+    // =====================================================================
+    // TEST 7: Store không trả lời
+    // =====================================================================
+
+    @Test
+    @DisplayName("Store khong tra loi → RespException")
+    void allowRequest_storeDown_shouldThrowRespException() throws IOException {
+        RateLimiter limiter = new RedisFixedWindowRateLimiter(connect(), "fw:", 10, 1_000);
+        assertTrue(limiter.allowRequest("user"));
+
+        server.close();
+
+        assertThrows(RespException.class, () -> limiter.allowRequest("user"));
+    }
+
+    // =====================================================================
+    // TEST 8: TTL của key
+    // =====================================================================
+
+    @Test
+    @DisplayName("TTL cua key: het TTL thi state dung bang state moi, key nhan roi bien mat")
+    void ttl_idleKey_shouldExpireWhenStateIsFresh() {
+        RespConnection connection = connect();
+        // Cửa sổ 1 giây, now = 1.700.000.000.000 nằm ở đầu cửa sổ
+        RateLimiter fixedWindow = new RedisFixedWindowRateLimiter(connection, "fw:", 2, 1_000, clock);
+        RateLimiter tokenBucket = new RedisTokenBucketRateLimiter(connection, "tb:", 4, 2.0, clock);
+
+        clock.advance(300);
+        assertTrue(fixedWindow.allowRequest("user"));
+        assertEquals(700L, connection.call("PTTL", "fw:s:user"), "Toi het cua so hien tai");
+        assertTrue(tokenBucket.tryAcquire(RateLimitKey.of("user"), 3));
+        assertEquals(1_500L, connection.call("PTTL", "tb:s:user"), "3 token, 2 token/giay");
+
+        clock.advance(699);
+        assertEquals(1L, connection.call("EXISTS", "fw:s:user"));
+        clock.advance(1);
+        assertEquals(0L, connection.call("EXISTS", "fw:s:user"), "Cua so moi: counter nhu moi");
+        assertTrue(fixedWindow.allowRequest("user"));
+        assertTrue(fixedWindow.allowRequest("user"));
+        assertFalse(fixedWindow.allowRequest("user"));
+
+        // Xô đầy lại đúng lúc hết TTL (300 + 1.500)
+        clock.advance(799);
+        assertEquals(1L, connection.call("EXISTS", "tb:s:user"));
+        clock.advance(1);
+        assertEquals(0L, connection.call("EXISTS", "tb:s:user"));
+        assertTrue(tokenBucket.tryAcquire(RateLimitKey.of("user"), 4), "Xo day");
+    }
+
+    // =====================================================================
+    // TEST 9: Key khác loại
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key khac loai cung toString (of(5L) / of(\"5\")) → quota doc lap tren store")
+    void allowRequest_keysOfDifferentKinds_shouldBeIndependent() {
+        RateLimiter limiter = new RedisFixedWindowRateLimiter(connect(), "fw:", 1, 1_000, clock);
+        RateLimitKey[] keys = {
+                RateLimitKey.of(5L),
+                RateLimitKey.of("5"),
+                RateLimitKey.of(new byte[]{5}, 0, 1),
+                RateLimitKey.of("0x05")
+        };
+
+        for (RateLimitKey key : keys) {
+            assertTrue(limiter.allowRequest(key), "Quota rieng cua " + key.toTypedString());
+        }
+        for (RateLimitKey key : keys) {
+            assertFalse(limiter.allowRequest(key), key.toTypedString());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.dncuong.ws.rate_limit.algorithm.redis;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO RESP CONNECTION
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Đọc đúng các kiểu trả lời, error reply thành RespException
+ * 2. Pipelining: nhiều lệnh đang bay, trả lời khớp đúng lệnh
+ * 3. Nhiều thread dùng chung một kết nối
+ * 4. Quá thời gian chờ → RespException, kết nối vẫn khớp lệnh sau đó
+ * 5. Mất kết nối → lệnh đang chờ và lệnh mới đều thất bại
+ * 6. Tham số không hợp lệ → throw exception
+ *
+ * Chạy với {@link InProcessRespServer}, không cần Redis thật.
+ *
+ * @author dncuong
+ */
+class RespConnectionTest {
+
+    private InProcessRespServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new InProcessRespServer();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    // =====================================================================
+    // TEST 1: Kiểu trả lời
+    // =====================================================================
+
+    @Test
+    @DisplayName("Doc dung simple string, bulk string va error reply")
+    void call_replyTypes_shouldBeDecoded() {
+        try (RespConnection connection = server.connect()) {
+            assertEquals("PONG", connection.call("PING"));
+            assertEquals("xin chào", connection.call("ECHO", "xin chào"), "Bulk string UTF-8");
+            assertEquals("", connection.call("ECHO", ""));
+
+            RespException error = assertThrows(RespException.class, () -> connection.call("NOPE"));
+            assertTrue(error.hasCode("ERR"));
+            assertFalse(error.hasCode("ER"));
+            assertEquals("PONG", connection.call("PING"), "Error reply khong lam lech thu tu");
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Pipelining
+    // =====================================================================
+
+    @Test
+    @DisplayName("Pipelining: 10.000 lenh dang bay, tra loi khop dung lenh")
+    void send_pipelined_shouldMatchRepliesInOrder() {
+        try (RespConnection connection = server.connect()) {
+            List<CompletableFuture<Object>> replies = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                replies.add(connection.send("ECHO", "msg-" + i));
+            }
+            for (int i = 0; i < replies.size(); i++) {
+                assertEquals("msg-" + i, replies.get(i).join());
+            }
+        }
+    }
+
+    // =====================================================================
+    // TEST 3: Nhiều thread
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu thread dung chung mot ket noi")
+    void call_concurrent_shouldMatchEachCaller() throws InterruptedException {
+        int threads = 8;
+        AtomicInteger mismatches = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (RespConnection connection = server.connect()) {
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                executor.submit(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 1_000; i++) {
+                            String message = thread + ":" + i;
+                            if (!message.equals(connection.call("ECHO", message))) {
+                                mismatches.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            start.countDown();
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            executor.shutdown();
+            assertEquals(0, mismatches.get());
+        }
+    }
+
+    // =====================================================================
+    // TEST 4: Quá thời gian chờ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Qua thoi gian cho → RespException, lenh sau van khop dung")
+    void call_slowServer_shouldTimeOut() {
+        try (RespConnection connection = new RespConnection("127.0.0.1", server.port(), 100)) {
+            assertThrows(RespException.class, () -> connection.call("DEBUG", "SLEEP", "0.3"));
+            // Trả lời "OK" muộn của DEBUG được bỏ qua, không bị nhận nhầm cho lệnh sau
+            CompletableFuture<Object> next = connection.send("ECHO", "after");
+            assertEquals("after", next.join());
+        }
+    }
+
+    // =====================================================================
+    // TEST 5: Mất kết nối
+    // =====================================================================
+
+    @Test
+    @DisplayName("Mat ket noi: lenh dang cho va lenh moi deu that bai")
+    void send_connectionLost_shouldFailPendingAndNewCommands() throws IOException {
+        RespConnection connection = server.connect();
+        CompletableFuture<Object> slow = connection.send("DEBUG", "SLEEP", "0.2");
+        CompletableFuture<Object> pending = connection.send("PING");
+
+        server.close();
+
+        assertThrows(Exception.class, pending::join);
+        assertTrue(pending.isCompletedExceptionally());
+        assertTrue(slow.isDone());
+        assertFalse(connection.isOpen());
+        assertThrows(RespException.class, () -> connection.call("PING"));
+        assertThrows(RespException.class, () -> new RespConnection("127.0.0.1", server.port()),
+                "Server da dong thi khong ket noi duoc");
+    }
+
+    // =====================================================================
+    // TEST 6: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void send_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new RespConnection(null, server.port()));
+        assertThrows(IllegalArgumentException.class, () -> new RespConnection("127.0.0.1", server.port(), 0));
+
+        try (RespConnection connection = server.connect()) {
+            assertThrows(IllegalArgumentException.class, connection::send);
+            assertThrows(IllegalArgumentException.class, () -> connection.send("ECHO", null));
+        }
+    }
+}
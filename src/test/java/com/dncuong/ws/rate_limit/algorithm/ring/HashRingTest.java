@@ -0,0 +1,139 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO VÒNG CONSISTENT HASH
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. 4 node chia key gần đều nhau
+ * 2. Thêm node: chỉ ~1/N key đổi chủ, tất cả về node mới
+ * 3. Bỏ node: chỉ key của node đó đổi chủ
+ * 4. Cùng danh sách thành viên (khác thứ tự thêm) → cùng vòng
+ * 5. Vòng rỗng, tham số null → throw exception
+ *
+ * @author dncuong
+ */
+class HashRingTest {
+
+    private static final int KEYS = 20_000;
+
+    private static HashRing ring(String... nodes) {
+        HashRing ring = new HashRing();
+        for (String node : nodes) {
+            ring.add(node);
+        }
+        return ring;
+    }
+
+    private static Map<Integer, String> owners(HashRing ring) {
+        Map<Integer, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owners.put(i, ring.ownerOf(RateLimitKey.of("client-" + i)));
+        }
+        return owners;
+    }
+
+    // =====================================================================
+    // TEST 1: Chia đều
+    // =====================================================================
+
+    @Test
+    @DisplayName("4 node chia key gan deu nhau")
+    void ownerOf_fourNodes_shouldSpreadKeysEvenly() {
+        HashRing ring = ring("node-a", "node-b", "node-c", "node-d");
+        Map<String, Integer> counts = new HashMap<>();
+        owners(ring).values().forEach(owner -> counts.merge(owner, 1, Integer::sum));
+
+        assertEquals(Set.of("node-a", "node-b", "node-c", "node-d"), counts.keySet());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            double share = entry.getValue() / (double) KEYS;
+            assertEquals(0.25, share, 0.05, "Phan cua " + entry.getKey());
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Thêm node
+    // =====================================================================
+
+    @Test
+    @DisplayName("Them node: chi ~1/N key doi chu, tat ca ve node moi")
+    void add_shouldMoveOnlyKeysToNewNode() {
+        HashRing ring = ring("node-a", "node-b", "node-c");
+        Map<Integer, String> before = owners(ring);
+        ring.add("node-d");
+        Map<Integer, String> after = owners(ring);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!before.get(i).equals(after.get(i))) {
+                assertEquals("node-d", after.get(i), "Key " + i + " chi duoc chuyen ve node moi");
+                moved++;
+            }
+        }
+        assertEquals(0.25, moved / (double) KEYS, 0.05);
+    }
+
+    // =====================================================================
+    // TEST 3: Bỏ node
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bo node: chi key cua node do doi chu")
+    void remove_shouldMoveOnlyKeysOfRemovedNode() {
+        HashRing ring = ring("node-a", "node-b", "node-c", "node-d");
+        Map<Integer, String> before = owners(ring);
+        ring.remove("node-b");
+        Map<Integer, String> after = owners(ring);
+
+        for (int i = 0; i < KEYS; i++) {
+            if (before.get(i).equals("node-b")) {
+                assertNotEquals("node-b", after.get(i));
+            } else {
+                assertEquals(before.get(i), after.get(i), "Key " + i + " khong duoc doi chu");
+            }
+        }
+        assertEquals(Set.of("node-a", "node-c", "node-d"), ring.nodes());
+    }
+
+    // =====================================================================
+    // TEST 4: Vòng chỉ phụ thuộc danh sách thành viên
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cung danh sach thanh vien, khac thu tu them → cung vong")
+    void ownerOf_sameMembersDifferentOrder_shouldAgree() {
+        HashRing first = ring("node-a", "node-b", "node-c");
+        HashRing second = ring("node-c", "node-a", "node-b", "node-d");
+        second.remove("node-d");
+
+        assertEquals(owners(first), owners(second));
+    }
+
+    // =====================================================================
+    // TEST 5: Trường hợp không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Vong rong, tham so null → throw exception")
+    void invalidUsage_shouldThrow() {
+        HashRing ring = new HashRing();
+        assertThrows(IllegalStateException.class, () -> ring.ownerOf(RateLimitKey.of("client")));
+        assertThrows(IllegalArgumentException.class, () -> ring.add(null));
+        assertThrows(IllegalArgumentException.class, () -> ring.remove(null));
+
+        ring.add("node-a");
+        ring.remove("node-a");
+        assertThrows(IllegalStateException.class, () -> ring.ownerOf(RateLimitKey.of("client")));
+    }
+}
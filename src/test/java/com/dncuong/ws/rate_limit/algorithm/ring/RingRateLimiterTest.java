@@ -0,0 +1,358 @@
+package com.dncuong.ws.rate_limit.algorithm.ring;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowlog.SlidingWindowLogRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO RATE LIMITER CHIA KEY THEO VÒNG CONSISTENT HASH
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Request vào node bất kỳ: quyết định và kết quả chi tiết giống một limiter duy nhất
+ * 2. Nhiều thread trên 3 node: giới hạn chính xác cho từng key, request được gom lô
+ * 3. Thêm node: ~1/N key đổi chủ về node mới, request vẫn chạy
+ * 4. Bỏ node: key của node đó chuyển cho node còn lại
+ * 5. refund được chuyển tới chủ của key
+ * 6. Chủ của key không trả lời → ForwardingException
+ * 7. Tham số không hợp lệ → throw exception
+ * 8. Lô/key có độ dài giả từ mạng → server đóng kết nối, vẫn phục vụ node khác
+ *
+ * @author dncuong
+ */
+class RingRateLimiterTest {
+
+    private final List<RingRateLimiter> nodes = new ArrayList<>();
+
+    @AfterEach
+    void closeNodes() {
+        nodes.forEach(RingRateLimiter::close);
+    }
+
+    private RingRateLimiter node(String nodeId, long maxRequests, long windowSizeInMillis, ManualClock clock)
+            throws IOException {
+        RingRateLimiter node = new RingRateLimiter(nodeId, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new SlidingWindowLogRateLimiter(maxRequests, windowSizeInMillis, clock),
+                RingRateLimiter.DEFAULT_TIMEOUT_MILLIS, clock);
+        nodes.add(node);
+        return node;
+    }
+
+    /** count node, mọi node biết mọi node khác. */
+    private List<RingRateLimiter> cluster(int count, long maxRequests, long windowSizeInMillis, ManualClock clock)
+            throws IOException {
+        List<RingRateLimiter> cluster = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            cluster.add(node("node-" + i, maxRequests, windowSizeInMillis, clock));
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                if (i != j) {
+                    cluster.get(i).join("node-" + j, cluster.get(j).localAddress());
+                }
+            }
+        }
+        return cluster;
+    }
+
+    /** Key đầu tiên (client-0, client-1, ...) mà node coi là thuộc owner. */
+    private static RateLimitKey keyOwnedBy(RingRateLimiter node, String owner) {
+        for (int i = 0; ; i++) {
+            RateLimitKey key = RateLimitKey.of("client-" + i);
+            if (node.ownerOf(key).equals(owner)) {
+                return key;
+            }
+        }
+    }
+
+    // =====================================================================
+    // TEST 1: Giống một limiter duy nhất
+    // =====================================================================
+
+    @Test
+    @DisplayName("Request vao node bat ky: quyet dinh va ket qua chi tiet giong mot limiter duy nhat")
+    void tryAcquire_anyNode_shouldMatchSingleLimiter() throws IOException {
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        List<RingRateLimiter> cluster = cluster(3, 5, 1_000, clock);
+        RateLimiter reference = new SlidingWindowLogRateLimiter(5, 1_000, clock);
+        Random random = new Random(42);
+        RateLimitDecision ring = new RateLimitDecision();
+        RateLimitDecision local = new RateLimitDecision();
+
+        for (int i = 0; i < 2_000; i++) {
+            clock.advance(random.nextInt(150));
+            RateLimitKey key = RateLimitKey.of("client-" + random.nextInt(20));
+            long permits = 1 + random.nextInt(3);
+            RingRateLimiter node = cluster.get(random.nextInt(cluster.size()));
+
+            boolean allowed = node.tryAcquire(key, permits, ring);
+            assertEquals(reference.tryAcquire(key, permits, local), allowed, "Request " + i);
+            assertEquals(local.toString(), ring.toString(), "Request " + i);
+        }
+        for (RingRateLimiter node : cluster) {
+            assertEquals(cluster.get(0).ownerOf(RateLimitKey.of("client-7")),
+                    node.ownerOf(RateLimitKey.of("client-7")), "Moi node cung mot vong");
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Giới hạn chính xác khi nhiều thread
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu thread tren 3 node: gioi han chinh xac cho tung key, request duoc gom lo")
+    void allowRequest_concurrentThreads_shouldEnforceExactGlobalLimit() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<RingRateLimiter> cluster = cluster(3, 100, 60_000, clock);
+        int keys = 10;
+        int threadsPerNode = 4;
+        int requestsPerThread = 500;
+
+        AtomicIntegerArray admitted = new AtomicIntegerArray(keys);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(cluster.size() * threadsPerNode);
+        for (RingRateLimiter node : cluster) {
+            for (int t = 0; t < threadsPerNode; t++) {
+                executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        int k = i % keys;
+                        if (node.allowRequest("client-" + k)) {
+                            admitted.incrementAndGet(k);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        for (int k = 0; k < keys; k++) {
+            assertEquals(100, admitted.get(k), "Key client-" + k);
+        }
+        // Mỗi node chuyển đi request của các key nó không sở hữu; khi tải cao nhiều request đi chung một lô
+        long forwarded = 0;
+        long batches = 0;
+        for (RingRateLimiter node : cluster) {
+            for (int k = 0; k < keys; k++) {
+                String owner = node.ownerOf(RateLimitKey.of("client-" + k));
+                if (node != cluster.get(Integer.parseInt(owner.substring("node-".length())))) {
+                    forwarded += (long) threadsPerNode * requestsPerThread / keys;
+                }
+            }
+            for (int j = 0; j < cluster.size(); j++) {
+                batches += node.forwardedBatchCount("node-" + j);
+            }
+        }
+        assertTrue(batches > 0 && batches <= forwarded,
+                "So lo (" + batches + ") khong vuot so request chuyen di (" + forwarded + ")");
+    }
+
+    // =====================================================================
+    // TEST 3: Thêm node
+    // =====================================================================
+
+    @Test
+    @DisplayName("Them node: ~1/N key doi chu ve node moi, request van chay")
+    void join_shouldMoveAboutOneNthOfKeysToNewNode() throws IOException {
+        ManualClock clock = new ManualClock(0);
+        List<RingRateLimiter> cluster = cluster(2, 1, 60_000, clock);
+        int keys = 3_000;
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            before.add(cluster.get(0).ownerOf(RateLimitKey.of("client-" + i)));
+        }
+
+        RingRateLimiter added = node("node-2", 1, 60_000, clock);
+        for (int i = 0; i < 2; i++) {
+            added.join("node-" + i, cluster.get(i).localAddress());
+            cluster.get(i).join("node-2", added.localAddress());
+        }
+
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            RateLimitKey key = RateLimitKey.of("client-" + i);
+            String after = cluster.get(0).ownerOf(key);
+            assertEquals(after, added.ownerOf(key));
+            if (!after.equals(before.get(i))) {
+                assertEquals("node-2", after);
+                moved++;
+            }
+        }
+        assertEquals(1.0 / 3, moved / (double) keys, 0.05);
+
+        // Key chuyển về node mới bắt đầu từ quota đầy trên node mới, các key khác giữ state
+        for (int i = 0; i < 200; i++) {
+            RateLimitKey key = RateLimitKey.of("client-" + i);
+            assertTrue(cluster.get(1).allowRequest(key), "Lan dau cua client-" + i);
+            assertFalse(added.allowRequest(key), "Lan hai cua client-" + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 4: Bỏ node
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bo node: key cua node do chuyen cho node con lai")
+    void leave_shouldRouteKeysToRemainingNodes() throws IOException {
+        ManualClock clock = new ManualClock(0);
+        List<RingRateLimiter> cluster = cluster(3, 1, 60_000, clock);
+        RingRateLimiter leaving = cluster.get(2);
+        leaving.close();
+        cluster.get(0).leave("node-2");
+        cluster.get(1).leave("node-2");
+
+        for (int i = 0; i < 200; i++) {
+            RateLimitKey key = RateLimitKey.of("client-" + i);
+            assertNotEquals("node-2", cluster.get(0).ownerOf(key));
+            assertTrue(cluster.get(0).allowRequest(key), "Lan dau cua client-" + i);
+            assertFalse(cluster.get(1).allowRequest(key), "Lan hai cua client-" + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 5: refund
+    // =====================================================================
+
+    @Test
+    @DisplayName("refund duoc chuyen toi chu cua key")
+    void refund_shouldBeForwardedToOwner() throws IOException {
+        ManualClock clock = new ManualClock(0);
+        List<RingRateLimiter> cluster = cluster(2, 3, 60_000, clock);
+        RingRateLimiter sender = cluster.get(0);
+        RateLimitKey key = keyOwnedBy(sender, "node-1");
+
+        long now = sender.currentTimeMillis();
+        assertTrue(sender.tryAcquire(key, 3, now, null));
+        assertFalse(sender.tryAcquire(key, 1, now, null));
+
+        sender.refund(key, 2, now);
+        RateLimitDecision decision = new RateLimitDecision();
+        assertTrue(cluster.get(1).tryAcquire(key, 2, now, decision));
+        assertEquals(0, decision.getRemaining());
+    }
+
+    // =====================================================================
+    // TEST 6: Chủ không trả lời
+    // =====================================================================
+
+    @Test
+    @DisplayName("Chu cua key khong tra loi → ForwardingException")
+    void tryAcquire_unreachableOwner_shouldThrowForwardingException() throws IOException {
+        ManualClock clock = new ManualClock(0);
+        RingRateLimiter node = node("node-0", 5, 1_000, clock);
+        InetSocketAddress deadAddress;
+        try (ServerSocket reserved = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            deadAddress = (InetSocketAddress) reserved.getLocalSocketAddress();
+        }
+        node.join("node-1", deadAddress);
+        RateLimitKey remote = keyOwnedBy(node, "node-1");
+
+        assertThrows(ForwardingException.class, () -> node.allowRequest(remote));
+
+        // Bỏ node chết khỏi vòng: node còn lại tự quyết định
+        node.leave("node-1");
+        assertTrue(node.allowRequest(remote));
+    }
+
+    // =====================================================================
+    // TEST 7: Trường hợp không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Tham so khong hop le → throw exception")
+    void invalidArguments_shouldThrow() throws IOException {
+        ManualClock clock = new ManualClock(0);
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        RateLimiter local = new SlidingWindowLogRateLimiter(5, 1_000, clock);
+
+        assertThrows(IllegalArgumentException.class, () -> new RingRateLimiter(null, any, local));
+        assertThrows(IllegalArgumentException.class, () -> new RingRateLimiter("node-0", null, local));
+        assertThrows(IllegalArgumentException.class, () -> new RingRateLimiter("node-0", any, null));
+        assertThrows(IllegalArgumentException.class, () -> new RingRateLimiter("node-0", any, local, 0, clock));
+        assertThrows(IllegalArgumentException.class, () -> new RingRateLimiter("node-0", any, local, 100, null));
+
+        RingRateLimiter node = node("node-0", 5, 1_000, clock);
+        assertThrows(IllegalArgumentException.class, () -> node.join("node-0", any));
+        assertThrows(IllegalArgumentException.class, () -> node.join(null, any));
+        assertThrows(IllegalArgumentException.class, () -> node.leave("node-0"));
+        assertThrows(IllegalArgumentException.class, () -> node.tryAcquire(RateLimitKey.of("k"), 0, 0, null));
+        assertThrows(IllegalArgumentException.class, () -> node.refund(RateLimitKey.of("k"), 0, 0));
+        RateLimitKey tooLong = RateLimitKey.of("k".repeat(RateLimitKey.MAX_SERIALIZED_LENGTH + 1));
+        assertThrows(IllegalArgumentException.class, () -> node.tryAcquire(tooLong, 1, 0, null));
+        assertThrows(IllegalArgumentException.class, () -> node.refund(tooLong, 1, 0));
+    }
+
+    // =====================================================================
+    // TEST 8: Dữ liệu giả từ mạng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Lo/key co do dai gia tu mang → server dong ket noi, van phuc vu node khac")
+    void server_bogusLengths_shouldCloseConnection() throws Exception {
+        ManualClock clock = new ManualClock(0);
+        List<RingRateLimiter> cluster = cluster(2, 5, 1_000, clock);
+
+        // Số request trong lô vượt MAX_BATCH
+        assertClosedAfter(cluster.get(0), out -> {
+            out.writeByte(ForwardingProtocol.REQUESTS);
+            out.writeInt(Integer.MAX_VALUE);
+        });
+        // Một request có key dạng chuỗi dài Integer.MAX_VALUE byte
+        assertClosedAfter(cluster.get(0), out -> {
+            out.writeByte(ForwardingProtocol.REQUESTS);
+            out.writeInt(1);
+            out.writeLong(1);
+            out.writeByte(ForwardingProtocol.OP_ACQUIRE);
+            out.writeLong(1);
+            out.writeLong(0);
+            out.writeByte(2);
+            out.writeInt(Integer.MAX_VALUE);
+        });
+
+        RateLimitKey key = keyOwnedBy(cluster.get(1), "node-0");
+        assertTrue(cluster.get(1).tryAcquire(key, 1, 0, null), "node-0 van nhan request hop le");
+    }
+
+    private interface FrameWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Gửi frame tới node qua socket thô, node phải đóng kết nối mà không trả lời. */
+    private static void assertClosedAfter(RingRateLimiter node, FrameWriter frame) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(node.localAddress(), 1_000);
+            socket.setSoTimeout(5_000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            frame.write(out);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read(), "Server phai dong ket noi");
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -26,37 +31,14 @@ import static org.junit.jupiter.api.Assertions.*;
  * 8. Giảm thiểu Boundary Problem (so sánh với Fixed Window)
  * 9. Nhảy xa hơn 1 cửa sổ → previousCounter reset
  * 10. Cửa sổ hoàn toàn mới (không có lịch sử)
+ * 11. Bảng off-heap: quyết định giống hệt khi lưu trên heap
+ * 12. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 13. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
  *
  * @author dncuong
  */
 class SlidingWindowCounterRateLimiterTest {
 
-    // =====================================================================
-    // LỚP HỖ TRỢ TEST: Cho phép kiểm soát thời gian
-    // =====================================================================
-
-    static class TestableSlidingWindowCounter extends SlidingWindowCounterRateLimiter {
-        private long currentTime;
-
-        TestableSlidingWindowCounter(long maxRequests, long windowSizeInMillis, long startTime) {
-            super(maxRequests, windowSizeInMillis);
-            this.currentTime = startTime;
-        }
-
-        @Override
-        protected long getCurrentTimeMillis() {
-            return currentTime;
-        }
-
-        void advanceTime(long millis) {
-            this.currentTime += millis;
-        }
-
-        void setCurrentTime(long time) {
-            this.currentTime = time;
-        }
-    }
-
     // =====================================================================
     // TEST 1: Request trong giới hạn → tất cả phải được cho phép
     // =====================================================================
@@ -66,7 +48,8 @@ class SlidingWindowCounterRateLimiterTest {
     void allowRequest_withinLimit_shouldAllowAll() {
         // GIVEN: Tối đa 3 request / 1000ms, bắt đầu tại đầu cửa sổ
         // startTime = 0: đầu cửa sổ, không có previousCounter
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(3, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(3, 1000, clock);
 
         // WHEN & THEN: 3 request đầu tiên phải đều được cho phép
         assertTrue(limiter.allowRequest("user1"), "Request 1 phai duoc cho phep");
@@ -82,7 +65,8 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("Tu choi request khi vuot qua gioi han")
     void allowRequest_exceedLimit_shouldReject() {
         // GIVEN: Tối đa 3 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(3, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(3, 1000, clock);
 
         // WHEN: Gửi 3 request (đủ giới hạn)
         limiter.allowRequest("user1");
@@ -102,7 +86,8 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("Weighted average: counter cua so truoc anh huong len cua so hien tai")
     void allowRequest_weightedAverage_shouldConsiderPreviousWindow() {
         // GIVEN: Tối đa 10 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(10, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(10, 1000, clock);
 
         // Gửi 8 request trong cửa sổ 1 [0-999ms]
         for (int i = 0; i < 8; i++) {
@@ -112,7 +97,7 @@ class SlidingWindowCounterRateLimiterTest {
         // Chuyển sang cửa sổ 2, tại vị trí 25% (250ms sau đầu cửa sổ)
         // overlapRatio = 1 - 0.25 = 0.75
         // estimated (trước khi tăng counter) = (8 × 0.75) + currentCounter
-        limiter.setCurrentTime(1250);
+        clock.set(1250);
 
         // Request 1: estimated = 6.0 + 0 = 6.0 < 10 → OK, counter → 1
         // Request 2: estimated = 6.0 + 1 = 7.0 < 10 → OK, counter → 2
@@ -135,7 +120,8 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("Trong so giam dan: cang xa ranh gioi, counter cu cang it anh huong")
     void allowRequest_decreasingWeight_shouldGraduallyFreeQuota() {
         // GIVEN: Tối đa 10 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(10, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(10, 1000, clock);
 
         // Dùng hết 10 request trong cửa sổ 1
         for (int i = 0; i < 10; i++) {
@@ -149,7 +135,7 @@ class SlidingWindowCounterRateLimiterTest {
         // Request 2: 7.5 + 1 = 8.5 < 10 → OK, counter → 2
         // Request 3: 7.5 + 2 = 9.5 < 10 → OK, counter → 3 (vẫn OK vì check trước increment!)
         // Request 4: 7.5 + 3 = 10.5 >= 10 → TỪ CHỐI
-        limiter.setCurrentTime(1250);
+        clock.set(1250);
         assertTrue(limiter.allowRequest("user1"), "25%: estimated = 7.5 < 10");
         assertTrue(limiter.allowRequest("user1"), "25%: estimated = 8.5 < 10");
         assertTrue(limiter.allowRequest("user1"), "25%: estimated = 9.5 < 10");
@@ -159,7 +145,7 @@ class SlidingWindowCounterRateLimiterTest {
         // Request 1: 5.0 + 3 = 8.0 < 10 → OK, counter → 4
         // Request 2: 5.0 + 4 = 9.0 < 10 → OK, counter → 5
         // Request 3: 5.0 + 5 = 10.0 >= 10 → TỪ CHỐI
-        limiter.setCurrentTime(1500);
+        clock.set(1500);
         assertTrue(limiter.allowRequest("user1"), "50%: estimated = 8.0 < 10");
         assertTrue(limiter.allowRequest("user1"), "50%: estimated = 9.0 < 10");
         assertFalse(limiter.allowRequest("user1"), "50%: estimated = 10.0 >= 10");
@@ -172,7 +158,8 @@ class SlidingWindowCounterRateLimiterTest {
     @Test
     @DisplayName("Cac key khac nhau co counter doc lap")
     void allowRequest_differentKeys_shouldBeIndependent() {
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(2, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(2, 1000, clock);
 
         // user1 dùng hết giới hạn
         assertTrue(limiter.allowRequest("user1"));
@@ -270,12 +257,13 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("GIAM THIEU Boundary Problem - uu diem chinh so voi Fixed Window")
     void allowRequest_reducedBoundaryProblem_demonstration() {
         // GIVEN: Tối đa 10 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(10, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(10, 1000, clock);
 
         // === KỊCH BẢN GIỐNG BOUNDARY PROBLEM TEST CỦA FIXED WINDOW ===
 
         // Gửi 10 request cuối cửa sổ 1 (tại 900ms)
-        limiter.setCurrentTime(900);
+        clock.set(900);
         int allowedInWindow1 = 0;
         for (int i = 0; i < 10; i++) {
             if (limiter.allowRequest("user1")) {
@@ -290,7 +278,7 @@ class SlidingWindowCounterRateLimiterTest {
         //
         // Fixed Window ở đây sẽ cho phép thêm 10 request (boundary problem!)
         // Sliding Window Counter: estimated = 10.0 → KHÔNG cho phép thêm!
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
         int allowedInWindow2 = 0;
         for (int i = 0; i < 10; i++) {
             if (limiter.allowRequest("user1")) {
@@ -317,7 +305,8 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("Nhay xa hon 1 cua so: previousCounter reset ve 0")
     void allowRequest_skipMultipleWindows_shouldResetPrevious() {
         // GIVEN: Tối đa 10 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(10, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(10, 1000, clock);
 
         // Dùng hết 10 request trong cửa sổ 1
         for (int i = 0; i < 10; i++) {
@@ -328,7 +317,7 @@ class SlidingWindowCounterRateLimiterTest {
         // Vì nhảy xa hơn 1 cửa sổ → previousCounter = 0
         // overlapRatio = 1 - 0.5 = 0.5
         // estimated = (0 × 0.5) + 0 = 0 → có đủ 10 slot
-        limiter.setCurrentTime(4500);
+        clock.set(4500);
 
         int allowed = 0;
         for (int i = 0; i < 15; i++) {
@@ -348,7 +337,8 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("Nhieu cua so lien tiep hoat dong chinh xac")
     void allowRequest_consecutiveWindows_shouldWorkCorrectly() {
         // GIVEN: Tối đa 5 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(5, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(5, 1000, clock);
 
         // === Cửa sổ 1: dùng hết 5 slot ===
         for (int i = 0; i < 5; i++) {
@@ -362,7 +352,7 @@ class SlidingWindowCounterRateLimiterTest {
         // Request 2: 2.5 + 1 = 3.5 < 5 → OK, counter → 2
         // Request 3: 2.5 + 2 = 4.5 < 5 → OK, counter → 3
         // Request 4: 2.5 + 3 = 5.5 >= 5 → TỪ CHỐI
-        limiter.setCurrentTime(1500);
+        clock.set(1500);
         assertTrue(limiter.allowRequest("user1"), "Cua so 2 tai 50%, estimated = 2.5");
         assertTrue(limiter.allowRequest("user1"), "Cua so 2 tai 50%, estimated = 3.5");
         assertTrue(limiter.allowRequest("user1"), "Cua so 2 tai 50%, estimated = 4.5");
@@ -372,7 +362,7 @@ class SlidingWindowCounterRateLimiterTest {
         // Request 1: 0.5 + 3 = 3.5 < 5 → OK, counter → 4
         // Request 2: 0.5 + 4 = 4.5 < 5 → OK, counter → 5
         // Request 3: 0.5 + 5 = 5.5 >= 5 → TỪ CHỐI
-        limiter.setCurrentTime(1900);
+        clock.set(1900);
         assertTrue(limiter.allowRequest("user1"), "Cua so 2 tai 90%, estimated = 3.5");
         assertTrue(limiter.allowRequest("user1"), "Cua so 2 tai 90%, estimated = 4.5");
         assertFalse(limiter.allowRequest("user1"), "Cua so 2 tai 90%, estimated = 5.5 >= 5");
@@ -386,7 +376,8 @@ class SlidingWindowCounterRateLimiterTest {
     @DisplayName("Request dung tai ranh gioi cua so duoc xu ly chinh xac")
     void allowRequest_exactlyAtWindowBoundary_shouldTransitionSmoothly() {
         // GIVEN: Tối đa 5 request / 1000ms
-        TestableSlidingWindowCounter limiter = new TestableSlidingWindowCounter(5, 1000, 0);
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(5, 1000, clock);
 
         // Gửi 5 request trong cửa sổ 1
         for (int i = 0; i < 5; i++) {
@@ -395,15 +386,144 @@ class SlidingWindowCounterRateLimiterTest {
 
         // Tại 999ms: vẫn ở cửa sổ 1 (windowId = 999/1000 = 0), counter đã = 5
         // estimated = 5 >= 5 → TỪ CHỐI
-        limiter.setCurrentTime(999);
+        clock.set(999);
         assertFalse(limiter.allowRequest("user1"),
                 "999ms: van o cua so 1, counter = 5, het quota");
 
         // Tại đúng ranh giới 1000ms: cửa sổ mới! overlapRatio = 1 - 0/1000 = 1.0
         // estimated = 5 × 1.0 + 0 = 5.0 → >= 5, TỪ CHỐI
         // Counter cửa sổ trước vẫn ảnh hưởng tối đa ngay tại ranh giới
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
         assertFalse(limiter.allowRequest("user1"),
                 "Tai ranh gioi: estimated = 5.0, counter cu van anh huong toi da");
     }
+
+    // =====================================================================
+    // TEST 12: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(3, 1000, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: cả counter hiện tại và counter trước đều hết hạn
+        clock.advance(2000);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 13: Lưu state trong bảng off-heap
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang off-heap: quyet dinh giong het khi luu tren heap")
+    void allowRequest_offHeapTable_shouldMatchOnHeapDecisions() {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter onHeap = new SlidingWindowCounterRateLimiter(5, 1000, clock);
+        SlidingWindowCounterRateLimiter offHeap = new SlidingWindowCounterRateLimiter(5, 1000, new OffHeapStateTable(1_000), clock);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            if (random.nextInt(10) == 0) {
+                long millis = random.nextInt(700);
+                clock.advance(millis);
+            }
+            String key = "key-" + random.nextInt(50);
+            assertEquals(onHeap.allowRequest(key), offHeap.allowRequest(key), "Lech quyet dinh o request " + i);
+        }
+        assertEquals(50, offHeap.trackedKeyCount());
+    }
+
+    // =====================================================================
+    // TEST 14: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(10, 1000, clock);
+
+        assertTrue(limiter.tryAcquire("user", 6));
+        assertFalse(limiter.tryAcquire("user", 5), "Chi con 4 → lo 5 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 4), "Lo bi tu choi khong duoc tru quota");
+        assertFalse(limiter.allowRequest("user"));
+
+        // Sang cửa sổ mới, 50% cửa sổ: ước tính = 10 × 0.5 = 5 → còn đúng 5
+        clock.set(1500);
+        assertFalse(limiter.tryAcquire("user", 6));
+        assertTrue(limiter.tryAcquire("user", 5));
+        assertFalse(limiter.allowRequest("user"));
+
+        assertFalse(limiter.tryAcquire("other", 11), "Lo lon hon gioi han khong bao gio duoc cap");
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 15: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        ManualClock clock = new ManualClock(0);
+        for (SlidingWindowCounterRateLimiter limiter : new SlidingWindowCounterRateLimiter[]{
+                new SlidingWindowCounterRateLimiter(10, 1000, clock),
+                new SlidingWindowCounterRateLimiter(10, 1000, new OffHeapStateTable(100), clock)}) {
+            clock.set(0);
+            // Counter cửa sổ hiện tại còn ảnh hưởng tới hết cửa sổ kế tiếp
+            assertTrue(limiter.tryAcquire(key, 10, decision));
+            assertEquals(10, decision.getLimit());
+            assertEquals(0, decision.getRemaining());
+            assertEquals(0, decision.getRetryAfterMillis());
+            assertEquals(2000, decision.getResetAfterMillis());
+
+            // t = 1250: ước lượng = 10 × 0.75 = 7.5, lô 3 vẫn vừa → ước lượng 10.5
+            clock.set(1250);
+            assertTrue(limiter.tryAcquire(key, 3, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(0, decision.getRetryAfterMillis());
+            assertEquals(1750, decision.getResetAfterMillis());
+
+            // Ước lượng = 10 × (1 - pos) + 3 < 10 từ t = 1301
+            assertFalse(limiter.tryAcquire(key, 1, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(51, decision.getRetryAfterMillis());
+            // Lô 5: 10 × (1 - pos) + 3 + 4 < 10 từ t = 1701
+            assertFalse(limiter.tryAcquire(key, 5, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(451, decision.getRetryAfterMillis());
+            // Lô 8: phải đợi sang cửa sổ kế tiếp, khi 3 request hiện tại giảm trọng số
+            assertFalse(limiter.tryAcquire(key, 8, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(751, decision.getRetryAfterMillis());
+            assertFalse(limiter.tryAcquire(key, 11, decision));
+            assertEquals(0, decision.getRemaining());
+            assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+
+            // Retry-after khớp với quyết định thật
+            clock.set(1250 + 51);
+            assertTrue(limiter.allowRequest(key));
+        }
+    }
 }
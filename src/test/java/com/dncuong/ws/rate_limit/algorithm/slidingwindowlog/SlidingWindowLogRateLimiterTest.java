@@ -1,8 +1,13 @@
 package com.dncuong.ws.rate_limit.algorithm.slidingwindowlog;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayDeque;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -25,47 +30,17 @@ import static org.junit.jupiter.api.Assertions.*;
  * 7. Chứng minh GIẢI QUYẾT Boundary Problem mà Fixed Window mắc phải
  * 8. Request bị từ chối không chiếm quota
  * 9. Dọn dẹp chính xác: chỉ xóa entry hết hạn
+ * 10. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 11. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
  *
  * KỸ THUẬT TEST:
- * - Sử dụng lớp TestableSlidingWindowLog (kế thừa từ lớp chính)
- *   để kiểm soát thời gian thay vì dùng Thread.sleep()
+ * - Truyền ManualClock vào constructor (RateLimitClock) để kiểm soát
+ *   thời gian thay vì dùng Thread.sleep()
  *
  * @author dncuong
  */
 class SlidingWindowLogRateLimiterTest {
 
-    // =====================================================================
-    // LỚP HỖ TRỢ TEST: Cho phép kiểm soát thời gian
-    // =====================================================================
-
-    /**
-     * Lớp con kế thừa SlidingWindowLogRateLimiter, override getCurrentTimeMillis()
-     * để trả về thời gian do chúng ta kiểm soát thay vì thời gian thật.
-     */
-    static class TestableSlidingWindowLog extends SlidingWindowLogRateLimiter {
-        private long currentTime;
-
-        TestableSlidingWindowLog(long maxRequests, long windowSizeInMillis, long startTime) {
-            super(maxRequests, windowSizeInMillis);
-            this.currentTime = startTime;
-        }
-
-        @Override
-        protected long getCurrentTimeMillis() {
-            return currentTime;
-        }
-
-        /** "Tua" thời gian về phía trước */
-        void advanceTime(long millis) {
-            this.currentTime += millis;
-        }
-
-        /** Đặt thời gian về một giá trị cụ thể */
-        void setCurrentTime(long time) {
-            this.currentTime = time;
-        }
-    }
-
     // =====================================================================
     // TEST 1: Request trong giới hạn → tất cả phải được cho phép
     // =====================================================================
@@ -74,7 +49,8 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Cho phep tat ca request khi chua vuot gioi han")
     void allowRequest_withinLimit_shouldAllowAll() {
         // GIVEN: Rate limiter cho phép tối đa 3 request trong cửa sổ 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(3, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(3, 1000, clock);
 
         // WHEN & THEN: 3 request đầu tiên phải đều được cho phép
         assertTrue(limiter.allowRequest("user1"), "Request 1 phai duoc cho phep");
@@ -90,7 +66,8 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Tu choi request khi vuot qua gioi han")
     void allowRequest_exceedLimit_shouldReject() {
         // GIVEN: Rate limiter cho phép tối đa 3 request trong cửa sổ 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(3, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(3, 1000, clock);
 
         // WHEN: Gửi 3 request (đủ giới hạn)
         limiter.allowRequest("user1"); // request 1 → OK
@@ -110,7 +87,8 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Giai phong quota khi request cu het han (cua so truot)")
     void allowRequest_slidingWindow_shouldExpireOldRequests() {
         // GIVEN: Tối đa 3 request / 1000ms, bắt đầu tại 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(3, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(3, 1000, clock);
 
         // Gửi 3 request tại thời điểm 1000ms → hết quota
         assertTrue(limiter.allowRequest("user1"), "Request 1 tai 1000ms");
@@ -120,12 +98,12 @@ class SlidingWindowLogRateLimiterTest {
 
         // Tua đến 1500ms (chỉ 500ms sau) → request cũ chưa hết hạn
         // Cửa sổ: [500, 1500] → 3 request tại 1000ms vẫn trong cửa sổ
-        limiter.setCurrentTime(1500);
+        clock.set(1500);
         assertFalse(limiter.allowRequest("user1"), "1500ms: request cu van trong cua so");
 
         // Tua đến 2001ms (hơn 1000ms sau request đầu tiên)
         // Cửa sổ: [1001, 2001] → 3 request tại 1000ms đã hết hạn (1000 <= 1001? Đúng!)
-        limiter.setCurrentTime(2001);
+        clock.set(2001);
         assertTrue(limiter.allowRequest("user1"), "2001ms: request cu da het han, co quota moi");
     }
 
@@ -137,16 +115,17 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Request het han tung cai mot theo thoi gian")
     void allowRequest_gradualExpiry_shouldFreeUpSlots() {
         // GIVEN: Tối đa 3 request / 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(3, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(3, 1000, clock);
 
         // Gửi 3 request ở các thời điểm khác nhau
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
         assertTrue(limiter.allowRequest("user1"), "Request 1 tai 1000ms");
 
-        limiter.setCurrentTime(1200);
+        clock.set(1200);
         assertTrue(limiter.allowRequest("user1"), "Request 2 tai 1200ms");
 
-        limiter.setCurrentTime(1400);
+        clock.set(1400);
         assertTrue(limiter.allowRequest("user1"), "Request 3 tai 1400ms");
 
         // Hết quota
@@ -154,13 +133,13 @@ class SlidingWindowLogRateLimiterTest {
 
         // Tua đến 2001ms → request 1 (tại 1000ms) hết hạn, nhưng 2 và 3 vẫn còn
         // Cửa sổ: [1001, 2001] → chỉ còn request tại 1200ms và 1400ms
-        limiter.setCurrentTime(2001);
+        clock.set(2001);
         assertTrue(limiter.allowRequest("user1"), "2001ms: 1 slot da giai phong");
         assertFalse(limiter.allowRequest("user1"), "Van het quota (2 cu + 1 moi = 3)");
 
         // Tua đến 2201ms → request 2 (tại 1200ms) cũng hết hạn
         // Cửa sổ: [1201, 2201] → chỉ còn request tại 1400ms và 2001ms
-        limiter.setCurrentTime(2201);
+        clock.set(2201);
         assertTrue(limiter.allowRequest("user1"), "2201ms: them 1 slot giai phong");
     }
 
@@ -172,7 +151,8 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Cac key khac nhau co log doc lap")
     void allowRequest_differentKeys_shouldBeIndependent() {
         // GIVEN: Rate limiter cho phép tối đa 2 request/cửa sổ
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(2, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(2, 1000, clock);
 
         // WHEN: user1 dùng hết giới hạn
         assertTrue(limiter.allowRequest("user1"));
@@ -199,6 +179,10 @@ class SlidingWindowLogRateLimiterTest {
         assertThrows(IllegalArgumentException.class, () ->
                         new SlidingWindowLogRateLimiter(-5, 1000),
                 "maxRequests am phai throw exception");
+
+        assertThrows(IllegalArgumentException.class, () ->
+                        new SlidingWindowLogRateLimiter(SlidingWindowLogRateLimiter.MAX_LOG_CAPACITY + 1, 1000),
+                "maxRequests vuot kich thuoc vong dem long[] phai throw exception");
     }
 
     @Test
@@ -271,14 +255,15 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("GIAI QUYET Boundary Problem - uu diem chinh so voi Fixed Window")
     void allowRequest_noBoundaryProblem_demonstration() {
         // GIVEN: Tối đa 10 request / 1000ms, bắt đầu tại 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(10, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(10, 1000, clock);
 
         // === KỊCH BẢN GIỐNG TEST BOUNDARY PROBLEM CỦA FIXED WINDOW ===
         // Trong Fixed Window: 10 req cuối cửa sổ 1 + 10 req đầu cửa sổ 2 = 20 req → BAD!
         // Trong Sliding Window Log: cửa sổ TRƯỢT, không có ranh giới cố định
 
         // Gửi 10 request tại thời điểm 1900ms (tương tự "cuối cửa sổ 1" trong Fixed Window)
-        limiter.setCurrentTime(1900);
+        clock.set(1900);
         int allowedFirstBatch = 0;
         for (int i = 0; i < 10; i++) {
             if (limiter.allowRequest("user1")) {
@@ -290,7 +275,7 @@ class SlidingWindowLogRateLimiterTest {
         // Tua đến 2000ms (chỉ cách 100ms - tương tự "đầu cửa sổ 2" trong Fixed Window)
         // Trong Fixed Window: counter reset → cho phép thêm 10 request → BOUNDARY PROBLEM!
         // Trong Sliding Window Log: cửa sổ [1000, 2000] → 10 request tại 1900ms vẫn còn
-        limiter.setCurrentTime(2000);
+        clock.set(2000);
         int allowedSecondBatch = 0;
         for (int i = 0; i < 10; i++) {
             if (limiter.allowRequest("user1")) {
@@ -317,7 +302,8 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Request bi tu choi khong chiem quota trong log")
     void allowRequest_rejectedRequests_shouldNotConsumeQuota() {
         // GIVEN: Tối đa 2 request / 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(2, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(2, 1000, clock);
 
         // Dùng hết quota
         assertTrue(limiter.allowRequest("user1"));
@@ -329,7 +315,7 @@ class SlidingWindowLogRateLimiterTest {
         }
 
         // Tua thời gian để request cũ hết hạn
-        limiter.advanceTime(1001);
+        clock.advance(1001);
 
         // Phải có đúng 2 slot trống (100 request bị từ chối không chiếm quota)
         assertTrue(limiter.allowRequest("user1"), "Slot 1 phai available");
@@ -345,28 +331,29 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Cua so truot lien tuc qua nhieu giai doan")
     void allowRequest_continuousSlidingWindow_shouldWorkCorrectly() {
         // GIVEN: Tối đa 2 request / 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(2, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(2, 1000, clock);
 
         // Giai đoạn 1: 2 request tại 1000ms
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
         assertTrue(limiter.allowRequest("user1"));
         assertTrue(limiter.allowRequest("user1"));
 
         // Giai đoạn 2: thêm 1 request tại 1500ms → hết quota
         // Cửa sổ [500, 1500] chứa 2 request tại 1000ms
-        limiter.setCurrentTime(1500);
+        clock.set(1500);
         assertFalse(limiter.allowRequest("user1"), "Van het quota");
 
         // Giai đoạn 3: tại 2001ms → request 1000ms hết hạn
         // Cửa sổ [1001, 2001] → không còn request nào
-        limiter.setCurrentTime(2001);
+        clock.set(2001);
         assertTrue(limiter.allowRequest("user1"), "Request cu het han");
         assertTrue(limiter.allowRequest("user1"), "Slot 2");
         assertFalse(limiter.allowRequest("user1"), "Het quota lai");
 
         // Giai đoạn 4: nhảy xa đến 10001ms
         // Cửa sổ [9001, 10001] → request tại 2001ms đã hết hạn từ lâu
-        limiter.setCurrentTime(10001);
+        clock.set(10001);
         assertTrue(limiter.allowRequest("user1"), "Cua so moi hoan toan");
     }
 
@@ -378,19 +365,154 @@ class SlidingWindowLogRateLimiterTest {
     @DisplayName("Chinh xac tai ranh gioi thoi gian: request het han dung luc")
     void allowRequest_exactExpiry_shouldExpireCorrectly() {
         // GIVEN: Tối đa 1 request / 1000ms
-        TestableSlidingWindowLog limiter = new TestableSlidingWindowLog(1, 1000, 1000);
+        ManualClock clock = new ManualClock(1000);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(1, 1000, clock);
 
         // Gửi 1 request tại 1000ms
-        limiter.setCurrentTime(1000);
+        clock.set(1000);
         assertTrue(limiter.allowRequest("user1"), "Request tai 1000ms");
 
         // Tại 1999ms: cửa sổ [999, 1999] → request tại 1000ms vẫn còn
-        limiter.setCurrentTime(1999);
+        clock.set(1999);
         assertFalse(limiter.allowRequest("user1"), "1999ms: request 1000ms van trong cua so");
 
         // Tại 2000ms: cửa sổ [1000, 2000] → request tại 1000ms hết hạn
         // (vì điều kiện xóa là timestamp <= windowStart, tức 1000 <= 1000)
-        limiter.setCurrentTime(2000);
+        clock.set(2000);
         assertTrue(limiter.allowRequest("user1"), "2000ms: request 1000ms vua het han");
     }
+
+    // =====================================================================
+    // TEST 12: Vòng đệm quay vòng nhiều lần vẫn chính xác tuyệt đối
+    // =====================================================================
+
+    @Test
+    @DisplayName("Vong dem quay vong nhieu lan van khop voi log tham chieu")
+    void allowRequest_ringWrapAround_shouldMatchReferenceLog() {
+        // GIVEN: Tối đa 5 request / 1000ms, chạy qua hàng nghìn request
+        // để head của vòng đệm quay vòng rất nhiều lần
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(5, 1000, clock);
+        ArrayDeque<Long> reference = new ArrayDeque<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 20_000; i++) {
+            clock.advance(random.nextInt(120));
+            long now = limiter.currentTimeMillis();
+
+            // Log tham chiếu: đúng thuật toán dọn dẹp + đếm cũ
+            while (!reference.isEmpty() && reference.peekFirst() <= now - 1000) {
+                reference.pollFirst();
+            }
+            boolean expected = reference.size() < 5;
+            if (expected) {
+                reference.addLast(now);
+            }
+
+            assertEquals(expected, limiter.allowRequest("user1"),
+                    "Quyet dinh khac log tham chieu o request thu " + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 13: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(3, 1000, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: mọi timestamp của key nhàn rỗi đã ra khỏi cửa sổ
+        clock.advance(1000);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 14: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(5, 1000, clock);
+
+        assertTrue(limiter.tryAcquire("user", 3));
+        clock.set(400);
+        assertFalse(limiter.tryAcquire("user", 3), "Chi con 2 → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 2), "Lo bi tu choi khong duoc tru quota");
+        assertFalse(limiter.allowRequest("user"));
+
+        // Lô 3 permits tại t=0 hết hạn CÙNG LÚC → trả lại đúng 3
+        clock.set(1000);
+        assertFalse(limiter.tryAcquire("user", 4));
+        assertTrue(limiter.tryAcquire("user", 3));
+        assertFalse(limiter.allowRequest("user"));
+
+        // Lô 2 permits tại t=400 hết hạn → 2 request đơn lẻ dùng lại
+        clock.set(1400);
+        assertTrue(limiter.allowRequest("user"));
+        assertTrue(limiter.allowRequest("user"));
+        assertFalse(limiter.allowRequest("user"));
+
+        assertFalse(limiter.tryAcquire("other", 6), "Lo lon hon gioi han khong bao gio duoc cap");
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 15: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        ManualClock clock = new ManualClock(0);
+        SlidingWindowLogRateLimiter limiter = new SlidingWindowLogRateLimiter(5, 1000, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(key, 2));
+        clock.set(300);
+        assertTrue(limiter.tryAcquire(key, 2, decision));
+        assertEquals(5, decision.getLimit());
+        assertEquals(1, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(1000, decision.getResetAfterMillis());
+
+        // Lô 3 cần entry t=0 (2 request) hết hạn; lô 4 cần cả entry t=300
+        clock.set(500);
+        assertFalse(limiter.tryAcquire(key, 3, decision));
+        assertEquals(1, decision.getRemaining());
+        assertEquals(500, decision.getRetryAfterMillis());
+        assertEquals(800, decision.getResetAfterMillis());
+        assertFalse(limiter.tryAcquire(key, 4, decision));
+        assertEquals(1, decision.getRemaining());
+        assertEquals(800, decision.getRetryAfterMillis());
+        assertFalse(limiter.tryAcquire(key, 6, decision));
+        assertEquals(1, decision.getRemaining());
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+
+        // Log lưu timestamp thật → retry-after chính xác tuyệt đối
+        clock.set(999);
+        assertFalse(limiter.tryAcquire(key, 3));
+        clock.set(1000);
+        assertTrue(limiter.tryAcquire(key, 3));
+    }
 }
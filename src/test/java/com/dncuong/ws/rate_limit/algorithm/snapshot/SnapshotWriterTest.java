@@ -0,0 +1,295 @@
+package com.dncuong.ws.rate_limit.algorithm.snapshot;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.clock.RateLimitClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.slidingwindowcounter.SlidingWindowCounterRateLimiter;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
+import com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO SNAPSHOT WRITER VÀ KHÔI PHỤC LƯỜI
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Khởi động lại từ snapshot: limiter mới ra quyết định y hệt limiter cũ
+ * 2. Key chưa quay lại được chép sang snapshot kế tiếp
+ * 3. Mọi bản ghi đã fresh: snapshot kế tiếp rỗng, snapshot cũ được bỏ
+ * 4. Ghi snapshot liên tục trong lúc có traffic đồng thời
+ * 5. Thread nền ghi định kỳ, close ghi snapshot cuối
+ * 6. Dùng sai: restoreFrom sau request, khác format, off-heap, tham số không hợp lệ
+ * 7. Key quá dài (70 KiB): bị bỏ qua khi ghi, không làm lỗi lần ghi hay allowRequest
+ *
+ * @author dncuong
+ */
+class SnapshotWriterTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    // =====================================================================
+    // TEST 1: Khởi động lại từ snapshot
+    // =====================================================================
+
+    @Test
+    @DisplayName("Khoi dong lai tu snapshot: limiter moi ra quyet dinh y het limiter cu")
+    void restore_shouldContinueWithSameDecisions() throws IOException {
+        assertRestoredMatches(clock -> new FixedWindowCounterRateLimiter(20, 1_000, clock));
+        assertRestoredMatches(clock -> new SlidingWindowCounterRateLimiter(20, 1_000, clock));
+        assertRestoredMatches(clock -> new TokenBucketRateLimiter(20, 7.5, clock));
+    }
+
+    private void assertRestoredMatches(Function<RateLimitClock, SnapshotSupport> factory) throws IOException {
+        ManualClock clock = new ManualClock(START);
+        SnapshotSupport before = factory.apply(clock);
+        Random random = new Random(42);
+        RateLimitKey[] keys = new RateLimitKey[200];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = RateLimitKey.of("client-" + i);
+        }
+        RateLimitDecision decision = new RateLimitDecision();
+        for (int i = 0; i < 5_000; i++) {
+            before.tryAcquire(keys[random.nextInt(keys.length)], 1 + random.nextInt(3), decision);
+            clock.advance(random.nextInt(3));
+        }
+
+        Path file = dir.resolve(before.snapshotFormat().replace('/', '-') + ".snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(before, file)) {
+            assertTrue(writer.writeNow() > 0);
+        }
+        SnapshotSupport after = factory.apply(clock);
+        after.restoreFrom(StateSnapshot.open(file));
+
+        RateLimitDecision expected = new RateLimitDecision();
+        for (int i = 0; i < 5_000; i++) {
+            RateLimitKey key = keys[random.nextInt(keys.length)];
+            int permits = 1 + random.nextInt(3);
+            before.tryAcquire(key, permits, expected);
+            after.tryAcquire(key, permits, decision);
+            assertEquals(expected.toString(), decision.toString(), before.snapshotFormat() + " request " + i);
+            clock.advance(random.nextInt(3));
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Chép key chưa quay lại
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key chua quay lai duoc chep sang snapshot ke tiep")
+    void writeNow_shouldCarryOverUntakenRecords() throws IOException {
+        ManualClock clock = new ManualClock(START);
+        FixedWindowCounterRateLimiter first = new FixedWindowCounterRateLimiter(5, 60_000, clock);
+        for (int i = 0; i < 5; i++) {
+            first.allowRequest("idle");
+            first.allowRequest("active");
+        }
+        Path file = dir.resolve("limiter.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(first, file)) {
+            assertEquals(2, writer.writeNow());
+        }
+
+        // Thế hệ 2: chỉ "active" quay lại, "idle" vẫn chỉ nằm trong snapshot
+        FixedWindowCounterRateLimiter second = new FixedWindowCounterRateLimiter(5, 60_000, clock);
+        second.restoreFrom(StateSnapshot.open(file));
+        assertFalse(second.allowRequest("active"));
+        try (SnapshotWriter writer = new SnapshotWriter(second, file)) {
+            assertEquals(2, writer.writeNow());
+        }
+
+        // Thế hệ 3: "idle" vẫn bị chặn dù đã qua hai lần khởi động lại
+        FixedWindowCounterRateLimiter third = new FixedWindowCounterRateLimiter(5, 60_000, clock);
+        third.restoreFrom(StateSnapshot.open(file));
+        assertFalse(third.allowRequest("idle"));
+        assertFalse(third.allowRequest("active"));
+    }
+
+    // =====================================================================
+    // TEST 3: Bỏ snapshot cũ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Moi ban ghi da fresh: snapshot ke tiep rong, snapshot cu duoc bo")
+    void writeNow_allFresh_shouldDiscardRestoredSnapshot() throws IOException {
+        ManualClock clock = new ManualClock(START);
+        TokenBucketRateLimiter first = new TokenBucketRateLimiter(10, 1.0, clock);
+        first.tryAcquire(RateLimitKey.of(1L), 10, new RateLimitDecision());
+        Path file = dir.resolve("limiter.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(first, file)) {
+            assertEquals(1, writer.writeNow());
+        }
+
+        // Sau 10 giây bucket đã đầy lại: không còn gì cần lưu
+        clock.advance(10_000);
+        TokenBucketRateLimiter second = new TokenBucketRateLimiter(10, 1.0, clock);
+        StateSnapshot snapshot = StateSnapshot.open(file);
+        second.restoreFrom(snapshot);
+        try (SnapshotWriter writer = new SnapshotWriter(second, file)) {
+            assertEquals(0, writer.writeNow());
+        }
+
+        assertNull(snapshot.take(RateLimitKey.of(1L)), "Snapshot cu da bi bo");
+        assertEquals(0, StateSnapshot.open(file).recordCount());
+        assertTrue(second.allowRequest(RateLimitKey.of(1L)));
+    }
+
+    // =====================================================================
+    // TEST 4: Ghi trong lúc có traffic
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ghi snapshot lien tuc trong luc co traffic dong thoi")
+    void writeNow_concurrentTraffic_shouldProduceValidSnapshots() throws Exception {
+        ManualClock clock = new ManualClock(START);
+        SlidingWindowCounterRateLimiter limiter = new SlidingWindowCounterRateLimiter(1_000_000, 60_000, clock);
+        Path file = dir.resolve("limiter.snapshot");
+        int threads = 4;
+        int keysPerThread = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(threads);
+        try (SnapshotWriter writer = new SnapshotWriter(limiter, file)) {
+            Future<?>[] workers = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers[t] = executor.submit(() -> {
+                    started.countDown();
+                    for (int i = 0; !stop.get() || i < keysPerThread; i++) {
+                        assertTrue(limiter.allowRequest(RateLimitKey.of((long) thread * keysPerThread + i % keysPerThread)));
+                    }
+                });
+            }
+            started.await();
+            for (int i = 0; i < 20; i++) {
+                long records = writer.writeNow();
+                assertTrue(records <= (long) threads * keysPerThread);
+                assertEquals(records, StateSnapshot.open(file).recordCount());
+            }
+            stop.set(true);
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals((long) threads * keysPerThread, writer.writeNow());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(Files.exists(dir.resolve("limiter.snapshot.tmp")));
+    }
+
+    // =====================================================================
+    // TEST 5: Ghi ở nền và khi close
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread nen ghi dinh ky, close ghi snapshot cuoi")
+    void backgroundWrite_andClose_shouldWriteSnapshots() throws Exception {
+        ManualClock clock = new ManualClock(START);
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(10, 60_000, clock);
+        limiter.allowRequest("a");
+        Path file = dir.resolve("limiter.snapshot");
+
+        SnapshotWriter writer = new SnapshotWriter(limiter, file, 10);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Files.exists(file) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(Files.exists(file), "Thread nen phai ghi snapshot");
+        assertNull(writer.lastFailure());
+
+        limiter.allowRequest("b");
+        writer.close();
+        writer.close();
+        StateSnapshot snapshot = StateSnapshot.open(file);
+        assertEquals(2, snapshot.recordCount());
+        assertNotNull(snapshot.take(RateLimitKey.of("b")));
+    }
+
+    // =====================================================================
+    // TEST 6: Dùng sai
+    // =====================================================================
+
+    @Test
+    @DisplayName("Dung sai: restoreFrom sau request, khac format, off-heap, tham so khong hop le")
+    void misuse_shouldThrow() throws IOException {
+        ManualClock clock = new ManualClock(START);
+        FixedWindowCounterRateLimiter fixed = new FixedWindowCounterRateLimiter(10, 60_000, clock);
+        fixed.allowRequest("a");
+        Path file = dir.resolve("limiter.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(fixed, file)) {
+            writer.writeNow();
+        }
+        StateSnapshot snapshot = StateSnapshot.open(file);
+
+        assertThrows(IllegalStateException.class, () -> fixed.restoreFrom(snapshot));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FixedWindowCounterRateLimiter(10, 60_000, clock).restoreFrom(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new TokenBucketRateLimiter(10, 1.0, clock).restoreFrom(snapshot));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SlidingWindowCounterRateLimiter(10, 60_000, clock).restoreFrom(snapshot));
+
+        FixedWindowCounterRateLimiter offHeap =
+                new FixedWindowCounterRateLimiter(10, 60_000, new OffHeapStateTable(100), clock);
+        assertThrows(IllegalStateException.class, () -> offHeap.restoreFrom(snapshot));
+        assertThrows(IllegalStateException.class, () -> offHeap.forEachState(START, (key, fields) -> { }));
+
+        assertThrows(IllegalArgumentException.class, () -> new SnapshotWriter(null, file));
+        assertThrows(IllegalArgumentException.class, () -> new SnapshotWriter(fixed, null));
+        assertThrows(IllegalArgumentException.class, () -> new SnapshotWriter(fixed, file, 0));
+    }
+
+    // =====================================================================
+    // TEST 7: Key quá dài
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key qua dai (70 KiB): bi bo qua khi ghi, khong lam loi lan ghi hay allowRequest")
+    void writeNow_oversizedKey_shouldSkipIt() throws IOException {
+        ManualClock clock = new ManualClock(START);
+        RateLimitKey longString = RateLimitKey.of("x".repeat(70 * 1024));
+        RateLimitKey longBytes = RateLimitKey.of(new byte[70 * 1024], 0, 70 * 1024);
+        RateLimitKey normal = RateLimitKey.of("normal");
+        FixedWindowCounterRateLimiter first = new FixedWindowCounterRateLimiter(5, 60_000, clock);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(first.allowRequest(longString));
+            assertTrue(first.allowRequest(longBytes));
+            assertTrue(first.allowRequest(normal));
+        }
+        Path file = dir.resolve("limiter.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(first, file)) {
+            assertEquals(1, writer.writeNow(), "Chi key ghi duoc vao snapshot");
+        }
+
+        // Khôi phục: key quá dài không có trong snapshot → bắt đầu lại, không ném exception
+        FixedWindowCounterRateLimiter second = new FixedWindowCounterRateLimiter(5, 60_000, clock);
+        second.restoreFrom(StateSnapshot.open(file));
+        assertTrue(second.allowRequest(longString));
+        assertTrue(second.allowRequest(longBytes));
+        assertFalse(second.allowRequest(normal));
+        try (SnapshotWriter writer = new SnapshotWriter(second, file)) {
+            assertEquals(1, writer.writeNow());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.dncuong.ws.rate_limit.algorithm.snapshot;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO SNAPSHOT MEMORY-MAPPED
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. take trả state đã lưu đúng một lần, với mọi loại key
+ * 2. take không sửa file: mở lại file vẫn lấy được
+ * 3. Nhiều key: mở không đọc bản ghi, mỗi key tìm được qua index
+ * 4. File không phải snapshot / bị cắt cụt → IOException
+ * 5. Format khác limiter → IllegalArgumentException
+ * 6. Index hỏng không còn slot trống: take dừng sau một vòng, trả null
+ *
+ * @author dncuong
+ */
+class StateSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    /** Fixed window 10 request/phút, mỗi key đã dùng đúng count request. */
+    private Path write(ManualClock clock, RateLimitKey[] keys, int count) throws IOException {
+        FixedWindowCounterRateLimiter limiter = new FixedWindowCounterRateLimiter(10, 60_000, clock);
+        for (RateLimitKey key : keys) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(limiter.allowRequest(key));
+            }
+        }
+        Path file = dir.resolve("limiter.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(limiter, file)) {
+            assertEquals(keys.length, writer.writeNow());
+        }
+        return file;
+    }
+
+    // =====================================================================
+    // TEST 1: take đúng một lần
+    // =====================================================================
+
+    @Test
+    @DisplayName("take tra state da luu dung mot lan, voi moi loai key")
+    void take_shouldReturnStoredStateOnce() throws IOException {
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        RateLimitKey[] keys = {
+                RateLimitKey.of(42L),
+                RateLimitKey.of("client-é"),
+                RateLimitKey.of(new byte[]{1, 2, 3}, 0, 3)
+        };
+        StateSnapshot snapshot = StateSnapshot.open(write(clock, keys, 3));
+
+        assertEquals("fixed-window-counter/1", snapshot.format());
+        assertEquals(2, snapshot.stateWidth());
+        assertEquals(3, snapshot.recordCount());
+        assertEquals(clock.currentTimeMillis(), snapshot.createdAtMillis());
+        for (RateLimitKey key : keys) {
+            assertArrayEquals(new long[]{clock.currentTimeMillis() / 60_000, 3}, snapshot.take(key), key.toString());
+            assertNull(snapshot.take(key), "Lan hai cua " + key);
+        }
+        assertNull(snapshot.take(RateLimitKey.of("unknown")));
+        assertNull(snapshot.take(RateLimitKey.of("client-e")), "Khac key cung noi dung gan giong");
+    }
+
+    // =====================================================================
+    // TEST 2: File không bị sửa
+    // =====================================================================
+
+    @Test
+    @DisplayName("take khong sua file: mo lai file van lay duoc")
+    void take_shouldNotModifyFile() throws IOException {
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        RateLimitKey key = RateLimitKey.of("client");
+        Path file = write(clock, new RateLimitKey[]{key}, 5);
+        byte[] before = Files.readAllBytes(file);
+
+        assertNotNull(StateSnapshot.open(file).take(key));
+
+        assertArrayEquals(before, Files.readAllBytes(file));
+        assertArrayEquals(new long[]{clock.currentTimeMillis() / 60_000, 5}, StateSnapshot.open(file).take(key));
+    }
+
+    // =====================================================================
+    // TEST 3: Nhiều key
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu key: moi key tim duoc qua index")
+    void take_manyKeys_shouldFindEveryKey() throws IOException {
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        RateLimitKey[] keys = new RateLimitKey[50_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i % 2 == 0 ? RateLimitKey.of((long) i) : RateLimitKey.of("10.0." + (i >> 8) + "." + (i & 255));
+        }
+        StateSnapshot snapshot = StateSnapshot.open(write(clock, keys, 1));
+
+        assertEquals(keys.length, snapshot.recordCount());
+        for (int i = keys.length - 1; i >= 0; i--) {
+            assertNotNull(snapshot.take(keys[i]), "Key " + i);
+        }
+        assertNull(snapshot.take(RateLimitKey.of((long) keys.length)));
+    }
+
+    // =====================================================================
+    // TEST 4: File hỏng
+    // =====================================================================
+
+    @Test
+    @DisplayName("File khong phai snapshot / bi cat cut → IOException")
+    void open_invalidFile_shouldThrow() throws IOException {
+        Path text = dir.resolve("text.snapshot");
+        Files.writeString(text, "khong phai snapshot, chi la mot file van ban du dai de co header", StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> StateSnapshot.open(text));
+
+        Path empty = Files.createFile(dir.resolve("empty.snapshot"));
+        assertThrows(IOException.class, () -> StateSnapshot.open(empty));
+
+        Path file = write(new ManualClock(1_700_000_000_000L), new RateLimitKey[]{RateLimitKey.of("client")}, 1);
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = dir.resolve("truncated.snapshot");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 8));
+        assertThrows(IOException.class, () -> StateSnapshot.open(truncated));
+
+        assertThrows(IOException.class, () -> StateSnapshot.open(dir.resolve("missing.snapshot")));
+    }
+
+    // =====================================================================
+    // TEST 5: Khác format
+    // =====================================================================
+
+    @Test
+    @DisplayName("Format khac limiter → IllegalArgumentException")
+    void requireFormat_mismatch_shouldThrow() throws IOException {
+        StateSnapshot snapshot = StateSnapshot.open(
+                write(new ManualClock(1_700_000_000_000L), new RateLimitKey[]{RateLimitKey.of("client")}, 1));
+
+        snapshot.requireFormat("fixed-window-counter/1", 2);
+        assertThrows(IllegalArgumentException.class, () -> snapshot.requireFormat("token-bucket/1", 2));
+        assertThrows(IllegalArgumentException.class, () -> snapshot.requireFormat("fixed-window-counter/1", 3));
+    }
+
+    // =====================================================================
+    // TEST 6: Index hỏng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Index hong khong con slot trong: take dung sau mot vong, tra null")
+    void take_corruptedIndexWithoutEmptySlot_shouldStop() throws IOException {
+        RateLimitKey key = RateLimitKey.of("client");
+        Path file = write(new ManualClock(1_700_000_000_000L), new RateLimitKey[]{key}, 1);
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int indexOffset = (int) buffer.getLong(24);
+        long slots = buffer.getLong(32);
+        long recordOffset = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            recordOffset = Math.max(recordOffset, buffer.getLong(indexOffset + slot * 16 + 8));
+        }
+        // Mọi slot trỏ tới bản ghi duy nhất nhưng slot trống cũ mang hash 0: không còn slot trống
+        for (int slot = 0; slot < slots; slot++) {
+            if (buffer.getLong(indexOffset + slot * 16 + 8) == 0) {
+                buffer.putLong(indexOffset + slot * 16, 0L);
+                buffer.putLong(indexOffset + slot * 16 + 8, recordOffset);
+            }
+        }
+        Path corrupted = dir.resolve("corrupted.snapshot");
+        Files.write(corrupted, bytes);
+
+        StateSnapshot snapshot = StateSnapshot.open(corrupted);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertNull(snapshot.take(RateLimitKey.of("unknown")));
+            assertNull(snapshot.take(RateLimitKey.of("x".repeat(70 * 1024))), "Key qua dai khong co trong snapshot");
+            assertNotNull(snapshot.take(key));
+        });
+    }
+}
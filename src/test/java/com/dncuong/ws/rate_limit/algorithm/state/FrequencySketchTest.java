@@ -0,0 +1,117 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO FREQUENCY SKETCH
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Tăng tới 15 thì dừng, lão hóa chia đôi
+ * 2. Nhiều thread tăng cùng tập key nóng: counter không tràn sang counter bên cạnh
+ *
+ * @author dncuong
+ */
+class FrequencySketchTest {
+
+    // =====================================================================
+    // TEST 1: Bão hòa và lão hóa
+    // =====================================================================
+
+    @Test
+    @DisplayName("Tang toi 15 thi dung, lao hoa chia doi")
+    void increment_shouldSaturateAndAge() {
+        // maxKeys = 100 → lão hóa sau 1000 lần tăng
+        FrequencySketch sketch = new FrequencySketch(100);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("hot");
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("hot"));
+
+        for (int i = 0; i < 2_000; i++) {
+            sketch.increment("other-" + i);
+        }
+        assertTrue(sketch.frequency("hot") < FrequencySketch.MAX_FREQUENCY, "Lao hoa phai chia doi counter");
+    }
+
+    // =====================================================================
+    // TEST 2: Tăng đồng thời
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu thread tang cung tap key nong: counter khong tran sang counter ben canh")
+    void increment_concurrentHotKeys_shouldNeverCarry() throws Exception {
+        // 64 long = 1024 counter, lão hóa sau mỗi 640 lần tăng. 128 key nóng đủ để lão hóa
+        // chạy liên tục → counter của chúng đi qua ranh giới 14 → 15 hàng nghìn lần,
+        // đúng chỗ một lần tăng không nguyên tử sẽ đẩy counter lên 16 và tràn
+        int maxKeys = 64;
+        String[] hot = new String[128];
+        long[] touched = new long[maxKeys];
+        for (int k = 0; k < hot.length; k++) {
+            hot[k] = "hot-" + k;
+            // Dò vị trí counter của key trên một sketch rỗng
+            FrequencySketch probe = new FrequencySketch(maxKeys);
+            probe.increment(hot[k]);
+            long[] probeTable = table(probe);
+            for (int i = 0; i < touched.length; i++) {
+                for (int shift = 0; shift < 64; shift += 4) {
+                    if (((probeTable[i] >>> shift) & 0xF) != 0) {
+                        touched[i] |= 0xFL << shift;
+                    }
+                }
+            }
+        }
+
+        FrequencySketch sketch = new FrequencySketch(maxKeys);
+        int threads = 8;
+        AtomicBoolean carried = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    long[] table = table(sketch);
+                    for (int round = 0; round < 2_000 && !carried.get(); round++) {
+                        for (String key : hot) {
+                            sketch.increment(key);
+                        }
+                        // Counter không thuộc key nào chỉ khác 0 khi nhận bit tràn từ counter bên cạnh
+                        for (int i = 0; i < table.length; i++) {
+                            if ((table[i] & ~touched[i]) != 0) {
+                                carried.set(true);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        executor.shutdown();
+
+        assertFalse(carried.get(), "Counter bao hoa bi tran sang counter ben canh");
+    }
+
+    /** Bảng counter của sketch, đọc qua reflection để kiểm tra từng counter. */
+    private static long[] table(FrequencySketch sketch) throws ReflectiveOperationException {
+        Field field = FrequencySketch.class.getDeclaredField("table");
+        field.setAccessible(true);
+        return (long[]) field.get(sketch);
+    }
+}
@@ -0,0 +1,303 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO KEY STATE STORE
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. State fresh bị dọn dần qua các lần getOrCreate, state còn dùng được giữ lại
+ * 2. Key bị dọn quay lại nhận state mới
+ * 3. Tham số không hợp lệ → throw exception
+ * 4. Dọn dẹp đồng thời với cập nhật: không cập nhật nào rơi vào state đã bị loại
+ * 5. Giới hạn maxKeys: không bao giờ vượt, key bị loại được đánh dấu retired
+ * 6. W-TinyLFU: lũ key dùng-một-lần không đẩy được key hot ra ngoài
+ * 7. sweepAll: dọn mọi state fresh trong một lượt, không cần request
+ *
+ * @author dncuong
+ */
+class KeyStateStoreTest {
+
+    /**
+     * State giả lập: một counter, fresh khi counter chẵn,
+     * đồng bộ bằng synchronized giống các limiter thật.
+     */
+    static class CounterState {
+        long counter;
+        boolean retired;
+        long counterAtRetirement = -1;
+    }
+
+    private static boolean retireIfEven(CounterState state, long now) {
+        synchronized (state) {
+            if (state.counter % 2 == 0) {
+                state.retired = true;
+                state.counterAtRetirement = state.counter;
+            }
+            return state.retired;
+        }
+    }
+
+    private static void retire(CounterState state) {
+        synchronized (state) {
+            state.retired = true;
+            state.counterAtRetirement = state.counter;
+        }
+    }
+
+    /** Không state nào fresh: chỉ kiểm tra riêng phần giới hạn số key. */
+    private static boolean neverFresh(CounterState state, long now) {
+        synchronized (state) {
+            return state.retired;
+        }
+    }
+
+    // =====================================================================
+    // TEST 1: Dọn state fresh, giữ state còn dùng được
+    // =====================================================================
+
+    @Test
+    @DisplayName("State fresh bi don dan, state con dung duoc giu lai")
+    void getOrCreate_shouldSweepOnlyFreshStates() {
+        KeyStateStore<String, CounterState> store = new KeyStateStore<>(KeyStateStoreTest::retireIfEven, KeyStateStoreTest::retire,
+                KeyStateStore.UNBOUNDED, 1, 4);
+
+        for (int i = 0; i < 100; i++) {
+            // Key lẻ: counter = 1 → không fresh
+            long initialCounter = i % 2;
+            store.getOrCreate("key" + i, 0, k -> {
+                CounterState state = new CounterState();
+                state.counter = initialCounter;
+                return state;
+            });
+        }
+
+        // Mỗi lần getOrCreate quét 4 entry → 100 lần là dư để quét hết một vòng
+        for (int i = 0; i < 100; i++) {
+            store.getOrCreate("key1", 0, k -> new CounterState());
+        }
+
+        assertEquals(50, store.size(), "Chi con 50 key le (counter = 1)");
+    }
+
+    // =====================================================================
+    // TEST 2: Key bị dọn quay lại nhận state mới
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key bi don quay lai nhan state moi")
+    void getOrCreate_afterSweep_shouldCreateNewState() {
+        KeyStateStore<String, CounterState> store = new KeyStateStore<>(KeyStateStoreTest::retireIfEven, KeyStateStoreTest::retire,
+                KeyStateStore.UNBOUNDED, 1, 4);
+
+        CounterState first = store.getOrCreate("idle", 0, k -> new CounterState());
+        store.getOrCreate("other", 0, k -> new CounterState());
+
+        assertTrue(first.retired, "counter = 0 → fresh → bi danh dau retired");
+        CounterState second = store.getOrCreate("idle", 0, k -> new CounterState());
+        assertNotSame(first, second, "State da retired khong duoc tra ve lan nua");
+    }
+
+    // =====================================================================
+    // TEST 3: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new KeyStateStore<String, CounterState>(null, KeyStateStoreTest::retire, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new KeyStateStore<String, CounterState>(KeyStateStoreTest::retireIfEven, null, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new KeyStateStore<String, CounterState>(KeyStateStoreTest::retireIfEven,
+                        KeyStateStoreTest::retire, -1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new KeyStateStore<String, CounterState>(KeyStateStoreTest::retireIfEven,
+                        KeyStateStoreTest::retire, KeyStateStore.UNBOUNDED, 0, 4));
+        assertThrows(IllegalArgumentException.class,
+                () -> new KeyStateStore<String, CounterState>(KeyStateStoreTest::retireIfEven,
+                        KeyStateStoreTest::retire, KeyStateStore.UNBOUNDED, 1, 0));
+    }
+
+    // =====================================================================
+    // TEST 4: Dọn dẹp không tranh chấp với cập nhật
+    // =====================================================================
+
+    @Test
+    @DisplayName("Quet dong thoi: khong cap nhat nao roi vao state da bi loai")
+    void getOrCreate_concurrentSweep_shouldNeverLoseUpdates() throws InterruptedException {
+        KeyStateStore<String, CounterState> store = new KeyStateStore<>(KeyStateStoreTest::retireIfEven, KeyStateStoreTest::retire,
+                KeyStateStore.UNBOUNDED, 1, 8);
+        Queue<CounterState> created = new ConcurrentLinkedQueue<>();
+        AtomicBoolean violation = new AtomicBoolean(false);
+
+        int threads = 8;
+        int incrementsPerThread = 20_000;
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch doneLatch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    startLatch.await();
+                    for (int i = 0; i < incrementsPerThread; i++) {
+                        String key = "key" + (i % 4);
+                        // Cùng giao thức với các limiter: kiểm tra dấu dưới lock, retired → lấy lại
+                        while (true) {
+                            CounterState state = store.getOrCreate(key, 0, k -> {
+                                CounterState fresh = new CounterState();
+                                created.add(fresh);
+                                return fresh;
+                            });
+                            synchronized (state) {
+                                if (state.retired) {
+                                    store.removeRetired(key, state);
+                                    continue;
+                                }
+                                state.counter++;
+                                break;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    violation.set(true);
+                } finally {
+                    doneLatch.countDown();
+                }
+            });
+        }
+
+        startLatch.countDown();
+        doneLatch.await();
+        executor.shutdown();
+
+        assertFalse(violation.get());
+        long total = 0;
+        for (CounterState state : created) {
+            synchronized (state) {
+                total += state.counter;
+                if (state.retired) {
+                    assertEquals(state.counterAtRetirement, state.counter,
+                            "State da retired khong duoc bi sua them");
+                }
+            }
+        }
+        assertEquals((long) threads * incrementsPerThread, total, "Khong mat cap nhat nao");
+        assertTrue(created.size() > 4, "Phai co state bi don va tao lai trong luc chay");
+    }
+
+    // =====================================================================
+    // TEST 5: Giới hạn cứng số key
+    // =====================================================================
+
+    @Test
+    @DisplayName("Khong bao gio giu qua maxKeys key, key bi loai duoc danh dau retired")
+    void getOrCreate_bounded_shouldNeverExceedMaxKeys() {
+        KeyStateStore<String, CounterState> store =
+                new KeyStateStore<>(KeyStateStoreTest::neverFresh, KeyStateStoreTest::retire, 100);
+        Queue<CounterState> created = new ConcurrentLinkedQueue<>();
+
+        for (int i = 0; i < 10_000; i++) {
+            store.getOrCreate("flood-" + i, 0, k -> {
+                CounterState state = new CounterState();
+                created.add(state);
+                return state;
+            });
+            assertTrue(store.size() <= 100, "Vuot maxKeys tai key thu " + i);
+        }
+
+        long live = created.stream().filter(state -> !state.retired).count();
+        assertEquals(store.size(), live, "Moi state khong con trong kho deu phai da retired");
+    }
+
+    @Test
+    @DisplayName("maxKeys = 1: key moi thay the key cu, key cu quay lai nhan state moi")
+    void getOrCreate_singleKeyCapacity_shouldEvictPreviousKey() {
+        KeyStateStore<String, CounterState> store =
+                new KeyStateStore<>(KeyStateStoreTest::neverFresh, KeyStateStoreTest::retire, 1);
+
+        CounterState first = store.getOrCreate("a", 0, k -> new CounterState());
+        store.getOrCreate("b", 0, k -> new CounterState());
+
+        assertTrue(first.retired, "a bi loai de nhuong cho cho b");
+        assertEquals(1, store.size());
+        assertNotSame(first, store.getOrCreate("a", 0, k -> new CounterState()),
+                "a quay lai bat dau tu state moi");
+    }
+
+    // =====================================================================
+    // TEST 6: W-TinyLFU giữ key hot
+    // =====================================================================
+
+    @Test
+    @DisplayName("Lu key dung-mot-lan khong day duoc key hot ra khoi kho")
+    void getOrCreate_floodOfOneShotKeys_shouldKeepHotKeys() {
+        KeyStateStore<String, CounterState> store =
+                new KeyStateStore<>(KeyStateStoreTest::neverFresh, KeyStateStoreTest::retire, 100);
+
+        // 50 key hot (ví dụ: các client đang bị chặn liên tục) - mỗi key truy cập 10 lần
+        CounterState[] hot = new CounterState[50];
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < hot.length; i++) {
+                hot[i] = store.getOrCreate("hot-" + i, 0, k -> new CounterState());
+            }
+        }
+
+        // 20,000 key giả mạo, xen kẽ với traffic đều đặn của key hot
+        for (int i = 0; i < 20_000; i++) {
+            store.getOrCreate("spoofed-" + i, 0, k -> new CounterState());
+            int h = i % hot.length;
+            assertSame(hot[h], store.getOrCreate("hot-" + h, 0, k -> new CounterState()),
+                    "Key hot-" + h + " bi loai o vong " + i);
+        }
+
+        for (CounterState state : hot) {
+            assertFalse(state.retired, "Key hot khong bao gio bi loai");
+        }
+        assertTrue(store.size() <= 100);
+    }
+
+    // =====================================================================
+    // TEST 7: Quét toàn bộ một lượt
+    // =====================================================================
+
+    @Test
+    @DisplayName("sweepAll don moi state fresh trong mot luot, khong can request")
+    void sweepAll_shouldRetireEveryFreshState() {
+        KeyStateStore<String, CounterState> store = new KeyStateStore<>(KeyStateStoreTest::retireIfEven, KeyStateStoreTest::retire,
+                KeyStateStore.UNBOUNDED, Integer.MAX_VALUE, 1);
+        CounterState[] states = new CounterState[1_000];
+        for (int i = 0; i < states.length; i++) {
+            long initialCounter = i % 2;
+            states[i] = store.getOrCreate("key" + i, 0, k -> {
+                CounterState state = new CounterState();
+                state.counter = initialCounter;
+                return state;
+            });
+        }
+
+        store.sweepAll(0);
+
+        assertEquals(500, store.size(), "Chi con cac key le");
+        for (int i = 0; i < states.length; i++) {
+            assertEquals(i % 2 == 0, states[i].retired, "key" + i);
+            assertEquals(i % 2 == 0 ? null : states[i], store.get("key" + i));
+        }
+    }
+}
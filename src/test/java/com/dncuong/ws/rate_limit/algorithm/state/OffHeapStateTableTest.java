@@ -0,0 +1,354 @@
+package com.dncuong.ws.rate_limit.algorithm.state;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.fixedwindow.FixedWindowCounterRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO OFF-HEAP STATE TABLE
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Mỗi key một bản ghi riêng, bản ghi mới toàn 0, giá trị được giữ lại;
+ *    acquireExisting không thêm bản ghi cho key chưa có
+ * 2. Bảng đầy → tái sử dụng bản ghi fresh, không có bản ghi fresh → exception
+ * 3. Tham số không hợp lệ → throw exception
+ * 4. Nhiều thread cập nhật cùng key: acquire/release loại trừ lẫn nhau
+ * 5. Bảng dùng chung: hai bảng mở cùng file thấy chung bản ghi, hai limiter chung quota
+ * 6. Bảng dùng chung: file sai / maxKeys khác → exception
+ * 7. Bảng dùng chung: tiến trình khác cập nhật đồng thời rồi chết khi đang giữ lock
+ * 8. Bảng dùng chung: tiến trình khác giữ lock lâu (treo, chưa chết) → chờ, không giành lock
+ *
+ * @author dncuong
+ */
+class OffHeapStateTableTest {
+
+    @TempDir
+    Path dir;
+
+    /** Không bản ghi nào được tái sử dụng. */
+    private static final OffHeapStateTable.FreshnessCheck NEVER_FRESH = (slot, now) -> false;
+
+    /** Cộng 1 vào field 0 của key, trả về giá trị mới. */
+    private static long increment(OffHeapStateTable table, String key, OffHeapStateTable.FreshnessCheck freshness) {
+        long slot = table.acquire(RateLimitKey.of(key).hash64(), 0, freshness);
+        try {
+            long value = table.get(slot, 0) + 1;
+            table.set(slot, 0, value);
+            return value;
+        } finally {
+            table.release(slot);
+        }
+    }
+
+    // =====================================================================
+    // TEST 1: Mỗi key một bản ghi riêng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Moi key mot ban ghi rieng, ban ghi moi toan 0")
+    void acquire_distinctKeys_shouldKeepIndependentRecords() {
+        OffHeapStateTable table = new OffHeapStateTable(20_000);
+
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals(round, increment(table, "key-" + i, NEVER_FRESH));
+            }
+        }
+        assertEquals(20_000, table.size());
+
+        long slot = table.acquire(RateLimitKey.of("new").hash64(), 0, NEVER_FRESH);
+        try {
+            for (int field = 0; field < OffHeapStateTable.FIELD_COUNT; field++) {
+                assertEquals(0, table.get(slot, field), "Ban ghi moi phai toan 0");
+            }
+        } finally {
+            table.release(slot);
+        }
+
+        assertEquals(OffHeapStateTable.NO_SLOT, table.acquireExisting(RateLimitKey.of("missing").hash64()));
+        assertEquals(20_001, table.size(), "acquireExisting khong them ban ghi");
+        long existing = table.acquireExisting(RateLimitKey.of("key-7").hash64());
+        try {
+            assertEquals(3, table.get(existing, 0));
+        } finally {
+            table.release(existing);
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Bảng đầy
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang day: tai su dung ban ghi fresh, khong con ban ghi fresh thi nem exception")
+    void acquire_fullTable_shouldReuseFreshRecordsOrThrow() {
+        OffHeapStateTable table = new OffHeapStateTable(100);
+        // Fresh = field 0 chẵn
+        OffHeapStateTable.FreshnessCheck evenIsFresh = (slot, now) -> table.get(slot, 0) % 2 == 0;
+
+        int key = 0;
+        try {
+            while (true) {
+                increment(table, "key-" + key, NEVER_FRESH);
+                key++;
+            }
+        } catch (IllegalStateException e) {
+            assertTrue(key >= 100, "Phai chua duoc it nhat maxKeys key, chi chua duoc " + key);
+        }
+
+        // Đưa mọi bản ghi về giá trị chẵn (2) → tất cả đều tái sử dụng được
+        for (int i = 0; i < key; i++) {
+            increment(table, "key-" + i, NEVER_FRESH);
+        }
+        assertEquals(1, increment(table, "newcomer", evenIsFresh), "Ban ghi tai su dung phai duoc xoa ve 0");
+        assertEquals(key, table.size(), "Tai su dung khong chiem them slot");
+    }
+
+    // =====================================================================
+    // TEST 3: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi maxKeys khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapStateTable(0));
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapStateTable(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new OffHeapStateTable(OffHeapStateTable.MAX_KEYS + 1));
+    }
+
+    // =====================================================================
+    // TEST 4: Cập nhật đồng thời
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nhieu thread cap nhat cung key: khong mat cap nhat nao")
+    void acquire_concurrentUpdates_shouldNeverLoseUpdates() throws InterruptedException {
+        OffHeapStateTable table = new OffHeapStateTable(1_000);
+        int threads = 8;
+        int incrementsPerThread = 50_000;
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch doneLatch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    startLatch.await();
+                    for (int i = 0; i < incrementsPerThread; i++) {
+                        // 4 key nóng + key mới liên tục để đường thêm key chạy song song
+                        increment(table, "hot-" + (i % 4), NEVER_FRESH);
+                        if (i % 100 == 0) {
+                            increment(table, "cold-" + (i / 100), NEVER_FRESH);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneLatch.countDown();
+                }
+            });
+        }
+
+        startLatch.countDown();
+        doneLatch.await();
+        executor.shutdown();
+
+        long total = 0;
+        for (int i = 0; i < 4; i++) {
+            total += increment(table, "hot-" + i, NEVER_FRESH) - 1;
+        }
+        assertEquals((long) threads * incrementsPerThread, total, "Khong mat cap nhat nao");
+        assertEquals(threads, increment(table, "cold-0", NEVER_FRESH) - 1,
+                "Key moi them dong thoi chi duoc cap mot ban ghi");
+    }
+
+    // =====================================================================
+    // TEST 5: Bảng dùng chung
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang dung chung: hai bang mo cung file thay chung ban ghi, hai limiter chung quota")
+    void openShared_sameFile_shouldShareRecords() throws IOException {
+        Path file = dir.resolve("table.shm");
+        OffHeapStateTable first = OffHeapStateTable.openShared(file, 20_000);
+        OffHeapStateTable second = OffHeapStateTable.openShared(file, 20_000);
+
+        for (int i = 0; i < 20_000; i++) {
+            assertEquals(1, increment(first, "key-" + i, NEVER_FRESH));
+            assertEquals(2, increment(second, "key-" + i, NEVER_FRESH));
+        }
+        assertEquals(20_000, first.size());
+        assertEquals(20_000, second.size());
+        assertEquals(3, increment(OffHeapStateTable.openShared(file, 20_000), "key-0", NEVER_FRESH),
+                "Mo lai file van giu state");
+
+        // Hai worker, mỗi worker một limiter: 10 request/phút là tổng của cả hai
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        Path limiterFile = dir.resolve("limiter.shm");
+        FixedWindowCounterRateLimiter workerA = new FixedWindowCounterRateLimiter(10, 60_000,
+                OffHeapStateTable.openShared(limiterFile, 1_000), clock);
+        FixedWindowCounterRateLimiter workerB = new FixedWindowCounterRateLimiter(10, 60_000,
+                OffHeapStateTable.openShared(limiterFile, 1_000), clock);
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            allowed += (i % 2 == 0 ? workerA : workerB).allowRequest("client") ? 1 : 0;
+        }
+        assertEquals(10, allowed);
+    }
+
+    // =====================================================================
+    // TEST 6: File không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang dung chung: file sai / maxKeys khac → exception")
+    void openShared_invalidFile_shouldThrow() throws IOException {
+        Path file = dir.resolve("table.shm");
+        OffHeapStateTable.openShared(file, 1_000);
+        assertThrows(IllegalArgumentException.class, () -> OffHeapStateTable.openShared(file, 2_000));
+        assertThrows(IllegalArgumentException.class, () -> OffHeapStateTable.openShared(dir.resolve("x"), 0));
+
+        Path text = dir.resolve("text.shm");
+        Files.writeString(text, "khong phai bang trang thai dung chung, chi la mot file van ban");
+        assertThrows(IOException.class, () -> OffHeapStateTable.openShared(text, 1_000));
+    }
+
+    // =====================================================================
+    // TEST 7: Tiến trình khác chết khi đang giữ lock
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang dung chung: tien trinh khac cap nhat dong thoi roi chet khi dang giu lock")
+    void openShared_otherProcessDiesHoldingLock_shouldRecover() throws Exception {
+        Path hotFile = dir.resolve("hot.shm");
+        Path fillFile = dir.resolve("fill.shm");
+        OffHeapStateTable hot = OffHeapStateTable.openShared(hotFile, 1_000);
+        int increments = 20_000;
+
+        Process child = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                ChildProcess.class.getName(), hotFile.toString(), fillFile.toString(), Integer.toString(increments))
+                .inheritIO()
+                .start();
+        for (int i = 0; i < increments; i++) {
+            increment(hot, "hot", NEVER_FRESH);
+        }
+        assertTrue(child.waitFor(60, TimeUnit.SECONDS), "Tien trinh con phai ket thuc");
+        assertEquals(ChildProcess.EXIT_HOLDING_LOCKS, child.exitValue());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            // Tiến trình con chết khi giữ lock của "hot"
+            assertEquals(2L * increments + 1, increment(hot, "hot", NEVER_FRESH), "Khong mat cap nhat nao");
+
+            // ... và khi giữ lock thêm key của shard duy nhất cùng lock của một bản ghi "fill-i"
+            OffHeapStateTable fill = OffHeapStateTable.openShared(fillFile, 1_000);
+            long fillKeys = fill.size();
+            assertEquals(1, increment(fill, "new-after-crash", NEVER_FRESH));
+            for (int i = 0; i < fillKeys; i++) {
+                assertEquals(1, increment(fill, "fill-" + i, NEVER_FRESH));
+            }
+        });
+    }
+
+    /**
+     * Tiến trình con của TEST 7: tăng "hot" đồng thời với tiến trình cha, rồi
+     * chết đột ngột (không chạy finally, không shutdown hook) khi đang giữ lock.
+     */
+    static final class ChildProcess {
+
+        static final int EXIT_HOLDING_LOCKS = 42;
+
+        public static void main(String[] args) throws IOException {
+            OffHeapStateTable hot = OffHeapStateTable.openShared(Path.of(args[0]), 1_000);
+            int increments = Integer.parseInt(args[2]);
+            for (int i = 0; i < increments; i++) {
+                increment(hot, "hot", NEVER_FRESH);
+            }
+            hot.acquire(RateLimitKey.of("hot").hash64(), 0, NEVER_FRESH);
+
+            // Bảng 1_000 key chỉ có một shard. Khi shard quá MAX_FILL, thêm key mới sẽ kiểm tra
+            // freshness trong lúc giữ lock thêm key và lock của bản ghi đang xét → chết ngay tại đó
+            OffHeapStateTable fill = OffHeapStateTable.openShared(Path.of(args[1]), 1_000);
+            OffHeapStateTable.FreshnessCheck die = (slot, now) -> {
+                Runtime.getRuntime().halt(EXIT_HOLDING_LOCKS);
+                return false;
+            };
+            for (int i = 0; ; i++) {
+                fill.release(fill.acquire(RateLimitKey.of("fill-" + i).hash64(), 0, die));
+            }
+        }
+    }
+
+    // =====================================================================
+    // TEST 8: Tiến trình khác treo khi đang giữ lock
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang dung chung: tien trinh khac giu lock lau (treo, chua chet) → cho, khong gianh lock")
+    void openShared_otherProcessStalledHoldingLock_shouldWait() throws Exception {
+        Path file = dir.resolve("stalled.shm");
+        OffHeapStateTable table = OffHeapStateTable.openShared(file, 1_000);
+
+        // Giữ lock 2,5 giây: lâu hơn hẳn mọi ngưỡng chờ của bảng
+        Process child = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                StalledProcess.class.getName(), file.toString(), "2500")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        assertEquals(StalledProcess.LOCKED, child.inputReader().readLine());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            // Giành lock của tiến trình còn sống sẽ thấy giá trị ghi TRƯỚC lúc treo
+            assertEquals(StalledProcess.VALUE_AFTER_STALL + 1, increment(table, "hot", NEVER_FRESH),
+                    "Phai cho tien trinh con nha lock");
+        });
+        assertTrue(child.waitFor(60, TimeUnit.SECONDS), "Tien trinh con phai ket thuc");
+        assertEquals(0, child.exitValue(), "Lock cua tien trinh con khong duoc bi gianh");
+    }
+
+    /**
+     * Tiến trình con của TEST 8: giữ lock của "hot" và treo (sleep) lâu, rồi
+     * ghi tiếp và nhả lock. Exit code khác 0 nếu lock đã bị giành.
+     */
+    static final class StalledProcess {
+
+        static final String LOCKED = "LOCKED";
+
+        static final long VALUE_BEFORE_STALL = 1_000;
+
+        static final long VALUE_AFTER_STALL = 2_000;
+
+        static final int EXIT_LOCK_TAKEN = 43;
+
+        public static void main(String[] args) throws IOException, InterruptedException {
+            OffHeapStateTable table = OffHeapStateTable.openShared(Path.of(args[0]), 1_000);
+            long slot = table.acquire(RateLimitKey.of("hot").hash64(), 0, NEVER_FRESH);
+            table.set(slot, 0, VALUE_BEFORE_STALL);
+            System.out.println(LOCKED);
+            System.out.flush();
+
+            Thread.sleep(Long.parseLong(args[1]));
+            table.set(slot, 0, VALUE_AFTER_STALL);
+            System.exit(table.release(slot) ? 0 : EXIT_LOCK_TAKEN);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dncuong.ws.rate_limit.algorithm.timer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO HASHED WHEEL TIMER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Tác vụ không bao giờ chạy sớm hơn thời hạn, chạy theo thứ tự thời hạn
+ * 2. Thời hạn dài hơn một vòng (rounds > 0)
+ * 3. Tác vụ bị huỷ không chạy, không còn tính là đang chờ
+ * 4. Hàng chục nghìn tác vụ trên một thread, tác vụ lỗi không dừng worker
+ * 5. Tham số không hợp lệ, hẹn giờ sau khi close
+ *
+ * @author dncuong
+ */
+class HashedWheelTimerTest {
+
+    /** Tick 1ms, 8 ô: một vòng chỉ 8ms để dễ kiểm tra rounds. */
+    private final HashedWheelTimer timer = new HashedWheelTimer(1, 8);
+
+    @AfterEach
+    void close() {
+        timer.close();
+    }
+
+    // =====================================================================
+    // TEST 1: Không chạy sớm, đúng thứ tự
+    // =====================================================================
+
+    @Test
+    @DisplayName("Tac vu khong chay som hon thoi han va chay theo thu tu thoi han")
+    void newTimeout_shouldNeverFireEarly() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        long[] lateness = new long[3];
+        long start = System.nanoTime();
+
+        int[] delays = {30, 5, 15};
+        for (int i = 0; i < delays.length; i++) {
+            int index = i;
+            timer.newTimeout(() -> {
+                lateness[index] = System.nanoTime() - start - TimeUnit.MILLISECONDS.toNanos(delays[index]);
+                order.add(delays[index]);
+                done.countDown();
+            }, delays[i], TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(5, 15, 30), order);
+        for (long late : lateness) {
+            assertTrue(late >= 0, "Chay som " + (-late) + " ns");
+        }
+    }
+
+    // =====================================================================
+    // TEST 2: Thời hạn dài hơn một vòng
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thoi han dai hon mot vong chi chay sau khi het so vong")
+    void newTimeout_multipleRounds_shouldWaitFullDelay() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] elapsed = new long[1];
+
+        // 50ms = hơn 6 vòng của wheel 8ms
+        timer.newTimeout(() -> {
+            elapsed[0] = System.nanoTime() - start;
+            done.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(50), "Chay sau " + elapsed[0] + " ns");
+    }
+
+    // =====================================================================
+    // TEST 3: Huỷ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Tac vu bi huy khong chay va khong con tinh la dang cho")
+    void cancel_shouldPreventExecution() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout cancelled = timer.newTimeout(runs::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+        CountDownLatch later = new CountDownLatch(1);
+        HashedWheelTimer.Timeout kept = timer.newTimeout(later::countDown, 20, TimeUnit.MILLISECONDS);
+        assertEquals(2, timer.pendingTimeouts());
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel(), "Huy lan hai khong co tac dung");
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, timer.pendingTimeouts());
+
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertTrue(kept.isExpired());
+        assertFalse(kept.cancel(), "Tac vu da chay khong huy duoc");
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    // =====================================================================
+    // TEST 4: Nhiều tác vụ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Hang chuc nghin tac vu tren mot thread, tac vu loi khong dung worker")
+    void newTimeout_manyTimeouts_shouldAllFire() throws InterruptedException {
+        int count = 50_000;
+        CountDownLatch done = new CountDownLatch(count);
+        timer.newTimeout(() -> {
+            throw new IllegalStateException("Tac vu loi");
+        }, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < count; i++) {
+            timer.newTimeout(done::countDown, i % 40, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    // =====================================================================
+    // TEST 5: Tham số không hợp lệ, sau khi close
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem exception khi tham so khong hop le hoac timer da dong")
+    void newTimeout_invalidArgumentsOrClosed_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> timer.newTimeout(null, 1, TimeUnit.MILLISECONDS));
+
+        timer.close();
+        assertThrows(IllegalStateException.class, () -> timer.newTimeout(() -> { }, 1, TimeUnit.MILLISECONDS));
+    }
+}
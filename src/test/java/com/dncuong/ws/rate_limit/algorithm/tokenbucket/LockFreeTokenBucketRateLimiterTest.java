@@ -0,0 +1,289 @@
+package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO TOKEN BUCKET - BIẾN THỂ LOCK-FREE
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Các kịch bản của TokenBucketRateLimiterTest: burst, refill, partial refill,
+ *    xô không tràn, refill rate nhỏ
+ * 2. So sánh từng quyết định với TokenBucketRateLimiter trên chuỗi request ngẫu nhiên
+ * 3. Tham số không hợp lệ → throw exception
+ * 4. Thread-safe (concurrent)
+ * 5. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 6. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
+ *
+ * @author dncuong
+ */
+class LockFreeTokenBucketRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Burst rồi hết token
+    // =====================================================================
+
+    @Test
+    @DisplayName("Burst: gui het token cung luc duoc cho phep")
+    void allowRequest_burst_shouldAllowUpToCapacity() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(10, 1.0, clock);
+
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limiter.allowRequest("user1")) {
+                allowed++;
+            }
+        }
+
+        assertEquals(10, allowed, "Burst toi da = bucketCapacity = 10");
+        assertFalse(limiter.allowRequest("user1"), "Het token sau burst");
+    }
+
+    // =====================================================================
+    // TEST 2: Partial refill bằng số nguyên (micro-token)
+    // =====================================================================
+
+    @Test
+    @DisplayName("Partial refill: 0.6 + 0.4 token tich luy du 1 token")
+    void allowRequest_partialRefill_shouldAccumulateTokens() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(5, 2.0, clock);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+
+        clock.advance(500);
+        assertTrue(limiter.allowRequest("user1"), "1.0 token sau 500ms");
+        assertFalse(limiter.allowRequest("user1"), "Het token (0.0 con lai)");
+
+        clock.advance(300);
+        assertFalse(limiter.allowRequest("user1"), "0.6 token < 1, chua du");
+
+        clock.advance(200);
+        assertTrue(limiter.allowRequest("user1"), "Tich luy du 1.0 token");
+    }
+
+    // =====================================================================
+    // TEST 3: Xô không tràn
+    // =====================================================================
+
+    @Test
+    @DisplayName("Xo khong tran: token khong vuot qua capacity")
+    void allowRequest_overflowProtection_shouldCapAtCapacity() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(3, 10.0, clock);
+
+        // Trôi rất lâu: phép nhân elapsed × rate không được tràn số
+        clock.advance(Long.MAX_VALUE / 4);
+
+        assertTrue(limiter.allowRequest("user1"));
+        assertTrue(limiter.allowRequest("user1"));
+        assertTrue(limiter.allowRequest("user1"));
+        assertFalse(limiter.allowRequest("user1"), "Chi co 3 token (capacity)");
+    }
+
+    // =====================================================================
+    // TEST 4: Refill rate nhỏ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Refill rate nho: 0.5 token/giay = 1 token moi 2 giay")
+    void allowRequest_fractionalRefillRate_shouldWorkCorrectly() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(3, 0.5, clock);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+        assertFalse(limiter.allowRequest("user1"), "Het token");
+
+        clock.advance(1000);
+        assertFalse(limiter.allowRequest("user1"), "0.5 token < 1, chua du");
+
+        clock.advance(1000);
+        assertTrue(limiter.allowRequest("user1"), "1.0 token sau 2 giay");
+        assertFalse(limiter.allowRequest("user1"), "Het token lai");
+    }
+
+    // =====================================================================
+    // TEST 5: Cùng kết quả với TokenBucketRateLimiter
+    // =====================================================================
+
+    @Test
+    @DisplayName("Cung quyet dinh voi TokenBucketRateLimiter tren chuoi request ngau nhien")
+    void allowRequest_randomWorkload_shouldMatchSynchronizedImplementation() {
+        Random random = new Random(42);
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter lockFree = new LockFreeTokenBucketRateLimiter(7, 2.0, clock);
+        TokenBucketRateLimiter reference = new TokenBucketRateLimiter(7, 2.0, clock);
+
+        for (int i = 0; i < 10_000; i++) {
+            // Bước thời gian là bội số 125ms → mỗi lần refill là bội số của 0.25 token,
+            // double biểu diễn chính xác nên bản tham chiếu không có sai số làm tròn
+            long step = 125L * random.nextInt(6);
+            clock.advance(step);
+            String key = "user" + random.nextInt(3);
+
+            assertEquals(reference.allowRequest(key), lockFree.allowRequest(key),
+                    "Quyet dinh khac nhau o request thu " + i);
+        }
+    }
+
+    // =====================================================================
+    // TEST 6: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new LockFreeTokenBucketRateLimiter(0, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new LockFreeTokenBucketRateLimiter(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new LockFreeTokenBucketRateLimiter(10, 1e-9),
+                "refillRate nho hon 1 micro-token/giay");
+        assertThrows(IllegalArgumentException.class, () -> new LockFreeTokenBucketRateLimiter(Long.MAX_VALUE, 1.0),
+                "capacity khong bieu dien duoc bang micro-token");
+    }
+
+    // =====================================================================
+    // TEST 7: Thread-safe (concurrent)
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: chi cho phep dung so request khi nhieu thread dong thoi")
+    void allowRequest_concurrent_shouldBeThreadSafe() throws InterruptedException {
+        // refillRate rất nhỏ để thời gian thật trôi trong lúc test không nạp thêm token
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(100, 0.001);
+
+        int totalThreads = 200;
+        AtomicInteger allowedCount = new AtomicInteger(0);
+        AtomicInteger rejectedCount = new AtomicInteger(0);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch doneLatch = new CountDownLatch(totalThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(totalThreads);
+        for (int i = 0; i < totalThreads; i++) {
+            executor.submit(() -> {
+                try {
+                    startLatch.await();
+                    if (limiter.allowRequest("concurrent-test-key")) {
+                        allowedCount.incrementAndGet();
+                    } else {
+                        rejectedCount.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneLatch.countDown();
+                }
+            });
+        }
+
+        startLatch.countDown();
+        doneLatch.await();
+        executor.shutdown();
+
+        assertEquals(100, allowedCount.get(), "Chi dung 100 request duoc cho phep (= bucket capacity)");
+        assertEquals(100, rejectedCount.get(), "Dung 100 request bi tu choi");
+    }
+
+    // =====================================================================
+    // TEST 8: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(3, 1.0, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: xô của các key nhàn rỗi đã nạp lại đầy
+        clock.advance(1000);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 9: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(5, 1.0, clock);
+
+        assertTrue(limiter.tryAcquire("user", 3));
+        assertFalse(limiter.tryAcquire("user", 3), "Chi con 2 token → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 2), "Lo bi tu choi khong duoc tru token");
+        assertFalse(limiter.allowRequest("user"));
+
+        clock.advance(3000);
+        assertFalse(limiter.tryAcquire("user", 4));
+        assertTrue(limiter.tryAcquire("user", 3));
+
+        // Lô lớn đến mức nhân với micro-token sẽ tràn số vẫn bị từ chối đúng
+        assertFalse(limiter.tryAcquire("other", Long.MAX_VALUE));
+        assertFalse(limiter.tryAcquire("other", 6), "Lo lon hon capacity khong bao gio duoc cap");
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 10: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        ManualClock clock = new ManualClock(0);
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(5, 1.0, clock);
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(key, 3, decision));
+        assertEquals(5, decision.getLimit());
+        assertEquals(2, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(3000, decision.getResetAfterMillis());
+        assertFalse(limiter.tryAcquire(key, 4, decision));
+        assertEquals(2, decision.getRemaining());
+        assertEquals(2000, decision.getRetryAfterMillis());
+        assertEquals(3000, decision.getResetAfterMillis());
+        assertFalse(limiter.tryAcquire(key, 6, decision));
+        assertEquals(2, decision.getRemaining());
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+
+        clock.advance(1999);
+        assertFalse(limiter.tryAcquire(key, 4));
+        clock.advance(1);
+        assertTrue(limiter.tryAcquire(key, 4));
+    }
+}
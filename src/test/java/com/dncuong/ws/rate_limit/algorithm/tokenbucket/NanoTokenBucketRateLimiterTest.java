@@ -0,0 +1,252 @@
+package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO TOKEN BUCKET - ĐỘ PHÂN GIẢI NANOSECOND
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Burst rồi hết token
+ * 2. Nạp dưới 1 ms: phần lẻ được tích lũy chính xác, không bị mất
+ * 3. Tốc độ cao, xô nhỏ: đạt đúng refill rate (bản millisecond chỉ đạt capacity/ms)
+ * 4. Xô không tràn, đồng hồ lùi không nạp thêm
+ * 5. Tham số không hợp lệ → throw exception
+ * 6. Thread-safe (concurrent)
+ * 7. tryAcquire(key, permits) và refund: cấp cả lô hoặc không trừ gì
+ * 8. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
+ *
+ * @author dncuong
+ */
+class NanoTokenBucketRateLimiterTest {
+
+    // =====================================================================
+    // TEST 1: Burst rồi hết token
+    // =====================================================================
+
+    @Test
+    @DisplayName("Burst: gui het token cung luc duoc cho phep")
+    void allowRequest_burst_shouldAllowUpToCapacity() {
+        ManualClock clock = new ManualClock(0);
+        NanoTokenBucketRateLimiter limiter = new NanoTokenBucketRateLimiter(10, 1, clock);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.allowRequest("user1"), "Request " + (i + 1) + " trong burst");
+        }
+        assertFalse(limiter.allowRequest("user1"), "Het token sau burst");
+        assertTrue(limiter.allowRequest("user2"), "Key khac co xo rieng");
+    }
+
+    // =====================================================================
+    // TEST 2: Nạp dưới 1 ms
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nap duoi 1 ms: phan le tich luy chinh xac")
+    void allowRequest_subMillisecondRefill_shouldAccumulateFractions() {
+        // 300_000 token/s → 1 token mỗi 3333.33 ns (không chia hết)
+        ManualClock clock = new ManualClock(1_000);
+        NanoTokenBucketRateLimiter limiter = new NanoTokenBucketRateLimiter(5, 300_000, clock);
+        assertTrue(limiter.tryAcquire("svc", 5), "Lay het xo");
+
+        clock.advanceNanos(3_333);
+        assertFalse(limiter.allowRequest("svc"), "0.9999 token, chua du");
+
+        clock.advanceNanos(1);
+        assertTrue(limiter.allowRequest("svc"), "3334 ns → 1.0002 token");
+
+        // 3 token trong 10_000 ns, nạp từng bước 1 ns: không được mất phần lẻ nào
+        int allowed = 0;
+        for (int i = 0; i < 10_000; i++) {
+            clock.advanceNanos(1);
+            if (limiter.allowRequest("svc")) {
+                allowed++;
+            }
+        }
+        assertEquals(3, allowed, "0.0002 + 3.0 token, nap tung nanosecond");
+    }
+
+    // =====================================================================
+    // TEST 3: Tốc độ cao, xô nhỏ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Toc do cao, xo nho: dat dung refill rate, ban millisecond mat token")
+    void allowRequest_highRateSmallBucket_shouldAchieveRefillRate() {
+        long rate = 200_000;
+        ManualClock clock = new ManualClock(0);
+        NanoTokenBucketRateLimiter nano = new NanoTokenBucketRateLimiter(50, rate, clock);
+        ManualClock millisClock = new ManualClock(0);
+        TokenBucketRateLimiter millisLimiter = new TokenBucketRateLimiter(50, rate, millisClock);
+
+        // Mô phỏng 100 ms, request mỗi 1 µs (1_000_000 token/s được yêu cầu)
+        long nanoAllowed = 0;
+        long millisAllowed = 0;
+        for (int i = 0; i < 100_000; i++) {
+            clock.advanceNanos(1_000);
+            if (nano.allowRequest("svc")) {
+                nanoAllowed++;
+            }
+            if (millisLimiter.allowRequest("svc")) {
+                millisAllowed++;
+            }
+        }
+
+        // Xô tạo đầy ở request đầu (t = 1 µs): 50 token + 0.2 token/µs × 99_999 µs = 20_049.8
+        assertEquals(20_049, nanoAllowed, "Ban nanosecond dat dung 200_000 token/s");
+        assertTrue(millisAllowed <= 50 + 50 * 100,
+                "Ban millisecond: moi ms chi giu duoc toi da capacity = 50 token, nhan duoc: " + millisAllowed);
+    }
+
+    // =====================================================================
+    // TEST 4: Xô không tràn, đồng hồ lùi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Xo khong tran va dong ho lui khong nap them token")
+    void allowRequest_overflowAndClockJump_shouldCapAtCapacity() {
+        ManualClock clock = new ManualClock(1_000);
+        NanoTokenBucketRateLimiter limiter = new NanoTokenBucketRateLimiter(3, 1_000_000_000, clock);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+
+        // Trôi rất lâu: phép nhân elapsed × rate không được tràn số
+        clock.advance(1_000_000_000L);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("user1"));
+        }
+        assertFalse(limiter.allowRequest("user1"), "Chi co 3 token (capacity)");
+
+        // Đồng hồ lùi: không nạp, và không được nạp bù khi đồng hồ quay lại mốc cũ
+        long last = limiter.currentTimeMillis();
+        clock.set(last - 10_000);
+        assertFalse(limiter.allowRequest("user1"));
+        clock.set(last);
+        assertFalse(limiter.allowRequest("user1"));
+    }
+
+    // =====================================================================
+    // TEST 5: Tham số không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Nem IllegalArgumentException khi tham so khong hop le")
+    void constructor_invalidArguments_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new NanoTokenBucketRateLimiter(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new NanoTokenBucketRateLimiter(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new NanoTokenBucketRateLimiter(Long.MAX_VALUE, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new NanoTokenBucketRateLimiter(10, 1_000_000_001L), "Toi da 1 token/ns");
+        assertThrows(IllegalArgumentException.class,
+                () -> new NanoTokenBucketRateLimiter(10, 10, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new NanoTokenBucketRateLimiter(10, 10).tryAcquire("user1", 0));
+    }
+
+    // =====================================================================
+    // TEST 6: Thread-safe
+    // =====================================================================
+
+    @Test
+    @DisplayName("Thread-safe: nhieu thread cung key khong vuot qua capacity")
+    void allowRequest_concurrent_shouldNotExceedCapacity() throws InterruptedException {
+        // Đồng hồ đứng yên → chỉ có đúng capacity token
+        NanoTokenBucketRateLimiter limiter = new NanoTokenBucketRateLimiter(1_000, 1, new ManualClock(0));
+        int threads = 8;
+        int perThread = 500;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        if (limiter.allowRequest("shared")) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        executor.shutdown();
+
+        assertEquals(1_000, allowed.get());
+    }
+
+    // =====================================================================
+    // TEST 7: tryAcquire(key, permits) và refund
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire lo: cap ca lo hoac khong tru gi, refund khong vuot capacity")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        NanoTokenBucketRateLimiter limiter = new NanoTokenBucketRateLimiter(10, 100_000, clock);
+        RateLimitKey key = RateLimitKey.of("svc");
+
+        assertTrue(limiter.tryAcquire(key, 7));
+        assertFalse(limiter.tryAcquire(key, 4), "Chi con 3 token");
+        assertTrue(limiter.tryAcquire(key, 3), "Lo bi tu choi khong tru gi");
+        assertFalse(limiter.tryAcquire(key, Long.MAX_VALUE), "Lo lon hon capacity khong tran so");
+
+        clock.advanceNanos(40_000);
+        assertTrue(limiter.tryAcquire(key, 4), "100_000 token/s × 40 µs = 4 token");
+
+        limiter.refund(key, 100, limiter.currentTimeMillis());
+        assertTrue(limiter.tryAcquire(key, 10));
+        assertFalse(limiter.allowRequest(key), "Refund khong noi rong capacity");
+
+        // API theo millisecond (dùng bởi RateLimitBatch) vẫn quyết định đúng
+        RateLimitKey other = RateLimitKey.of("other");
+        long now = limiter.currentTimeMillis();
+        assertTrue(limiter.tryAcquire(other, 10, now));
+        assertFalse(limiter.tryAcquire(other, 1, now));
+    }
+
+    // =====================================================================
+    // TEST 8: Kết quả chi tiết
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: remaining, retry-after va reset lam tron len")
+    void tryAcquire_decision_shouldReportQuota() {
+        ManualClock clock = new ManualClock(0);
+        NanoTokenBucketRateLimiter limiter = new NanoTokenBucketRateLimiter(100, 200_000, clock);
+        RateLimitKey key = RateLimitKey.of("svc");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        assertTrue(limiter.tryAcquire(key, 100, decision));
+        assertEquals(100, decision.getLimit());
+        assertEquals(0, decision.getRemaining());
+        assertEquals(0, decision.getRetryAfterMillis());
+        assertEquals(1, decision.getResetAfterMillis(), "100 token / 200_000 token/s = 0.5 ms → 1 ms");
+
+        assertFalse(limiter.tryAcquire(key, 1, decision));
+        assertEquals(1, decision.getRetryAfterMillis(), "5 µs, lam tron len 1 ms");
+
+        assertFalse(limiter.tryAcquire(key, 101, decision));
+        assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+    }
+}
@@ -0,0 +1,123 @@
+package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.RateLimiter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * =====================================================================
+ * BENCHMARK: ĐỘ CHÍNH XÁC TỐC ĐỘ VÀ THROUGHPUT CỦA CÁC TOKEN BUCKET
+ * =====================================================================
+ *
+ * Nhiều thread gọi allowRequest liên tục trên CÙNG một key (tranh chấp cao
+ * nhất), với tốc độ nạp cao và xô nhỏ hơn lượng token nạp trong 1 ms - đúng
+ * cấu hình làm lộ lỗi lượng tử hóa millisecond.
+ *
+ * In ra cho mỗi cài đặt:
+ *   - achieved/s: số request được cho phép mỗi giây (trừ burst ban đầu)
+ *   - accuracy:   achieved / refill rate mong muốn
+ *   - calls/s:    tổng số lời gọi allowRequest mỗi giây (throughput)
+ *
+ * Không phải unit test (surefire không chạy): chạy tay bằng
+ *
+ *   mvn -q test-compile
+ *   java -cp target/classes:target/test-classes \
+ *        com.dncuong.ws.rate_limit.algorithm.tokenbucket.TokenBucketPrecisionBenchmark [giây] [thread]
+ *
+ * @author dncuong
+ */
+public final class TokenBucketPrecisionBenchmark {
+
+    private static final long[] REFILL_RATES = {50_000, 200_000, 500_000};
+
+    private static final long BUCKET_CAPACITY = 32;
+
+    private static final long WARMUP_MILLIS = 500;
+
+    private TokenBucketPrecisionBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        System.out.printf("capacity = %d, threads = %d, duration = %d s%n%n", BUCKET_CAPACITY, threads, seconds);
+        System.out.printf("%-20s %12s %14s %10s %14s%n", "limiter", "rate/s", "achieved/s", "accuracy", "calls/s");
+
+        for (long rate : REFILL_RATES) {
+            run("TokenBucket", rate, threads, seconds, TokenBucketRateLimiter::new);
+            run("LockFreeTokenBucket", rate, threads, seconds, LockFreeTokenBucketRateLimiter::new);
+            run("NanoTokenBucket", rate, threads, seconds, NanoTokenBucketRateLimiter::new);
+            System.out.println();
+        }
+    }
+
+    private static void run(String name, long rate, int threads, long seconds,
+                            BiFunction<Long, Long, RateLimiter> factory) throws InterruptedException {
+        // Warm-up trên limiter riêng để JIT biên dịch xong trước khi đo
+        measure(factory.apply(BUCKET_CAPACITY, rate), threads, WARMUP_MILLIS);
+
+        RateLimiter limiter = factory.apply(BUCKET_CAPACITY, rate);
+        long durationMillis = seconds * 1000;
+        long[] result = measure(limiter, threads, durationMillis);
+        double elapsedSeconds = result[2] / 1e9;
+
+        double achieved = (result[0] - BUCKET_CAPACITY) / elapsedSeconds;
+        double calls = result[1] / elapsedSeconds;
+        System.out.printf("%-20s %,12d %,14.0f %9.2f%% %,14.0f%n",
+                name, rate, achieved, achieved * 100 / rate, calls);
+    }
+
+    /**
+     * @return {số request được cho phép, tổng số lời gọi, thời gian đo thực (ns)}
+     */
+    private static long[] measure(RateLimiter limiter, int threads, long durationMillis) throws InterruptedException {
+        RateLimitKey key = RateLimitKey.of(42L);
+        LongAdder allowed = new LongAdder();
+        LongAdder calls = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    done.countDown();
+                    return;
+                }
+                long localAllowed = 0;
+                long localCalls = 0;
+                while (running.get()) {
+                    if (limiter.allowRequest(key)) {
+                        localAllowed++;
+                    }
+                    localCalls++;
+                }
+                allowed.add(localAllowed);
+                calls.add(localCalls);
+                done.countDown();
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(durationMillis);
+        running.set(false);
+        long elapsed = System.nanoTime() - begin;
+        done.await();
+        return new long[]{allowed.sum(), calls.sum(), elapsed};
+    }
+}
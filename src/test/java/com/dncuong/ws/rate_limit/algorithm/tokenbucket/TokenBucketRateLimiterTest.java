@@ -1,8 +1,13 @@
 package com.dncuong.ws.rate_limit.algorithm.tokenbucket;
 
+import com.dncuong.ws.rate_limit.algorithm.RateLimitDecision;
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.state.OffHeapStateTable;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -27,37 +32,14 @@ import static org.junit.jupiter.api.Assertions.*;
  * 9. Thread-safe (concurrent)
  * 10. Refill rate nhỏ (fractional)
  * 11. Burst rồi chờ rồi burst lại
+ * 12. Bảng off-heap: quyết định giống hệt khi lưu trên heap; refund key chưa có không thêm bản ghi
+ * 13. tryAcquire(key, permits): cấp cả lô hoặc không trừ gì
+ * 14. Kết quả chi tiết (limit, remaining, retry-after, reset) tính cùng lúc với quyết định
  *
  * @author dncuong
  */
 class TokenBucketRateLimiterTest {
 
-    // =====================================================================
-    // LỚP HỖ TRỢ TEST: Cho phép kiểm soát thời gian
-    // =====================================================================
-
-    static class TestableTokenBucket extends TokenBucketRateLimiter {
-        private long currentTime;
-
-        TestableTokenBucket(long bucketCapacity, double refillRate, long startTime) {
-            super(bucketCapacity, refillRate);
-            this.currentTime = startTime;
-        }
-
-        @Override
-        protected long getCurrentTimeMillis() {
-            return currentTime;
-        }
-
-        void advanceTime(long millis) {
-            this.currentTime += millis;
-        }
-
-        void setCurrentTime(long time) {
-            this.currentTime = time;
-        }
-    }
-
     // =====================================================================
     // TEST 1: Request trong giới hạn → cho phép
     // =====================================================================
@@ -66,7 +48,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Cho phep tat ca request khi con token")
     void allowRequest_withinLimit_shouldAllowAll() {
         // GIVEN: Xô chứa 5 token, nạp 1 token/giây
-        TestableTokenBucket limiter = new TestableTokenBucket(5, 1.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(5, 1.0, clock);
 
         // WHEN & THEN: 5 request đầu tiên phải đều được cho phép (dùng 5 token)
         assertTrue(limiter.allowRequest("user1"), "Request 1 - con 4 token");
@@ -84,7 +67,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Burst: gui het token cung luc duoc cho phep")
     void allowRequest_burst_shouldAllowUpToCapacity() {
         // GIVEN: Xô chứa 10 token
-        TestableTokenBucket limiter = new TestableTokenBucket(10, 1.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1.0, clock);
 
         // WHEN: Gửi 10 request cùng lúc (burst)
         int allowed = 0;
@@ -109,7 +93,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Tu choi request khi het token")
     void allowRequest_noTokens_shouldReject() {
         // GIVEN: Xô chứa 3 token
-        TestableTokenBucket limiter = new TestableTokenBucket(3, 1.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(3, 1.0, clock);
 
         // Dùng hết 3 token
         limiter.allowRequest("user1");
@@ -129,7 +114,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Lazy refill: token duoc nap lai sau thoi gian cho")
     void allowRequest_afterWaiting_shouldRefillTokens() {
         // GIVEN: Xô chứa 5 token, nạp 2 token/giây
-        TestableTokenBucket limiter = new TestableTokenBucket(5, 2.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(5, 2.0, clock);
 
         // Dùng hết 5 token
         for (int i = 0; i < 5; i++) {
@@ -138,7 +124,7 @@ class TokenBucketRateLimiterTest {
         assertFalse(limiter.allowRequest("user1"), "Het token");
 
         // Đợi 1 giây → nạp 2 token (refillRate = 2/s)
-        limiter.advanceTime(1000);
+        clock.advance(1000);
 
         // Phải có đúng 2 token mới
         assertTrue(limiter.allowRequest("user1"), "Token 1 sau refill");
@@ -154,7 +140,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Partial refill: nap tung phan khi chua du 1 giay")
     void allowRequest_partialRefill_shouldAccumulateTokens() {
         // GIVEN: Xô chứa 5 token, nạp 2 token/giây
-        TestableTokenBucket limiter = new TestableTokenBucket(5, 2.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(5, 2.0, clock);
 
         // Dùng hết 5 token
         for (int i = 0; i < 5; i++) {
@@ -162,16 +149,16 @@ class TokenBucketRateLimiterTest {
         }
 
         // Đợi 500ms → nạp 2 × 0.5 = 1.0 token
-        limiter.advanceTime(500);
+        clock.advance(500);
         assertTrue(limiter.allowRequest("user1"), "1.0 token sau 500ms");
         assertFalse(limiter.allowRequest("user1"), "Het token (0.0 con lai)");
 
         // Đợi thêm 300ms → nạp 2 × 0.3 = 0.6 token (chưa đủ 1)
-        limiter.advanceTime(300);
+        clock.advance(300);
         assertFalse(limiter.allowRequest("user1"), "0.6 token < 1, chua du");
 
         // Đợi thêm 200ms → nạp 2 × 0.2 = 0.4 token → tổng = 0.6 + 0.4 = 1.0
-        limiter.advanceTime(200);
+        clock.advance(200);
         assertTrue(limiter.allowRequest("user1"), "Tich luy du 1.0 token");
     }
 
@@ -183,10 +170,11 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Xo khong tran: token khong vuot qua capacity")
     void allowRequest_overflowProtection_shouldCapAtCapacity() {
         // GIVEN: Xô chứa 3 token, nạp 10 token/giây
-        TestableTokenBucket limiter = new TestableTokenBucket(3, 10.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(3, 10.0, clock);
 
         // Đợi 10 giây → lý thuyết nạp 100 token, nhưng capacity = 3
-        limiter.advanceTime(10_000);
+        clock.advance(10_000);
 
         // Chỉ có 3 token (không phải 100+3)
         assertTrue(limiter.allowRequest("user1"), "Token 1");
@@ -202,7 +190,8 @@ class TokenBucketRateLimiterTest {
     @Test
     @DisplayName("Cac key khac nhau co bucket doc lap")
     void allowRequest_differentKeys_shouldBeIndependent() {
-        TestableTokenBucket limiter = new TestableTokenBucket(2, 1.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(2, 1.0, clock);
 
         // user1 dùng hết token
         assertTrue(limiter.allowRequest("user1"));
@@ -297,7 +286,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Refill rate nho: 0.5 token/giay = 1 token moi 2 giay")
     void allowRequest_fractionalRefillRate_shouldWorkCorrectly() {
         // GIVEN: Xô chứa 3 token, nạp 0.5 token/giây (= 1 token mỗi 2 giây)
-        TestableTokenBucket limiter = new TestableTokenBucket(3, 0.5, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(3, 0.5, clock);
 
         // Dùng hết 3 token
         for (int i = 0; i < 3; i++) {
@@ -306,11 +296,11 @@ class TokenBucketRateLimiterTest {
         assertFalse(limiter.allowRequest("user1"), "Het token");
 
         // Đợi 1 giây → 0.5 token (chưa đủ 1)
-        limiter.advanceTime(1000);
+        clock.advance(1000);
         assertFalse(limiter.allowRequest("user1"), "0.5 token < 1, chua du");
 
         // Đợi thêm 1 giây → tổng 0.5 + 0.5 = 1.0 token
-        limiter.advanceTime(1000);
+        clock.advance(1000);
         assertTrue(limiter.allowRequest("user1"), "1.0 token sau 2 giay");
         assertFalse(limiter.allowRequest("user1"), "Het token lai");
     }
@@ -323,7 +313,8 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Burst roi cho roi burst lai")
     void allowRequest_burstWaitBurst_shouldRefillFully() {
         // GIVEN: Xô chứa 5 token, nạp 2 token/giây
-        TestableTokenBucket limiter = new TestableTokenBucket(5, 2.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(5, 2.0, clock);
 
         // Burst 1: dùng hết 5 token
         for (int i = 0; i < 5; i++) {
@@ -332,7 +323,7 @@ class TokenBucketRateLimiterTest {
         assertFalse(limiter.allowRequest("user1"), "Het token sau burst 1");
 
         // Đợi 3 giây → nạp 2 × 3 = 6 token, nhưng cap ở 5 (capacity)
-        limiter.advanceTime(3000);
+        clock.advance(3000);
 
         // Burst 2: lại có 5 token
         for (int i = 0; i < 5; i++) {
@@ -349,21 +340,22 @@ class TokenBucketRateLimiterTest {
     @DisplayName("Nhieu giai doan: burst, cho, tieu thu dan, cho, burst lai")
     void allowRequest_multiplePhases_shouldWorkCorrectly() {
         // GIVEN: Xô chứa 4 token, nạp 1 token/giây
-        TestableTokenBucket limiter = new TestableTokenBucket(4, 1.0, 0);
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(4, 1.0, clock);
 
         // Phase 1: Dùng 2 token (còn 2)
         assertTrue(limiter.allowRequest("user1"), "Phase 1: dung token 1");
         assertTrue(limiter.allowRequest("user1"), "Phase 1: dung token 2");
 
         // Phase 2: Đợi 1 giây → +1 token → có 3 token
-        limiter.advanceTime(1000);
+        clock.advance(1000);
         assertTrue(limiter.allowRequest("user1"), "Phase 2: token 1 (con 2)");
         assertTrue(limiter.allowRequest("user1"), "Phase 2: token 2 (con 1)");
         assertTrue(limiter.allowRequest("user1"), "Phase 2: token 3 (con 0)");
         assertFalse(limiter.allowRequest("user1"), "Phase 2: het token");
 
         // Phase 3: Đợi 10 giây → nạp 10 token, cap ở 4 → có 4 token
-        limiter.advanceTime(10_000);
+        clock.advance(10_000);
         int allowed = 0;
         for (int i = 0; i < 6; i++) {
             if (limiter.allowRequest("user1")) {
@@ -372,4 +364,133 @@ class TokenBucketRateLimiterTest {
         }
         assertEquals(4, allowed, "Phase 3: chi 4 token (capacity)");
     }
+
+    // =====================================================================
+    // TEST 13: Dọn key nhàn rỗi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key nhan roi bi don dan, key dang bi chan van giu trang thai")
+    void allowRequest_idleKeys_shouldBeSwept() {
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(3, 1.0, clock);
+
+        // 200 key chỉ gửi 1 request rồi biến mất (IP xoay vòng, scanner)
+        for (int i = 0; i < 200; i++) {
+            assertTrue(limiter.allowRequest("idle-" + i));
+        }
+        assertEquals(200, limiter.trackedKeyCount());
+
+        // Thời gian trôi: xô của các key nhàn rỗi đã nạp lại đầy
+        clock.advance(1000);
+
+        // Một key bị chặn liên tục → các request của nó trả dần chi phí quét
+        for (int i = 0; i < 2_000; i++) {
+            limiter.allowRequest("blocked");
+        }
+
+        assertEquals(1, limiter.trackedKeyCount(), "Chi con key dang hoat dong");
+        assertFalse(limiter.allowRequest("blocked"), "Key dang bi chan khong duoc reset");
+    }
+
+    // =====================================================================
+    // TEST 14: Lưu state trong bảng off-heap
+    // =====================================================================
+
+    @Test
+    @DisplayName("Bang off-heap: quyet dinh giong het khi luu tren heap")
+    void allowRequest_offHeapTable_shouldMatchOnHeapDecisions() {
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter onHeap = new TokenBucketRateLimiter(3, 0.5, clock);
+        TokenBucketRateLimiter offHeap = new TokenBucketRateLimiter(3, 0.5, new OffHeapStateTable(1_000), clock);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            if (random.nextInt(10) == 0) {
+                long millis = 1000L * random.nextInt(3);
+                clock.advance(millis);
+            }
+            String key = "key-" + random.nextInt(50);
+            assertEquals(onHeap.allowRequest(key), offHeap.allowRequest(key), "Lech quyet dinh o request " + i);
+        }
+        assertEquals(50, offHeap.trackedKeyCount());
+    }
+
+    @Test
+    @DisplayName("Bang off-heap: refund key chua co khong them ban ghi")
+    void refund_unknownKeyOffHeap_shouldNotInsertRecord() {
+        ManualClock clock = new ManualClock(0);
+        OffHeapStateTable table = new OffHeapStateTable(100);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(3, 1.0, table, clock);
+
+        limiter.refund(RateLimitKey.of("unknown"), 1, clock.currentTimeMillis());
+        assertEquals(0, table.size());
+
+        assertTrue(limiter.tryAcquire(RateLimitKey.of("user"), 3));
+        limiter.refund(RateLimitKey.of("user"), 2, clock.currentTimeMillis());
+        assertEquals(1, table.size());
+        assertTrue(limiter.tryAcquire(RateLimitKey.of("user"), 2), "2 token da duoc tra lai");
+        assertFalse(limiter.allowRequest("user"));
+    }
+
+    // =====================================================================
+    // TEST 15: tryAcquire nhiều permits - cả lô hoặc không gì
+    // =====================================================================
+
+    @Test
+    @DisplayName("tryAcquire cap ca lo hoac tu choi ma khong tru quota")
+    void tryAcquire_batch_shouldBeAllOrNothing() {
+        ManualClock clock = new ManualClock(0);
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(5, 1.0, clock);
+
+        assertTrue(limiter.tryAcquire("user", 3));
+        assertFalse(limiter.tryAcquire("user", 3), "Chi con 2 token → lo 3 bi tu choi");
+        assertTrue(limiter.tryAcquire("user", 2), "Lo bi tu choi khong duoc tru token");
+        assertFalse(limiter.allowRequest("user"));
+
+        // 3 giây → nạp 3 token → đủ cho đúng lô 3
+        clock.advance(3000);
+        assertFalse(limiter.tryAcquire("user", 4));
+        assertTrue(limiter.tryAcquire("user", 3));
+
+        assertFalse(limiter.tryAcquire("other", 6), "Lo lon hon capacity khong bao gio duoc cap");
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", 0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.tryAcquire("user", -1));
+    }
+
+    // =====================================================================
+    // TEST 16: Kết quả chi tiết cho header X-RateLimit-*
+    // =====================================================================
+
+    @Test
+    @DisplayName("Ket qua chi tiet: limit, remaining, retry-after va reset chinh xac")
+    void tryAcquire_decision_shouldReportQuotaAndWaitTimes() {
+        RateLimitKey key = RateLimitKey.of("user");
+        RateLimitDecision decision = new RateLimitDecision();
+
+        ManualClock clock = new ManualClock(0);
+        for (TokenBucketRateLimiter limiter : new TokenBucketRateLimiter[]{
+                new TokenBucketRateLimiter(5, 1.0, clock),
+                new TokenBucketRateLimiter(5, 1.0, new OffHeapStateTable(100), clock)}) {
+            clock.set(0);
+            // Còn 2 token, thiếu 3 token để đầy → 3 giây
+            assertTrue(limiter.tryAcquire(key, 3, decision));
+            assertEquals(5, decision.getLimit());
+            assertEquals(2, decision.getRemaining());
+            assertEquals(0, decision.getRetryAfterMillis());
+            assertEquals(3000, decision.getResetAfterMillis());
+            // Lô 4 thiếu 2 token → 2 giây
+            assertFalse(limiter.tryAcquire(key, 4, decision));
+            assertEquals(2, decision.getRemaining());
+            assertEquals(2000, decision.getRetryAfterMillis());
+            assertEquals(3000, decision.getResetAfterMillis());
+            assertFalse(limiter.tryAcquire(key, 6, decision));
+            assertEquals(2, decision.getRemaining());
+            assertEquals(RateLimitDecision.NEVER, decision.getRetryAfterMillis());
+
+            clock.advance(2000);
+            assertTrue(limiter.tryAcquire(key, 4));
+        }
+    }
 }
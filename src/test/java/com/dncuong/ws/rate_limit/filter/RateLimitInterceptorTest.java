@@ -0,0 +1,221 @@
+package com.dncuong.ws.rate_limit.filter;
+
+import com.dncuong.ws.rate_limit.algorithm.RateLimitKey;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO RATE LIMIT INTERCEPTOR
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Method có @RateLimited: vượt giới hạn → 429, controller không được gọi
+ * 2. Method không có annotation / handler không phải method → đi tiếp, không header
+ * 3. Annotation trên class: mọi method của class dùng chung quota
+ * 4. Mỗi IP một quota riêng
+ * 5. Annotation không hợp lệ → lỗi ngay lúc compile
+ * 6. Key của client tạo một lần cho cả request, các điểm rate limit sau dùng lại
+ *
+ * @author dncuong
+ */
+class RateLimitInterceptorTest {
+
+    static class Endpoints {
+
+        @RateLimited(algorithm = RateLimited.Algorithm.FIXED_WINDOW, limit = 2, periodMillis = 60_000)
+        public void limited() {
+        }
+
+        @RateLimited(limit = 4, periodMillis = 60_000, permits = 2)
+        public void expensive() {
+        }
+
+        public void open() {
+        }
+    }
+
+    @RateLimited(algorithm = RateLimited.Algorithm.SLIDING_WINDOW_COUNTER, limit = 3, periodMillis = 60_000)
+    static class SharedQuotaEndpoints {
+
+        public void first() {
+        }
+
+        public void second() {
+        }
+    }
+
+    static class InvalidEndpoints {
+
+        @RateLimited(limit = 0)
+        public void invalid() {
+        }
+    }
+
+    static class InvalidPermitsEndpoints {
+
+        @RateLimited(limit = 2, permits = 3)
+        public void invalid() {
+        }
+    }
+
+    /** Mọi public method khai báo trong class, như handler mapping của Spring. */
+    private static List<HandlerMethod> handlers(Object bean) {
+        List<HandlerMethod> handlers = new ArrayList<>();
+        for (var method : bean.getClass().getDeclaredMethods()) {
+            handlers.add(new HandlerMethod(bean, method));
+        }
+        return handlers;
+    }
+
+    private static HandlerMethod handler(List<HandlerMethod> handlers, String name) {
+        return handlers.stream().filter(h -> h.getMethod().getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private static MockHttpServletRequest request(String ip) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/test");
+        request.setRemoteAddr(ip);
+        return request;
+    }
+
+    private final RateLimitInterceptor interceptor = new RateLimitInterceptor();
+
+    // =====================================================================
+    // TEST 1: Vượt giới hạn
+    // =====================================================================
+
+    @Test
+    @DisplayName("Method co @RateLimited: vuot gioi han → 429, controller khong duoc goi")
+    void preHandle_overLimit_shouldWrite429() throws Exception {
+        List<HandlerMethod> handlers = handlers(new Endpoints());
+        interceptor.compile(handlers);
+        assertEquals(2, interceptor.policyCount());
+        HandlerMethod limited = handler(handlers, "limited");
+
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertTrue(interceptor.preHandle(request("10.0.0.1"), response, limited));
+            assertEquals("2", response.getHeader("X-RateLimit-Limit"));
+            assertEquals(Integer.toString(1 - i), response.getHeader("X-RateLimit-Remaining"));
+        }
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request("10.0.0.1"), rejected, limited));
+        assertEquals(429, rejected.getStatus());
+        assertNotNull(rejected.getHeader("Retry-After"));
+        assertEquals("0", rejected.getHeader("X-RateLimit-Remaining"));
+        assertEquals("application/json", rejected.getContentType());
+        assertTrue(rejected.getContentAsString().contains("RATE_LIMITED"));
+
+        // permits = 2: hai request dùng hết 4 permit
+        HandlerMethod expensive = handler(handlers, "expensive");
+        assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), expensive));
+        assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), expensive));
+        assertFalse(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), expensive));
+    }
+
+    // =====================================================================
+    // TEST 2: Không có annotation
+    // =====================================================================
+
+    @Test
+    @DisplayName("Method khong co annotation / handler khong phai method → di tiep, khong header")
+    void preHandle_unannotated_shouldPass() throws Exception {
+        List<HandlerMethod> handlers = handlers(new Endpoints());
+        interceptor.compile(handlers);
+
+        for (int i = 0; i < 100; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertTrue(interceptor.preHandle(request("10.0.0.1"), response, handler(handlers, "open")));
+            assertNull(response.getHeader("X-RateLimit-Limit"));
+        }
+        assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), new Object()));
+
+        // Chưa compile: không handler nào bị rate limit
+        RateLimitInterceptor notCompiled = new RateLimitInterceptor();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(notCompiled.preHandle(request("10.0.0.1"), new MockHttpServletResponse(),
+                    handler(handlers, "limited")));
+        }
+    }
+
+    // =====================================================================
+    // TEST 3: Annotation trên class
+    // =====================================================================
+
+    @Test
+    @DisplayName("Annotation tren class: moi method cua class dung chung quota")
+    void preHandle_classAnnotation_shouldShareQuota() throws Exception {
+        List<HandlerMethod> handlers = handlers(new SharedQuotaEndpoints());
+        interceptor.compile(handlers);
+        HandlerMethod first = handler(handlers, "first");
+        HandlerMethod second = handler(handlers, "second");
+
+        assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), first));
+        assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), second));
+        assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), first));
+        assertFalse(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), second));
+    }
+
+    // =====================================================================
+    // TEST 4: Mỗi IP một quota
+    // =====================================================================
+
+    @Test
+    @DisplayName("Moi IP mot quota rieng")
+    void preHandle_differentClients_shouldHaveSeparateQuota() throws Exception {
+        List<HandlerMethod> handlers = handlers(new Endpoints());
+        interceptor.compile(handlers);
+        HandlerMethod limited = handler(handlers, "limited");
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), limited));
+        }
+        assertFalse(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), limited));
+        assertTrue(interceptor.preHandle(request("10.0.0.2"), new MockHttpServletResponse(), limited));
+    }
+
+    // =====================================================================
+    // TEST 5: Annotation không hợp lệ
+    // =====================================================================
+
+    @Test
+    @DisplayName("Annotation khong hop le → IllegalStateException luc compile")
+    void compile_invalidAnnotation_shouldThrow() {
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> interceptor.compile(handlers(new InvalidEndpoints())));
+        assertTrue(e.getMessage().contains("invalid"), e.getMessage());
+        assertThrows(IllegalStateException.class,
+                () -> interceptor.compile(handlers(new InvalidPermitsEndpoints())));
+    }
+
+    // =====================================================================
+    // TEST 6: Key của client dùng lại trong cả request
+    // =====================================================================
+
+    @Test
+    @DisplayName("Key cua client tao mot lan cho ca request, cac diem rate limit sau dung lai")
+    void preHandle_shouldReuseClientKeyOfRequest() throws Exception {
+        List<HandlerMethod> handlers = handlers(new Endpoints());
+        interceptor.compile(handlers);
+        MockHttpServletRequest request = request("10.0.0.1");
+
+        assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), handler(handlers, "limited")));
+        RateLimitKey key = ClientKeys.of(request);
+        assertSame(key, request.getAttribute(ClientKeys.ATTRIBUTE), "Interceptor da gan key vao request");
+        assertEquals(RateLimitKey.of("10.0.0.1"), key);
+
+        // Lượt sau của cùng request (ví dụ lượt ASYNC) không tạo key mới
+        assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), handler(handlers, "limited")));
+        assertSame(key, ClientKeys.of(request));
+        assertNotSame(key, ClientKeys.of(request("10.0.0.1")));
+    }
+}
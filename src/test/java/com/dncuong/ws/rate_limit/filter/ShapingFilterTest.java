@@ -0,0 +1,161 @@
+package com.dncuong.ws.rate_limit.filter;
+
+import com.dncuong.ws.rate_limit.algorithm.clock.ManualClock;
+import com.dncuong.ws.rate_limit.algorithm.leakybucket.LeakyBucketShaper;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * =====================================================================
+ * BỘ TEST CHO SHAPING FILTER
+ * =====================================================================
+ *
+ * Các test case bao phủ:
+ * 1. Hàng đợi trống → request đi tiếp ngay trên thread hiện tại
+ * 2. Phải chờ → startAsync, không gọi chuỗi filter, dispatch sau delay
+ * 3. Lượt ASYNC sau khi chờ đi thẳng qua filter
+ * 4. Hàng đợi đầy → HTTP 429
+ * 5. Không hỗ trợ async / timeout → trả chỗ trong hàng đợi
+ * 6. Lỗi sau khi đã dispatch → giữ chỗ (request đang được xử lý)
+ *
+ * @author dncuong
+ */
+class ShapingFilterTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /** 20 request/s → 50ms mỗi chỗ, chờ tối đa 100ms. Đồng hồ đứng yên. */
+    private final LeakyBucketShaper shaper = new LeakyBucketShaper(20.0, 100, new ManualClock(0));
+
+    private final ShapingFilter filter = new ShapingFilter(shaper, scheduler);
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/leaky-bucket/test");
+        request.setRemoteAddr("10.0.0.1");
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    // =====================================================================
+    // TEST 1-4: Luồng chính
+    // =====================================================================
+
+    @Test
+    @DisplayName("Hang doi trong → di tiep ngay, phai cho → async roi dispatch, day → 429")
+    void doFilter_shouldPassDelayOrReject() throws Exception {
+        // TEST 1: đi tiếp ngay
+        MockHttpServletRequest first = request();
+        MockFilterChain firstChain = new MockFilterChain();
+        filter.doFilter(first, new MockHttpServletResponse(), firstChain);
+        assertNotNull(firstChain.getRequest(), "Chuoi filter duoc goi");
+        assertFalse(first.isAsyncStarted());
+
+        // TEST 2: chờ 50ms mà không giữ thread
+        MockHttpServletRequest second = request();
+        MockFilterChain secondChain = new MockFilterChain();
+        filter.doFilter(second, new MockHttpServletResponse(), secondChain);
+        assertNull(secondChain.getRequest(), "Chua duoc xu ly");
+        assertTrue(second.isAsyncStarted());
+        MockAsyncContext asyncContext = (MockAsyncContext) second.getAsyncContext();
+        assertEquals(50 + ShapingFilter.DISPATCH_GRACE_MILLIS, asyncContext.getTimeout());
+
+        CountDownLatch dispatched = new CountDownLatch(1);
+        asyncContext.addDispatchHandler(dispatched::countDown);
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS), "Scheduler dispatch sau delay");
+
+        // TEST 3: lượt ASYNC đi thẳng, không xếp hàng lần nữa
+        MockHttpServletRequest redispatch = request();
+        redispatch.setDispatcherType(DispatcherType.ASYNC);
+        MockFilterChain asyncChain = new MockFilterChain();
+        filter.doFilter(redispatch, new MockHttpServletResponse(), asyncChain);
+        assertNotNull(asyncChain.getRequest());
+
+        // Chỗ 100ms vẫn còn, chỗ 150ms vượt maxDelay
+        MockHttpServletRequest third = request();
+        filter.doFilter(third, new MockHttpServletResponse(), new MockFilterChain());
+        assertTrue(third.isAsyncStarted());
+
+        // TEST 4: hàng đợi đầy
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        MockFilterChain rejectedChain = new MockFilterChain();
+        filter.doFilter(request(), rejected, rejectedChain);
+        assertEquals(429, rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+        assertNull(rejectedChain.getRequest());
+    }
+
+    // =====================================================================
+    // TEST 5: Trả chỗ trong hàng đợi
+    // =====================================================================
+
+    @Test
+    @DisplayName("Khong ho tro async hoac timeout → tra cho trong hang doi")
+    void doFilter_abortedWait_shouldReleaseSlot() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), new MockFilterChain());
+
+        MockHttpServletRequest sync = request();
+        sync.setAsyncSupported(false);
+        MockHttpServletResponse syncResponse = new MockHttpServletResponse();
+        filter.doFilter(sync, syncResponse, new MockFilterChain());
+        assertEquals(429, syncResponse.getStatus(), "Khong cho duoc ma khong giu thread");
+
+        MockHttpServletRequest waiting = request();
+        MockHttpServletResponse waitingResponse = new MockHttpServletResponse();
+        filter.doFilter(waiting, waitingResponse, new MockFilterChain());
+        MockAsyncContext asyncContext = (MockAsyncContext) waiting.getAsyncContext();
+        assertEquals(50 + ShapingFilter.DISPATCH_GRACE_MILLIS, asyncContext.getTimeout(),
+                "Cho cua request sync da duoc tra lai");
+
+        asyncContext.getListeners().get(0).onTimeout(new AsyncEvent(asyncContext, waiting, waitingResponse));
+        assertEquals(503, waitingResponse.getStatus());
+
+        MockHttpServletRequest next = request();
+        filter.doFilter(next, new MockHttpServletResponse(), new MockFilterChain());
+        assertEquals(50 + ShapingFilter.DISPATCH_GRACE_MILLIS, next.getAsyncContext().getTimeout(),
+                "Cho cua request timeout da duoc tra lai");
+    }
+
+    // =====================================================================
+    // TEST 6: Lỗi sau khi đã dispatch
+    // =====================================================================
+
+    @Test
+    @DisplayName("Loi sau khi da dispatch → giu cho, request ke tiep khong chay chong len")
+    void doFilter_errorAfterDispatch_shouldKeepSlot() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), new MockFilterChain());
+
+        MockHttpServletRequest waiting = request();
+        MockHttpServletResponse waitingResponse = new MockHttpServletResponse();
+        filter.doFilter(waiting, waitingResponse, new MockFilterChain());
+        MockAsyncContext asyncContext = (MockAsyncContext) waiting.getAsyncContext();
+        CountDownLatch dispatched = new CountDownLatch(1);
+        asyncContext.addDispatchHandler(dispatched::countDown);
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+
+        asyncContext.getListeners().get(0).onError(new AsyncEvent(asyncContext, waiting, waitingResponse));
+
+        MockHttpServletRequest next = request();
+        filter.doFilter(next, new MockHttpServletResponse(), new MockFilterChain());
+        assertEquals(100 + ShapingFilter.DISPATCH_GRACE_MILLIS, next.getAsyncContext().getTimeout(),
+                "Cho [50ms, 100ms) cua request dang xu ly khong bi tra");
+    }
+}